@@ -34,6 +34,9 @@ public class FMIndexReadAlignmentAlgorithm implements ReadAlignmentAlgorithm {
 	private boolean runFullAlignment = true;
 	private boolean onlyPositiveStrand = false;
 	
+	//Aligners are reused by the threads aligning reads to keep their buffers
+	private final ThreadLocal<PairwiseAlignerBandedAffineGap> alignersFullRead = ThreadLocal.withInitial(FMIndexReadAlignmentAlgorithm::createAlignerFullRead);
+	
 	// Statistics
 	private int fewMismatchesAlns = 0;
 	private int completeAlns = 0;
@@ -250,7 +253,7 @@ public class FMIndexReadAlignmentAlgorithm implements ReadAlignmentAlgorithm {
 		
 		//System.out.println("Aligning reference from "+first+" to "+last+ " to query. length: "+refSeq.length());
 		completeAlns++;
-		PairwiseAlignerAffineGap alignerFullRead = createAlignerFullRead(Math.max(query.length(), refSeq.length()));
+		PairwiseAlignerBandedAffineGap alignerFullRead = alignersFullRead.get();
 		String [] rawAln = alignerFullRead.calculateAlignment(query, refSeq.toString());
 		int mismatches = countMismatches(rawAln);
 		if(mismatches>0.1*query.length()) return null;
@@ -264,8 +267,8 @@ public class FMIndexReadAlignmentAlgorithm implements ReadAlignmentAlgorithm {
 		
 		return aln;
 	}
-	private PairwiseAlignerAffineGap createAlignerFullRead(int capacity) {
-		PairwiseAlignerAffineGap alignerFullRead = new PairwiseAlignerAffineGap(capacity);
+	private static PairwiseAlignerBandedAffineGap createAlignerFullRead() {
+		PairwiseAlignerBandedAffineGap alignerFullRead = new PairwiseAlignerBandedAffineGap();
 		alignerFullRead.setForceStart2(false);
 		alignerFullRead.setForceEnd2(false);
 		return alignerFullRead;
@@ -19,6 +19,7 @@
  *******************************************************************************/
 package ngsep.alignments;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
@@ -70,6 +71,35 @@ public class LongReadsAlignerFactory {
 	public void setGenome(ReferenceGenome genome) {
 		this.genome = genome;
 	}
+	/**
+	 * Creates the first long reads aligner loading the minimizers table of the genome from the given file.
+	 * The genome must be set before calling this method
+	 * @param indexFile File with the minimizers table built with the command GenomeIndexer
+	 * @throws IOException If the file can not be loaded
+	 */
+	public synchronized void loadGenomeIndex(String indexFile) throws IOException {
+		loadGenomeIndex(indexFile, MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP);
+	}
+	/**
+	 * Creates the first long reads aligner loading the minimizers table of the genome from the given file.
+	 * The genome must be set before calling this method
+	 * @param indexFile File with the minimizers table built with the command GenomeIndexer
+	 * @param alignmentAlgorithm Algorithm of the first aligner. It should be the algorithm requested later
+	 * @throws IOException If the file can not be loaded
+	 */
+	public synchronized void loadGenomeIndex(String indexFile, int alignmentAlgorithm) throws IOException {
+		if(genome==null) throw new IOException("The reference genome must be set before loading its minimizers table");
+		long startTime = System.currentTimeMillis();
+		MinimizersTableReadAlignmentAlgorithm longReadsAligner = new MinimizersTableReadAlignmentAlgorithm(alignmentAlgorithm);
+		longReadsAligner.setLog(log);
+		longReadsAligner.setMaxAlnsPerRead(maxAlnsPerRead);
+		longReadsAligner.loadGenomeIndex(genome, indexFile);
+		long diff = (System.currentTimeMillis()-startTime)/1000;
+		log.info("Created first long reads aligner from file "+indexFile+". Time (s): "+diff);
+		longReadsAligners.clear();
+		longReadsAligners.add(longReadsAligner);
+		lastReadsAlignerIndex = 0;
+	}
 	private List<MinimizersTableReadAlignmentAlgorithm> longReadsAligners = new ArrayList<MinimizersTableReadAlignmentAlgorithm>();
 	private int lastReadsAlignerIndex = 0;
 	public synchronized MinimizersTableReadAlignmentAlgorithm requestLongReadsAligner()  {
@@ -79,7 +109,7 @@ public class LongReadsAlignerFactory {
 		if(longReadsAligners.size()==0) {
 			createFirstLongReadAligner(alignmentAlgorithm);
 			return longReadsAligners.get(0);
-		} else if (alignmentAlgorithm!=MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP || longReadsAligners.size()<2*numThreads) {
+		} else if ((alignmentAlgorithm!=MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP && alignmentAlgorithm!=MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP_FULL_MATRIX) || longReadsAligners.size()<2*numThreads) {
 			MinimizersTableReadAlignmentAlgorithm aligner = new MinimizersTableReadAlignmentAlgorithm(alignmentAlgorithm);
 			MinimizersTableReadAlignmentAlgorithm first = longReadsAligners.get(0);
 			aligner.setLog(log);
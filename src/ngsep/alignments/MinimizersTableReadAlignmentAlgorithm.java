@@ -19,7 +19,16 @@
  *******************************************************************************/
 package ngsep.alignments;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -45,6 +54,9 @@ public class MinimizersTableReadAlignmentAlgorithm implements ReadAlignmentAlgor
 	public static final int ALIGNMENT_ALGORITHM_DYNAMIC_KMERS = 2;
 	public static final int ALIGNMENT_ALGORITHM_SIMPLE_GAP = 3;
 	public static final int ALIGNMENT_ALGORITHM_NAIVE = 4;
+	public static final int ALIGNMENT_ALGORITHM_AFFINE_GAP_FULL_MATRIX = 5;
+	public static final int BINARY_FORMAT_VERSION = 1;
+	private static final byte [] BINARY_FORMAT_MAGIC = "NGSEPMZI".getBytes(StandardCharsets.US_ASCII);
 	private Logger log = Logger.getLogger(MinimizersTableReadAlignmentAlgorithm.class.getName());
 	private HammingSequenceDistanceMeasure hamming = new HammingSequenceDistanceMeasure();
 	private int maxLengthFullPairwiseAlignment = 4000;
@@ -58,14 +70,19 @@ public class MinimizersTableReadAlignmentAlgorithm implements ReadAlignmentAlgor
 	private boolean onlyPositiveStrand = false;
 	
 	public MinimizersTableReadAlignmentAlgorithm() {
-		alignerCenter = new PairwiseAlignerAffineGap(maxLengthFullPairwiseAlignment+1);
-		alignerStart = new PairwiseAlignerAffineGap(maxLengthEndsPairwiseAlignment);
-		alignerEnd = new PairwiseAlignerAffineGap(maxLengthEndsPairwiseAlignment);
-		((PairwiseAlignerAffineGap)alignerStart).setForceStart2(false);
-		((PairwiseAlignerAffineGap)alignerEnd).setForceEnd2(false);
+		this(ALIGNMENT_ALGORITHM_AFFINE_GAP);
 	}
 	public MinimizersTableReadAlignmentAlgorithm(int alignmentAlgorithm) {
 		if(alignmentAlgorithm == ALIGNMENT_ALGORITHM_AFFINE_GAP) {
+			alignerCenter = new PairwiseAlignerBandedAffineGap();
+			PairwiseAlignerBandedAffineGap bandedStart = new PairwiseAlignerBandedAffineGap();
+			bandedStart.setForceStart2(false);
+			alignerStart = bandedStart;
+			PairwiseAlignerBandedAffineGap bandedEnd = new PairwiseAlignerBandedAffineGap();
+			bandedEnd.setForceEnd2(false);
+			alignerEnd = bandedEnd;
+		}
+		if(alignmentAlgorithm == ALIGNMENT_ALGORITHM_AFFINE_GAP_FULL_MATRIX) {
 			alignerCenter = new PairwiseAlignerAffineGap(maxLengthFullPairwiseAlignment+1);
 			alignerStart = new PairwiseAlignerAffineGap(maxLengthEndsPairwiseAlignment);
 			alignerEnd = new PairwiseAlignerAffineGap(maxLengthEndsPairwiseAlignment);
@@ -131,11 +148,60 @@ public class MinimizersTableReadAlignmentAlgorithm implements ReadAlignmentAlgor
 			poolMinimizers.queueTask(()->minimizersTable.addSequence(seqId, genome.getSequenceCharacters(seqId)));
 		}
 		poolMinimizers.terminatePool();
+		minimizersTable.freeze();
 		//minimizersTable.calculateDistributionHits().printDistribution(System.err);
 		log.info("Calculated minimizers. Total: "+minimizersTable.size());
 	}
 	
 	
+	/**
+	 * Saves the minimizers table of the loaded genome in binary format.
+	 * The file includes a checksum of the genome to validate that the same genome is used when the table is loaded
+	 * @param filename Output file
+	 * @throws IOException If the file can not be written
+	 */
+	public void saveGenomeIndex(String filename) throws IOException {
+		if(genome==null || minimizersTable==null) throw new IOException("A genome must be loaded before saving its minimizers table");
+		long checksum = genome.calculateChecksum();
+		try(FileOutputStream fos = new FileOutputStream(filename);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1048576))) {
+			out.write(BINARY_FORMAT_MAGIC);
+			out.writeInt(BINARY_FORMAT_VERSION);
+			out.writeLong(checksum);
+			minimizersTable.save(out);
+		}
+	}
+	/**
+	 * Loads the minimizers table of the given genome from a file created with saveGenomeIndex.
+	 * Entries of the table are mapped to memory in read only mode
+	 * @param genome Indexed genome
+	 * @param indexFile File with the minimizers table
+	 * @throws IOException If the file can not be read or if it was built from a different genome
+	 */
+	public void loadGenomeIndex(ReferenceGenome genome, String indexFile) throws IOException {
+		log.info("Loading minimizers table for genome with "+genome.getNumSequences()+" sequences from file: "+indexFile);
+		long checksum = genome.calculateChecksum();
+		try (FileInputStream fis = new FileInputStream(indexFile);
+			 FileChannel channel = fis.getChannel()) {
+			ByteBuffer header = ByteBuffer.allocate(BINARY_FORMAT_MAGIC.length+12);
+			while(header.hasRemaining()) {
+				if(channel.read(header)<0) throw new IOException("Unexpected end of file reading header of minimizers table file "+indexFile);
+			}
+			header.flip();
+			byte [] magic = new byte [BINARY_FORMAT_MAGIC.length];
+			header.get(magic);
+			if(!Arrays.equals(magic, BINARY_FORMAT_MAGIC)) throw new IOException("File "+indexFile+" does not contain a minimizers table. Build the table with the command GenomeIndexer");
+			int version = header.getInt();
+			if(version!=BINARY_FORMAT_VERSION) throw new IOException("Unsupported version of the minimizers table format: "+version+". Current version: "+BINARY_FORMAT_VERSION);
+			if(header.getLong()!=checksum) throw new IOException("The minimizers table in file "+indexFile+" was built from a different genome");
+			MinimizersTable table = MinimizersTable.load(channel);
+			table.setLog(log);
+			this.genome = genome;
+			this.minimizersTable = table;
+		}
+		log.info("Loaded minimizers table. K-mer length: "+minimizersTable.getKmerLength()+" window length: "+minimizersTable.getWindowLength()+" minimizers: "+minimizersTable.size());
+	}
+	
 	public MinimizersTable getMinimizersTable() {
 		return minimizersTable;
 	}
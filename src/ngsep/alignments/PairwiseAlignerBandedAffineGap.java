@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * NGSEP - Next Generation Sequencing Experience Platform
+ * Copyright 2016 Jorge Duitama
+ *
+ * This file is part of NGSEP.
+ *
+ *     NGSEP is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     NGSEP is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with NGSEP.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package ngsep.alignments;
+
+import ngsep.sequences.LimitedSequence;
+
+/**
+ * Performs pairwise alignment using the affine gap method restricted to a band of diagonals.
+ * Scoring and traceback rules are the same of PairwiseAlignerAffineGap but memory and time are proportional
+ * to the length of the first sequence times the width of the band. The band starts covering the diagonals
+ * of gapless alignments consistent with the start and end constraints plus a margin. The margin is increased
+ * every time that the best alignment within the band touches one of its inner borders or when its score is
+ * lower than an upper bound for the score of any alignment leaving the band. Any alignment leaving the band
+ * has more gaps than the margin, which limits the number of aligned pairs and adds a minimum gap penalty.
+ * Hence, the score of the alignment is always the same score calculated by the full matrix aligner
+ * @author Jorge Duitama
+ */
+public class PairwiseAlignerBandedAffineGap implements PairwiseAligner {
+	
+	public static final int DEF_MIN_BAND_MARGIN = 32;
+	//Low enough to be treated as minus infinity and high enough to avoid overflows when penalties are subtracted
+	private static final int MIN_SCORE = Integer.MIN_VALUE/4;
+	//Largest array size supported by most virtual machines
+	private static final int MAX_MATRIX_SIZE = Integer.MAX_VALUE-8;
+	
+	private int match=1;
+	private int openGap=3;
+	private int extGap=1;
+	private int mismatch=1;
+	
+	private boolean forceStart1 = true;
+	private boolean forceStart2 = true;
+	private boolean forceEnd1 = true;
+	private boolean forceEnd2 = true;
+	
+	private int minBandMargin = DEF_MIN_BAND_MARGIN;
+	
+	//Scores are stored by row. Each row only stores the diagonals between firstDiagonal and lastDiagonal
+	private int[] insertionScores = new int[0];
+	private int[] deletionScores = new int[0];
+	private int[] matchScores = new int[0];
+	private int firstDiagonal;
+	private int lastDiagonal;
+	private int bandWidth;
+	private int n1;
+	private int n2;
+	//Score of the last alignment built by the traceback
+	private int alignmentScore;
+	
+	public int getMatch() {
+		return match;
+	}
+	public void setMatch(int match) {
+		this.match = match;
+	}
+
+	public int getOpenGap() {
+		return openGap;
+	}
+	public void setOpenGap(int openGap) {
+		this.openGap = openGap;
+	}
+
+	public int getExtGap() {
+		return extGap;
+	}
+	public void setExtGap(int extGap) {
+		this.extGap = extGap;
+	}
+
+	public int getMismatch() {
+		return mismatch;
+	}
+	public void setMismatch(int mismatch) {
+		this.mismatch = mismatch;
+	}
+
+	public boolean isForceStart1() {
+		return forceStart1;
+	}
+	public void setForceStart1(boolean forceStart1) {
+		this.forceStart1 = forceStart1;
+	}
+
+	public boolean isForceStart2() {
+		return forceStart2;
+	}
+	public void setForceStart2(boolean forceStart2) {
+		this.forceStart2 = forceStart2;
+	}
+
+	public boolean isForceEnd1() {
+		return forceEnd1;
+	}
+	public void setForceEnd1(boolean forceEnd1) {
+		this.forceEnd1 = forceEnd1;
+	}
+
+	public boolean isForceEnd2() {
+		return forceEnd2;
+	}
+	public void setForceEnd2(boolean forceEnd2) {
+		this.forceEnd2 = forceEnd2;
+	}
+	
+	/**
+	 * @return int Number of diagonals added at each side of the initial band
+	 */
+	public int getMinBandMargin() {
+		return minBandMargin;
+	}
+	/**
+	 * @param minBandMargin Number of diagonals added at each side of the initial band
+	 */
+	public void setMinBandMargin(int minBandMargin) {
+		if(minBandMargin<1) throw new IllegalArgumentException("The band margin must be positive");
+		this.minBandMargin = minBandMargin;
+	}
+	
+	@Override
+	public String[] calculateAlignment(CharSequence s1, CharSequence s2) {
+		n1 = s1.length();
+		n2 = s2.length();
+		int margin = minBandMargin;
+		while (true) {
+			firstDiagonal = Math.max(-n1, Math.min(0, n2-n1)-margin);
+			lastDiagonal = Math.min(n2, Math.max(0, n2-n1)+margin);
+			//Free start in s2 and free end in s1 allow gapless alignments on any upper diagonal
+			if(!forceStart2 && !forceEnd1) lastDiagonal = n2;
+			//Free start in s1 and free end in s2 allow gapless alignments on any lower diagonal
+			if(!forceStart1 && !forceEnd2) firstDiagonal = -n1;
+			initMatrices();
+			calculateMatrices(s1, s2);
+			String [] answer = getAlignedStrings(s1, s2);
+			if(answer==null) {
+				margin*=2;
+				continue;
+			}
+			long maxScoreOutside = getMaxScoreOutsideBand();
+			if(alignmentScore>=maxScoreOutside) return answer;
+			//Better alignments may leave the band. Skip margins that can not achieve the current score
+			int maxMargin = Math.max(n1, n2);
+			margin*=2;
+			while(margin<maxMargin && alignmentScore<getMaxScoreOutsideBand(margin)) margin*=2;
+		}
+	}
+	
+	/**
+	 * Calculates an upper bound for the score of alignments visiting cells outside the current band.
+	 * Such alignments should cross one of the inner borders of the band
+	 * @return long Maximum score of an alignment leaving the band. Long.MIN_VALUE if the band covers the whole matrix
+	 */
+	private long getMaxScoreOutsideBand() {
+		long answer = Long.MIN_VALUE;
+		if(lastDiagonal<n2) answer = Math.max(answer, getMaxScoreOutsideBand(lastDiagonal-Math.max(0, n2-n1)));
+		if(firstDiagonal>-n1) answer = Math.max(answer, getMaxScoreOutsideBand(Math.min(0, n2-n1)-firstDiagonal));
+		return answer;
+	}
+	/**
+	 * Calculates an upper bound for the score of alignments visiting diagonals beyond the given margin.
+	 * Starting and ending diagonals allowed by the constraints are at most at zero or n2-n1 diagonals
+	 * from the margin. Hence, these alignments have more than margin gaps within the same sequence
+	 * and at most min(n1,n2)-margin-1 aligned pairs
+	 * @param margin Number of diagonals between the band border and the diagonals of gapless alignments
+	 * @return long Maximum score of an alignment leaving the band
+	 */
+	private long getMaxScoreOutsideBand(int margin) {
+		long gaps = margin+1;
+		long minGapPenalty = Math.min(openGap+extGap*(gaps-1), openGap*gaps);
+		long maxPairs = Math.max(0, Math.min(n1, n2)-gaps);
+		return match*maxPairs - minGapPenalty;
+	}
+	
+	private void initMatrices() {
+		bandWidth = lastDiagonal-firstDiagonal+1;
+		long longSize = (long)(n1+1)*bandWidth;
+		//The full matrix aligner would need even larger matrices
+		if(longSize>MAX_MATRIX_SIZE) throw new IllegalArgumentException("Band of "+bandWidth+" diagonals is too large to align sequences of lengths "+n1+" and "+n2);
+		int size = (int)longSize;
+		if(matchScores.length<size) {
+			insertionScores = new int[size];
+			deletionScores = new int[size];
+			matchScores = new int[size];
+		}
+		int lowScore1 = (int)Math.max(MIN_SCORE, (long)n1 * -openGap * 1000);
+		int lowScore2 = (int)Math.max(MIN_SCORE, (long)n2 * -openGap * 1000);
+		int idx = getIndex(0, 0);
+		matchScores[idx] = 0;
+		insertionScores[idx] = 0;
+		deletionScores[idx] = 0;
+		for (int i = 1; i <= n1 && isInBand(i, 0); i++) {
+			idx = getIndex(i, 0);
+			if (forceStart1) insertionScores[idx] = - openGap - extGap * (i - 1);
+			else insertionScores[idx] = 0;
+			deletionScores[idx] = lowScore1;
+			matchScores[idx] = lowScore1;
+		}
+		for (int j = 1; j <= n2 && isInBand(0, j); j++) {
+			idx = getIndex(0, j);
+			if (forceStart2) deletionScores[idx] = - openGap - extGap * (j - 1);
+			else deletionScores[idx] = 0;
+			insertionScores[idx] = lowScore2;
+			matchScores[idx] = lowScore2;
+		}
+	}
+	
+	private boolean isInBand(int i, int j) {
+		int d = j-i;
+		return d>=firstDiagonal && d<=lastDiagonal;
+	}
+	private int getIndex(int i, int j) {
+		return i*bandWidth + (j-i-firstDiagonal);
+	}
+	private int getScore(int [] scores, int i, int j) {
+		if(i<0 || j<0 || i>n1 || j>n2 || !isInBand(i, j)) return MIN_SCORE;
+		return scores[getIndex(i, j)];
+	}
+	
+	private void calculateMatrices(CharSequence s1, CharSequence s2) {
+		for (int i = 1; i <= n1; i++) {
+			int firstJ = Math.max(1, i+firstDiagonal);
+			int lastJ = Math.min(n2, i+lastDiagonal);
+			char c1 = s1.charAt(i - 1);
+			for (int j = firstJ; j <= lastJ; j++) {
+				int matchScore = getMatchScore(c1, s2.charAt(j - 1));
+				int idx = getIndex(i, j);
+				//Diagonal predecessor is always within the band
+				int idxDiag = idx - bandWidth;
+				matchScores[idx] = Math.max(matchScores[idxDiag] + matchScore, Math.max(insertionScores[idxDiag] + matchScore, deletionScores[idxDiag] + matchScore));
+				//Cell above belongs to the next diagonal
+				if(j-i<lastDiagonal) {
+					int idxUp = idxDiag + 1;
+					insertionScores[idx] = Math.max(matchScores[idxUp] - openGap, Math.max(insertionScores[idxUp] - extGap, deletionScores[idxUp] - openGap));
+				} else {
+					insertionScores[idx] = MIN_SCORE;
+				}
+				//Cell to the left belongs to the previous diagonal
+				if(j-i>firstDiagonal) {
+					int idxLeft = idx - 1;
+					deletionScores[idx] = Math.max(matchScores[idxLeft] - openGap, Math.max(insertionScores[idxLeft] - openGap, deletionScores[idxLeft] - extGap));
+				} else {
+					deletionScores[idx] = MIN_SCORE;
+				}
+			}
+		}
+	}
+
+	private int getMatchScore(char a, char b) {
+		if (a == b) return match;
+		else return -mismatch;
+	}
+	
+	/**
+	 * Tells if the given cell is at one of the borders of the band that do not coincide with the borders of the matrix
+	 */
+	private boolean isAtInnerBorder(int i, int j) {
+		int d = j-i;
+		return (d==firstDiagonal && firstDiagonal>-n1) || (d==lastDiagonal && lastDiagonal<n2); 
+	}
+	
+	/**
+	 * Builds the aligned strings following the same traceback rules of PairwiseAlignerAffineGap
+	 * @return String [] Aligned sequences or null if the alignment touches an inner border of the band
+	 */
+	private String[] getAlignedStrings(CharSequence s1, CharSequence s2) {
+		StringBuilder sb1 = new StringBuilder();
+		StringBuilder sb2 = new StringBuilder();
+		int i = n1;
+		int j = n2;
+		int k = 0;
+		int val = getScore(matchScores, i, j);
+		if(forceEnd1 && forceEnd2) {
+			if (val < getScore(insertionScores, i, j)) {
+				k = 1;
+				val = getScore(insertionScores, i, j);
+			}
+			if (val < getScore(deletionScores, i, j)) {
+				k = 2;
+				val = getScore(deletionScores, i, j);
+			}
+		}
+		if (!forceEnd1) {
+			// Find better score over the last column
+			for (int h=i;h>=0;h--) {
+				int score = getScore(matchScores, h, n2);
+				if (score>val) {
+					i=h;
+					k=0;
+					val = score; 
+				}
+			}
+		}
+		if (!forceEnd2) {
+			// Find better score over the last row
+			for (int h=j;h>=0;h--) {
+				int score = getScore(matchScores, n1, h);
+				if (score>val) {
+					i=n1;
+					j=h;
+					k=0;
+					val = score; 
+				}
+			}
+		}
+		alignmentScore = val;
+		for (int h = n1;h>i;h--) {
+			sb1.append(s1.charAt(h - 1));
+			sb2.append(LimitedSequence.GAP_CHARACTER);
+		}
+		for (int h = n2;h>j;h--) {
+			sb1.append(LimitedSequence.GAP_CHARACTER);
+			sb2.append(s2.charAt(h - 1));
+		}
+		
+		// Traceback cycle
+		while(i>0 && j>0) {
+			if(isAtInnerBorder(i, j)) return null;
+			int idx = getIndex(i, j);
+			if (k==0) {
+				//Match matrix
+				int matchScore = getMatchScore(s1.charAt(i - 1), s2.charAt(j - 1));
+				sb1.append(s1.charAt(i - 1));
+				sb2.append(s2.charAt(j - 1));
+				int score = matchScores[idx];
+				if(score == getScore(matchScores, i-1, j-1) + matchScore) k = 0;
+				else if(score == getScore(insertionScores, i-1, j-1) + matchScore) k = 1;
+				else if(score == getScore(deletionScores, i-1, j-1) + matchScore) k = 2;
+				else throw new RuntimeException("Unexpected score error at "+i+" "+j);
+				i--;
+				j--;
+			} else if (k==1) {
+				sb1.append(s1.charAt(i - 1));
+				sb2.append(LimitedSequence.GAP_CHARACTER);
+				int score = insertionScores[idx];
+				if(score == getScore(matchScores, i-1, j) - openGap) k = 0;
+				else if(score == getScore(insertionScores, i-1, j) - extGap) k = 1;
+				else if(score == getScore(deletionScores, i-1, j) - openGap) k = 2;
+				else throw new RuntimeException("Unexpected score error at "+i+" "+j);
+				i--;
+			} else {
+				sb1.append(LimitedSequence.GAP_CHARACTER);
+				sb2.append(s2.charAt(j - 1));
+				int score = deletionScores[idx];
+				if(score == getScore(matchScores, i, j-1) - openGap) k = 0;
+				else if(score == getScore(insertionScores, i, j-1) - openGap) k = 1;
+				else if(score == getScore(deletionScores, i, j-1) - extGap) k = 2;
+				else throw new RuntimeException("Unexpected score error at "+i+" "+j);
+				j--;
+			}
+		}
+		while (i>0) {
+			sb1.append(s1.charAt(i - 1));
+			sb2.append(LimitedSequence.GAP_CHARACTER);
+			i--;
+		}
+		while (j>0) {
+			sb1.append(LimitedSequence.GAP_CHARACTER);
+			sb2.append(s2.charAt(j - 1));
+			j--;
+		}
+		String[] seqs = new String[2]; 
+		seqs[0] = sb1.reverse().toString();
+		seqs[1] = sb2.reverse().toString();
+		return seqs;
+	}
+}
@@ -31,11 +31,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
 
+import htsjdk.samtools.SAMRecord;
 import ngsep.alignments.io.ReadAlignmentFileWriter;
 import ngsep.genome.ReferenceGenome;
 import ngsep.genome.ReferenceGenomeFMIndex;
 import ngsep.main.CommandsDescriptor;
 import ngsep.main.OptionValuesDecoder;
+import ngsep.main.OrderedBatchWriter;
 import ngsep.main.ProgressNotifier;
 import ngsep.main.ThreadPoolManager;
 import ngsep.main.io.ParseUtils;
@@ -70,6 +72,14 @@ public class ReadsAligner {
 
 	public static final int MAX_SPACE_BETWEEN_KMERS = 50;
 	
+	// Number of reads or read pairs aligned by each task
+	private static final int SHORT_READS_BATCH_SIZE = 1000;
+	private static final int LONG_READS_BATCH_SIZE = 10;
+	// Maximum number of batches waiting to be aligned
+	private static final int MAX_QUEUED_BATCHES = 10;
+	// Algorithm used to align long reads to the genome
+	private static final int LONG_READS_ALIGNMENT_ALGORITHM = MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_DYNAMIC_KMERS;
+	
 	// Logging and progress
 	private Logger log = Logger.getLogger(ReadsAligner.class.getName());
 	private ProgressNotifier progressNotifier = null;
@@ -79,6 +89,7 @@ public class ReadsAligner {
 	private String inputFile2 = null;
 	private String outputFile = null;
 	private String fmIndexFile = null;
+	private String minimizersIndexFile = null;
 	private String knownSTRsFile = null;
 	private String sampleId = DEF_SAMPLE_ID;
 	private ReadAlignment.Platform platform = DEF_PLATFORM;
@@ -160,6 +171,13 @@ public class ReadsAligner {
 		this.fmIndexFile = fmIndexFile;
 	}
 
+	public String getMinimizersIndexFile() {
+		return minimizersIndexFile;
+	}
+	public void setMinimizersIndexFile(String minimizersIndexFile) {
+		this.minimizersIndexFile = minimizersIndexFile;
+	}
+
 	public String getOutputFile() {
 		return outputFile;
 	}
@@ -276,7 +294,9 @@ public class ReadsAligner {
 		QualifiedSequenceList sequences = genome.getSequencesMetadata();
 		if (platform.isLongReads()) {
 			initializeLongReadsFactory();
+			if(minimizersIndexFile!=null) longReadsAlignerFactory.loadGenomeIndex(minimizersIndexFile, LONG_READS_ALIGNMENT_ALGORITHM);
 		} else {
+			if(minimizersIndexFile!=null) log.warning("Minimizers table "+minimizersIndexFile+" is only used to align long reads. It will be ignored for platform "+platform);
 			if (fMIndex!=null) {
 				log.info("Aligning reads using built index with "+fMIndex.getSequencesMetadata().size()+" sequences");
 			} else if (fmIndexFile!=null) {
@@ -290,7 +310,7 @@ public class ReadsAligner {
 		}
 		
 		boolean longReads = platform.isLongReads();
-		pool = new ThreadPoolManager(numThreads, longReads?100:10000);
+		pool = new ThreadPoolManager(numThreads, MAX_QUEUED_BATCHES);
 		boolean paired = false;
 		PrintStream out = System.out;
 		if(outputFile!=null) out = new PrintStream(outputFile); 
@@ -311,6 +331,7 @@ public class ReadsAligner {
 				alignReads(System.in, writer);
 			}
 			pool.terminatePool();
+			log.info("Completed alignment tasks: "+pool.getCompletedTasks()+" Average time per task (ms): "+pool.getAverageTaskTime()+" Maximum time (ms): "+pool.getMaxTaskTime()+". Time waiting to queue reads (ms): "+pool.getTotalWaitTime());
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
@@ -347,6 +368,7 @@ public class ReadsAligner {
 		out.println("Output file:"+ outputFile);
 		if (genome!=null) out.println("Reference genome loaded from file: "+genome.getFilename());
 		if (fmIndexFile!=null) out.println("FM index file "+fmIndexFile);
+		if (minimizersIndexFile!=null) out.println("Minimizers table file "+minimizersIndexFile);
 		out.println("Sample id: "+ sampleId);
 		out.println("Platform: "+ platform);
 		out.println("K-mer length: "+ kmerLength);
@@ -376,23 +398,12 @@ public class ReadsAligner {
 		if(inputFormat == INPUT_FORMAT_FASTQ) {
 			try (FastqFileReader reader = new FastqFileReader(readsFile)) {
 				reader.setSequenceType(DNAMaskedSequence.class);
-				Iterator<RawRead> it = reader.iterator();
-				for(int i=1;it.hasNext();i++) {
-					RawRead read = it.next();
-					final int readNumber = i;
-					pool.queueTask( () -> processSingleRead(readNumber, read, writer));
-				}
+				alignReads(reader.iterator(), writer);
 			}
 		} else if(inputFormat== INPUT_FORMAT_FASTA) {
 			try (FastaFileReader reader = new FastaFileReader(readsFile)) {
 				reader.setSequenceType(DNAMaskedSequence.class);
-				Iterator<QualifiedSequence> it = reader.iterator();
-				for(int i=1;it.hasNext();i++) {
-					QualifiedSequence seq = it.next();
-					RawRead read = new RawRead(seq.getName(), seq.getCharacters(),null);
-					final int readNumber = i;
-					pool.queueTask( () -> processSingleRead(readNumber, read, writer));
-				}
+				alignReads(new RawReadsIterator(reader.iterator()), writer);
 			}
 		}
 	}
@@ -400,24 +411,39 @@ public class ReadsAligner {
 		if(inputFormat == INPUT_FORMAT_FASTQ) {
 			try (FastqFileReader reader = new FastqFileReader(in)) {
 				reader.setSequenceType(DNAMaskedSequence.class);
-				Iterator<RawRead> it = reader.iterator();
-				for(int i=1;it.hasNext();i++) {
-					RawRead read = it.next();
-					final int readNumber = i;
-					pool.queueTask( () -> processSingleRead(readNumber, read, writer));
-				}
+				alignReads(reader.iterator(), writer);
 			}
 		}  else if(inputFormat== INPUT_FORMAT_FASTA) {
 			try (FastaFileReader reader = new FastaFileReader(in)) {
 				reader.setSequenceType(DNAMaskedSequence.class);
-				Iterator<QualifiedSequence> it = reader.iterator();
-				for(int i=1;it.hasNext();i++) {
-					QualifiedSequence seq = it.next();
-					RawRead read = new RawRead(seq.getName(), seq.getCharacters(),null);
-					final int readNumber = i;
-					pool.queueTask( () -> processSingleRead(readNumber, read, writer));
+				alignReads(new RawReadsIterator(reader.iterator()), writer);
+			}
+		}
+	}
+	/**
+	 * Aligns the reads of the given iterator in batches. Alignments are written in the order of the reads
+	 * @param it Iterator over the reads to align
+	 * @param writer to save the alignments
+	 * @throws InterruptedException If the process is cancelled
+	 */
+	private void alignReads(Iterator<RawRead> it, ReadAlignmentFileWriter writer) throws InterruptedException {
+		int batchSize = platform.isLongReads()?LONG_READS_BATCH_SIZE:SHORT_READS_BATCH_SIZE;
+		int batchNumber = 0;
+		try (OrderedBatchWriter<List<SAMRecord>> batchWriter = createBatchWriter(writer)) {
+			List<RawRead> batch = new ArrayList<>(batchSize);
+			for(int i=1;it.hasNext();i++) {
+				batch.add(it.next());
+				if(batch.size()==batchSize || !it.hasNext()) {
+					batchWriter.checkError();
+					final int number = batchNumber;
+					final int firstReadNumber = i-batch.size()+1;
+					final List<RawRead> reads = batch;
+					pool.queueTask( () -> processSingleReadsBatch(number, firstReadNumber, reads, writer, batchWriter));
+					batchNumber++;
+					batch = new ArrayList<>(batchSize);
 				}
 			}
+			batchWriter.finish(batchNumber);
 		}
 	}
 	
@@ -432,22 +458,74 @@ public class ReadsAligner {
 	 * @throws InterruptedException 
 	 */
 	public void alignReads( String readsFile1, String readsFile2, ReadAlignmentFileWriter writer) throws IOException, InterruptedException {
+		int batchNumber = 0;
 		try (FastqFileReader reader1 = new FastqFileReader(readsFile1);
-			 FastqFileReader reader2 = new FastqFileReader(readsFile2)) {
+			 FastqFileReader reader2 = new FastqFileReader(readsFile2);
+			 OrderedBatchWriter<List<SAMRecord>> batchWriter = createBatchWriter(writer)) {
 			reader1.setSequenceType(DNAMaskedSequence.class);
 			reader2.setSequenceType(DNAMaskedSequence.class);
 			Iterator<RawRead> it1 = reader1.iterator();
 			Iterator<RawRead> it2 = reader2.iterator();
+			List<RawRead> batch1 = new ArrayList<>(SHORT_READS_BATCH_SIZE);
+			List<RawRead> batch2 = new ArrayList<>(SHORT_READS_BATCH_SIZE);
 			for(int i=1;it1.hasNext() && it2.hasNext();i++) {
-				RawRead read1 = it1.next();
-				RawRead read2 = it2.next();
-				final int readNumber = i;
-				pool.queueTask(()->processPairedEndRead(readNumber, read1, read2, writer));
+				batch1.add(it1.next());
+				batch2.add(it2.next());
+				if(batch1.size()==SHORT_READS_BATCH_SIZE || !it1.hasNext() || !it2.hasNext()) {
+					batchWriter.checkError();
+					final int number = batchNumber;
+					final int firstReadNumber = i-batch1.size()+1;
+					final List<RawRead> reads1 = batch1;
+					final List<RawRead> reads2 = batch2;
+					pool.queueTask(()->processPairedEndReadsBatch(number, firstReadNumber, reads1, reads2, writer, batchWriter));
+					batchNumber++;
+					batch1 = new ArrayList<>(SHORT_READS_BATCH_SIZE);
+					batch2 = new ArrayList<>(SHORT_READS_BATCH_SIZE);
+				}
 			}
+			batchWriter.finish(batchNumber);
 		}
 	}
 	
-	private void processSingleRead(int readNumber, RawRead read, ReadAlignmentFileWriter writer) {
+	private OrderedBatchWriter<List<SAMRecord>> createBatchWriter(ReadAlignmentFileWriter writer) {
+		return new OrderedBatchWriter<>("ReadAlignmentBatchWriter", (records) -> {
+			for(SAMRecord record:records) writer.write(record);
+		}, MAX_QUEUED_BATCHES+numThreads);
+	}
+	
+	private void processSingleReadsBatch(int batchNumber, int firstReadNumber, List<RawRead> reads, ReadAlignmentFileWriter writer, OrderedBatchWriter<List<SAMRecord>> batchWriter) {
+		try {
+			List<SAMRecord> records = new ArrayList<>();
+			for(int i=0;i<reads.size();i++) {
+				List<ReadAlignment> alns = processSingleRead(firstReadNumber+i, reads.get(i));
+				for(ReadAlignment aln:alns) records.add(writer.createRecord(aln));
+			}
+			batchWriter.addBatch(batchNumber, records);
+		} catch (InterruptedException e) {
+			batchWriter.setError(e);
+		} catch (RuntimeException | Error e) {
+			batchWriter.setError(e);
+			throw e;
+		}
+	}
+	
+	private void processPairedEndReadsBatch(int batchNumber, int firstReadNumber, List<RawRead> reads1, List<RawRead> reads2, ReadAlignmentFileWriter writer, OrderedBatchWriter<List<SAMRecord>> batchWriter) {
+		try {
+			List<SAMRecord> records = new ArrayList<>();
+			for(int i=0;i<reads1.size();i++) {
+				List<ReadAlignment> alns = processPairedEndRead(firstReadNumber+i, reads1.get(i), reads2.get(i));
+				for(ReadAlignment aln:alns) records.add(writer.createRecord(aln));
+			}
+			batchWriter.addBatch(batchNumber, records);
+		} catch (InterruptedException e) {
+			batchWriter.setError(e);
+		} catch (RuntimeException | Error e) {
+			batchWriter.setError(e);
+			throw e;
+		}
+	}
+	
+	private List<ReadAlignment> processSingleRead(int readNumber, RawRead read) {
 		List<ReadAlignment> alns = alignRead(read, true);
 		//System.out.println("Alignments for: "+read.getName()+" "+alns.size());
 		int numAlns = alns.size();
@@ -456,16 +534,16 @@ public class ReadsAligner {
 		} else if (alns.size()==0) {
 			alns.add(createUnmappedAlignment(read, false, false));
 		}
-		synchronized (writer) {
-			for(ReadAlignment aln:alns) writer.write(aln);
+		synchronized (this) {
 			totalReads++;
 			if(numAlns>0) readsAligned++;
 			if(numAlns==1) uniqueAlignments++;
 		}
 		checkProgress(readNumber);
+		return alns;
 	}
 	
-	private void processPairedEndRead (int readNumber, RawRead read1, RawRead read2, ReadAlignmentFileWriter writer) {
+	private List<ReadAlignment> processPairedEndRead (int readNumber, RawRead read1, RawRead read2) {
 		List<ReadAlignment> alns1 = alignRead(read1,false);
 		for(ReadAlignment aln:alns1) aln.setFirstOfPair(true);
 		List<ReadAlignment> alns2 = alignRead(read2,false);
@@ -539,8 +617,7 @@ public class ReadsAligner {
 				if(pairAlns.size()==1) numUnique=2;
 			}
 		}
-		synchronized (writer) {
-			for(ReadAlignment aln:alns) writer.write(aln);
+		synchronized (this) {
 			totalReads+=2;
 			readsAligned+=numMapped;
 			if(proper) numProperPairs+=2;
@@ -549,6 +626,7 @@ public class ReadsAligner {
 			uniqueAlignments+=numUnique;
 		}
 		checkProgress(readNumber);
+		return alns;
 	}
 	
 	private void checkProgress (int readNumber) {
@@ -750,7 +828,7 @@ public class ReadsAligner {
 			synchronized (longReadsAlignerFactory) {
 				if(longReadsAlignerFactory.getGenome()==null) initializeLongReadsFactory();
 			}
-			MinimizersTableReadAlignmentAlgorithm longReadsAligner = longReadsAlignerFactory.requestLongReadsAligner(MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_DYNAMIC_KMERS);
+			MinimizersTableReadAlignmentAlgorithm longReadsAligner = longReadsAlignerFactory.requestLongReadsAligner(LONG_READS_ALIGNMENT_ALGORITHM);
 			synchronized (longReadsAligner) {
 				alignments = longReadsAligner.alignRead(read);
 			}
@@ -802,4 +880,22 @@ public class ReadsAligner {
 		log.info(os.toString());
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Iterator over raw reads built from an iterator of sequences in fasta format 
+	 */
+	private static class RawReadsIterator implements Iterator<RawRead> {
+		private Iterator<QualifiedSequence> it;
+		public RawReadsIterator(Iterator<QualifiedSequence> it) {
+			this.it = it;
+		}
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+		@Override
+		public RawRead next() {
+			QualifiedSequence seq = it.next();
+			return new RawRead(seq.getName(), seq.getCharacters(),null);
+		}
+	}
+}
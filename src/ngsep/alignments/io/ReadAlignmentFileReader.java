@@ -59,6 +59,7 @@ public class ReadAlignmentFileReader implements Iterable<ReadAlignment>,Closeabl
 	
 	private Logger log = Logger.getLogger(ReadAlignmentFileReader.class.getName());
 	
+	private SamReader samReader;
 	private SAMRecordIterator it; 
 	
 	private ReadAlignmentFileIterator currentIterator = null;
@@ -137,9 +138,16 @@ public class ReadAlignmentFileReader implements Iterable<ReadAlignment>,Closeabl
 	public void setMinMQ(int minMQ) {
 		this.minMQ = minMQ;
 	}
+	/**
+	 * @return boolean true if the underlying file has an index that allows random access queries
+	 */
+	public boolean isIndexed() {
+		return samReader.hasIndex();
+	}
 	@Override
 	public void close() throws IOException {
 		it.close();
+		samReader.close();
 	}
 
 	@Override
@@ -153,6 +161,33 @@ public class ReadAlignmentFileReader implements Iterable<ReadAlignment>,Closeabl
         currentIterator = new ReadAlignmentFileIterator(); 
 		return currentIterator;
 	}
+	/**
+	 * Creates an iterator over the alignments overlapping the given region.
+	 * Alignments are retrieved in the same order and with the same filters of a complete iteration.
+	 * PRE: The file is sorted by reference coordinates and it is indexed
+	 * @param sequenceName Name of the sequence to query
+	 * @param first 1-based first position of the region
+	 * @param last 1-based last position of the region
+	 * @return Iterator<ReadAlignment> Iterator over the alignments overlapping the given region
+	 */
+	public Iterator<ReadAlignment> iterator(String sequenceName, int first, int last) {
+		if (it == null) {
+			throw new IllegalStateException("File reader is closed");
+		}
+		if (currentIterator != null) {
+			throw new IllegalStateException("Iteration in progress");
+		}
+		if (!samReader.hasIndex()) {
+			throw new IllegalStateException("Region queries require an indexed alignments file");
+		}
+		//Only one open iterator is allowed by the underlying reader
+		it.close();
+		SAMSequenceRecord seqRecord = samReader.getFileHeader().getSequence(sequenceName);
+		if(seqRecord!=null) last = Math.min(last, seqRecord.getSequenceLength());
+		it = samReader.queryOverlapping(sequenceName, first, last);
+		currentIterator = new ReadAlignmentFileIterator();
+		return currentIterator;
+	}
 	
 	private void init (InputStream stream, File file, ReferenceGenome genome) throws IOException {
 		if (stream != null && file != null) throw new IllegalArgumentException("Stream and file are mutually exclusive");
@@ -162,10 +197,10 @@ public class ReadAlignmentFileReader implements Iterable<ReadAlignment>,Closeabl
 		//TODO: Use stream
 		SamReaderFactory factory = SamReaderFactory.makeDefault();
 		if(genome!=null) factory.referenceSequence(new File(genome.getFilename()));
-		SamReader reader = factory.open(file);
-		SAMFileHeader header = reader.getFileHeader();
+		samReader = factory.open(file);
+		SAMFileHeader header = samReader.getFileHeader();
 		if(header != null) loadHeader(header);
-		it = reader.iterator();
+		it = samReader.iterator();
 	}
 	private void loadHeader(SAMFileHeader header) throws IOException {
 		for(SAMReadGroupRecord rgRecord:header.getReadGroups()) {
@@ -61,8 +61,28 @@ public class ReadAlignmentFileWriter implements Closeable {
 	}
 	
 	public void write(ReadAlignment readAlignment)
+	{
+		write(createRecord(readAlignment));
+	}
+	
+	/**
+	 * Writes the given record
+	 * @param samRecord Record created with the method createRecord of this writer
+	 */
+	public void write(SAMRecord samRecord)
 	{
 		if(writer == null) writer= new SAMFileWriterFactory().makeBAMWriter(samFileHeader, false, out);
+		writer.addAlignment(samRecord);
+	}
+	
+	/**
+	 * Creates the record that should be written for the given alignment.
+	 * This method does not modify the state of the writer and then it can be called from different threads 
+	 * @param readAlignment Alignment to format
+	 * @return SAMRecord record for the given alignment
+	 */
+	public SAMRecord createRecord(ReadAlignment readAlignment)
+	{
 		SAMRecord samRecord= new SAMRecord(samFileHeader);
 		samRecord.setReadName(readAlignment.getReadName());
 		samRecord.setFlags(readAlignment.getFlags());
@@ -102,8 +122,7 @@ public class ReadAlignmentFileWriter implements Closeable {
 		//System.out.println("Bases: "+samRecord.getReadString()+" qual: "+samRecord.getBaseQualityString());
 		List<SAMValidationError> errors= samRecord.isValid();
 		if(errors!=null) System.out.println("errors: "+errors.size()+errors.get(0));
-		writer.addAlignment(samRecord);
-		//System.out.println("Saved record ");	
+		return samRecord;
 	}
 	public void close() {
 		writer.close();
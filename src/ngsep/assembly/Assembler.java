@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import ngsep.alignments.MinimizersTableReadAlignmentAlgorithm;
 import ngsep.sequences.DNAMaskedSequence;
 import ngsep.sequences.KmersExtractor;
 import ngsep.sequences.KmersMap;
@@ -62,6 +63,7 @@ public class Assembler {
 	public static final int DEF_ERROR_CORRCTION_ROUNDS = 1;
 	public static final double DEF_MIN_SCORE_PROPORTION_EDGES = 0.5;
 	public static final int DEF_NUM_THREADS = GraphBuilderMinimizers.DEF_NUM_THREADS;
+	public static final int DEF_CONSENSUS_ALIGNMENT_ALGORITHM = MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_DYNAMIC_KMERS;
 	public static final String GRAPH_CONSTRUCTION_ALGORITHM_MINIMIZERS="Minimizers";
 	public static final String GRAPH_CONSTRUCTION_ALGORITHM_FMINDEX="FMIndex";
 	public static final String LAYOUT_ALGORITHM_MAX_OVERLAP="MaxOverlap";
@@ -81,9 +83,11 @@ public class Assembler {
 	private int minReadLength = DEF_MIN_READ_LENGTH;
 	private byte inputFormat = INPUT_FORMAT_FASTQ;
 	private String graphFile = null;
+	private boolean saveBinaryGraphs = false;
 	private String graphConstructionAlgorithm=GRAPH_CONSTRUCTION_ALGORITHM_MINIMIZERS;
 	private String layoutAlgorithm=LAYOUT_ALGORITHM_KRUSKAL_PATH;
 	private String consensusAlgorithm=CONSENSUS_ALGORITHM_POLISHING;
+	private int consensusAlignmentAlgorithm = DEF_CONSENSUS_ALIGNMENT_ALGORITHM;
 	private boolean correctReads = false;
 	private int ploidy = DEF_PLOIDY;
 	private int errorCorrectionRounds = 1;
@@ -172,6 +176,16 @@ public class Assembler {
 		this.graphFile = graphFile;
 	}
 	
+	public boolean isSaveBinaryGraphs() {
+		return saveBinaryGraphs;
+	}
+	public void setSaveBinaryGraphs(boolean saveBinaryGraphs) {
+		this.saveBinaryGraphs = saveBinaryGraphs;
+	}
+	public void setSaveBinaryGraphs(Boolean saveBinaryGraphs) {
+		this.setSaveBinaryGraphs(saveBinaryGraphs.booleanValue());
+	}
+	
 	public String getGraphConstructionAlgorithm() {
 		return graphConstructionAlgorithm;
 	}
@@ -195,6 +209,21 @@ public class Assembler {
 		this.consensusAlgorithm = consensusAlgorithm;
 	}
 	
+	public int getConsensusAlignmentAlgorithm() {
+		return consensusAlignmentAlgorithm;
+	}
+	/**
+	 * Changes the algorithm used to align reads to the consensus sequences
+	 * @param consensusAlignmentAlgorithm Alignment algorithm. See constants in MinimizersTableReadAlignmentAlgorithm
+	 */
+	public void setConsensusAlignmentAlgorithm(int consensusAlignmentAlgorithm) {
+		if(consensusAlignmentAlgorithm<MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP || consensusAlignmentAlgorithm>MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP_FULL_MATRIX) throw new IllegalArgumentException("Unrecognized alignment algorithm "+consensusAlignmentAlgorithm);
+		this.consensusAlignmentAlgorithm = consensusAlignmentAlgorithm;
+	}
+	public void setConsensusAlignmentAlgorithm(String value) {
+		this.setConsensusAlignmentAlgorithm((int) OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
 	public int getPloidy() {
 		return ploidy;
 	}
@@ -262,7 +291,7 @@ public class Assembler {
 
 	public void run() throws IOException, InterruptedException {
 		logParameters();
-		if(inputFile==null) throw new IOException("The input file with raw reads is required");
+		if(inputFile==null && graphFile==null) throw new IOException("The input file with raw reads is required");
 		if(outputPrefix==null) throw new IOException("An output prefix is required");
 		run (inputFile, outputPrefix);
 		log.info("Process finished");
@@ -274,8 +303,10 @@ public class Assembler {
 		out.println("Prefix for the output files:"+ outputPrefix);
 		if (graphFile!=null) out.println("Load assembly graph from: "+graphFile);
 		else out.println("Algorithm to build graph: "+graphConstructionAlgorithm);
+		if (saveBinaryGraphs) out.println("Save graphs in binary format");
 		out.println("Algorithm to build layout: "+layoutAlgorithm);
 		out.println("Algorithm to build consensus: "+consensusAlgorithm);
+		out.println("Algorithm to align reads to the consensus: "+consensusAlignmentAlgorithm);
 		out.println("Window length for minimizers: "+windowLength);
 		if(bpHomopolymerCompression>0) out.println("Run homopolymer compression keeping at most "+bpHomopolymerCompression+" consecutive base pairs");
 		out.println("Minimum score proportion (from the maximum score) to keep edges of a sequence: "+ minScoreProportionEdges);
@@ -294,9 +325,16 @@ public class Assembler {
 		AssemblyGraph graph;
 		KmersMap map = null;
 		if(graphFile!=null) {
-			sequences = load(inputFile, inputFormat, minReadLength);
-			graph = AssemblyGraphFileHandler.load(sequences, graphFile);
-			log.info("Loaded assembly graph with "+graph.getVertices().size()+" vertices and "+graph.getEdges().size()+" edges");
+			if(AssemblyGraphFileHandler.isBinaryGraphFile(graphFile)) {
+				//Binary graphs include the sequences used to build the graph
+				graph = AssemblyGraphFileHandler.load(null, graphFile);
+			} else {
+				if(inputFile==null) throw new IOException("The input file with raw reads is required to load a graph in text format");
+				sequences = load(inputFile, inputFormat, minReadLength);
+				graph = AssemblyGraphFileHandler.load(sequences, graphFile);
+			}
+			log.info("Loaded assembly graph with "+graph.getNumVertices()+" vertices and "+graph.getNumEdges()+" edges. Filtered: "+graph.isFiltered());
+			if(graph.isFiltered() && ploidy>1) throw new IOException("Graphs saved after filtering can only be used to assemble haploid samples");
 		} else {
 			log.info("Calculating kmers distribution");
 			KmersExtractor extractor = new KmersExtractor();
@@ -346,20 +384,19 @@ public class Assembler {
 			usedMemory/=1000000000;
 			long time2 = System.currentTimeMillis();
 			long diff = (time2-startTime)/1000;
-			log.info("Built assembly graph with "+graph.getVertices().size()+" vertices and "+graph.getEdges().size()+" edges. Total Time: "+diff+" Memory: "+usedMemory);
+			log.info("Built assembly graph with "+graph.getNumVertices()+" vertices and "+graph.getNumEdges()+" edges. Total Time: "+diff+" Memory: "+usedMemory);
 		}
 		
 		if(progressNotifier!=null && !progressNotifier.keepRunning(50)) return;
 		if(graphFile==null && errorCorrectionRounds>0) {
-			String outFileGraph = outputPrefix+"_uncorrected.graph.gz";
-			AssemblyGraphFileHandler.save(graph, outFileGraph);
-			log.info("Saved uncorrected graph to "+outFileGraph);
+			saveGraph(graph, outputPrefix+"_uncorrected");
 		}
 		
 		AlignmentBasedIndelErrorsCorrector indelCorrector = new AlignmentBasedIndelErrorsCorrector();
 		indelCorrector.setNumThreads(numThreads);
 		indelCorrector.setLog(log);
-		for(int i=0;i<errorCorrectionRounds;i++) {
+		//Rebuilding the graph after error correction requires the k-mers map, which is not available for loaded graphs
+		for(int i=0;i<errorCorrectionRounds && graphFile==null;i++) {
 			long startRound = System.currentTimeMillis();
 			log.info("Started round "+(i+1)+" of error correction.");
 			indelCorrector.correctErrors(graph);
@@ -368,9 +405,7 @@ public class Assembler {
 			graph = buildGraph(graph.getSequences(), map, null);
 		}
 		if(graphFile==null) {
-			String outFileGraph = outputPrefix+".graph.gz";
-			AssemblyGraphFileHandler.save(graph, outFileGraph);
-			log.info("Saved graph to "+outFileGraph);
+			saveGraph(graph, outputPrefix);
 		}
 		
 		LayoutBuilder pathsFinder;
@@ -386,24 +421,29 @@ public class Assembler {
 		if(CONSENSUS_ALGORITHM_POLISHING.equals(consensusAlgorithm)) {
 			ConsensusBuilderBidirectionalWithPolishing consensusP = new ConsensusBuilderBidirectionalWithPolishing();
 			consensusP.setNumThreads(numThreads);
+			consensusP.setAlignmentAlgorithm(consensusAlignmentAlgorithm);
 			consensus = consensusP;
 		} else {
-			consensus = new ConsensusBuilderBidirectionalSimple();
+			ConsensusBuilderBidirectionalSimple consensusS = new ConsensusBuilderBidirectionalSimple();
+			consensusS.setAlignmentAlgorithm(consensusAlignmentAlgorithm);
+			consensus = consensusS;
 		}
 		
-		graph.removeVerticesChimericReads();
-		log.info("Filtered chimeric reads. Vertices: "+graph.getVertices().size()+" edges: "+graph.getEdges().size());
+		if(!graph.isFiltered()) {
+			graph.removeVerticesChimericReads();
+			log.info("Filtered chimeric reads. Vertices: "+graph.getNumVertices()+" edges: "+graph.getNumEdges());
+		}
 		
 		long time2 = System.currentTimeMillis();
 		AssemblySequencesRelationshipFilter filter = new AssemblySequencesRelationshipFilter();
 		List<QualifiedSequence> assembledSequences = new ArrayList<QualifiedSequence>();
 		if(ploidy > 1) {
 			AssemblyGraph diploidGraph = graph.buildSubgraph(null);
-			log.info("Copied graph. New graph has "+diploidGraph.getVertices().size()+" vertices and "+diploidGraph.getEdges().size()+" edges");
+			log.info("Copied graph. New graph has "+diploidGraph.getNumVertices()+" vertices and "+diploidGraph.getNumEdges()+" edges");
 			diploidGraph.updateScores(0);
 			filter.filterEdgesAndEmbedded(diploidGraph, minScoreProportionEdges);
 			//diploidGraph.updateScores();
-			log.info("Filtered graph. New graph has now "+diploidGraph.getVertices().size()+" vertices and "+diploidGraph.getEdges().size()+" edges");
+			log.info("Filtered graph. New graph has now "+diploidGraph.getNumVertices()+" vertices and "+diploidGraph.getNumEdges()+" edges");
 			if (pathsFinder instanceof LayoutBuilderKruskalPath) ((LayoutBuilderKruskalPath)pathsFinder).setMinPathLength(0);
 			pathsFinder.findPaths(diploidGraph);
 			log.info("Building haplotype subgraphs");
@@ -416,10 +456,8 @@ public class Assembler {
 			int haplotypeNumber= 0;
 			for(Set<Integer> readIdsCluster: readIdsClusters) {
 				AssemblyGraph haplotypeGraph = graph.buildSubgraph(readIdsCluster);
-				log.info("Built haplotype subgraph with "+haplotypeGraph.getVertices().size()+" vertices and "+haplotypeGraph.getNumEdges()+ " edges from "+readIdsCluster.size()+" reads");
-				String outFileGraph = outputPrefix+"_hap"+haplotypeNumber+".graph.gz";
-				AssemblyGraphFileHandler.save(haplotypeGraph, outFileGraph);
-				log.info("Saved graph to "+outFileGraph);
+				log.info("Built haplotype subgraph with "+haplotypeGraph.getNumVertices()+" vertices and "+haplotypeGraph.getNumEdges()+ " edges from "+readIdsCluster.size()+" reads");
+				saveGraph(haplotypeGraph, outputPrefix+"_hap"+haplotypeNumber);
 				haplotypeGraph.updateScores(0.5);
 				filter.filterEdgesAndEmbedded(haplotypeGraph, minScoreProportionEdges);
 				//haplotypeGraph.updateScores();
@@ -432,9 +470,13 @@ public class Assembler {
 				haplotypeNumber++;
 			}
 		} else {
-			graph.updateScores(0.5);
-			filter.filterEdgesAndEmbedded(graph, minScoreProportionEdges);
-			//graph.updateScores();
+			if(!graph.isFiltered()) {
+				graph.updateScores(0.5);
+				filter.filterEdgesAndEmbedded(graph, minScoreProportionEdges);
+				//graph.updateScores();
+				//Text files do not keep scores and costs needed to resume from the filtered graph
+				if(saveBinaryGraphs) saveGraph(graph, outputPrefix+"_filtered");
+			}
 			
 			pathsFinder.findPaths(graph);
 			if(progressNotifier!=null && !progressNotifier.keepRunning(60)) return;
@@ -478,6 +520,23 @@ public class Assembler {
 		diff2 = (time4-startTime)/1000;
 		log.info("Finished consensus. Memory: "+usedMemory+" Time consensus (s): "+diff1+" total time (s): "+diff2);
 	}
+	/**
+	 * Saves the given graph in binary format if binary graphs were requested or in text format otherwise
+	 * @param graph to save
+	 * @param outPrefix Prefix of the output file. The extension is added according to the format
+	 * @throws IOException If the file can not be written
+	 */
+	private void saveGraph(AssemblyGraph graph, String outPrefix) throws IOException {
+		String outFileGraph;
+		if(saveBinaryGraphs) {
+			outFileGraph = outPrefix+".graph.bin";
+			AssemblyGraphFileHandler.saveBinary(graph, outFileGraph);
+		} else {
+			outFileGraph = outPrefix+".graph.gz";
+			AssemblyGraphFileHandler.save(graph, outFileGraph);
+		}
+		log.info("Saved graph to "+outFileGraph);
+	}
 	private AssemblyGraph buildGraph(List<QualifiedSequence> sequences, KmersMap map, double[] compressionFactors) {
 		AssemblyGraph graph;
 		GraphBuilderMinimizers builder = new GraphBuilderMinimizers();
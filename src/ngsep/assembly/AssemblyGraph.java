@@ -23,9 +23,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import JSci.maths.statistics.NormalDistribution;
@@ -33,6 +35,11 @@ import ngsep.math.Distribution;
 import ngsep.sequences.QualifiedSequence;
 
 /**
+ * Graph of overlaps between sequences used to build assemblies. Vertices and adjacency lists are indexed by sequence id.
+ * Edges are kept as AssemblyEdge objects instead of primitive columns in a compressed layout. Layout builders, filters and
+ * paths depend on the identity of the edges and update their scores and costs. Every edge has about 80 bytes of attributes,
+ * and objects add about 30 bytes per edge including the references in the adjacency lists.
+ * Algorithms visiting every edge should use iterateEdges to avoid building the list of all edges
  * @author Jorge Duitama
  * @author Juan Camilo Bojaca
  * @author David Guevara
@@ -49,25 +56,28 @@ public class AssemblyGraph {
 	 */
 	private long [] cumulativeReadLength;
 	/**
-	 * Start vertices indexed by sequence index
+	 * Start vertices indexed by sequence index. Null for sequences without vertices
 	 */
-	private Map<Integer,AssemblyVertex> verticesStart;
+	private AssemblyVertex [] verticesStart;
 	/**
-	 * End vertices indexed by sequence index
+	 * End vertices indexed by sequence index. Null for sequences without vertices
 	 */
-	private Map<Integer,AssemblyVertex> verticesEnd;
+	private AssemblyVertex [] verticesEnd;
 	/**
-	 * All vertices indexed by unique number
+	 * Edges of each vertex. Edges of the start vertex of sequence i are stored at position 2i
+	 * and edges of the end vertex are stored at position 2i+1
 	 */
-	private Map<Integer,AssemblyVertex> verticesByUnique;
+	private List<List<AssemblyEdge>> edgesPerVertex;
 	
-	private Map<Integer,List<AssemblyEdge>> edgesMap = new HashMap<>();
+	// Embedded relationships indexed by host sequence id. Null for sequences without embedded sequences
+	private List<List<AssemblyEmbedded>> embeddedByHost;
 	
-	// Map with sequence ids as keys and embedded sequences as objects
-	private Map<Integer, List<AssemblyEmbedded>> embeddedMapByHost = new HashMap<>();
+	// Embedded relationships indexed by embedded sequence id. Null for sequences that are not embedded
+	private List<List<AssemblyEmbedded>> embeddedBySequence;
 	
+	private int numVertices = 0;
 	
-	private Map<Integer, List<AssemblyEmbedded>> embeddedMapBySequence = new HashMap<>();
+	private int embeddedCount = 0;
 
 	private List<AssemblyPath> paths = new ArrayList<AssemblyPath>();
 	
@@ -76,6 +86,11 @@ public class AssemblyGraph {
 	private int ploidy = DEF_PLOIDY_ASSEMBLY;
 	
 	private long expectedAssemblyLength = 0;
+	
+	/**
+	 * True if edges and embedded relationships have been filtered to build the layout
+	 */
+	private boolean filtered = false;
 
 	/**
 	 * Private constructor for subgraphs
@@ -95,13 +110,9 @@ public class AssemblyGraph {
 			cumulativeReadLength[i]=length;
 			if(i>0) cumulativeReadLength[i]+=cumulativeReadLength[i-1];
 			AssemblyVertex vS = new AssemblyVertex(seq, true, i);
-			verticesStart.put(i,vS);
-			verticesByUnique.put(vS.getUniqueNumber(), vS);
-			edgesMap.put(vS.getUniqueNumber(), new ArrayList<>());
+			addVertex(vS);
 			AssemblyVertex vE = new AssemblyVertex(seq, false, i);
-			verticesEnd.put(i,vE);
-			verticesByUnique.put(vE.getUniqueNumber(), vE);
-			edgesMap.put(vE.getUniqueNumber(), new ArrayList<>());
+			addVertex(vE);
 			AssemblyEdge edge = new AssemblyEdge(vS, vE, length);
 			edge.setAverageOverlap(length);
 			edge.setMedianOverlap(length);
@@ -118,10 +129,29 @@ public class AssemblyGraph {
 		}
 	}
 	private void initStructures (int n) {
-		verticesStart = new HashMap<>(n);
-		verticesEnd = new HashMap<>(n);
-		verticesByUnique = new HashMap<>(n);
-		edgesMap = new HashMap<>(n);
+		verticesStart = new AssemblyVertex[n];
+		verticesEnd = new AssemblyVertex[n];
+		edgesPerVertex = new ArrayList<>(2*n);
+		embeddedByHost = new ArrayList<>(n);
+		embeddedBySequence = new ArrayList<>(n);
+		for(int i=0;i<n;i++) {
+			edgesPerVertex.add(null);
+			edgesPerVertex.add(null);
+			embeddedByHost.add(null);
+			embeddedBySequence.add(null);
+		}
+	}
+	private void addVertex(AssemblyVertex vertex) {
+		int seqId = vertex.getSequenceIndex();
+		if(vertex.isStart()) verticesStart[seqId] = vertex;
+		else verticesEnd[seqId] = vertex;
+		edgesPerVertex.set(getVertexPosition(vertex), new ArrayList<>());
+		numVertices++;
+	}
+	private static int getVertexPosition(AssemblyVertex vertex) {
+		int position = 2*vertex.getSequenceIndex();
+		if(!vertex.isStart()) position++;
+		return position;
 	}
 	public AssemblyGraph buildSubgraph(Set<Integer> readIdsCluster) {
 		AssemblyGraph subgraph = new AssemblyGraph();
@@ -130,23 +160,27 @@ public class AssemblyGraph {
 		subgraph.cumulativeReadLength = cumulativeReadLength;
 		subgraph.initStructures(n);
 		//Add vertices
-		for(AssemblyVertex vertex:verticesByUnique.values()) {
-			if(readIdsCluster==null || readIdsCluster.contains(vertex.getSequenceIndex())) {
-				subgraph.verticesByUnique.put(vertex.getUniqueNumber(), vertex);
-				subgraph.edgesMap.put(vertex.getUniqueNumber(), new ArrayList<>());
-				if(vertex.isStart()) subgraph.verticesStart.put(vertex.getSequenceIndex(),vertex);
-				else subgraph.verticesEnd.put(vertex.getSequenceIndex(),vertex);
-			}
+		for(int i=0;i<n;i++) {
+			if(readIdsCluster!=null && !readIdsCluster.contains(i)) continue;
+			if(verticesStart[i]!=null) subgraph.addVertex(verticesStart[i]);
+			if(verticesEnd[i]!=null) subgraph.addVertex(verticesEnd[i]);
 		}
 		//Add edges within the subgraph
-		List<AssemblyEdge> edges = getEdges();
-		for(AssemblyEdge edge:edges) {
-			if(readIdsCluster == null || (readIdsCluster.contains(edge.getVertex1().getSequenceIndex()) && readIdsCluster.contains(edge.getVertex2().getSequenceIndex()))) {
-				subgraph.addEdge(edge);
+		for(int i=0;i<edgesPerVertex.size();i++) {
+			List<AssemblyEdge> edgesVertex = edgesPerVertex.get(i);
+			if(edgesVertex==null) continue;
+			for(int j=0;j<edgesVertex.size();j++) {
+				AssemblyEdge edge = edgesVertex.get(j);
+				//Visit each edge only from its first vertex
+				if(getVertexPosition(edge.getVertex1())!=i) continue;
+				if(readIdsCluster == null || (readIdsCluster.contains(edge.getVertex1().getSequenceIndex()) && readIdsCluster.contains(edge.getVertex2().getSequenceIndex()))) {
+					subgraph.addEdge(edge);
+				}
 			}
 		}
 		//Add embedded relationships
-		for(List<AssemblyEmbedded> embeddedList:embeddedMapBySequence.values()) {
+		for(List<AssemblyEmbedded> embeddedList:embeddedBySequence) {
+			if(embeddedList==null) continue;
 			for(AssemblyEmbedded embedded:embeddedList) {
 				if(readIdsCluster == null || (readIdsCluster.contains(embedded.getSequenceId()) && readIdsCluster.contains(embedded.getHostId()))) {
 					subgraph.addEmbedded(embedded);
@@ -160,15 +194,15 @@ public class AssemblyGraph {
 	//Modifiers
 	
 	public void addEdge(AssemblyEdge edge) {
-		edgesMap.get(edge.getVertex1().getUniqueNumber()).add(edge);
-		edgesMap.get(edge.getVertex2().getUniqueNumber()).add(edge);
+		edgesPerVertex.get(getVertexPosition(edge.getVertex1())).add(edge);
+		edgesPerVertex.get(getVertexPosition(edge.getVertex2())).add(edge);
 		numEdges++;
 	}
 	
 	public void removeEdge (AssemblyEdge edge) {
-		List<AssemblyEdge> edges1 = edgesMap.get(edge.getVertex1().getUniqueNumber()); 
+		List<AssemblyEdge> edges1 = edgesPerVertex.get(getVertexPosition(edge.getVertex1())); 
 		if(edges1!=null) edges1.remove(edge);
-		List<AssemblyEdge> edges2 = edgesMap.get(edge.getVertex2().getUniqueNumber());
+		List<AssemblyEdge> edges2 = edgesPerVertex.get(getVertexPosition(edge.getVertex2()));
 		if(edges2!=null) edges2.remove(edge);
 		numEdges--;
 	}
@@ -177,24 +211,28 @@ public class AssemblyGraph {
 		removeEdges(sequenceId);
 		AssemblyVertex v1 = getVertex(sequenceId, true);
 		AssemblyVertex v2 = getVertex(sequenceId, false);
-		edgesMap.remove(v1.getUniqueNumber());
-		edgesMap.remove(v2.getUniqueNumber());
-		verticesStart.remove(sequenceId);
-		verticesEnd.remove(sequenceId);
-		verticesByUnique.remove(v1.getUniqueNumber());
-		verticesByUnique.remove(v2.getUniqueNumber());
+		if(v1!=null) {
+			edgesPerVertex.set(getVertexPosition(v1), null);
+			verticesStart[sequenceId] = null;
+			numVertices--;
+		}
+		if(v2!=null) {
+			edgesPerVertex.set(getVertexPosition(v2), null);
+			verticesEnd[sequenceId] = null;
+			numVertices--;
+		}
 	}
 	
 	private void removeEdges(int sequenceId) {
 		AssemblyVertex v1 = getVertex(sequenceId, true);
 		List<AssemblyEdge> toRemove = new ArrayList<AssemblyEdge>();
 		if(v1!=null) {
-			List<AssemblyEdge> edges1 = edgesMap.get(v1.getUniqueNumber()); 
+			List<AssemblyEdge> edges1 = getEdges(v1); 
 			if(edges1!=null) toRemove.addAll(edges1);
 		}
 		AssemblyVertex v2 = getVertex(sequenceId, false);
 		if(v2!=null) {
-			List<AssemblyEdge> edges2 = edgesMap.get(v2.getUniqueNumber());
+			List<AssemblyEdge> edges2 = getEdges(v2);
 			if(edges2!=null) {
 				for(AssemblyEdge edge:edges2) {
 					if(!edge.isSameSequenceEdge()) toRemove.add(edge);
@@ -207,26 +245,42 @@ public class AssemblyGraph {
 	}
 	
 	public void addEmbedded(AssemblyEmbedded embeddedObject) {
-		List<AssemblyEmbedded> list = embeddedMapByHost.computeIfAbsent(embeddedObject.getHostId(), key -> new LinkedList<>());
+		int hostId = embeddedObject.getHostId();
+		List<AssemblyEmbedded> list = embeddedByHost.get(hostId);
+		if(list==null) {
+			list = new ArrayList<>(2);
+			embeddedByHost.set(hostId, list);
+		}
 		list.add(embeddedObject);
-		List<AssemblyEmbedded> list2 = embeddedMapBySequence.computeIfAbsent(embeddedObject.getSequenceId(), key -> new LinkedList<>());
+		int seqId = embeddedObject.getSequenceId();
+		List<AssemblyEmbedded> list2 = embeddedBySequence.get(seqId);
+		if(list2==null) {
+			list2 = new ArrayList<>(2);
+			embeddedBySequence.set(seqId, list2);
+			embeddedCount++;
+		}
 		list2.add(embeddedObject);	
 	}
 	
 	public void removeEmbedded (AssemblyEmbedded embeddedObject) {
 		int hostId = embeddedObject.getHostId();
-		embeddedMapByHost.get(hostId).remove(embeddedObject);
-		if(embeddedMapByHost.get(hostId).size()==0) embeddedMapByHost.remove(hostId);
+		List<AssemblyEmbedded> list = embeddedByHost.get(hostId);
+		list.remove(embeddedObject);
+		if(list.size()==0) embeddedByHost.set(hostId, null);
 		int seqId = embeddedObject.getSequenceId();
-		embeddedMapBySequence.get(seqId).remove(embeddedObject);
-		if(embeddedMapBySequence.get(seqId).size()==0) embeddedMapBySequence.remove(seqId);
+		List<AssemblyEmbedded> list2 = embeddedBySequence.get(seqId);
+		list2.remove(embeddedObject);
+		if(list2.size()==0) {
+			embeddedBySequence.set(seqId, null);
+			embeddedCount--;
+		}
 	}
 	
 	public void removeEmbeddedRelations(int sequenceId) {
 		List<AssemblyEmbedded> embeddedList = new ArrayList<AssemblyEmbedded>();
-		List<AssemblyEmbedded> emb = embeddedMapByHost.get(sequenceId);
+		List<AssemblyEmbedded> emb = embeddedByHost.get(sequenceId);
 		if(emb!=null) embeddedList.addAll(emb);
-		emb = embeddedMapBySequence.get(sequenceId);
+		emb = embeddedBySequence.get(sequenceId);
 		if(emb!=null) embeddedList.addAll(emb);
 		for(AssemblyEmbedded embedded: embeddedList) {
 			removeEmbedded(embedded);
@@ -234,8 +288,9 @@ public class AssemblyGraph {
 	}
 	
 	public void pruneEmbeddedSequences() {
-		for(int i:embeddedMapBySequence.keySet()) {
-			if(verticesStart.get(i)!=null) {
+		int n = embeddedBySequence.size();
+		for(int i=0;i<n;i++) {
+			if(embeddedBySequence.get(i)!=null && verticesStart[i]!=null) {
 				removeVertices(i);
 			}
 		}
@@ -271,12 +326,14 @@ public class AssemblyGraph {
 	
 
 	public AssemblyVertex getVertex(int indexSequence, boolean start) {
-		if(start) return verticesStart.get(indexSequence);
-		return verticesEnd.get(indexSequence);
+		if(start) return verticesStart[indexSequence];
+		return verticesEnd[indexSequence];
 	}
 	
 	public AssemblyVertex getVertexByUniqueId(int uniqueId) {
-		return verticesByUnique.get(uniqueId);
+		if(uniqueId>=0) return uniqueId<verticesStart.length?verticesStart[uniqueId]:null;
+		int seqId = -uniqueId-1;
+		return seqId<verticesEnd.length?verticesEnd[seqId]:null;
 	}
 
 	/**
@@ -286,7 +343,7 @@ public class AssemblyGraph {
 	 * @return list of embedded sequences
 	 */
 	public List<AssemblyEmbedded> getEmbeddedByHostId(int hostIndex) {
-		List<AssemblyEmbedded> answer = embeddedMapByHost.get(hostIndex);
+		List<AssemblyEmbedded> answer = embeddedByHost.get(hostIndex);
 		if(answer == null) return new ArrayList<AssemblyEmbedded>();
 		return answer;
 	}
@@ -297,16 +354,16 @@ public class AssemblyGraph {
 	 * @return List<AssemblyEmbedded> Sequences where this is embedded
 	 */
 	public List<AssemblyEmbedded> getEmbeddedBySequenceId(int seqIndex) {
-		List<AssemblyEmbedded> answer = embeddedMapBySequence.get(seqIndex);
+		List<AssemblyEmbedded> answer = embeddedBySequence.get(seqIndex);
 		if(answer == null) return new ArrayList<AssemblyEmbedded>();
 		return answer;
 	}
 	
 	public boolean isEmbedded(int sequenceId) {
-		return embeddedMapBySequence.get(sequenceId)!=null;
+		return embeddedBySequence.get(sequenceId)!=null;
 	}
 	public int getEmbeddedCount () {
-		return embeddedMapBySequence.size();
+		return embeddedCount;
 	}
 
 	public synchronized void addPath(AssemblyPath path) {
@@ -315,35 +372,80 @@ public class AssemblyGraph {
 	}
 	
 	public List<AssemblyVertex> getVertices() {
-		List<AssemblyVertex> vertices = new ArrayList<>();
-		vertices.addAll(verticesByUnique.values());
+		List<AssemblyVertex> vertices = new ArrayList<>(numVertices);
+		for(int i=0;i<verticesStart.length;i++) {
+			if(verticesStart[i]!=null) vertices.add(verticesStart[i]);
+			if(verticesEnd[i]!=null) vertices.add(verticesEnd[i]);
+		}
 		return vertices;
 	}
 	
-	
+	public int getNumVertices() {
+		return numVertices;
+	}
 
 	public int getNumEdges() {
 		return numEdges;
 	}
 
 	/**
-	 * @return the edges
+	 * Builds a list with the edges of the graph. Use iterateEdges to visit the edges without building the list
+	 * @return List<AssemblyEdge> the edges
 	 */
 	public List<AssemblyEdge> getEdges() {
-		List<AssemblyEdge> edges = new ArrayList<>();
-		for(AssemblyVertex v:verticesByUnique.values()) {
-			List<AssemblyEdge> edgesVertex = edgesMap.get(v.getUniqueNumber());
-			if(edgesVertex==null) continue;
-			for(AssemblyEdge edge:edgesVertex) {
-				//Avoid adding twice the same edge
-				if(edge.getVertex1()==v) edges.add(edge);
+		List<AssemblyEdge> edges = new ArrayList<>(numEdges);
+		for(AssemblyEdge edge:iterateEdges()) edges.add(edge);
+		return edges;
+	}
+	
+	/**
+	 * Allows to visit every edge once following the order of the adjacency lists without building a list of edges.
+	 * The graph should not be modified while the edges are visited
+	 * @return Iterable<AssemblyEdge> View of the edges of the graph
+	 */
+	public Iterable<AssemblyEdge> iterateEdges() {
+		return () -> new EdgesIterator();
+	}
+	
+	private class EdgesIterator implements Iterator<AssemblyEdge> {
+		private int vertexPos = 0;
+		private int nextIdx = 0;
+		private AssemblyEdge next;
+		
+		public EdgesIterator() {
+			advance();
+		}
+		private void advance() {
+			next = null;
+			for(;vertexPos<edgesPerVertex.size();vertexPos++,nextIdx=0) {
+				List<AssemblyEdge> edgesVertex = edgesPerVertex.get(vertexPos);
+				if(edgesVertex==null) continue;
+				while(nextIdx<edgesVertex.size()) {
+					AssemblyEdge edge = edgesVertex.get(nextIdx);
+					nextIdx++;
+					//Avoid visiting twice the same edge
+					if(getVertexPosition(edge.getVertex1())==vertexPos) {
+						next = edge;
+						return;
+					}
+				}
 			}
 		}
-		return edges;
+		@Override
+		public boolean hasNext() {
+			return next!=null;
+		}
+		@Override
+		public AssemblyEdge next() {
+			if(next==null) throw new NoSuchElementException();
+			AssemblyEdge answer = next;
+			advance();
+			return answer;
+		}
 	}
 	
 	public List<AssemblyEdge> getEdges(AssemblyVertex vertex) {
-		return edgesMap.get(vertex.getUniqueNumber());
+		return edgesPerVertex.get(getVertexPosition(vertex));
 	}
 	
 	public List<AssemblyEdge> getEdgesBySequenceId(int seqId) {
@@ -367,7 +469,7 @@ public class AssemblyGraph {
 	 * @return AssemblyEdge
 	 */
 	public AssemblyEdge getSameSequenceEdge(int sequenceId) {
-		AssemblyVertex vertex = verticesStart.get(sequenceId);
+		AssemblyVertex vertex = verticesStart[sequenceId];
 		if(vertex == null) return null;
 		return getSameSequenceEdge(vertex);
 	}
@@ -377,7 +479,7 @@ public class AssemblyGraph {
 	 * @return AssemblyEdge
 	 */
 	public AssemblyEdge getSameSequenceEdge(AssemblyVertex vertex) {
-		List<AssemblyEdge> edges = edgesMap.get(vertex.getUniqueNumber());
+		List<AssemblyEdge> edges = getEdges(vertex);
 		for(AssemblyEdge edge:edges) {
 			if(edge.getVertex1()==vertex && edge.getVertex2().getRead()==vertex.getRead()) {
 				return edge;
@@ -395,7 +497,7 @@ public class AssemblyGraph {
 	 * @return
 	 */
 	public AssemblyEdge getEdge(AssemblyVertex v1, AssemblyVertex v2) {
-		List<AssemblyEdge> edgesV1 = edgesMap.get(v1.getUniqueNumber());
+		List<AssemblyEdge> edgesV1 = getEdges(v1);
 		if(edgesV1 == null) return null;
 		for(AssemblyEdge edge:edgesV1) {
 			if(edge.getConnectingVertex(v1)==v2) return edge;
@@ -422,10 +524,16 @@ public class AssemblyGraph {
 	public void setExpectedAssemblyLength(long expectedAssemblyLength) {
 		this.expectedAssemblyLength = expectedAssemblyLength;
 	}
+	public boolean isFiltered() {
+		return filtered;
+	}
+	public void setFiltered(boolean filtered) {
+		this.filtered = filtered;
+	}
 	public void updateVertexDegrees () {
-		for (int v:edgesMap.keySet()) {
-			AssemblyVertex vertex = verticesByUnique.get(v);
-			vertex.setDegreeUnfilteredGraph(edgesMap.get(v).size());
+		for (int i=0;i<verticesStart.length;i++) {
+			if(verticesStart[i]!=null) verticesStart[i].setDegreeUnfilteredGraph(getEdges(verticesStart[i]).size());
+			if(verticesEnd[i]!=null) verticesEnd[i].setDegreeUnfilteredGraph(getEdges(verticesEnd[i]).size());
 		}
 	}
 	/**
@@ -434,15 +542,15 @@ public class AssemblyGraph {
 	 */
 	public Distribution getVertexDegreeDistribution() {
 		Distribution answer = new Distribution(0, 100, 1);
-		for(List<AssemblyEdge> edges:edgesMap.values()) {
-			answer.processDatapoint(edges.size());
+		for(List<AssemblyEdge> edges:edgesPerVertex) {
+			if(edges!=null) answer.processDatapoint(edges.size());
 		}
 		return answer;
 	}
 	public List<AssemblyEmbedded> getAllEmbedded() {
 		List<AssemblyEmbedded> answer = new ArrayList<AssemblyEmbedded>();
-		for(List<AssemblyEmbedded> rels:embeddedMapByHost.values()) {
-			answer.addAll(rels);
+		for(List<AssemblyEmbedded> rels:embeddedByHost) {
+			if(rels!=null) answer.addAll(rels);
 		}
 		return answer;
 	}
@@ -581,12 +689,12 @@ public class AssemblyGraph {
 	}
 	
 	private boolean isChimeric(int sequenceId) {
-		if(verticesStart.get(sequenceId)==null || verticesEnd.get(sequenceId)==null) return false;
+		if(verticesStart[sequenceId]==null || verticesEnd[sequenceId]==null) return false;
 		int idxDebug = -1;
 		int seqLength = getSequenceLength(sequenceId);
 		
 		List<AssemblyEmbedded> embeddedList = new ArrayList<AssemblyEmbedded>();
-		List<AssemblyEmbedded> emb = embeddedMapByHost.get(sequenceId);
+		List<AssemblyEmbedded> emb = embeddedByHost.get(sequenceId);
 		if(emb==null) emb = new ArrayList<AssemblyEmbedded>();
 		if(sequenceId==idxDebug) System.out.println("Finding chimeras. Embedded sequences "+emb.size());
 		embeddedList.addAll(emb);
@@ -614,9 +722,9 @@ public class AssemblyGraph {
 			}
 		}
 		int numIncompleteEdgesLeft = 0;
-		AssemblyVertex vS = verticesStart.get(sequenceId);
+		AssemblyVertex vS = verticesStart[sequenceId];
 		List<AssemblyEdge> edgesS = getEdges(vS);
-		AssemblyVertex vE = verticesEnd.get(sequenceId);
+		AssemblyVertex vE = verticesEnd[sequenceId];
 		List<AssemblyEdge> edgesE = getEdges(vE);
 		int numIncompleteEdgesRight = 0;
 		if(hostEvidenceEndsLeft.size()<5 || hostEvidenceStartsRight.size()<5) {
@@ -754,11 +862,10 @@ public class AssemblyGraph {
 	}
 	
 	private List<AssemblyEdge> selectSafeEdges( Set<Integer> repetitiveVertices ) {
-		List<AssemblyEdge> allEdges = getEdges();
 		List<AssemblyEdge> rawSafeEdges = new ArrayList<AssemblyEdge>();
 		double averageCost = 0;
 		double averageIKBP = 0;
-		for(AssemblyEdge edge:allEdges) {
+		for(AssemblyEdge edge:iterateEdges()) {
 			if(isSafeEdge(edge, repetitiveVertices)) {
 				rawSafeEdges.add(edge);
 				averageCost+=edge.getCost();
@@ -788,15 +895,18 @@ public class AssemblyGraph {
 	}
 	public Set<Integer> predictRepetitiveVertices() {
 		Distribution initialDegreesDist = new Distribution(0, 10000, 1);
-		for(AssemblyVertex v:verticesByUnique.values()) {
-			if(!isEmbedded(v.getSequenceIndex())) initialDegreesDist.processDatapoint(v.getDegreeUnfilteredGraph());
+		for(int i=0;i<verticesStart.length;i++) {
+			if(isEmbedded(i)) continue;
+			if(verticesStart[i]!=null) initialDegreesDist.processDatapoint(verticesStart[i].getDegreeUnfilteredGraph());
+			if(verticesEnd[i]!=null) initialDegreesDist.processDatapoint(verticesEnd[i].getDegreeUnfilteredGraph());
 		}
 		System.out.println("Degree average: "+initialDegreesDist.getAverage()+" variance "+initialDegreesDist.getVariance());
 		NormalDistribution distDegrees = new NormalDistribution(initialDegreesDist.getAverage(), initialDegreesDist.getVariance());
 		
 		Set<Integer> repetitiveVertices = new HashSet<Integer>();
-		for(AssemblyVertex v:verticesByUnique.values()) {
-			if(isRepetivive(v, distDegrees)) repetitiveVertices.add(v.getUniqueNumber());
+		for(int i=0;i<verticesStart.length;i++) {
+			if(verticesStart[i]!=null && isRepetivive(verticesStart[i], distDegrees)) repetitiveVertices.add(verticesStart[i].getUniqueNumber());
+			if(verticesEnd[i]!=null && isRepetivive(verticesEnd[i], distDegrees)) repetitiveVertices.add(verticesEnd[i].getUniqueNumber());
 		}
 		System.out.println("Total vertices for layout: "+initialDegreesDist.getCount()+" Number of repetitive vertices: "+repetitiveVertices.size());
 		return repetitiveVertices;
@@ -859,7 +969,7 @@ public class AssemblyGraph {
 		return minCostEdge;
 	}
 	
-	public NormalDistribution[] estimateDistributions(List<AssemblyEdge> edges, Set<Integer> repetitiveVertices) {
+	public NormalDistribution[] estimateDistributions(Iterable<AssemblyEdge> edges, Set<Integer> repetitiveVertices) {
 		Distribution overlapDistributionSafe = new Distribution(0, 100000, 1000);
 		Distribution wcskDistributionSafe = new Distribution(0, 100000, 1000);
 		Distribution wcskPropOverlapSafe = new Distribution(0, 1.1, 0.01);
@@ -930,7 +1040,7 @@ public class AssemblyGraph {
 	public void updateScores (double weightsSecondaryFeatures) {
 		updateVertexDegrees();
 		Set<Integer> repetitiveVertices = predictRepetitiveVertices();
-		NormalDistribution [] edgesDists = estimateDistributions(getEdges(),repetitiveVertices);
+		NormalDistribution [] edgesDists = estimateDistributions(iterateEdges(),repetitiveVertices);
 		System.out.println("Average overlap: "+edgesDists[0].getMean()+" SD: "+Math.sqrt(edgesDists[0].getVariance()));
 		System.out.println("Average weighted coverage shared kmers: "+edgesDists[1].getMean()+" SD: "+Math.sqrt(edgesDists[1].getVariance()));
 		System.out.println("Average WCSK proportion overlap: "+edgesDists[2].getMean()+" SD: "+Math.sqrt(edgesDists[2].getVariance()));
@@ -967,12 +1077,12 @@ public class AssemblyGraph {
 		calculator.setAverageIKBPVertices(averageIKBPVertices);
 		calculator.setAverageIKBPEmbedded(averageIKBPEmbedded);
 		calculator.setWeightsSecondaryFeatures(weightsSecondaryFeatures);
-		List<AssemblyEdge> allEdges = getEdges();
-		for(AssemblyEdge edge: allEdges) {
+		for(AssemblyEdge edge: iterateEdges()) {
 			edge.setScore(calculator.calculateScore(edge,edgesDists));
 			edge.setCost(calculator.calculateCost(edge,edgesDists));
 		}
-		for (List<AssemblyEmbedded> embeddedList:embeddedMapBySequence.values()) {
+		for (List<AssemblyEmbedded> embeddedList:embeddedBySequence) {
+			if(embeddedList==null) continue;
 			for(AssemblyEmbedded embedded:embeddedList) {
 				embedded.setScore(calculator.calculateScore(embedded, edgesDists));
 				embedded.setCost(calculator.calculateCost(embedded, edgesDists));
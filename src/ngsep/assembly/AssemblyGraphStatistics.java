@@ -339,12 +339,12 @@ public class AssemblyGraphStatistics {
 			graph.updateScores(0.5);
 			log.info("Comparing initial graph");
 			if(goldStandardGraph!=null) compareGraphs(goldStandardGraph, graph, out);
-			out.println("Initial graph statistics. Vertices: "+graph.getVertices().size()+" edges: "+graph.getNumEdges());
+			out.println("Initial graph statistics. Vertices: "+graph.getNumVertices()+" edges: "+graph.getNumEdges());
 			printStatistics(out);
 			resetStatistics();
 			log.info("Removing vertices chimeric reads");
 			graph.removeVerticesChimericReads();
-			log.info("Filtered chimeric reads. Vertices: "+graph.getVertices().size()+" edges: "+graph.getEdges().size());
+			log.info("Filtered chimeric reads. Vertices: "+graph.getNumVertices()+" edges: "+graph.getNumEdges());
 			log.info("Filtering edges and embedded");
 			(new AssemblySequencesRelationshipFilter()).filterEdgesAndEmbedded(graph, minScoreProportionEdges);
 			//log.info("Updating scores after filtering");
@@ -477,7 +477,7 @@ public class AssemblyGraphStatistics {
 				}
 			}
 		}
-		log.info("Created gold standard assembly graph with "+graph.getVertices().size()+" vertices and "+graph.getEdges().size()+" edges. Embedded: "+graph.getEmbeddedCount());
+		log.info("Created gold standard assembly graph with "+graph.getNumVertices()+" vertices and "+graph.getNumEdges()+" edges. Embedded: "+graph.getEmbeddedCount());
 		//Build gold standard layouts it must be done after knowing which sequences are embedded
 		String lastSeqName = null;
 		AssemblyPath nextPath = null;
@@ -93,7 +93,7 @@ public class AssemblyLocalSubgraphExtractor {
 	}
 	private void logSubgraph(AssemblyGraph graph) {
 		System.out.println("EDGES");
-		for(AssemblyEdge edge:graph.getEdges()) System.out.println(edge);
+		for(AssemblyEdge edge:graph.iterateEdges()) System.out.println(edge);
 		System.out.println();
 		System.out.println("EMBEDDED");
 		for(AssemblyEmbedded embedded:graph.getAllEmbedded()) {
@@ -6,11 +6,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import ngsep.alignments.PairwiseAlignerDynamicKmers;
 import ngsep.alignments.UngappedSearchHitsCluster;
-import ngsep.alignments.LongReadsAlignerFactory;
 import ngsep.alignments.MinimizersTableReadAlignmentAlgorithm;
 import ngsep.alignments.ReadAlignment;
 import ngsep.main.ThreadPoolManager;
@@ -27,13 +28,17 @@ public class AssemblyPathReadsAligner {
 	private boolean onlyGenerateConsensus = false;
 	private boolean alignEmbedded = false;
 	private int numThreads = 1;
+	private int alignmentAlgorithm = MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_DYNAMIC_KMERS;
+	private ThreadPoolManager alignmentsPool = null;
 	
 	//Output
 	private StringBuilder consensus;
 	private List<ReadAlignment> alignedReads;
 	private Set<Integer> unalignedReadIds;
 	
-	private LongReadsAlignerFactory factory = new LongReadsAlignerFactory();
+	//Aligners are reused by the threads aligning reads to the consensus, even if they align reads of different paths
+	//Each thread keeps one aligner for each alignment algorithm
+	private static ThreadLocal<MinimizersTableReadAlignmentAlgorithm []> readAligners = ThreadLocal.withInitial(()->new MinimizersTableReadAlignmentAlgorithm [MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP_FULL_MATRIX+1]);
 	
 	
 	
@@ -42,7 +47,6 @@ public class AssemblyPathReadsAligner {
 	}
 	public void setLog(Logger log) {
 		this.log = log;
-		factory.setLog(log);
 	}
 	
 	public boolean isOnlyGenerateConsensus() {
@@ -73,7 +77,41 @@ public class AssemblyPathReadsAligner {
 	}
 	public void setNumThreads(int numThreads) {
 		this.numThreads = numThreads;
-		factory.setNumThreads(numThreads);
+	}
+	/**
+	 * @return int Algorithm used to align reads to the consensus. See constants in MinimizersTableReadAlignmentAlgorithm
+	 */
+	public int getAlignmentAlgorithm() {
+		return alignmentAlgorithm;
+	}
+	/**
+	 * @param alignmentAlgorithm Algorithm used to align reads to the consensus. See constants in MinimizersTableReadAlignmentAlgorithm
+	 */
+	public void setAlignmentAlgorithm(int alignmentAlgorithm) {
+		if(alignmentAlgorithm<MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP || alignmentAlgorithm>MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_AFFINE_GAP_FULL_MATRIX) throw new IllegalArgumentException("Unrecognized alignment algorithm "+alignmentAlgorithm);
+		this.alignmentAlgorithm = alignmentAlgorithm;
+	}
+	public ThreadPoolManager getAlignmentsPool() {
+		return alignmentsPool;
+	}
+	/**
+	 * Sets a pool to align reads to the consensus. The pool can be shared by aligners of different paths.
+	 * In that case, threads finishing the reads of one path help to align the reads of other paths.
+	 * If the pool is null, a pool with the number of threads of this aligner is created for each path
+	 * @param alignmentsPool Pool to align reads. It is not terminated by this aligner
+	 */
+	public void setAlignmentsPool(ThreadPoolManager alignmentsPool) {
+		this.alignmentsPool = alignmentsPool;
+	}
+	private MinimizersTableReadAlignmentAlgorithm getReadAligner() {
+		MinimizersTableReadAlignmentAlgorithm [] aligners = readAligners.get();
+		if(aligners[alignmentAlgorithm]==null) aligners[alignmentAlgorithm] = createReadAligner(alignmentAlgorithm);
+		return aligners[alignmentAlgorithm];
+	}
+	private static MinimizersTableReadAlignmentAlgorithm createReadAligner(int alignmentAlgorithm) {
+		MinimizersTableReadAlignmentAlgorithm aligner = new MinimizersTableReadAlignmentAlgorithm(alignmentAlgorithm);
+		aligner.setLog(Logger.getLogger(AssemblyPathReadsAligner.class.getName()));
+		return aligner;
 	}
 	public void alignPathReads(AssemblyGraph graph, AssemblyPath path) {
 		int debugIdx = -1;
@@ -83,8 +121,10 @@ public class AssemblyPathReadsAligner {
 		List<AssemblyEdge> edges = path.getEdges();
 		StringBuilder rawConsensus = new StringBuilder();
 		AssemblyVertex lastVertex = path.getVertexLeft();
-		MinimizersTableReadAlignmentAlgorithm aligner = new MinimizersTableReadAlignmentAlgorithm(MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_DYNAMIC_KMERS);
-		ThreadPoolManager poolAlign = new ThreadPoolManager(numThreads, Math.max(numThreads, 100));
+		MinimizersTableReadAlignmentAlgorithm aligner = getReadAligner();
+		ThreadPoolManager poolAlign = alignmentsPool;
+		if(poolAlign==null) poolAlign = new ThreadPoolManager(numThreads, Math.max(numThreads, 100));
+		List<Future<?>> alignmentTasks = new ArrayList<>();
 		alignedReads = new ArrayList<ReadAlignment>();
 		unalignedReadIds = new HashSet<>();
 		int totalReads = 0;
@@ -165,7 +205,7 @@ public class AssemblyPathReadsAligner {
 				totalReads++;
 				try {
 					final int s = startConsensus;
-					poolAlign.queueTask(()->alignReadProcess(pathIdx, rawConsensus, kmersSubject, readIndex, read.getName(), seqStr, reverse, s,rawConsensus.length()));
+					alignmentTasks.add(poolAlign.submitTask(()->alignReadProcess(pathIdx, rawConsensus, kmersSubject, readIndex, read.getName(), seqStr, reverse, s,rawConsensus.length())));
 				} catch (InterruptedException e) {
 					//TODO: Better handling
 					e.printStackTrace();
@@ -190,7 +230,7 @@ public class AssemblyPathReadsAligner {
 						try {
 							final int s = startConsensus;
 							final int e = endConsensus;
-							poolAlign.queueTask(()->alignReadProcess(pathIdx, rawConsensus, kmersSubject, embedded.getSequenceId(), embeddedRead.getName(), embeddedString, reverseE, s, e));
+							alignmentTasks.add(poolAlign.submitTask(()->alignReadProcess(pathIdx, rawConsensus, kmersSubject, embedded.getSequenceId(), embeddedRead.getName(), embeddedString, reverseE, s, e)));
 						} catch (InterruptedException e) {
 							//TODO: Better handling
 							e.printStackTrace();
@@ -202,10 +242,13 @@ public class AssemblyPathReadsAligner {
 			lastVertex = nextVertex;
 		}
 		try {
-			poolAlign.terminatePool();
+			for(Future<?> task:alignmentTasks) task.get();
+			if(poolAlign!=alignmentsPool) poolAlign.terminatePool();
 		} catch (InterruptedException e) {
 			// TODO Better handling
 			e.printStackTrace();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error aligning reads to the consensus of path "+pathIdx, e.getCause());
 		}
 		consensus = rawConsensus;
 		log.info("Processed path "+pathIdx+". Length: "+path.getPathLength()+" Total reads: "+totalReads+" alignments: "+alignedReads.size()+" unaligned: "+unalignedReadIds.size());
@@ -220,7 +263,7 @@ public class AssemblyPathReadsAligner {
 	}
 	private void alignReadProcess(int pathIdx, StringBuilder rawConsensus, Map<Integer, Long> kmersSubject,
 			int readId, String readName, CharSequence embeddedSeq, boolean reverse, int startConsensus, int endConsensus) {
-		MinimizersTableReadAlignmentAlgorithm aligner = factory.requestLongReadsAligner(MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_DYNAMIC_KMERS);
+		MinimizersTableReadAlignmentAlgorithm aligner = getReadAligner();
 		Map<Integer, Long> selKmersSubject = selectKmers(kmersSubject,startConsensus,endConsensus);
 		ReadAlignment aln = alignRead(aligner,pathIdx, rawConsensus, embeddedSeq, selKmersSubject);
 		if(aln!=null) {
@@ -77,6 +77,7 @@ public class AssemblySequencesRelationshipFilter {
 		}
 		//graph.pruneEmbeddedSequences();
 		//System.out.println("Prunned embedded sequences.");
+		graph.setFiltered(true);
 		//if(debugIdx>=0) System.out.println("EdgesAndEmbeddedFiltering. Final number of edges: "+graph.getEdges(graph.getVertex(debugIdx, true)).size()+" "+graph.getEdges(graph.getVertex(debugIdx, false)).size());
 		//filterEdgesCloseRelationships();
 		//System.out.println("Searched vertex: "+graph.getVertex(debugIdx, false));
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
+import ngsep.alignments.MinimizersTableReadAlignmentAlgorithm;
 import ngsep.sequences.QualifiedSequence;
 
 /**
@@ -35,6 +36,8 @@ public class ConsensusBuilderBidirectionalSimple implements ConsensusBuilder {
 	private Logger log = Logger.getLogger(ConsensusBuilderBidirectionalWithPolishing.class.getName());
 	private String sequenceNamePrefix = "Contig";
 	
+	private int alignmentAlgorithm = MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_DYNAMIC_KMERS;
+	
 	public Logger getLog() {
 		return log;
 	}
@@ -50,6 +53,14 @@ public class ConsensusBuilderBidirectionalSimple implements ConsensusBuilder {
 	public void setSequenceNamePrefix(String sequenceNamePrefix) {
 		this.sequenceNamePrefix = sequenceNamePrefix;
 	}
+	
+	public int getAlignmentAlgorithm() {
+		return alignmentAlgorithm;
+	}
+
+	public void setAlignmentAlgorithm(int alignmentAlgorithm) {
+		this.alignmentAlgorithm = alignmentAlgorithm;
+	}
 
 	@Override
 	public List<QualifiedSequence> makeConsensus(AssemblyGraph graph) 
@@ -76,6 +87,7 @@ public class ConsensusBuilderBidirectionalSimple implements ConsensusBuilder {
 	{
 		AssemblyPathReadsAligner aligner = new AssemblyPathReadsAligner();
 		aligner.setLog(log);
+		aligner.setAlignmentAlgorithm(alignmentAlgorithm);
 		aligner.setOnlyGenerateConsensus(true);
 		aligner.alignPathReads(graph, path);
 		return aligner.getConsensus().toString();
@@ -24,8 +24,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import ngsep.alignments.MinimizersTableReadAlignmentAlgorithm;
 import ngsep.alignments.ReadAlignment;
 import ngsep.discovery.AlignmentsPileupGenerator;
 import ngsep.discovery.PileupListener;
@@ -34,6 +40,7 @@ import ngsep.genome.GenomicRegion;
 import ngsep.genome.GenomicRegionImpl;
 import ngsep.genome.GenomicRegionPositionComparator;
 import ngsep.genome.GenomicRegionSpanComparator;
+import ngsep.main.ThreadPoolManager;
 import ngsep.math.CountsRankHelper;
 import ngsep.math.NumberArrays;
 import ngsep.sequences.DNAMaskedSequence;
@@ -61,9 +68,14 @@ public class ConsensusBuilderBidirectionalWithPolishing implements ConsensusBuil
 	
 	private String sequenceNamePrefix = "Contig";
 	
+	private int alignmentAlgorithm = MinimizersTableReadAlignmentAlgorithm.ALIGNMENT_ALGORITHM_DYNAMIC_KMERS;
+	
 	private short normalPloidy = 1;
 	
 	private int numThreads = DEF_NUM_THREADS;
+	
+	private static final int TIMEOUT_SECONDS = 30;
+	
 	public Logger getLog() {
 		return log;
 	}
@@ -87,28 +99,73 @@ public class ConsensusBuilderBidirectionalWithPolishing implements ConsensusBuil
 	public void setNumThreads(int numThreads) {
 		this.numThreads = numThreads;
 	}
+	
+	public int getAlignmentAlgorithm() {
+		return alignmentAlgorithm;
+	}
+
+	public void setAlignmentAlgorithm(int alignmentAlgorithm) {
+		this.alignmentAlgorithm = alignmentAlgorithm;
+	}
 
 	@Override
 	public List<QualifiedSequence> makeConsensus(AssemblyGraph graph) 
 	{
-		AssemblyPathReadsAligner aligner = new AssemblyPathReadsAligner();
-		aligner.setLog(log);
-		aligner.setNumThreads(numThreads);
-		aligner.setAlignEmbedded(true);
 		List<QualifiedSequence> consensusList = new ArrayList<QualifiedSequence>();
 		List<AssemblyPath> paths = graph.getPaths(); 
+		if(paths.size()==0) return consensusList;
+		//Paths are processed in parallel. Reads of all paths are aligned by a shared pool
+		//such that threads finishing the reads of short paths help to align the reads of long paths
+		int numThreadsPaths = Math.max(1, Math.min(numThreads, paths.size()));
+		ThreadPoolManager alignmentsPool = new ThreadPoolManager(numThreads, Math.max(numThreads, 100*numThreadsPaths));
+		ThreadLocal<AssemblyPathReadsAligner> aligners = ThreadLocal.withInitial(()->createPathReadsAligner(alignmentsPool));
 		for(int i = 0; i < paths.size(); i++)
 		{
 			AssemblyPath path = paths.get(i);
-			String sequenceName = ""+sequenceNamePrefix+"_"+(i+1);
 			path.setPathId(i+1);
-			path.setSequenceName(sequenceName);
-			CharSequence consensusSequence = makeConsensus (graph, path, aligner);
-			consensusList.add(new QualifiedSequence(sequenceName,consensusSequence));	
+			path.setSequenceName(""+sequenceNamePrefix+"_"+(i+1));
+		}
+		//Long paths are scheduled first to balance the load of the threads
+		List<AssemblyPath> sortedPaths = new ArrayList<AssemblyPath>(paths);
+		Collections.sort(sortedPaths, (p1,p2)->p2.getPathLength()-p1.getPathLength());
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreadsPaths, numThreadsPaths, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		List<Future<CharSequence>> consensusSequences = new ArrayList<Future<CharSequence>>(paths.size());
+		for(int i = 0; i < paths.size(); i++) consensusSequences.add(null);
+		for(AssemblyPath path:sortedPaths) {
+			Future<CharSequence> consensusSequence = pool.submit(()->makeConsensus(graph, path, aligners.get()));
+			consensusSequences.set(path.getPathId()-1, consensusSequence);
+		}
+		try {
+			//Consensus sequences are collected in the order of the paths
+			for(int i = 0; i < paths.size(); i++) {
+				AssemblyPath path = paths.get(i);
+				CharSequence consensusSequence = consensusSequences.get(i).get();
+				consensusList.add(new QualifiedSequence(path.getSequenceName(),consensusSequence));
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error building consensus of assembly path", e.getCause());
+		} finally {
+			pool.shutdownNow();
+			try {
+				alignmentsPool.terminatePool();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
 		}
 		return consensusList;
 	}
 	
+	private AssemblyPathReadsAligner createPathReadsAligner(ThreadPoolManager alignmentsPool) {
+		AssemblyPathReadsAligner aligner = new AssemblyPathReadsAligner();
+		aligner.setLog(log);
+		aligner.setAlignmentsPool(alignmentsPool);
+		aligner.setAlignmentAlgorithm(alignmentAlgorithm);
+		aligner.setAlignEmbedded(true);
+		return aligner;
+	}
+	
 	
 	private CharSequence makeConsensus(AssemblyGraph graph, AssemblyPath path, AssemblyPathReadsAligner aligner) {
 		aligner.alignPathReads(graph, path);
@@ -3,9 +3,11 @@ package ngsep.assembly;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import ngsep.math.NumberArrays;
@@ -32,6 +34,7 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 	private KmersMap kmersMap;
 	
 	private static final int TIMEOUT_SECONDS = 30;
+	private static final int MAX_PENDING_RELATIONSHIP_LISTS = 1000;
 	
 	private static int idxDebug = -1;
 	
@@ -94,7 +97,7 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 		log.info("Mode: "+modeDepth+" Expected assembly length: "+expectedAssemblyLength);
 		
 		AssemblyGraph graph = new AssemblyGraph(sequences);
-		log.info("Created graph vertices. Edges: "+graph.getEdges().size());
+		log.info("Created graph vertices. Edges: "+graph.getNumEdges());
 		graph.setExpectedAssemblyLength(expectedAssemblyLength);
 		graph.setPloidy(ploidy);
 		
@@ -122,6 +125,7 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 			seqIdMinimizers++;
 		}
 		waitToFinish(sequences.size(), poolMinimizers1);
+		table.freeze();
 		long usedMemory = runtime.totalMemory()-runtime.freeMemory();
 		usedMemory/=1000000000;
 		long time2 = System.currentTimeMillis();
@@ -139,7 +143,7 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 			CharSequence seq = sequences.get(seqId).getCharacters();
 			double compressionFactor = compressionFactors!=null?compressionFactors[seqId]:1;
 			final int i = seqId;
-			poolSearch.execute(()->processSequence(edgesFinder, table, i, seq, compressionFactor, true, relationshipsPerSequence));
+			poolSearch.execute(()->processSequence(edgesFinder, table, i, seq, compressionFactor, relationshipsPerSequence, null));
 		}
 		waitToFinish(sequences.size(), poolSearch);
 		int countCurrentEmbedded = 0;
@@ -166,6 +170,7 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 			}
 		}
 		waitToFinish(sequences.size(), poolMinimizers2);
+		table.freeze();
 		usedMemory = runtime.totalMemory()-runtime.freeMemory();
 		usedMemory/=1000000000;
 		long time4 = System.currentTimeMillis();
@@ -174,21 +179,24 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 		edgesFinder.setCompleteAlignment(false);
 		edgesFinder.setExtensiveSearch(true);
 		
+		RelationshipsMerger merger = new RelationshipsMerger(graph, runtime);
+		log.info("Adding relationships to graph");
 		ThreadPoolExecutor poolSearch2 = new ThreadPoolExecutor(numThreads, numThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 		for (int seqId = 0; seqId < sequences.size(); seqId++) {
 			CharSequence seq = sequences.get(seqId).getCharacters();
 			double compressionFactor = compressionFactors!=null?compressionFactors[seqId]:1;
 			final int i = seqId;
-			poolSearch2.execute(()->processSequence(edgesFinder, table, i, seq, compressionFactor, false, relationshipsPerSequence));
+			poolSearch2.execute(()->processSequence(edgesFinder, table, i, seq, compressionFactor, relationshipsPerSequence, merger));
 			//if ((seqId+1)%1000==0) log.info("Scheduled sequence "+(seqId+1));
 		}
-		addRelationshipsToGraph(graph, relationshipsPerSequence, runtime);
-		waitToFinish(sequences.size(), poolSearch2);
+		waitToTerminate(poolSearch2);
+		merger.merge();
+		if(merger.getNextSequenceId()<sequences.size()) throw new RuntimeException("Relationships could not be added to the graph for sequence "+merger.getNextSequenceId());
 		usedMemory = runtime.totalMemory()-runtime.freeMemory();
 		usedMemory/=1000000000;
 		long time5 = System.currentTimeMillis();
 		diff = (time5-time4)/1000;
-		log.info("Built graph. Edges: "+graph.getEdges().size()+" Embedded: "+graph.getEmbeddedCount()+" Memory: "+usedMemory+" Time graph construction (s): "+diff);
+		log.info("Built graph. Edges: "+graph.getNumEdges()+" Embedded: "+graph.getEmbeddedCount()+" Memory: "+usedMemory+" Time graph construction (s): "+diff);
 		//log.info(" Raw hits for "+edgesFinder.getCountRawHits()+" sequences. Completed hits for "+edgesFinder.getCountCompletedHits()+" sequences");
 		return graph;
 	}
@@ -202,8 +210,15 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 		table.addSequence(seqId, seq);
 		if (seqId%1000==0) log.info("Processed "+(seqId)+" sequences. Total minimizers: "+table.size()+" total entries: "+table.getTotalEntries());
 	}
-	//private void processSequence(KmerHitsAssemblyEdgesFinder finder, MinimizersTable table, int seqId, CharSequence seq, double compressionFactor, boolean onlyEmbedded, List<List<AssemblySequencesRelationship>> relationshipsPerSequence ) {
-	private void processSequence(KmerHitsAssemblyEdgesFinder finder, ShortKmerCodesTable table, int seqId, CharSequence seq, double compressionFactor, boolean onlyEmbedded, List<List<AssemblySequencesRelationship>> relationshipsPerSequence ) {
+	/**
+	 * Identifies the relationships of the given sequence with sequences having smaller ids.
+	 * If a merger is not provided, only good embedded relationships are identified and stored in the given list.
+	 * Otherwise, relationships are passed to the merger to add them to the graph
+	 */
+	//private void processSequence(KmerHitsAssemblyEdgesFinder finder, MinimizersTable table, int seqId, CharSequence seq, double compressionFactor, List<List<AssemblySequencesRelationship>> relationshipsPerSequence, RelationshipsMerger merger ) {
+	private void processSequence(KmerHitsAssemblyEdgesFinder finder, ShortKmerCodesTable table, int seqId, CharSequence seq, double compressionFactor, List<List<AssemblySequencesRelationship>> relationshipsPerSequence, RelationshipsMerger merger ) {
+		boolean onlyEmbedded = merger==null;
+		boolean added = false;
 		try {
 			List<AssemblySequencesRelationship> rels = relationshipsPerSequence.get(seqId);  
 			if(rels==null) {
@@ -212,11 +227,17 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 				Map<Integer,List<UngappedSearchHit>> hitsReverse = table.match(seqId, complement);
 				rels = finder.inferRelationshipsFromKmerHits(seqId, seq.toString(), complement, hitsForward, hitsReverse, compressionFactor);
 				//rels = new ArrayList<AssemblySequencesRelationship>();
-				if(!onlyEmbedded) relationshipsPerSequence.set(seqId, rels);
-				else {
+				if(onlyEmbedded) {
 					rels = selectGoodEmbedded(rels);
 					if(rels.size()>=ploidy) relationshipsPerSequence.set(seqId, rels);
 				}
+			} else if (!onlyEmbedded) {
+				//The list is not needed after the relationships are added to the graph
+				relationshipsPerSequence.set(seqId, null);
+			}
+			if(!onlyEmbedded) {
+				added = true;
+				merger.add(seqId, rels);
 			}
 			if ((seqId)%1000==0) {
 				int edges = 0;
@@ -228,8 +249,9 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 				log.info("Identified relationships for sequence "+(seqId) +" Candidate edges: "+edges+"  candidate embedded hosts "+embedded);
 				//if (onlyEmbedded) log.info("List: "+relationshipsPerSequence.get(seqId));
 			}
-		} catch (RuntimeException e) {
-			if(!onlyEmbedded) relationshipsPerSequence.set(seqId, new ArrayList<AssemblySequencesRelationship>());
+		} catch (RuntimeException | Error e) {
+			//The merger waits for a list for each sequence
+			if(!onlyEmbedded && !added) merger.add(seqId, new ArrayList<AssemblySequencesRelationship>());
 			throw e;
 		}
 	}
@@ -244,33 +266,96 @@ public class GraphBuilderMinimizers implements GraphBuilder {
 		}
 		return answer;
 	}
-	private void addRelationshipsToGraph(AssemblyGraph graph, List<List<AssemblySequencesRelationship>> relationshipsPerSequence, Runtime runtime) {
-		int n = relationshipsPerSequence.size();
-		int i=0;
-		log.info("Adding relationships to graph");
-		while(i<n) {
-			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
-				throw new RuntimeException("Add relationships thread interrupted", e);
-			}
-			for(;i<n;i++) {
-				List<AssemblySequencesRelationship> nextList = relationshipsPerSequence.get(i);
-				if(nextList == null) break;
-				//if ((i+1)%1000==0) log.info("Adding relationships for sequence "+(i+1) +" Relationships sequence: "+nextList.size());
-				for(AssemblySequencesRelationship next:nextList) {
-					if(next instanceof AssemblyEmbedded) graph.addEmbedded((AssemblyEmbedded)next);
-					if(next instanceof AssemblyEdge) graph.addEdge((AssemblyEdge)next);
+	/**
+	 * Adds to the graph the relationships identified by the threads processing sequences as soon as
+	 * the relationships of all previous sequences have been added. The thread that delivers the next
+	 * expected list adds the pending lists while other threads continue processing sequences.
+	 * Lists are released once they are added. The number of lists waiting for previous sequences is bounded.
+	 * When the limit is reached, threads delivering lists wait until the next expected list is added.
+	 * Because the relationships are added following the order of the sequences, the graph does not depend
+	 * on the number of threads
+	 */
+	private class RelationshipsMerger {
+		private AssemblyGraph graph;
+		private Runtime runtime;
+		private Map<Integer,List<AssemblySequencesRelationship>> pendingLists = new ConcurrentHashMap<Integer, List<AssemblySequencesRelationship>>();
+		private ReentrantLock mergeLock = new ReentrantLock();
+		private volatile int nextSequenceId = 0;
+		
+		public RelationshipsMerger(AssemblyGraph graph, Runtime runtime) {
+			this.graph = graph;
+			this.runtime = runtime;
+		}
+		
+		public int getNextSequenceId() {
+			return nextSequenceId;
+		}
+		
+		/**
+		 * Adds the relationships of the given sequence. This method must be called exactly once for each sequence
+		 * @param seqId Id of the sequence
+		 * @param rels Relationships of the sequence with sequences having smaller ids
+		 */
+		public void add(int seqId, List<AssemblySequencesRelationship> rels) {
+			synchronized (this) {
+				try {
+					//The thread delivering the next expected list never waits, so the merge always advances
+					while(seqId!=nextSequenceId && pendingLists.size()>=MAX_PENDING_RELATIONSHIP_LISTS) wait();
+				} catch (InterruptedException e) {
+					//The list is added anyway because the merge of the next sequences depends on it
+					Thread.currentThread().interrupt();
 				}
-				//nextList.clear();
-				if(i == idxDebug) log.info("Edges start: "+graph.getEdges(graph.getVertex(i, true)).size()+" edges end: "+graph.getEdges(graph.getVertex(i, false)).size()+" Embedded: "+graph.getEmbeddedBySequenceId(i));
-				if ((i+1)%10000==0) {
-					long usedMemory = runtime.totalMemory()-runtime.freeMemory();
-					usedMemory/=1000000000;
-					log.info("Processed "+(i+1) +" sequences. Number of edges: "+graph.getNumEdges()+ " Embedded: "+graph.getEmbeddedCount()+" Memory: "+usedMemory);
+				pendingLists.put(seqId, rels);
+			}
+			merge();
+		}
+		
+		public void merge() {
+			while(true) {
+				//If another thread is merging, it will find the list added by this thread
+				if(!mergeLock.tryLock()) return;
+				try {
+					List<AssemblySequencesRelationship> nextList;
+					while((nextList = pendingLists.remove(nextSequenceId))!=null) {
+						addRelationshipsToGraph(nextSequenceId, nextList);
+						nextSequenceId++;
+					}
+				} finally {
+					mergeLock.unlock();
+					synchronized (this) {
+						notifyAll();
+					}
 				}
-				//if ((seqId+1)%100==0) log.info("Processed "+(seqId+1) +" sequences. Number of edges: "+graph.getNumEdges()+ " Embedded: "+graph.getEmbeddedCount());
-			}	
+				//The next list could have been added after the last check but before the lock was released
+				if(!pendingLists.containsKey(nextSequenceId)) return;
+			}
+		}
+		
+		private void addRelationshipsToGraph(int i, List<AssemblySequencesRelationship> nextList) {
+			//if ((i+1)%1000==0) log.info("Adding relationships for sequence "+(i+1) +" Relationships sequence: "+nextList.size());
+			for(AssemblySequencesRelationship next:nextList) {
+				if(next instanceof AssemblyEmbedded) graph.addEmbedded((AssemblyEmbedded)next);
+				if(next instanceof AssemblyEdge) graph.addEdge((AssemblyEdge)next);
+			}
+			if(i == idxDebug) log.info("Edges start: "+graph.getEdges(graph.getVertex(i, true)).size()+" edges end: "+graph.getEdges(graph.getVertex(i, false)).size()+" Embedded: "+graph.getEmbeddedBySequenceId(i));
+			if ((i+1)%10000==0) {
+				long usedMemory = runtime.totalMemory()-runtime.freeMemory();
+				usedMemory/=1000000000;
+				log.info("Processed "+(i+1) +" sequences. Number of edges: "+graph.getNumEdges()+ " Embedded: "+graph.getEmbeddedCount()+" Memory: "+usedMemory);
+			}
+			//if ((seqId+1)%100==0) log.info("Processed "+(seqId+1) +" sequences. Number of edges: "+graph.getNumEdges()+ " Embedded: "+graph.getEmbeddedCount());
+		}
+	}
+	/**
+	 * Waits for all the tasks of the given pool without a time limit
+	 * @param pool Pool to shutdown
+	 */
+	private void waitToTerminate(ThreadPoolExecutor pool) {
+		pool.shutdown();
+		try {
+			while(!pool.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
 		}
 	}
 	private void waitToFinish(int time, ThreadPoolExecutor pool) {
@@ -1,14 +1,26 @@
 package ngsep.assembly.io;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import ngsep.assembly.AssemblyEdge;
@@ -16,9 +28,25 @@ import ngsep.assembly.AssemblyEmbedded;
 import ngsep.assembly.AssemblyGraph;
 import ngsep.assembly.AssemblyVertex;
 import ngsep.main.io.ConcatGZIPInputStream;
+import ngsep.sequences.DNAMaskedSequence;
 import ngsep.sequences.QualifiedSequence;
 
 public class AssemblyGraphFileHandler {
+	/**
+	 * Magic bytes at the start of binary graph files
+	 */
+	private static final byte [] BINARY_FORMAT_MAGIC = "NGSEPAGB".getBytes(StandardCharsets.US_ASCII);
+	/**
+	 * Version of the binary format. It should be updated every time the layout of the file changes
+	 */
+	public static final int BINARY_FORMAT_VERSION = 1;
+	/**
+	 * Maximum number of relationships saved in each block of columns
+	 */
+	private static final int BINARY_BLOCK_SIZE = 1<<16;
+	private static final int NUM_COLUMNS_EMBEDDED = 19;
+	private static final int NUM_COLUMNS_EDGES = 20;
+	
 	public static void save(AssemblyGraph graph, String outFileGraph) throws IOException {
 		try (OutputStream os = new GZIPOutputStream(new FileOutputStream(outFileGraph));
 			 PrintStream out = new PrintStream(os)) {
@@ -39,15 +67,324 @@ public class AssemblyGraphFileHandler {
 			}
 			
 			out.println("#EDGES");
-			List<AssemblyEdge> edges = graph.getEdges();
-			for(AssemblyEdge edge:edges) {
+			for(AssemblyEdge edge:graph.iterateEdges()) {
 				saveEdge(edge, out);
 			}
 			
 		}
 	}
 	
+	/**
+	 * Saves the given graph in binary format. The file includes the sequences with their characters.
+	 * Embedded relationships and edges are saved in blocks of integer columns. Removed vertices, degrees, scores and costs
+	 * are also saved to restore the graph in the same state, including the order of the relationships of each sequence
+	 * @param graph to save
+	 * @param outFileGraph Name of the output file
+	 * @throws IOException If the file can not be written
+	 */
+	public static void saveBinary(AssemblyGraph graph, String outFileGraph) throws IOException {
+		try (FileOutputStream fos = new FileOutputStream(outFileGraph)) {
+			DataOutputStream header = new DataOutputStream(fos);
+			header.write(BINARY_FORMAT_MAGIC);
+			header.writeInt(BINARY_FORMAT_VERSION);
+			header.flush();
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fos, 65536), 1048576))) {
+				saveBinary(graph, out);
+			}
+		}
+	}
+	private static void saveBinary(AssemblyGraph graph, DataOutputStream out) throws IOException {
+		List<QualifiedSequence> sequences = graph.getSequences();
+		int n = sequences.size();
+		out.writeInt(n);
+		out.writeBoolean(graph.isFiltered());
+		out.writeInt(graph.getPloidy());
+		out.writeLong(graph.getExpectedAssemblyLength());
+		for(QualifiedSequence seq:sequences) {
+			byte [] name = seq.getName().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(name.length);
+			out.write(name);
+			byte [] characters = seq.getCharacters().toString().getBytes(StandardCharsets.US_ASCII);
+			out.writeInt(characters.length);
+			out.write(characters);
+		}
+		//Degrees of the vertices. Removed vertices are saved with degree -1
+		int [] degrees = new int [2*n];
+		for(int i=0;i<n;i++) {
+			AssemblyVertex vS = graph.getVertex(i, true);
+			degrees[2*i] = vS!=null?vS.getDegreeUnfilteredGraph():-1;
+			AssemblyVertex vE = graph.getVertex(i, false);
+			degrees[2*i+1] = vE!=null?vE.getDegreeUnfilteredGraph():-1;
+		}
+		writeInts(out, degrees, degrees.length);
+		
+		//Embedded relationships are saved in an order keeping the order of the lists of each embedded sequence and of each host
+		//List 2i has the relationships of sequence i as embedded and list 2i+1 has the relationships of sequence i as host
+		int total = 0;
+		for(int i=0;i<n;i++) {
+			if(graph.isEmbedded(i)) total+=graph.getEmbeddedBySequenceId(i).size();
+		}
+		out.writeInt(total);
+		Iterator<AssemblyEmbedded> itEmbedded = new InsertionOrderIterator<AssemblyEmbedded>(2*n, (l)->(l%2==0)?graph.getEmbeddedBySequenceId(l/2):graph.getEmbeddedByHostId(l/2), (e)->2*e.getSequenceId(), (e)->2*e.getHostId()+1);
+		int [][] columns = new int [NUM_COLUMNS_EMBEDDED][BINARY_BLOCK_SIZE];
+		int saved = 0;
+		int j = 0;
+		while(itEmbedded.hasNext()) {
+			encodeEmbedded(itEmbedded.next(), columns, j++);
+			saved++;
+			if(j==BINARY_BLOCK_SIZE || saved==total) {
+				for(int c=0;c<columns.length;c++) writeInts(out, columns[c], j);
+				j=0;
+			}
+		}
+		if(saved!=total) throw new IOException("Inconsistent embedded relationships. Expected: "+total+" saved: "+saved);
+		
+		//Edges are saved in an order keeping the order of the adjacency list of each vertex
+		total = 0;
+		for(Iterator<AssemblyEdge> it = graph.iterateEdges().iterator();it.hasNext();it.next()) total++;
+		out.writeInt(total);
+		Iterator<AssemblyEdge> itEdges = new InsertionOrderIterator<AssemblyEdge>(2*n, (l)->getEdges(graph, l), (e)->getVertexPosition(e.getVertex1()), (e)->getVertexPosition(e.getVertex2()));
+		columns = new int [NUM_COLUMNS_EDGES][BINARY_BLOCK_SIZE];
+		saved = 0;
+		j = 0;
+		while(itEdges.hasNext()) {
+			encodeEdge(itEdges.next(), columns, j++);
+			saved++;
+			if(j==BINARY_BLOCK_SIZE || saved==total) {
+				for(int c=0;c<columns.length;c++) writeInts(out, columns[c], j);
+				j=0;
+			}
+		}
+		if(saved!=total) throw new IOException("Inconsistent edges. Expected: "+total+" saved: "+saved);
+	}
+	private static int getVertexPosition(AssemblyVertex vertex) {
+		return 2*vertex.getSequenceIndex()+(vertex.isStart()?0:1);
+	}
+	private static List<AssemblyEdge> getEdges(AssemblyGraph graph, int vertexPosition) {
+		AssemblyVertex vertex = graph.getVertex(vertexPosition/2, vertexPosition%2==0);
+		if(vertex==null) return null;
+		return graph.getEdges(vertex);
+	}
+	/**
+	 * Visits relationships in an order to add them to a graph such that the relationships within each list keep their relative order.
+	 * Every relationship belongs to two different lists. A relationship is visited when it is the next relationship to visit in both lists.
+	 * Only counters per list are kept, to avoid creating structures with one entry per relationship
+	 */
+	private static class InsertionOrderIterator<T> implements Iterator<T> {
+		private IntFunction<List<T>> lists;
+		private ToIntFunction<T> firstList;
+		private ToIntFunction<T> secondList;
+		private int numLists;
+		//Number of relationships visited from each list
+		private int [] visited;
+		//Lists whose next relationship could be ready to be visited
+		private int [] pending;
+		private boolean [] isPending;
+		private int numPending = 0;
+		//Next list to visit if the orders of the lists are not consistent
+		private int nextListInconsistent = 0;
+		private T next;
+		
+		public InsertionOrderIterator(int numLists, IntFunction<List<T>> lists, ToIntFunction<T> firstList, ToIntFunction<T> secondList) {
+			this.numLists = numLists;
+			this.lists = lists;
+			this.firstList = firstList;
+			this.secondList = secondList;
+			visited = new int [numLists];
+			pending = new int [numLists];
+			isPending = new boolean [numLists];
+			for(int l=numLists-1;l>=0;l--) {
+				List<T> list = lists.apply(l);
+				if(list==null || list.size()==0) continue;
+				pending[numPending++] = l;
+				isPending[l] = true;
+			}
+			advance();
+		}
+		private void advance() {
+			next = null;
+			while(numPending>0) {
+				int l = pending[numPending-1];
+				List<T> list = lists.apply(l);
+				if(visited[l]<list.size()) {
+					T relationship = list.get(visited[l]);
+					int other = firstList.applyAsInt(relationship);
+					if(other==l) other = secondList.applyAsInt(relationship);
+					List<T> otherList = lists.apply(other);
+					if(otherList.get(visited[other])==relationship) {
+						visited[l]++;
+						visited[other]++;
+						//The next relationship of the other list could be ready now
+						if(!isPending[other]) {
+							pending[numPending++] = other;
+							isPending[other] = true;
+						}
+						next = relationship;
+						return;
+					}
+					//The other list will visit this relationship once the relationships before it are visited
+				}
+				numPending--;
+				isPending[l] = false;
+			}
+			//Relationships within inconsistent lists keep the order of their first list
+			for(;nextListInconsistent<numLists;nextListInconsistent++) {
+				List<T> list = lists.apply(nextListInconsistent);
+				if(list==null) continue;
+				while(visited[nextListInconsistent]<list.size()) {
+					T relationship = list.get(visited[nextListInconsistent]++);
+					if(firstList.applyAsInt(relationship)==nextListInconsistent) {
+						next = relationship;
+						return;
+					}
+				}
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			return next!=null;
+		}
+		@Override
+		public T next() {
+			if(next==null) throw new NoSuchElementException();
+			T answer = next;
+			advance();
+			return answer;
+		}
+	}
+	private static void encodeEmbedded(AssemblyEmbedded embedded, int [][] columns, int j) {
+		int c = 0;
+		columns[c++][j] = embedded.getSequenceId();
+		columns[c++][j] = embedded.getHostId();
+		columns[c++][j] = embedded.getHostStart();
+		columns[c++][j] = embedded.getHostEnd();
+		columns[c++][j] = embedded.isReverse()?1:0;
+		columns[c++][j] = embedded.getHostStartStandardDeviation();
+		columns[c++][j] = embedded.getRawKmerHits();
+		columns[c++][j] = embedded.getRawKmerHitsSubjectStartSD();
+		columns[c++][j] = embedded.getNumSharedKmers();
+		columns[c++][j] = embedded.getCoverageSharedKmers();
+		columns[c++][j] = embedded.getWeightedCoverageSharedKmers();
+		columns[c++][j] = embedded.getNumIndels();
+		columns[c++][j] = embedded.getHostEvidenceStart();
+		columns[c++][j] = embedded.getHostEvidenceEnd();
+		columns[c++][j] = embedded.getSequenceEvidenceStart();
+		columns[c++][j] = embedded.getSequenceEvidenceEnd();
+		columns[c++][j] = embedded.getNumMismatches();
+		columns[c++][j] = embedded.getScore();
+		columns[c++][j] = embedded.getCost();
+	}
+	private static AssemblyEmbedded decodeEmbedded(int [][] columns, int j, List<QualifiedSequence> sequences) {
+		int c = 0;
+		int embSeqId = columns[c++][j];
+		int hostId = columns[c++][j];
+		int hostStart = columns[c++][j];
+		int hostEnd = columns[c++][j];
+		boolean reverse = columns[c++][j]==1;
+		AssemblyEmbedded embedded = new AssemblyEmbedded(embSeqId, sequences.get(embSeqId), reverse, hostId, sequences.get(hostId), hostStart, hostEnd);
+		embedded.setHostStartStandardDeviation(columns[c++][j]);
+		embedded.setRawKmerHits(columns[c++][j]);
+		embedded.setRawKmerHitsSubjectStartSD(columns[c++][j]);
+		embedded.setNumSharedKmers(columns[c++][j]);
+		embedded.setCoverageSharedKmers(columns[c++][j]);
+		embedded.setWeightedCoverageSharedKmers(columns[c++][j]);
+		embedded.setNumIndels(columns[c++][j]);
+		embedded.setHostEvidenceStart(columns[c++][j]);
+		embedded.setHostEvidenceEnd(columns[c++][j]);
+		embedded.setSequenceEvidenceStart(columns[c++][j]);
+		embedded.setSequenceEvidenceEnd(columns[c++][j]);
+		embedded.setNumMismatches(columns[c++][j]);
+		embedded.setScore(columns[c++][j]);
+		embedded.setCost(columns[c++][j]);
+		return embedded;
+	}
+	private static void encodeEdge(AssemblyEdge edge, int [][] columns, int j) {
+		int c = 0;
+		columns[c++][j] = edge.getVertex1().getUniqueNumber();
+		columns[c++][j] = edge.getVertex2().getUniqueNumber();
+		columns[c++][j] = edge.getOverlap();
+		columns[c++][j] = edge.getOverlapStandardDeviation();
+		columns[c++][j] = edge.getAverageOverlap();
+		columns[c++][j] = edge.getMedianOverlap();
+		columns[c++][j] = edge.getFromLimitsOverlap();
+		columns[c++][j] = edge.getRawKmerHits();
+		columns[c++][j] = edge.getRawKmerHitsSubjectStartSD();
+		columns[c++][j] = edge.getNumSharedKmers();
+		columns[c++][j] = edge.getCoverageSharedKmers();
+		columns[c++][j] = edge.getWeightedCoverageSharedKmers();
+		columns[c++][j] = edge.getNumIndels();
+		columns[c++][j] = edge.getVertex1EvidenceStart();
+		columns[c++][j] = edge.getVertex1EvidenceEnd();
+		columns[c++][j] = edge.getVertex2EvidenceStart();
+		columns[c++][j] = edge.getVertex2EvidenceEnd();
+		columns[c++][j] = edge.getNumMismatches();
+		columns[c++][j] = edge.getScore();
+		columns[c++][j] = edge.getCost();
+	}
+	private static AssemblyEdge decodeEdge(int [][] columns, int j, AssemblyGraph graph) throws IOException {
+		int c = 0;
+		int v1Idx = columns[c++][j];
+		int v2Idx = columns[c++][j];
+		int overlap = columns[c++][j];
+		AssemblyVertex v1 = graph.getVertexByUniqueId(v1Idx);
+		AssemblyVertex v2 = graph.getVertexByUniqueId(v2Idx);
+		if(v1==null || v2==null) throw new IOException("Edge between removed or unknown vertices "+v1Idx+" "+v2Idx);
+		AssemblyEdge edge;
+		if(v1.getSequenceIndex()==v2.getSequenceIndex()) edge = graph.getSameSequenceEdge(v1);
+		else edge = new AssemblyEdge(v1, v2, overlap);
+		edge.setOverlapStandardDeviation(columns[c++][j]);
+		edge.setAverageOverlap(columns[c++][j]);
+		edge.setMedianOverlap(columns[c++][j]);
+		edge.setFromLimitsOverlap(columns[c++][j]);
+		edge.setRawKmerHits(columns[c++][j]);
+		edge.setRawKmerHitsSubjectStartSD(columns[c++][j]);
+		edge.setNumSharedKmers(columns[c++][j]);
+		edge.setCoverageSharedKmers(columns[c++][j]);
+		edge.setWeightedCoverageSharedKmers(columns[c++][j]);
+		edge.setNumIndels(columns[c++][j]);
+		edge.setVertex1EvidenceStart(columns[c++][j]);
+		edge.setVertex1EvidenceEnd(columns[c++][j]);
+		edge.setVertex2EvidenceStart(columns[c++][j]);
+		edge.setVertex2EvidenceEnd(columns[c++][j]);
+		edge.setNumMismatches(columns[c++][j]);
+		edge.setScore(columns[c++][j]);
+		edge.setCost(columns[c++][j]);
+		return edge;
+	}
+	private static void writeInts(DataOutputStream out, int [] values, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4*length);
+		buffer.asIntBuffer().put(values, 0, length);
+		out.write(buffer.array());
+	}
+	private static int [] readInts(DataInputStream in, int length) throws IOException {
+		byte [] bytes = new byte [4*length];
+		in.readFully(bytes);
+		int [] answer = new int [length];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(answer);
+		return answer;
+	}
+	/**
+	 * Checks if the given file contains a graph saved in binary format
+	 * @param graphFilename Name of the file to check
+	 * @return boolean true if the file starts with the magic bytes of the binary format
+	 * @throws IOException If the file can not be read
+	 */
+	public static boolean isBinaryGraphFile(String graphFilename) throws IOException {
+		try (FileInputStream fis = new FileInputStream(graphFilename)) {
+			byte [] magic = new byte [BINARY_FORMAT_MAGIC.length];
+			int read = fis.readNBytes(magic, 0, magic.length);
+			return read==magic.length && Arrays.equals(magic, BINARY_FORMAT_MAGIC);
+		}
+	}
+	/**
+	 * Loads the graph saved in the given file. Both the text and the binary formats are supported
+	 * @param sequences of the graph. For binary files, if this list is null, the sequences saved in the file are used 
+	 * @param graphFilename Name of the file with the graph
+	 * @return AssemblyGraph loaded from the file
+	 * @throws IOException If the file can not be read or its format is not valid
+	 */
 	public static AssemblyGraph load(List<QualifiedSequence> sequences, String graphFilename) throws IOException {
+		if(isBinaryGraphFile(graphFilename)) return loadBinary(sequences, graphFilename);
 		AssemblyGraph graph = new AssemblyGraph(sequences);
 		String line = null;
 		try (ConcatGZIPInputStream gzs = new ConcatGZIPInputStream(new FileInputStream(graphFilename));
@@ -90,6 +427,115 @@ public class AssemblyGraphFileHandler {
 		graph.updateVertexDegrees();
 		return graph;
 	}
+	
+	private static AssemblyGraph loadBinary(List<QualifiedSequence> sequences, String graphFilename) throws IOException {
+		try (FileInputStream fis = new FileInputStream(graphFilename);
+			 DataInputStream in = openBinary(fis, graphFilename)) {
+			return loadBinary(sequences, in);
+		}
+	}
+	/**
+	 * Checks the header of a binary graph file and opens the compressed stream with the graph
+	 * @param fis Stream of the file at its first byte
+	 * @param graphFilename Name of the file for error messages
+	 * @return DataInputStream Stream to read the graph
+	 * @throws IOException If the header is not valid
+	 */
+	private static DataInputStream openBinary(FileInputStream fis, String graphFilename) throws IOException {
+		DataInputStream header = new DataInputStream(fis);
+		byte [] magic = new byte [BINARY_FORMAT_MAGIC.length];
+		header.readFully(magic);
+		if(!Arrays.equals(magic, BINARY_FORMAT_MAGIC)) throw new IOException("File "+graphFilename+" does not contain a graph in binary format");
+		int version = header.readInt();
+		if(version!=BINARY_FORMAT_VERSION) throw new IOException("Unsupported version of the binary format: "+version+". Current version: "+BINARY_FORMAT_VERSION);
+		return new DataInputStream(new BufferedInputStream(new GZIPInputStream(fis, 65536), 1048576));
+	}
+	/**
+	 * Loads the names and lengths of the sequences of a binary graph file. Characters of the sequences
+	 * are skipped and the relationships are not read
+	 * @param graphFilename Name of the file with the graph
+	 * @return List<QualifiedSequence> Sequences with names and lengths
+	 * @throws IOException If the file can not be read or its format is not valid
+	 */
+	private static List<QualifiedSequence> loadSequenceNamesFromBinaryGraphFile(String graphFilename) throws IOException {
+		try (FileInputStream fis = new FileInputStream(graphFilename);
+			 DataInputStream in = openBinary(fis, graphFilename)) {
+			int n = in.readInt();
+			//Filtered flag, ploidy and expected assembly length
+			in.readBoolean();
+			in.readInt();
+			in.readLong();
+			List<QualifiedSequence> sequenceNames = new ArrayList<QualifiedSequence>(n);
+			for(int i=0;i<n;i++) {
+				byte [] nameBytes = new byte [in.readInt()];
+				in.readFully(nameBytes);
+				int length = in.readInt();
+				for(int skipped=0;skipped<length;) {
+					int k = in.skipBytes(length-skipped);
+					if(k<=0) throw new IOException("Unexpected end of file reading sequence "+i);
+					skipped+=k;
+				}
+				QualifiedSequence seq = new QualifiedSequence(new String(nameBytes, StandardCharsets.UTF_8));
+				seq.setLength(length);
+				sequenceNames.add(seq);
+			}
+			return sequenceNames;
+		}
+	}
+	private static AssemblyGraph loadBinary(List<QualifiedSequence> sequences, DataInputStream in) throws IOException {
+		int n = in.readInt();
+		boolean filtered = in.readBoolean();
+		int ploidy = in.readInt();
+		long expectedAssemblyLength = in.readLong();
+		if(sequences!=null && sequences.size()!=n) throw new IOException("Unexpected number of sequences. Double check that the graph was built from the given sequences or build again the graph. Expected: "+sequences.size()+" loaded: "+n);
+		List<QualifiedSequence> savedSequences = new ArrayList<QualifiedSequence>(n);
+		for(int i=0;i<n;i++) {
+			byte [] nameBytes = new byte [in.readInt()];
+			in.readFully(nameBytes);
+			String name = new String(nameBytes, StandardCharsets.UTF_8);
+			byte [] characters = new byte [in.readInt()];
+			in.readFully(characters);
+			if(sequences==null) {
+				savedSequences.add(new QualifiedSequence(name, new DNAMaskedSequence(new String(characters, StandardCharsets.US_ASCII))));
+				continue;
+			}
+			QualifiedSequence seq = sequences.get(i);
+			if(!seq.getName().equals(name)) throw new IOException("Unexpected name for sequence " +i+". Double check that the graph was built from the given sequences or build again the graph. Expected: "+seq.getName()+" loaded: "+name);
+			if(seq.getLength()!=characters.length) throw new IOException("Unexpected length for sequence " +i+". Sequence name: "+seq.getName()+". Double check that the graph was built from the given sequences or build again the graph. Expected: "+seq.getLength()+" loaded: "+characters.length);
+		}
+		if(sequences==null) sequences = savedSequences;
+		AssemblyGraph graph = new AssemblyGraph(sequences);
+		graph.setPloidy(ploidy);
+		graph.setExpectedAssemblyLength(expectedAssemblyLength);
+		int [] degrees = readInts(in, 2*n);
+		for(int i=0;i<n;i++) {
+			if(degrees[2*i]<0 || degrees[2*i+1]<0) {
+				graph.removeVertices(i);
+				continue;
+			}
+			graph.getVertex(i, true).setDegreeUnfilteredGraph(degrees[2*i]);
+			graph.getVertex(i, false).setDegreeUnfilteredGraph(degrees[2*i+1]);
+		}
+		int total = in.readInt();
+		int [][] columns = new int [NUM_COLUMNS_EMBEDDED][];
+		for(int start=0;start<total;start+=BINARY_BLOCK_SIZE) {
+			int blockSize = Math.min(BINARY_BLOCK_SIZE, total-start);
+			for(int c=0;c<columns.length;c++) columns[c] = readInts(in, blockSize);
+			for(int j=0;j<blockSize;j++) graph.addEmbedded(decodeEmbedded(columns, j, sequences));
+		}
+		total = in.readInt();
+		columns = new int [NUM_COLUMNS_EDGES][];
+		for(int start=0;start<total;start+=BINARY_BLOCK_SIZE) {
+			int blockSize = Math.min(BINARY_BLOCK_SIZE, total-start);
+			for(int c=0;c<columns.length;c++) columns[c] = readInts(in, blockSize);
+			for(int j=0;j<blockSize;j++) {
+				AssemblyEdge edge = decodeEdge(columns, j, graph);
+				if(!edge.isSameSequenceEdge()) graph.addEdge(edge);
+			}
+		}
+		graph.setFiltered(filtered);
+		return graph;
+	}
 
 	
 	
@@ -186,6 +632,7 @@ public class AssemblyGraphFileHandler {
 	}
 	
 	public static List<QualifiedSequence> loadSequenceNamesFromGraphFile(String graphFilename) throws IOException {
+		if(isBinaryGraphFile(graphFilename)) return loadSequenceNamesFromBinaryGraphFile(graphFilename);
 		List<QualifiedSequence> sequenceNames = new ArrayList<QualifiedSequence>();
 		String line = null;
 		try (ConcatGZIPInputStream gzs = new ConcatGZIPInputStream(new FileInputStream(graphFilename));
@@ -25,11 +25,14 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 
 import ngsep.alignments.ReadAlignment;
 import ngsep.alignments.io.ReadAlignmentFileReader;
-import ngsep.genome.GenomicRegionComparator;
 import ngsep.genome.ReferenceGenome;
 import ngsep.sequences.QualifiedSequence;
 import ngsep.sequences.QualifiedSequenceList;
@@ -38,6 +41,13 @@ import ngsep.sequences.QualifiedSequenceList;
 public class AlignmentsPileupGenerator {
 	
 	public static final int DEF_MAX_ALNS_PER_START_POS = 5;
+	public static final int PREFETCH_BATCH_SIZE = 1000;
+	public static final int PREFETCH_MIN_BATCH_SIZE = 50;
+	public static final int PREFETCH_MAX_BATCHES = 4;
+	/**
+	 * Maximum number of alignments loaded ahead of the pileup process adding the alignments of all files
+	 */
+	public static final int PREFETCH_MAX_ALIGNMENTS = 200000;
 	
 	private Logger log = Logger.getLogger(AlignmentsPileupGenerator.class.getName());
 	private List<PileupListener> listeners = new ArrayList<PileupListener>();
@@ -56,6 +66,7 @@ public class AlignmentsPileupGenerator {
 	private byte basesToIgnore5P = 0;
 	private byte basesToIgnore3P = 0;
 	private int minMQ = ReadAlignment.DEF_MIN_MQ_UNIQUE_ALIGNMENT;
+	private boolean prefetchAlignments = false;
 	
 	// Internal attributes to follow up the pileup process
 	private QualifiedSequence currentReferenceSequence = null;
@@ -187,6 +198,20 @@ public class AlignmentsPileupGenerator {
 		return genome;
 	}
 
+	public boolean isPrefetchAlignments() {
+		return prefetchAlignments;
+	}
+	/**
+	 * Sets whether alignments should be loaded in the background while processing several files.
+	 * If true, one thread per file decodes alignments ahead of the pileup process. The number of alignments
+	 * loaded ahead for each file is calculated dividing PREFETCH_MAX_ALIGNMENTS by the number of files.
+	 * Alignments are not loaded in the background if too many files are processed
+	 * @param prefetchAlignments true if alignments should be loaded in the background
+	 */
+	public void setPrefetchAlignments(boolean prefetchAlignments) {
+		this.prefetchAlignments = prefetchAlignments;
+	}
+	
 	public void setGenome(ReferenceGenome genome) {
 		this.genome = genome;
 		this.sequencesMetadata = genome.getSequencesMetadata();
@@ -221,23 +246,28 @@ public class AlignmentsPileupGenerator {
 		ReadAlignmentFileReader [] readers = new ReadAlignmentFileReader[n];
 		ReadAlignment [] currentAlignments = new ReadAlignment[n];
 		List<Iterator<ReadAlignment>> iterators = new ArrayList<>();
+		//Indexes of the sequences of the current alignments within the sequences metadata
+		int [] currentSequenceIdxs = new int[n];
+		//Files are sorted by the position of the current alignment. Ties are resolved by the file index
+		PriorityQueue<Integer> nextFiles = new PriorityQueue<>(n, (i1,i2)->compareCurrentAlignments(currentAlignments, currentSequenceIdxs, i1, i2));
+		//Every file keeps the batch being loaded, the batches in the queue and the batch being processed
+		int prefetchBatchSize = Math.min(PREFETCH_BATCH_SIZE, PREFETCH_MAX_ALIGNMENTS/(n*(PREFETCH_MAX_BATCHES+2)));
+		boolean prefetch = prefetchAlignments && prefetchBatchSize>=PREFETCH_MIN_BATCH_SIZE;
+		if(prefetchAlignments && !prefetch) log.info("Alignments of "+n+" files will not be loaded in the background to limit memory usage");
 		try {
 			for(int i=0;i<n;i++) {
 				readers[i] = createReader(alignmentFiles.get(i));
-				Iterator<ReadAlignment> it = readers[i].iterator();
+				Iterator<ReadAlignment> it = createIterator(readers[i]);
+				if(prefetch) it = new PrefetchAlignmentsIterator(it, alignmentFiles.get(i), prefetchBatchSize);
 				iterators.add(it);
-				if(it.hasNext()) {
-					currentAlignments[i] = it.next();
-					if(replaceReadGroups.size()>i) (currentAlignments[i]).setReadGroup(replaceReadGroups.get(i)); 
-				} else {
-					currentAlignments[i] = null;
-				}
+				if(loadNextAlignment(i, iterators, currentAlignments, currentSequenceIdxs, replaceReadGroups)) nextFiles.add(i);
 			}
 			boolean querySeqFound = false;
-			GenomicRegionComparator cmp = new GenomicRegionComparator(sequencesMetadata);
 			while (keepRunning) {
-				ReadAlignment aln = chooseNextAln(iterators,currentAlignments, cmp, replaceReadGroups);
-				if(aln==null) break;
+				Integer nextFile = nextFiles.poll();
+				if(nextFile==null) break;
+				ReadAlignment aln = currentAlignments[nextFile];
+				if(loadNextAlignment(nextFile, iterators, currentAlignments, currentSequenceIdxs, replaceReadGroups)) nextFiles.add(nextFile);
 				//System.out.println("Processing alignment at pos: "+alnRecord.getAlignmentStart()+". Seq: "+alnRecord.getReferenceName()+". Read name: "+alnRecord.getReadName());
 				if(querySeq!=null) {
 					if(querySeq.equals(aln.getSequenceName())) {
@@ -259,33 +289,48 @@ public class AlignmentsPileupGenerator {
 			else log.warning("Cancelled process");
 			
 		} finally {
+			for(int i=0;i<iterators.size();i++) {
+				Iterator<ReadAlignment> it = iterators.get(i);
+				if(it instanceof PrefetchAlignmentsIterator) ((PrefetchAlignmentsIterator)it).stop();
+			}
 			for(int i=0;i<n;i++) {
 				if(readers[i]!=null)readers[i].close(); 
 			}
 		}
 	}
-
-	private ReadAlignment chooseNextAln(List<Iterator<ReadAlignment>> iterators, ReadAlignment[] currentAlignments, GenomicRegionComparator cmp, List<String> replaceReadGroups) {
-		ReadAlignment answer = null;
-		int minPos = -1;
-		for(int i=0;i<currentAlignments.length;i++) {
-			if(currentAlignments[i]!=null) {
-				if(answer == null || cmp.compare(answer, currentAlignments[i])>0) {
-					answer = currentAlignments[i];
-					minPos = i;
-				}
-			}
+	
+	/**
+	 * Loads the next alignment of the given file
+	 * @return boolean true if a new alignment was loaded, false if the file has no more alignments
+	 */
+	private boolean loadNextAlignment(int fileIdx, List<Iterator<ReadAlignment>> iterators, ReadAlignment[] currentAlignments, int [] currentSequenceIdxs, List<String> replaceReadGroups) {
+		Iterator<ReadAlignment> it = iterators.get(fileIdx);
+		ReadAlignment previous = currentAlignments[fileIdx];
+		if(!it.hasNext()) {
+			currentAlignments[fileIdx] = null;
+			return false;
 		}
-		if(minPos>=0) {
-			Iterator<ReadAlignment> it = iterators.get(minPos); 
-			if(it.hasNext()) {
-				currentAlignments[minPos] = it.next();
-				if(replaceReadGroups.size()>minPos) (currentAlignments[minPos]).setReadGroup(replaceReadGroups.get(minPos)); 
-			} else {
-				currentAlignments[minPos] = null;
-			}
+		ReadAlignment aln = it.next();
+		if(replaceReadGroups.size()>fileIdx) aln.setReadGroup(replaceReadGroups.get(fileIdx));
+		String seqName = aln.getSequenceName();
+		//Sequence names are usually shared by consecutive alignments of the same file
+		if(previous==null || (previous.getSequenceName()!=seqName && !previous.getSequenceName().equals(seqName))) {
+			currentSequenceIdxs[fileIdx] = sequencesMetadata.indexOf(seqName);
 		}
-		return answer;
+		currentAlignments[fileIdx] = aln;
+		return true;
+	}
+	
+	private static int compareCurrentAlignments(ReadAlignment[] currentAlignments, int [] currentSequenceIdxs, int i1, int i2) {
+		int diff = Integer.compare(currentSequenceIdxs[i1], currentSequenceIdxs[i2]);
+		if(diff!=0) return diff;
+		ReadAlignment aln1 = currentAlignments[i1];
+		ReadAlignment aln2 = currentAlignments[i2];
+		diff = Integer.compare(aln1.getFirst(), aln2.getFirst());
+		if(diff!=0) return diff;
+		diff = Integer.compare(aln1.getLast(), aln2.getLast());
+		if(diff!=0) return diff;
+		return Integer.compare(i1, i2);
 	}
 
 	public void processFile(String filename) throws IOException {
@@ -302,7 +347,7 @@ public class AlignmentsPileupGenerator {
 		try (ReadAlignmentFileReader reader = createReader(filename)) {
 			sequencesMetadata = reader.getSequences();
 			boolean querySeqFound = false;
-			Iterator<ReadAlignment> it = reader.iterator();
+			Iterator<ReadAlignment> it = createIterator(reader);
 			//Sequence under processing
 			while(it.hasNext() && keepRunning) {
 				ReadAlignment aln = it.next();
@@ -344,6 +389,17 @@ public class AlignmentsPileupGenerator {
 		reader.setMinMQ(minMQ);
 		return reader;
 	}
+	/**
+	 * Creates the iterator to traverse the alignments of the given reader.
+	 * If a query sequence is set and the file is indexed, only alignments overlapping the query region are retrieved.
+	 * Otherwise, the complete file is traversed
+	 * @param reader to traverse
+	 * @return Iterator<ReadAlignment> Alignments to process
+	 */
+	private Iterator<ReadAlignment> createIterator(ReadAlignmentFileReader reader) {
+		if(querySeq!=null && reader.isIndexed()) return reader.iterator(querySeq, queryFirst, queryLast);
+		return reader.iterator();
+	}
 	
 	public void processAlignment(ReadAlignment aln) {
 		if(currentReferenceSequence!=null) {
@@ -479,4 +535,95 @@ public class AlignmentsPileupGenerator {
 	}
 
 	
+	
+	/**
+	 * Iterator that loads in a background thread batches of alignments from an alignments file.
+	 * The size and number of batches waiting to be processed are bounded to limit memory usage
+	 */
+	private static class PrefetchAlignmentsIterator implements Iterator<ReadAlignment> {
+		private static final List<ReadAlignment> END_OF_ALIGNMENTS = new ArrayList<>(0);
+		private final Iterator<ReadAlignment> source;
+		private final String filename;
+		private final int batchSize;
+		private final BlockingQueue<List<ReadAlignment>> batches = new ArrayBlockingQueue<>(PREFETCH_MAX_BATCHES);
+		private final Thread loader;
+		private volatile boolean stopped = false;
+		private volatile Throwable loadError = null;
+		private List<ReadAlignment> currentBatch = null;
+		private int nextIdx = 0;
+		
+		public PrefetchAlignmentsIterator(Iterator<ReadAlignment> source, String filename, int batchSize) {
+			this.source = source;
+			this.filename = filename;
+			this.batchSize = batchSize;
+			loader = new Thread(()->loadAlignments(), "Prefetch alignments "+filename);
+			loader.setDaemon(true);
+			loader.start();
+		}
+		
+		private void loadAlignments() {
+			try {
+				List<ReadAlignment> batch = new ArrayList<>(batchSize);
+				while(!stopped && source.hasNext()) {
+					batch.add(source.next());
+					if(batch.size()==batchSize) {
+						batches.put(batch);
+						batch = new ArrayList<>(batchSize);
+					}
+				}
+				if(batch.size()>0) batches.put(batch);
+			} catch (InterruptedException e) {
+				//Nothing to do. The iterator was stopped
+			} catch (Throwable e) {
+				loadError = e;
+			} finally {
+				//After a stop the queue is not read anymore
+				if(!stopped) {
+					try {
+						batches.put(END_OF_ALIGNMENTS);
+					} catch (InterruptedException e) {
+						//Nothing to do. The iterator was stopped
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if(currentBatch!=null && nextIdx<currentBatch.size()) return true;
+			if(currentBatch==END_OF_ALIGNMENTS) return false;
+			try {
+				currentBatch = batches.take();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted loading alignments from file "+filename, e);
+			}
+			nextIdx = 0;
+			if(currentBatch==END_OF_ALIGNMENTS) {
+				if(loadError!=null) throw new RuntimeException("Error loading alignments from file "+filename, loadError);
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public ReadAlignment next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			ReadAlignment aln = currentBatch.get(nextIdx);
+			nextIdx++;
+			return aln;
+		}
+		
+		/**
+		 * Stops the background thread. This method should be called before closing the underlying reader
+		 */
+		public void stop() {
+			stopped = true;
+			loader.interrupt();
+			try {
+				loader.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 }
@@ -58,7 +58,8 @@ public class CountsHelper {
 	private List<String> alleles;
 	private static double [][] alleleFreqCache;
 	private static double [][][] logProbCacheGT;
-	private static double [][] logProbCacheError;
+	//Volatile because it is used to check that the caches are ready to be used by multiple threads
+	private static volatile double [][] logProbCacheError;
 	
 	private boolean verbose = false;
 	
@@ -130,7 +131,12 @@ public class CountsHelper {
 		updateProbabilitiesCache(nAlleles);
 		startCounts();
 	}
-	private synchronized void updateProbabilitiesCache(int numAlleles) {
+	/**
+	 * Creates the static probabilities cache if it does not exist or if it is too small for the given number of alleles.
+	 * The error cache is published at the end because it is used to check if the cache is ready
+	 * @param numAlleles Number of alleles to support
+	 */
+	private static void updateProbabilitiesCache(int numAlleles) {
 		int m = DEF_MAX_BASE_QS+1;
 		//Create the cache for at least 10 alleles
 		if(numAlleles<10) numAlleles=10;
@@ -139,34 +145,43 @@ public class CountsHelper {
 		//Update to the maximum if needed
 		else if(numAlleles<=GenomicVariant.MAX_NUM_ALLELES)numAlleles=GenomicVariant.MAX_NUM_ALLELES;
 		int n = numAlleles+1;
-		if(logProbCacheError!=null && logProbCacheError.length>=n) return;
-		logProbCacheError = new double [m][n];
-		
-		for(byte i=DEF_MIN_BASE_QS;i<logProbCacheError.length;i++) {
-			//Log of error probability for quality score i
-			logProbCacheError[i][0] = -0.1*i;
-			for(int j=2;j<logProbCacheError[i].length;j++) {
-				//Error probability divided by number of alleles minus 1
-				logProbCacheError[i][j]=logProbCacheError[i][0]-Math.log10(j-1);
+		if(isCacheReady(n)) return;
+		synchronized (CountsHelper.class) {
+			if(isCacheReady(n)) return;
+			double [][] errorCache = new double [m][n];
+			for(byte i=DEF_MIN_BASE_QS;i<errorCache.length;i++) {
+				//Log of error probability for quality score i
+				errorCache[i][0] = -0.1*i;
+				for(int j=2;j<errorCache[i].length;j++) {
+					//Error probability divided by number of alleles minus 1
+					errorCache[i][j]=errorCache[i][0]-Math.log10(j-1);
+				}
 			}
+			double [][] freqCache = new double [DEF_NUM_FREQUENCIES][2];
+			double [][][] gtCache = new double [DEF_NUM_FREQUENCIES][m][n];
+			for(int f=0;f<DEF_NUM_FREQUENCIES;f++) {
+				updateProbabilitiesCacheFrequency (f, freqCache, gtCache);
+			}
+			alleleFreqCache = freqCache;
+			logProbCacheGT = gtCache;
+			logProbCacheError = errorCache;
 		}
-		alleleFreqCache = new double [DEF_NUM_FREQUENCIES][2];
-		logProbCacheGT = new double [DEF_NUM_FREQUENCIES][m][n];
-		for(int f=0;f<DEF_NUM_FREQUENCIES;f++) {
-			updateProbabilitiesCacheFrequency (f);
-		}
 	}
-	private void updateProbabilitiesCacheFrequency(int f) {
+	private static boolean isCacheReady(int n) {
+		double [][] errorCache = logProbCacheError;
+		return errorCache!=null && errorCache[0].length>=n;
+	}
+	private static void updateProbabilitiesCacheFrequency(int f, double [][] freqCache, double [][][] gtCache) {
 		double alleleFrequency = (double)f/(DEF_NUM_FREQUENCIES-1);
-		alleleFreqCache[f][0] = Math.log10(alleleFrequency);
-		alleleFreqCache[f][1] = Math.log10(1-alleleFrequency);
-		for(byte i=DEF_MIN_BASE_QS;i<logProbCacheError.length;i++) {
+		freqCache[f][0] = Math.log10(alleleFrequency);
+		freqCache[f][1] = Math.log10(1-alleleFrequency);
+		for(byte i=DEF_MIN_BASE_QS;i<gtCache[f].length;i++) {
 			double errorProb = PhredScoreHelper.calculateProbability(i);
 			double successProb = 1-errorProb;
-			logProbCacheGT[f][i][0] = Math.log10(successProb);
-			for(int j=2;j<logProbCacheError[i].length;j++) {
+			gtCache[f][i][0] = Math.log10(successProb);
+			for(int j=2;j<gtCache[f][i].length;j++) {
 				double hetProb = alleleFrequency*successProb+(1-alleleFrequency)*errorProb/(j-1);
-				logProbCacheGT[f][i][j] = Math.log10(hetProb);
+				gtCache[f][i][j] = Math.log10(hetProb);
 				/*
 				logProbCache[i][j][2] = Math.log10(epa);
 				double term = 0.5*(1-j*epa);
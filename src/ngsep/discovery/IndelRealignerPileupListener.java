@@ -55,7 +55,7 @@ public class IndelRealignerPileupListener implements PileupListener {
 	//DEBUG
 	private int posPrint = -1;
 
-	public GenomicRegionSortedCollection<? extends GenomicRegion> getInputVariants() {
+	public GenomicRegionSortedCollection<? extends GenomicVariant> getInputVariants() {
 		return inputVariants;
 	}
 
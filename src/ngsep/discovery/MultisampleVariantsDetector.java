@@ -30,6 +30,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import ngsep.alignments.ReadAlignment;
@@ -62,6 +67,11 @@ public class MultisampleVariantsDetector implements PileupListener {
 	public static final byte DEF_MAX_BASE_QS = CountsHelper.DEF_MAX_BASE_QS;
 	public static final byte DEF_PLOIDY = GenomicVariant.DEFAULT_PLOIDY;
 	public static final String DEF_OUTPUT_FILE = "variants.vcf";
+	public static final int DEF_NUM_THREADS = 1;
+	public static final int DEF_REGION_LENGTH = 1000000;
+	public static final int DEF_REGION_OVERLAP = 1000;
+	private static final int TIMEOUT_SECONDS = 30;
+	private static final int MAX_REGIONS_IN_PROCESS_PER_THREAD = 2;
 	
 	// Logging and progress
 	private Logger log = Logger.getLogger(MultisampleVariantsDetector.class.getName());
@@ -86,6 +96,9 @@ public class MultisampleVariantsDetector implements PileupListener {
 	private byte maxBaseQS = DEF_MAX_BASE_QS;
 	private short normalPloidy = DEF_PLOIDY;
 	private boolean printSamplePloidy = false;
+	private int numThreads = DEF_NUM_THREADS;
+	private int regionLength = DEF_REGION_LENGTH;
+	private int regionOverlap = DEF_REGION_OVERLAP;
 	
 	private String knownSTRsFile = null;
 	private String knownVariantsFile=null;
@@ -97,6 +110,9 @@ public class MultisampleVariantsDetector implements PileupListener {
 	private List<Sample> samples;
 	private double coveredGenomeSize = 0;
 	private long referenceGenomeSize = 0;
+	// Limits of the positions that will be reported in the output. Used to process regions in parallel
+	private int outputFirst = 0;
+	private int outputLast = Integer.MAX_VALUE;
 	
 	//DEBUG
 	private int posPrint = -1;
@@ -402,6 +418,39 @@ public class MultisampleVariantsDetector implements PileupListener {
 		setMinAlleleDepthFrequency((double)OptionValuesDecoder.decode(value, Double.class));
 	}
 	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	public void setNumThreads(int numThreads) {
+		if(numThreads<1) throw new IllegalArgumentException("Number of threads must be positive. Invalid value: "+numThreads);
+		this.numThreads = numThreads;
+	}
+	public void setNumThreads(String value) {
+		setNumThreads((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
+	public int getRegionLength() {
+		return regionLength;
+	}
+	public void setRegionLength(int regionLength) {
+		if(regionLength<=0) throw new IllegalArgumentException("Region length must be positive. Invalid value: "+regionLength);
+		this.regionLength = regionLength;
+	}
+	public void setRegionLength(String value) {
+		setRegionLength((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
+	public int getRegionOverlap() {
+		return regionOverlap;
+	}
+	public void setRegionOverlap(int regionOverlap) {
+		if(regionOverlap<0) throw new IllegalArgumentException("Region overlap can not be negative. Invalid value: "+regionOverlap);
+		this.regionOverlap = regionOverlap;
+	}
+	public void setRegionOverlap(String value) {
+		setRegionOverlap((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
 	public List<Sample> getSamples() {
 		return samples;
 	}
@@ -453,7 +502,13 @@ public class MultisampleVariantsDetector implements PileupListener {
 			vcfFileHeader = VCFFileHeader.makeDefaultEmptyHeader();
 			for(Sample s:samples) vcfFileHeader.addSample(s, printSamplePloidy);
 			writer.printHeader(vcfFileHeader, outFile);
-			generator.processFiles(inputFiles);
+			if(numThreads>1 && checkIndexedFiles()) {
+				callVariantsByRegions(sequences);
+			} else {
+				//Alignments of each file are loaded in the background if more than one thread is available
+				generator.setPrefetchAlignments(numThreads>1);
+				generator.processFiles(inputFiles);
+			}
 		} finally {
 			if(outFile!=null) outFile.close();
 			dispose();
@@ -485,6 +540,11 @@ public class MultisampleVariantsDetector implements PileupListener {
 		out.println("Call SNVs within STRs: " + isCallEmbeddedSNVs());
 		out.println("Normal ploidy: "+normalPloidy);
 		out.println("Print header with sample ploidy in the vcf file: "+printSamplePloidy);
+		out.println("Number of threads: "+numThreads);
+		if(numThreads>1) {
+			out.println("Length of regions processed in parallel: "+regionLength);
+			out.println("Overlap between regions processed in parallel: "+regionOverlap);
+		}
 		log.info(os.toString());
 	}
 
@@ -514,6 +574,146 @@ public class MultisampleVariantsDetector implements PileupListener {
 		}
 		samples = new ArrayList<>(samplesMap.values()); 
 	}
+	
+	private boolean checkIndexedFiles() throws IOException {
+		for(String filename:inputFiles) {
+			try (ReadAlignmentFileReader reader = new ReadAlignmentFileReader(filename,genome)) {
+				if(!reader.isIndexed()) {
+					log.warning("Alignments file "+filename+" is not indexed. Variants will be called using a single thread");
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Partitions the genome in regions of fixed length and calls variants on each region in parallel.
+	 * Each region is extended to the left with an overlap to reproduce the realignment and indel calling
+	 * context of the sequential process. Variants are printed in the output file in coordinate order
+	 * PRE: Input files are sorted and indexed
+	 * @param sequences Sequences of the genome
+	 * @throws IOException If the alignment files can not be read
+	 */
+	private void callVariantsByRegions(QualifiedSequenceList sequences) throws IOException {
+		//Input variants are sorted before the parallel process to make queries read only
+		inputVariants.forceSort();
+		GenomicRegionSortedCollection<? extends GenomicVariant> realignerVariants = indelRealigner.getInputVariants();
+		if(realignerVariants!=null) realignerVariants.forceSort();
+		List<VariantsCallingRegion> regions = partitionRegions(sequences);
+		log.info("Calling variants in "+regions.size()+" regions using "+numThreads+" threads");
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		//Regions are submitted as outputs are written to bound the number of region outputs kept in memory
+		int maxRegionsInProcess = MAX_REGIONS_IN_PROCESS_PER_THREAD*numThreads;
+		List<Future<ByteArrayOutputStream>> regionOutputs = new ArrayList<>(regions.size());
+		for(int i=0;i<regions.size() && i<maxRegionsInProcess;i++) {
+			VariantsCallingRegion region = regions.get(i);
+			regionOutputs.add(pool.submit(()->callRegionVariants(region)));
+		}
+		try {
+			for(int i=0;i<regions.size();i++) {
+				ByteArrayOutputStream regionOutput = regionOutputs.get(i).get();
+				regionOutputs.set(i, null);
+				int next = i+maxRegionsInProcess;
+				if(next<regions.size()) {
+					VariantsCallingRegion region = regions.get(next);
+					regionOutputs.add(pool.submit(()->callRegionVariants(region)));
+				}
+				regionOutput.writeTo(outFile);
+				if(progressNotifier!=null) {
+					int progress = (int)Math.round(100.0*(i+1)/regions.size());
+					if(!progressNotifier.keepRunning(progress)) {
+						pool.shutdownNow();
+						log.warning("Cancelled process");
+						break;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			throw new IOException("Variants calling was interrupted", e);
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			throw new RuntimeException(cause);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private List<VariantsCallingRegion> partitionRegions(QualifiedSequenceList sequences) {
+		List<VariantsCallingRegion> regions = new ArrayList<>();
+		String querySeq = generator.getQuerySeq();
+		for(QualifiedSequence seq:sequences) {
+			if(querySeq!=null && !querySeq.equals(seq.getName())) continue;
+			int start = 1;
+			int end = seq.getLength();
+			if(querySeq!=null) {
+				start = Math.max(start, generator.getQueryFirst());
+				end = Math.min(end, generator.getQueryLast());
+			}
+			for(int first=start;first<=end;first+=regionLength) {
+				int last = (int)Math.min(end, (long)first+regionLength-1);
+				//The first and last regions of each sequence report also variants produced by alignments
+				//spanning the region limits to keep the same output of the sequential process
+				int regionOutputFirst = (first==start)?0:first;
+				int regionOutputLast = (last==end)?Integer.MAX_VALUE:last;
+				int queryFirst = Math.max(start, first-regionOverlap);
+				regions.add(new VariantsCallingRegion(seq.getName(), queryFirst, last, regionOutputFirst, regionOutputLast));
+			}
+		}
+		return regions;
+	}
+	
+	/**
+	 * Calls variants within the given region with a new detector sharing the parameters and read-only
+	 * information of this detector
+	 * @param region to process
+	 * @return ByteArrayOutputStream VCF records of the variants called within the region
+	 * @throws IOException If the alignment files can not be read
+	 */
+	private ByteArrayOutputStream callRegionVariants(VariantsCallingRegion region) throws IOException {
+		MultisampleVariantsDetector regionDetector = new MultisampleVariantsDetector();
+		regionDetector.setLog(log);
+		regionDetector.genome = genome;
+		regionDetector.samples = samples;
+		regionDetector.vcfFileHeader = vcfFileHeader;
+		regionDetector.inputVariants = inputVariants;
+		regionDetector.heterozygosityRate = heterozygosityRate;
+		regionDetector.ignoreLowerCaseRef = ignoreLowerCaseRef;
+		regionDetector.callEmbeddedSNVs = callEmbeddedSNVs;
+		regionDetector.minAlleleDepthFrequency = minAlleleDepthFrequency;
+		regionDetector.minQuality = minQuality;
+		regionDetector.maxBaseQS = maxBaseQS;
+		regionDetector.outputFirst = region.getOutputFirst();
+		regionDetector.outputLast = region.getOutputLast();
+		
+		IndelRealignerPileupListener regionRealigner = regionDetector.indelRealigner;
+		regionRealigner.setGenome(genome);
+		regionRealigner.setInputVariants(indelRealigner.getInputVariants());
+		
+		AlignmentsPileupGenerator regionGenerator = regionDetector.generator;
+		regionGenerator.setGenome(genome);
+		regionGenerator.setMinMQ(generator.getMinMQ());
+		regionGenerator.setMaxAlnsPerStartPos(generator.getMaxAlnsPerStartPos());
+		regionGenerator.setProcessNonUniquePrimaryAlignments(generator.isProcessNonUniquePrimaryAlignments());
+		regionGenerator.setProcessSecondaryAlignments(generator.isProcessSecondaryAlignments());
+		regionGenerator.setBasesToIgnore5P(generator.getBasesToIgnore5P());
+		regionGenerator.setBasesToIgnore3P(generator.getBasesToIgnore3P());
+		regionGenerator.setQuerySeq(region.getSequenceName());
+		regionGenerator.setQueryFirst(region.getFirst());
+		regionGenerator.setQueryLast(region.getLast());
+		regionGenerator.addListener(regionRealigner);
+		regionGenerator.addListener(regionDetector);
+		
+		ByteArrayOutputStream regionOutput = new ByteArrayOutputStream();
+		regionDetector.outFile = new PrintStream(regionOutput);
+		regionGenerator.processFiles(inputFiles);
+		regionDetector.outFile.flush();
+		return regionOutput;
+	}
+	
 	//Control attribute to avoid calling overlapping indels and to give an embedded status to SNVs within indels or STRs
 	private int lastIndelEnd = 0;
 	private int nextSIVIndex = 0;
@@ -531,15 +731,17 @@ public class MultisampleVariantsDetector implements PileupListener {
 			if(variant == null) return;
 			List<CalledGenomicVariant> calls = genotypeVariant(variant, pileup);
 			if (variant.getVariantQS()==0 || variant.getVariantQS() < minQuality) return;
-			VCFRecord record = VCFRecord.createDefaultPopulationVCFRecord(variant, calls, vcfFileHeader);
-			writer.printVCFRecord(record, outFile);
+			if(outputFirst<=pileup.getPosition() && pileup.getPosition()<=outputLast) {
+				VCFRecord record = VCFRecord.createDefaultPopulationVCFRecord(variant, calls, vcfFileHeader);
+				writer.printVCFRecord(record, outFile);
+			}
 			if(!variant.isSNV()) {
 				lastIndelEnd = variant.getLast();
 			}
 		} else if(nextSIVIndex<seqInputVariants.size()) {
 			GenomicVariant inputVariant = seqInputVariants.get(nextSIVIndex);
 			while(inputVariant.getFirst() <= pileup.getPosition() ) {
-				if(inputVariant.getFirst()==pileup.getPosition()) {
+				if(inputVariant.getFirst()==pileup.getPosition() && outputFirst<=inputVariant.getFirst() && inputVariant.getFirst()<=outputLast) {
 					List<CalledGenomicVariant> calls = genotypeVariant(inputVariant, pileup);
 					VCFRecord record = VCFRecord.createDefaultPopulationVCFRecord(inputVariant, calls, vcfFileHeader);
 					writer.printVCFRecord(record, outFile);
@@ -699,4 +901,33 @@ public class MultisampleVariantsDetector implements PileupListener {
 	}
 
 
+	private static class VariantsCallingRegion {
+		private String sequenceName;
+		private int first;
+		private int last;
+		private int outputFirst;
+		private int outputLast;
+		public VariantsCallingRegion(String sequenceName, int first, int last, int outputFirst, int outputLast) {
+			this.sequenceName = sequenceName;
+			this.first = first;
+			this.last = last;
+			this.outputFirst = outputFirst;
+			this.outputLast = outputLast;
+		}
+		public String getSequenceName() {
+			return sequenceName;
+		}
+		public int getFirst() {
+			return first;
+		}
+		public int getLast() {
+			return last;
+		}
+		public int getOutputFirst() {
+			return outputFirst;
+		}
+		public int getOutputLast() {
+			return outputLast;
+		}
+	}
 }
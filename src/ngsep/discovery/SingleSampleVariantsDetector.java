@@ -24,10 +24,17 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import ngsep.alignments.ReadAlignment;
+import ngsep.alignments.io.ReadAlignmentFileReader;
 import ngsep.discovery.rd.ReadDepthBin;
 import ngsep.discovery.rd.ReadDepthDistribution;
 import ngsep.discovery.rd.SingleSampleReadDepthAlgorithm;
@@ -73,6 +80,8 @@ public class SingleSampleVariantsDetector implements PileupListener {
 	public static final short DEF_MAX_PCT_OVERLAP_CNVS = 100;
 	public static final int DEF_MAX_LEN_DELETION = ReadPairAnalyzer.DEF_MAX_LEN_DELETION;
 	public static final int DEF_SPLIT_READ_SEED = ReadPairAnalyzer.DEF_SPLIT_READ_SEED;
+	public static final int DEF_NUM_THREADS = 1;
+	private static final int TIMEOUT_SECONDS = 30;
 	
 	// Logging and progress
 	private Logger log = Logger.getLogger(SingleSampleVariantsDetector.class.getName());
@@ -100,6 +109,7 @@ public class SingleSampleVariantsDetector implements PileupListener {
 	private boolean findSNVs = true;
 	private boolean runRPAnalysis = false;
 	private boolean findNewCNVs = true;
+	private int numThreads = DEF_NUM_THREADS;
 	// Classes implementing the algorithms for structural variants detection
 	private MultipleMappingRegionsCalculator mmRegsCalc = new MultipleMappingRegionsCalculator();
 	private ReadPairAnalyzer rpAnalyzer = new ReadPairAnalyzer();
@@ -562,6 +572,17 @@ public class SingleSampleVariantsDetector implements PileupListener {
 		setRunOnlySVsAnalyses(runOnlySVsAnalyses.booleanValue());
 	}
 	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	public void setNumThreads(int numThreads) {
+		if(numThreads<1) throw new IllegalArgumentException("Number of threads must be positive. Invalid value: "+numThreads);
+		this.numThreads = numThreads;
+	}
+	public void setNumThreads(String value) {
+		setNumThreads((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
 	/**
 	 * @param args
 	 * @throws Exception 
@@ -645,6 +666,7 @@ public class SingleSampleVariantsDetector implements PileupListener {
 		out.println("Normal ploidy: "+normalPloidy);
 		out.println("Print header with sample ploidy in the vcf file: "+printSamplePloidy);
 		out.println("Minimum mapping quality to consider an alignment unique: "+getMinMQ());
+		out.println("Number of threads: "+numThreads);
 		out.println("Find SNVs: "+findSNVs);
 		if(findSNVs) {
 			if(knownVariantsFile!=null) out.println("File with known variants to genotype: " + knownVariantsFile);
@@ -694,7 +716,7 @@ public class SingleSampleVariantsDetector implements PileupListener {
 		
 		
 		log.info("Processing alignments file: "+inputFile);
-		rdDistribution.processAlignments(inputFile);
+		rdDistribution.processAlignments(inputFile, numThreads);
 		log.info("Processed alignments file: "+inputFile);
 		if(progressNotifier!=null && !progressNotifier.keepRunning(7)) return new ArrayList<CalledCNV>();
 		rdDistribution.correctDepthByGCContent();
@@ -871,11 +893,12 @@ public class SingleSampleVariantsDetector implements PileupListener {
 	}
 
 	public void findSNVS() throws IOException {
+		GenomicRegionSortedCollection<GenomicVariant> knownVarsC = null;
 		if(knownVariantsFile!=null) {
 			log.info("Loading input variants");
 			List<GenomicVariant> knownVariants = VCFFileReader.loadVariants(knownVariantsFile,true);
 			log.info("Loaded "+knownVariants.size()+" input variants");
-			GenomicRegionSortedCollection<GenomicVariant> knownVarsC = new GenomicRegionSortedCollection<GenomicVariant>(genome.getSequencesMetadata());
+			knownVarsC = new GenomicRegionSortedCollection<GenomicVariant>(genome.getSequencesMetadata());
 			knownVarsC.addAll(knownVariants);
 			indelRealigner.setInputVariants(knownVarsC);
 			varListener.setInputVariants(knownVarsC);
@@ -902,13 +925,112 @@ public class SingleSampleVariantsDetector implements PileupListener {
 		try (PrintStream outVars = new PrintStream(outputPrefix+".vcf")) {
 			this.outVars = outVars;
 			varsFW.printHeader(header,outVars);
-			generator.processFile(inputFile);
+			if(numThreads>1 && generator.getQuerySeq()==null && isIndexed(inputFile)) {
+				findSNVsBySequence(knownVarsC);
+			} else {
+				generator.processFile(inputFile);
+			}
 		}	
 	}
+	
+	private boolean isIndexed(String filename) throws IOException {
+		try (ReadAlignmentFileReader reader = new ReadAlignmentFileReader(filename,genome)) {
+			if(reader.isIndexed()) return true;
+		}
+		log.warning("Alignments file "+filename+" is not indexed. SNVs and small indels will be called using a single thread");
+		return false;
+	}
+	
+	/**
+	 * Calls variants on each reference sequence in parallel. Sequences are scheduled from the largest
+	 * to the smallest but variants are saved following the order of the reference genome
+	 * PRE: The input file is sorted and indexed
+	 * @param knownVariants Variants to genotype. If null, variants are discovered
+	 * @throws IOException If the alignments file can not be read
+	 */
+	private void findSNVsBySequence(GenomicRegionSortedCollection<GenomicVariant> knownVariants) throws IOException {
+		//Input variants are sorted before the parallel process to make queries read only
+		if(knownVariants!=null) knownVariants.forceSort();
+		GenomicRegionSortedCollection<? extends GenomicVariant> realignerVariants = indelRealigner.getInputVariants();
+		if(realignerVariants!=null) realignerVariants.forceSort();
+		QualifiedSequenceList sequences = genome.getSequencesMetadata();
+		List<QualifiedSequence> sequencesBySize = new ArrayList<>(sequences);
+		Collections.sort(sequencesBySize, (s1,s2)->Integer.compare(s2.getLength(), s1.getLength()));
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		List<Future<List<CalledGenomicVariant>>> sequenceCalls = new ArrayList<>(sequences.size());
+		for(int i=0;i<sequences.size();i++) sequenceCalls.add(null);
+		for(QualifiedSequence seq:sequencesBySize) {
+			int idx = sequences.indexOf(seq.getName());
+			sequenceCalls.set(idx, pool.submit(()->findSequenceVariants(seq, knownVariants)));
+		}
+		pool.shutdown();
+		try {
+			for(int i=0;i<sequences.size();i++) {
+				List<CalledGenomicVariant> calls = sequenceCalls.get(i).get();
+				sequenceCalls.set(i, null);
+				if(calls.size()>0) saveSequenceVariants(sequences.get(i).getName(), calls);
+				if(progressNotifier!=null) {
+					int progress = 15+(int)Math.round(85.0*(i+1)/sequences.size());
+					if(!progressNotifier.keepRunning(progress)) {
+						pool.shutdownNow();
+						log.warning("Cancelled process");
+						break;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			throw new IOException("Variants calling was interrupted", e);
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			throw new RuntimeException(cause);
+		}
+	}
+	
+	/**
+	 * Calls variants on the given sequence using new listeners with the same parameters of this detector
+	 * @param sequence to process
+	 * @param knownVariants Variants to genotype. If null, variants are discovered
+	 * @return List<CalledGenomicVariant> Variants called within the sequence
+	 * @throws IOException If the alignments file can not be read
+	 */
+	private List<CalledGenomicVariant> findSequenceVariants(QualifiedSequence sequence, GenomicRegionSortedCollection<GenomicVariant> knownVariants) throws IOException {
+		AlignmentsPileupGenerator seqGenerator = new AlignmentsPileupGenerator();
+		seqGenerator.setLog(log);
+		seqGenerator.setGenome(genome);
+		seqGenerator.setMinMQ(generator.getMinMQ());
+		seqGenerator.setMaxAlnsPerStartPos(generator.getMaxAlnsPerStartPos());
+		seqGenerator.setProcessNonUniquePrimaryAlignments(generator.isProcessNonUniquePrimaryAlignments());
+		seqGenerator.setProcessSecondaryAlignments(generator.isProcessSecondaryAlignments());
+		seqGenerator.setBasesToIgnore5P(generator.getBasesToIgnore5P());
+		seqGenerator.setBasesToIgnore3P(generator.getBasesToIgnore3P());
+		seqGenerator.setQuerySeq(sequence.getName());
+		
+		IndelRealignerPileupListener seqRealigner = new IndelRealignerPileupListener();
+		seqRealigner.setGenome(genome);
+		seqRealigner.setInputVariants(indelRealigner.getInputVariants());
+		
+		SingleSampleVariantPileupListener seqListener = new SingleSampleVariantPileupListener();
+		seqListener.setGenome(genome);
+		seqListener.setSample(varListener.getSample());
+		seqListener.setHeterozygosityRate(varListener.getHeterozygosityRate());
+		seqListener.setMaxBaseQS(varListener.getMaxBaseQS());
+		seqListener.setMinQuality(varListener.getMinQuality());
+		seqListener.setIgnoreLowerCaseRef(varListener.isIgnoreLowerCaseRef());
+		seqListener.setCallEmbeddedSNVs(varListener.isCallEmbeddedSNVs());
+		seqListener.setCalcStrandBias(varListener.isCalcStrandBias());
+		if(knownVariants!=null) seqListener.setInputVariants(knownVariants);
+		
+		seqGenerator.addListener(seqRealigner);
+		seqGenerator.addListener(seqListener);
+		seqGenerator.processFile(inputFile);
+		return seqListener.getCalledVariants();
+	}
 
-	private void saveSequenceVariants(String sequenceName) {
+	private void saveSequenceVariants(String sequenceName, List<CalledGenomicVariant> sequenceVariants) {
 		List<CalledCNV> sequenceCNVs= selectCalledCNVs(calledSVs.getSequenceRegions(sequenceName)).asList();
-		List<CalledGenomicVariant> sequenceVariants = varListener.getCalledVariants();
 		boolean [] varInCNV = new boolean [sequenceVariants.size()]; 
 		intersectVariantsCNVs(sequenceCNVs,sequenceVariants,varInCNV);
 		for(int i=0;i<sequenceVariants.size();i++) {
@@ -923,7 +1045,6 @@ public class SingleSampleVariantsDetector implements PileupListener {
 			varsFW.printVCFRecord(record, outVars);
 		}
 		outVars.flush();
-		varListener.clear();
 	}
 	private void intersectVariantsCNVs(List<CalledCNV> sequenceCNVs,List<CalledGenomicVariant> sequenceVars, boolean [] varInCNV) {
 		int threshold = getBinSize();
@@ -987,7 +1108,8 @@ public class SingleSampleVariantsDetector implements PileupListener {
 			log.warning("Null sequence");
 			return;
 		}
-		saveSequenceVariants(sequence.getName());
+		saveSequenceVariants(sequence.getName(), varListener.getCalledVariants());
+		varListener.clear();
 	}
 	
 	private List<CalledGenomicVariant> runRPAnalysis() throws IOException {
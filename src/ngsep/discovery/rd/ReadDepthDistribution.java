@@ -31,6 +31,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import ngsep.alignments.ReadAlignment;
@@ -43,6 +48,7 @@ import ngsep.sequences.QualifiedSequenceList;
 
 public class ReadDepthDistribution {
 	public static final int DEFAULT_BIN_SIZE=100;
+	private static final int TIMEOUT_SECONDS = 30;
 	private Logger log = Logger.getLogger(ReadDepthDistribution.class.getName());
 	//Parameters set before starting
 	private int binSize = DEFAULT_BIN_SIZE;
@@ -175,30 +181,31 @@ public class ReadDepthDistribution {
 		}
 	}
 	public void processAlignments (String filename) throws IOException {
-		try (ReadAlignmentFileReader reader = new ReadAlignmentFileReader(filename, genome)) {
-			reader.setLoadMode(ReadAlignmentFileReader.LOAD_MODE_MINIMAL);
-			reader.setLog(log);
-			int filterFlags = ReadAlignment.FLAG_READ_UNMAPPED;
-			reader.setFilterFlags(filterFlags);
-			reader.setMinMQ(minMQ);
-			Iterator<ReadAlignment> it = reader.iterator();
-			//Sequence under processing
-			while(it.hasNext()) {
-				ReadAlignment aln = it.next();
-				boolean uniqueRead = aln.isUnique();
-				
-				int middle = aln.getFirst()+aln.getReadLength()/2;
-				List<ReadDepthBin> seqBins = bins.get(aln.getSequenceName());
-				if(seqBins==null) continue;
-				int binPos = middle/binSize;
-				if(seqBins!=null && seqBins.size()>binPos) {
-					ReadDepthBin bin = seqBins.get(binPos);
-					if(!uniqueRead) bin.setInRepetitiveRegion(true);
-					bin.addRead();
+		processAlignments(filename, 1);
+	}
+	/**
+	 * Counts the reads of the given file within each bin.
+	 * If more than one thread is used and the file is indexed, sequences are processed in parallel
+	 * @param filename Alignments file sorted by reference coordinates
+	 * @param numThreads Number of threads to count reads
+	 * @throws IOException If the file can not be read or if the average coverage is too low
+	 */
+	public void processAlignments (String filename, int numThreads) throws IOException {
+		if(numThreads>1 && isIndexed(filename)) {
+			processAlignmentsBySequence(filename, numThreads);
+		} else {
+			try (ReadAlignmentFileReader reader = createReader(filename)) {
+				Iterator<ReadAlignment> it = reader.iterator();
+				//Sequence under processing
+				while(it.hasNext()) {
+					ReadAlignment aln = it.next();
+					List<ReadDepthBin> seqBins = bins.get(aln.getSequenceName());
+					if(seqBins==null) continue;
+					addRead(aln, seqBins);
+					totalReads++;
+					if(totalReads%1000000 == 0) log.info("Processed "+totalReads+" alignments");
+					//if(totalReads%100000 == 0) log.info("Processing read: "+aln.getReadName()+". Location: "+aln.getSequenceName()+":"+aln.getFirst()+" flags: "+aln.getFlags()+". Unique: "+aln.isUnique()+". Bins size: "+seqBins.size());
 				}
-				totalReads++;
-				if(totalReads%1000000 == 0) log.info("Processed "+totalReads+" alignments");
-				//if(totalReads%100000 == 0) log.info("Processing read: "+aln.getReadName()+". Location: "+aln.getSequenceName()+":"+aln.getFirst()+" flags: "+aln.getFlags()+". Unique: "+aln.isUnique()+". Bins size: "+seqBins.size()+" bin pos: "+binPos);
 			}
 		}
 		//Set corrected depth back to raw depth
@@ -220,6 +227,68 @@ public class ReadDepthDistribution {
 		if(n==0 || sum/n <1) throw new IOException("The average coverage in unique regions ("+(sum/n)+") is too low for reliable CNV detection. "
 				+ "Check if the XS field is present for all alignments in the bam file and if so, use the option -ignoreXS. If the average genome-wide coverage is low, then skip detection of CNVs"); 
 	}
+	private boolean isIndexed(String filename) throws IOException {
+		try (ReadAlignmentFileReader reader = new ReadAlignmentFileReader(filename, genome)) {
+			return reader.isIndexed();
+		}
+	}
+	private ReadAlignmentFileReader createReader(String filename) throws IOException {
+		ReadAlignmentFileReader reader = new ReadAlignmentFileReader(filename, genome);
+		reader.setLoadMode(ReadAlignmentFileReader.LOAD_MODE_MINIMAL);
+		reader.setLog(log);
+		int filterFlags = ReadAlignment.FLAG_READ_UNMAPPED;
+		reader.setFilterFlags(filterFlags);
+		reader.setMinMQ(minMQ);
+		return reader;
+	}
+	private void addRead(ReadAlignment aln, List<ReadDepthBin> seqBins) {
+		int middle = aln.getFirst()+aln.getReadLength()/2;
+		int binPos = middle/binSize;
+		if(seqBins.size()>binPos) {
+			ReadDepthBin bin = seqBins.get(binPos);
+			if(!aln.isUnique()) bin.setInRepetitiveRegion(true);
+			bin.addRead();
+		}
+	}
+	/**
+	 * Counts reads querying each sequence in parallel. Each task only updates the bins of its own sequence
+	 * @param filename Indexed alignments file
+	 * @param numThreads Number of threads
+	 * @throws IOException If the file can not be read
+	 */
+	private void processAlignmentsBySequence(String filename, int numThreads) throws IOException {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		List<Future<Long>> seqCounts = new ArrayList<>();
+		for(QualifiedSequence seq:sequences) {
+			List<ReadDepthBin> seqBins = bins.get(seq.getName());
+			if(seqBins==null) continue;
+			seqCounts.add(pool.submit(()->countSequenceReads(filename, seq.getName(), seqBins)));
+		}
+		pool.shutdown();
+		try {
+			for(Future<Long> count:seqCounts) totalReads+=count.get();
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			throw new IOException("Read depth calculation was interrupted", e);
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			throw new RuntimeException(cause);
+		}
+		log.info("Processed "+totalReads+" alignments");
+	}
+	private long countSequenceReads(String filename, String sequenceName, List<ReadDepthBin> seqBins) throws IOException {
+		long count = 0;
+		try (ReadAlignmentFileReader reader = createReader(filename)) {
+			Iterator<ReadAlignment> it = reader.iterator(sequenceName, 1, Integer.MAX_VALUE);
+			while(it.hasNext()) {
+				addRead(it.next(), seqBins);
+				count++;
+			}
+		}
+		return count;
+	}
 	public void correctDepthByGCContent () {
 		int gcContentBins = 100;
 		double [] readDepthGC = new double [gcContentBins];
@@ -26,6 +26,7 @@ public class CDNACatalogAligner {
 	public static final byte DEF_KMER_LENGTH = HomologRelationshipsFinder.DEF_KMER_LENGTH;
 	public static final int DEF_MIN_PCT_KMERS = HomologRelationshipsFinder.DEF_MIN_PCT_KMERS;
 	public static final int DEF_MAX_HOMOLOGS_UNIT = 3;
+	public static final int DEF_NUM_THREADS = 1;
 	
 	// Logging and progress
 	private Logger log = Logger.getLogger(CDNACatalogAligner.class.getName());
@@ -36,6 +37,7 @@ public class CDNACatalogAligner {
 	private String outputPrefix = DEF_OUT_PREFIX;
 	private boolean skipMCL= false;
 	private int inputType = INPUT_TYPE_CDNA;
+	private int numThreads = DEF_NUM_THREADS;
 	
 	// Model attributes
 	private HomologRelationshipsFinder homologRelationshipsFinder = new HomologRelationshipsFinder();
@@ -102,6 +104,15 @@ public class CDNACatalogAligner {
 	public void setInputType(String value) {
 		setInputType((int)OptionValuesDecoder.decode(value, Integer.class));
 	}
+	public int getNumThreads() {
+		return numThreads;
+	}
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	public void setNumThreads(String value) {
+		setNumThreads((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
 	public static void main(String[] args) throws Exception {
 		CDNACatalogAligner instance = new CDNACatalogAligner();
 		int i = CommandsDescriptor.getInstance().loadOptions(instance, args);
@@ -143,6 +154,7 @@ public class CDNACatalogAligner {
 	
 	private void generateOrthologs() {
 		catalogsDescription();
+		homologRelationshipsFinder.setNumThreads(numThreads);
 		
 		for(int i=0;i<cdnaCatalogs.size();i++) {
 			HomologyCatalog catalog = cdnaCatalogs.get(i);
@@ -180,12 +192,14 @@ public class CDNACatalogAligner {
 		out.println("Output prefix:"+ outputPrefix);
 		out.println("K-mer length: "+ getKmerLength());
 		out.println("Minimum percentage of k-mers to call orthologs: "+ getMinPctKmers());
+		out.println("Number of threads: "+ numThreads);
 		log.info(os.toString());
 	}
 	
 	private void generateClusters() {
 		HomologClustersCalculator calculator = new HomologClustersCalculator(skipMCL);
 		calculator.setLog(log);
+		calculator.setNumThreads(numThreads);
 		orthologyUnitClusters = calculator.clusterHomologsCatalogs(cdnaCatalogs, homologyEdges);
 	}
 	
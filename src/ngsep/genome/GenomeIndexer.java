@@ -22,17 +22,22 @@ package ngsep.genome;
 import java.io.IOException;
 import java.util.logging.Logger;
 
+import ngsep.alignments.MinimizersTableReadAlignmentAlgorithm;
+import ngsep.alignments.ReadsAligner;
 import ngsep.main.CommandsDescriptor;
+import ngsep.main.OptionValuesDecoder;
 import ngsep.main.ProgressNotifier;
 
 /**
- * Program that build the FM-index related to a genome
+ * Program that build the FM-index related to a genome or the minimizers table used to align long reads
  * @author German Andrade
  * @author Jorge Duitama
  */
 public class GenomeIndexer {
 	// Constants for default values
-	
+	public static final int DEF_KMER_LENGTH = ReadsAligner.DEF_KMER_LENGTH;
+	public static final int DEF_WINDOW_LENGTH = ReadsAligner.DEF_WINDOW_LENGTH;
+	public static final int DEF_NUM_THREADS = 1;
 	
 	// Logging and progress
 	private Logger log = Logger.getLogger(GenomeIndexer.class.getName());
@@ -41,7 +46,10 @@ public class GenomeIndexer {
 	// Parameters
 	private String inputFile = null;
 	private String outputFile = null;
-	
+	private boolean minimizersTable = false;
+	private int kmerLength = DEF_KMER_LENGTH;
+	private int windowLength = DEF_WINDOW_LENGTH;
+	private int numThreads = DEF_NUM_THREADS;
 	
 	// Get and set methods
 	
@@ -73,16 +81,57 @@ public class GenomeIndexer {
 		this.outputFile = outputFile;
 	}
 
+	public boolean isMinimizersTable() {
+		return minimizersTable;
+	}
+	public void setMinimizersTable(boolean minimizersTable) {
+		this.minimizersTable = minimizersTable;
+	}
+	public void setMinimizersTable(Boolean minimizersTable) {
+		this.setMinimizersTable(minimizersTable.booleanValue());
+	}
+
+	public int getKmerLength() {
+		return kmerLength;
+	}
+	public void setKmerLength(int kmerLength) {
+		this.kmerLength = kmerLength;
+	}
+	public void setKmerLength(String value) {
+		this.setKmerLength((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
+
+	public int getWindowLength() {
+		return windowLength;
+	}
+	public void setWindowLength(int windowLength) {
+		this.windowLength = windowLength;
+	}
+	public void setWindowLength(String value) {
+		this.setWindowLength((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	public void setNumThreads(String value) {
+		this.setNumThreads((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
+
 	public static void main(String[] args) throws Exception  {
 		GenomeIndexer instance = new GenomeIndexer();
 		CommandsDescriptor.getInstance().loadOptions(instance, args);
 		instance.run();
 	}
 	
-	public void run () throws IOException {
+	public void run () throws IOException, InterruptedException {
 		if (inputFile==null) throw new IOException("The reference genome is a required parameter");
 		if (outputFile==null) throw new IOException("The path of the output file is a required parameter");
-		createIndex (inputFile,outputFile);
+		if (minimizersTable) createMinimizersTable(inputFile, outputFile);
+		else createIndex (inputFile,outputFile);
 	}
 
 	public void createIndex(String genomeFile, String outputFile) throws IOException {
@@ -97,4 +146,19 @@ public class GenomeIndexer {
 		fMIndex.save(outputFile);
 		log.info("Process completed");
 	}
+	
+	public void createMinimizersTable(String genomeFile, String outputFile) throws IOException, InterruptedException {
+		log.info("Loading genome from file "+genomeFile);
+		ReferenceGenome genome = new ReferenceGenome(genomeFile);
+		log.info("Building minimizers table for genome in file "+genomeFile+". K-mer length: "+kmerLength+" window length: "+windowLength);
+		long time = System.currentTimeMillis();
+		MinimizersTableReadAlignmentAlgorithm aligner = new MinimizersTableReadAlignmentAlgorithm();
+		aligner.setLog(log);
+		aligner.loadGenome(genome, kmerLength, windowLength, numThreads, false);
+		double seconds = (System.currentTimeMillis()-time);
+		seconds /=1000;
+		log.info("Built minimizers table in "+seconds+" seconds. Saving in "+outputFile);
+		aligner.saveGenomeIndex(outputFile);
+		log.info("Process completed");
+	}
 }
@@ -26,17 +26,31 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import ngsep.sequences.QualifiedSequence;
 import ngsep.sequences.QualifiedSequenceList;
 
+/**
+ * Collection of genomic regions sorted by sequence and position. Regions spanning a query region are found
+ * with an implicit interval tree built over the sorted regions of each sequence. The tree is augmented with
+ * the maximum last position of the regions in each subtree.
+ * Queries do not modify the collection once it is sorted. Hence, they can be executed concurrently
+ * as long as no other thread modifies the collection.
+ * @author Jorge Duitama
+ */
 public class GenomicRegionSortedCollection<T extends GenomicRegion> implements Collection<T> {
+	/**
+	 * Subtrees with at most this level are traversed sequentially
+	 */
+	private static final int MAX_LEVEL_SCAN = 3;
 	private QualifiedSequenceList sequences = new QualifiedSequenceList();
 	private Map<Integer,List<T>> regionsMap = new HashMap<Integer, List<T>>();
-	private Map<Integer,List<T>> longRegionsMap = new HashMap<Integer, List<T>>();
+	//Maximum last position of the regions within the subtree rooted at each position of the sorted lists
+	//Sequences without an entry in this map should be sorted before queries
+	private Map<Integer,int []> maxLastsMap = new HashMap<Integer, int []>();
 	private int size = 0;
-	private int numSpanningLong = 15;
-	private boolean sorted = true;
+	private volatile boolean sorted = true;
 	
 	
 	public GenomicRegionSortedCollection () {
@@ -51,7 +65,7 @@ public class GenomicRegionSortedCollection<T extends GenomicRegion> implements C
 		this.sequences.addAll(sequences);
 		for(int i=0;i<this.sequences.size();i++) {	 
 			regionsMap.put(i, new ArrayList<T>());
-			longRegionsMap.put(i, new ArrayList<T>());
+			maxLastsMap.put(i, new int[0]);
 		}
 	}
 	@Override
@@ -67,10 +81,10 @@ public class GenomicRegionSortedCollection<T extends GenomicRegion> implements C
 			}
 			index = sequences.indexOf(seq.getName());
 			regionsMap.put(index, new ArrayList<T>());
-			longRegionsMap.put(index, new ArrayList<T>());
 		}
 		List<T> regions = regionsMap.get(index);
 		regions.add(e);
+		maxLastsMap.remove(index);
 		size++;
 		sorted = false;
 		return true;
@@ -91,7 +105,7 @@ public class GenomicRegionSortedCollection<T extends GenomicRegion> implements C
 	public void clear() {
 		for(int index:regionsMap.keySet()) {
 			regionsMap.get(index).clear();
-			longRegionsMap.get(index).clear();
+			maxLastsMap.put(index, new int[0]);
 		}
 		size = 0;
 		sorted = true;
@@ -125,9 +139,9 @@ public class GenomicRegionSortedCollection<T extends GenomicRegion> implements C
 		if(index<0) return false;
 		regions.remove(index);
 		size--;
-		List<T> longRegions = longRegionsMap.get(sequenceIndex);
-		index = GenomicRegionSortedCollection.indexOf (longRegions,gr);
-		if(index>=0) longRegions.remove(index);
+		//The list remains sorted but the interval tree must be rebuilt before the next query
+		maxLastsMap.remove(sequenceIndex);
+		sorted = false;
 		return true;
 	}
 	@Override
@@ -151,11 +165,10 @@ public class GenomicRegionSortedCollection<T extends GenomicRegion> implements C
 		int remaining = n;
 		for(int i=0;i<sequences.size() && remaining > 0;i++) {
 			List<T> regions = regionsMap.get(i);
-			List<T> longRegions = longRegionsMap.get(i);
 			int nSeq = regions.size();
 			if(nSeq<=remaining) {
 				regions.clear();
-				longRegions.clear();
+				maxLastsMap.put(i, new int[0]);
 				remaining -= nSeq;
 				size -= nSeq;
 			} else {
@@ -165,7 +178,8 @@ public class GenomicRegionSortedCollection<T extends GenomicRegion> implements C
 				}
 				regions.clear();
 				regions.addAll(newRegions);
-				//Update long regions in the next sort
+				//Update the interval tree in the next sort
+				maxLastsMap.remove(i);
 				sorted = false;
 				size-=remaining;
 				remaining = 0;
@@ -185,37 +199,55 @@ public class GenomicRegionSortedCollection<T extends GenomicRegion> implements C
 	 * Use this method to sort the collection again when the locations of the genomic regions are modified externally
 	 */
 	public void forceSort() {
-		sorted = false;
+		synchronized (this) {
+			maxLastsMap.clear();
+			sorted = false;
+		}
 		sort();
 	}
 	private void sort() {
-		if(!sorted) {
-			//System.out.println("Sorting "+regionsForward.size()+" regions");
-			//if(regionsForward.size()>0) System.out.println("Type: "+regionsForward.get(0).getClass().getName());
+		if(sorted) return;
+		synchronized (this) {
+			if(sorted) return;
 			for(int index:regionsMap.keySet()) {
+				if(maxLastsMap.containsKey(index)) continue;
 				List<T> regions = regionsMap.get(index);
 				Collections.sort(regions,GenomicRegionPositionComparator.getInstance());
-				List<T> longRegions = longRegionsMap.get(index);
-				longRegions.clear();
-				for(int i=0;i<regions.size();i++) {
-					T r = regions.get(i);
-		 			//if(i<50) System.out.println("Seqname: "+r.getSequenceName()+". Start: "+r.getStart()+" end:"+r.getEnd());
-					int j=i+1;
-					for(;j<regions.size() && j<=i+numSpanningLong;j++) {
-						GenomicRegion r2 = regions.get(j);
-						if(r2.getFirst() > r.getLast()) {
-							break;
-						}
-					}
-					if(j>i+numSpanningLong) {
-						longRegions.add(r);
-					}
-				}
-				
+				maxLastsMap.put(index, buildMaxLasts(regions));
 			}
-			//System.out.println("Found "+longRegions.size()+" long regions");
+			sorted = true;
 		}
-		sorted = true;
+	}
+	/**
+	 * Builds the augmentation of the implicit interval tree over the given sorted regions.
+	 * Leaves are located at even positions. The node at position i has level k if the k least significant bits of i are one
+	 * and its children are located at positions i-2^(k-1) and i+2^(k-1)
+	 * @param regions sorted by first and last position
+	 * @return int [] Maximum last position of the regions in the subtree rooted at each position
+	 */
+	private static int [] buildMaxLasts(List<? extends GenomicRegion> regions) {
+		int n = regions.size();
+		int [] maxLasts = new int [n];
+		if(n==0) return maxLasts;
+		int lastIdx = 0;
+		int lastMax = 0;
+		for(int i=0;i<n;i+=2) {
+			lastIdx = i;
+			maxLasts[i] = lastMax = regions.get(i).getLast();
+		}
+		for(int k=1;1L<<k<=n;k++) {
+			int x = 1<<(k-1);
+			int step = x<<2;
+			for(int i=(x<<1)-1;i<n;i+=step) {
+				//The right child can be outside the list. In such case, the max of the last subtree is used
+				int maxRight = i+x<n?maxLasts[i+x]:lastMax;
+				maxLasts[i] = Math.max(regions.get(i).getLast(), Math.max(maxLasts[i-x], maxRight));
+			}
+			//Parent of the last node of the previous level
+			lastIdx = ((lastIdx>>k)&1)!=0?lastIdx-x:lastIdx+x;
+			if(lastIdx<n) lastMax = Math.max(lastMax, maxLasts[lastIdx]);
+		}
+		return maxLasts;
 	}
 	
 	public QualifiedSequenceList getSequenceNames() {
@@ -242,39 +274,85 @@ public class GenomicRegionSortedCollection<T extends GenomicRegion> implements C
 	}
 	public GenomicRegionSortedCollection<T> findSpanningRegions(int sequenceIndex, int first, int last) {
 		GenomicRegionSortedCollection<T> answer = new GenomicRegionSortedCollection<T>();
-		if(sequenceIndex <0 || sequenceIndex>sequences.size()) return answer;
+		forEachSpanningRegion(sequenceIndex, first, last, answer::add);
+		return answer;
+	}
+	/**
+	 * Adds to the given list the regions spanning the given coordinates. This method allows to reuse the same list for different queries
+	 * @param sequenceName Name of the sequence to look for
+	 * @param first First position of the query region
+	 * @param last Last position of the query region
+	 * @param answer List to add the spanning regions. Regions are appended sorted by position without removing the current elements 
+	 * @return int Number of regions added to the list
+	 */
+	public int findSpanningRegions(String sequenceName, int first, int last, List<? super T> answer) {
+		int n = answer.size();
+		forEachSpanningRegion(sequences.indexOf(sequenceName), first, last, answer::add);
+		return answer.size()-n;
+	}
+	/**
+	 * Calls the given visitor for each region spanning the given coordinates. Regions are visited sorted by position
+	 * @param sequenceName Name of the sequence to look for
+	 * @param first First position of the query region
+	 * @param last Last position of the query region
+	 * @param visitor to call for each spanning region
+	 */
+	public void forEachSpanningRegion(String sequenceName, int first, int last, Consumer<? super T> visitor) {
+		forEachSpanningRegion(sequences.indexOf(sequenceName), first, last, visitor);
+	}
+	/**
+	 * Calls the given visitor for each region spanning the given coordinates. Regions are visited sorted by position
+	 * @param sequenceIndex Index of the sequence to look for
+	 * @param first First position of the query region
+	 * @param last Last position of the query region
+	 * @param visitor to call for each spanning region
+	 */
+	public void forEachSpanningRegion(int sequenceIndex, int first, int last, Consumer<? super T> visitor) {
+		if(sequenceIndex <0 || sequenceIndex>=sequences.size()) return;
 		sort();
-		GenomicRegionSpanComparator spanCmp = GenomicRegionSpanComparator.getInstance();
-		GenomicRegion dummyRegion = new GenomicRegionImpl(sequences.get(sequenceIndex).getName(), first, first);
 		List<T> regions = regionsMap.get(sequenceIndex);
-		int index = Collections.binarySearch(regions, dummyRegion,GenomicRegionPositionComparator.getInstance());
-		int indexStart = index;
-		if(index<0) {
-			index = -index-1;
-		}
-		indexStart = Math.max(0,index - numSpanningLong);
-		
-		for(int i=indexStart;i<regions.size();i++) {
-			T r = regions.get(i);
-			int cmp = spanCmp.compare(r,first, last);
-			if (cmp == 0) {
-				answer.add(r);
-			} else if (cmp > 0) {
-				break;
-			}
-		}
-		
-		//Look long regions
-		List<T> longRegions = longRegionsMap.get(sequenceIndex);
-		for(T r: longRegions) {
-			int cmp = spanCmp.compare(r,first, last);
-			if (cmp == 0 && !answer.contains(r)) {
-				answer.add(r);
-			} else if (cmp >0) {
-				break;
+		int [] maxLasts = maxLastsMap.get(sequenceIndex);
+		int n = regions.size();
+		if(n==0) return;
+		//In order traversal of the implicit tree. Each entry of the stack has the node, its level and if the left child was visited
+		int rootLevel = 31 - Integer.numberOfLeadingZeros(n);
+		int [] stackNodes = new int [2*rootLevel+2];
+		int [] stackLevels = new int [stackNodes.length];
+		boolean [] stackLeftDone = new boolean [stackNodes.length];
+		int t = 0;
+		stackNodes[t] = (1<<rootLevel)-1;
+		stackLevels[t] = rootLevel;
+		stackLeftDone[t++] = false;
+		while(t>0) {
+			t--;
+			int x = stackNodes[t];
+			int k = stackLevels[t];
+			if(k<=MAX_LEVEL_SCAN) {
+				//Small subtree. Scan the regions sequentially
+				int i0 = (x>>k)<<k;
+				int i1 = Math.min(n, i0 + (1<<(k+1)) - 1);
+				for(int i=i0;i<i1;i++) {
+					T r = regions.get(i);
+					if(r.getFirst()>last) break;
+					if(r.getLast()>=first) visitor.accept(r);
+				}
+			} else if (!stackLeftDone[t]) {
+				int y = x - (1<<(k-1));
+				stackLeftDone[t++] = true;
+				//Nodes outside the list can still have descendants within the list
+				if(y>=n || maxLasts[y]>=first) {
+					stackNodes[t] = y;
+					stackLevels[t] = k-1;
+					stackLeftDone[t++] = false;
+				}
+			} else if (x<n && regions.get(x).getFirst()<=last) {
+				T r = regions.get(x);
+				if(r.getLast()>=first) visitor.accept(r);
+				stackNodes[t] = x + (1<<(k-1));
+				stackLevels[t] = k-1;
+				stackLeftDone[t++] = false;
 			}
 		}
-		return answer;
 	}
 	
 	public List<T> asList() {
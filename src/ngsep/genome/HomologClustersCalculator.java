@@ -15,12 +15,14 @@ import java.util.Set;
 import java.util.logging.Logger;
 
 import ngsep.graphs.MCLJob;
+import ngsep.graphs.SparseMatrix;
+import ngsep.graphs.SparseVector;
 import ngsep.math.Distribution;
 
 public class HomologClustersCalculator {
 	//Possible program arguments
 	private static final int PREFERRED_ORTHOGROUP_SIZE = 50;
-	private static final int MAX_SIZE_MCL = 5000;
+	private static final int MAX_SIZE_MCL = 50000;
 	
 	//Statistics
 	private int countLarge = 0;
@@ -32,6 +34,7 @@ public class HomologClustersCalculator {
 	private boolean skipMCL;
 	private Distribution distClusterSizes = new Distribution(0, PREFERRED_ORTHOGROUP_SIZE, 1);
 	private int sampleSize = 0;
+	private int numThreads = 1;
 	
 	private Logger log;
 	
@@ -49,6 +52,16 @@ public class HomologClustersCalculator {
 	public void setLog(Logger log) {
 		this.log = log;
 	}
+	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	/**
+	 * @param numThreads Number of threads used by the MCL clustering of each partition
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
 
 	public List<List<HomologyUnit>> clusterHomologs(List<AnnotatedReferenceGenome> genomes, List<HomologyEdge> homologyEdges) {
 		List<HomologyCatalog> catalogs = new ArrayList<>();
@@ -230,15 +243,17 @@ public class HomologClustersCalculator {
 		}
 		
 		//Generating score matrix for MCL
-		double[][] matrix = new double[partition.size()][partition.size()];
+		SparseMatrix matrix = new SparseMatrix(partition.size(), partition.size());
 		for(int i = 0; i < partition.size(); i++) {
 			HomologyUnit currentUnit = partition.get(i);
+			SparseVector row = matrix.getVector(i);
 			for(HomologyEdge edge : currentUnit.getAllHomologyRelationships()) {
-				matrix[i][indexOf.get(edge.getSubjectUnit().getUniqueKey())] = edge.getScore();
+				row.set(indexOf.get(edge.getSubjectUnit().getUniqueKey()), edge.getScore());
 			}
 		}
 		
 		MCLJob job = new MCLJob(matrix);
+		job.setNumThreads(numThreads);
 		job.run();
 		
 		List<List<Integer>> results = job.getResults();
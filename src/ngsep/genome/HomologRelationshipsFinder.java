@@ -1,19 +1,26 @@
 package ngsep.genome;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import ngsep.sequences.FMIndex;
-import ngsep.sequences.UngappedSearchHit;
 
 public class HomologRelationshipsFinder {
 	public static final byte DEF_KMER_LENGTH = 10;
 	public static final int DEF_MIN_PCT_KMERS = 50;
-	
+	public static final int DEF_NUM_THREADS = 1;
+	private static final int TIMEOUT_SECONDS = 30;
+
 	private byte kmerLength = DEF_KMER_LENGTH;
 	private int minPctKmers = DEF_MIN_PCT_KMERS;
+	private int numThreads = DEF_NUM_THREADS;
 	public byte getKmerLength() {
 		return kmerLength;
 	}
@@ -26,81 +33,110 @@ public class HomologRelationshipsFinder {
 	public void setMinPctKmers(int minPctKmers) {
 		this.minPctKmers = minPctKmers;
 	}
-	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	/**
+	 * Changes the number of threads used to search homologs. Units are distributed across threads
+	 * because the FM-index of the catalog is only read during the search
+	 * @param numThreads Number of threads
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
 	public List<HomologyEdge> calculateParalogs(AnnotatedReferenceGenome genome) {
-		List<HomologyEdge> edges = new ArrayList<HomologyEdge>();
-		List<HomologyUnit> units = genome.getHomologyUnits();
-		for (HomologyUnit unit:units) {
-			List<HomologyEdge> hits = findHomologs(unit, genome.getHomologyCatalog());
-			edges.addAll(hits);
-		}
+		List<HomologyEdge> edges = findHomologs(genome.getHomologyUnits(), genome.getHomologyCatalog());
 		genome.selectUniqueOrthologyUnits();
 		return edges;
 	}
-	
+
 	public List<HomologyEdge> calculateParalogsOrganism(HomologyCatalog catalog) {
-		List<HomologyEdge> edges = new ArrayList<HomologyEdge>();
-		List<HomologyUnit> units = catalog.getHomologyUnits();
-		for (HomologyUnit unit:units) {
-			List<HomologyEdge> hits = findHomologs(unit, catalog);
-			edges.addAll(hits);
-		}
-		return edges;
+		return findHomologs(catalog.getHomologyUnits(), catalog);
 	}
-	
+
 	/**
 	 * Finds orthologs of the orthology units in this genome in the given genome
 	 * @param genome2 to search for orthologs
 	 */
 	public List<HomologyEdge> calculateOrthologs(HomologyCatalog catalog1, HomologyCatalog catalog2) {
+		return findHomologs(catalog1.getHomologyUnits(), catalog2);
+	}
+
+	/**
+	 * Finds the homologs of the given units in the given catalog. Edges are returned following the order of the units
+	 * @param units to search
+	 * @param catalog to search for homologs
+	 * @return List<HomologyEdge> Homology relationships found
+	 */
+	private List<HomologyEdge> findHomologs(List<HomologyUnit> units, HomologyCatalog catalog) {
 		List<HomologyEdge> edges = new ArrayList<HomologyEdge>();
-		List<HomologyUnit> units = catalog1.getHomologyUnits();
-		for (HomologyUnit unit:units) {
-			List<HomologyEdge> hits = findHomologs(unit, catalog2);
-			edges.addAll(hits);
+		if(numThreads<=1 || units.size()<2) {
+			for (HomologyUnit unit:units) {
+				List<HomologyEdge> hits = findHomologs(unit, catalog);
+				edges.addAll(hits);
+			}
+			return edges;
+		}
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		try {
+			List<Future<List<HomologyEdge>>> tasks = new ArrayList<>(units.size());
+			//Each task only adds relationships to its own unit
+			for (HomologyUnit unit:units) {
+				tasks.add(pool.submit(()->findHomologs(unit, catalog)));
+			}
+			for(Future<List<HomologyEdge>> task:tasks) edges.addAll(task.get());
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
 		}
 		return edges;
 	}
-	
+
 	private List<HomologyEdge> findHomologs(HomologyUnit unit, HomologyCatalog catalog) {
 		List<HomologyEdge> edges = new ArrayList<HomologyEdge>();
 		FMIndex indexCatalog = catalog.getIndexHomologyUnits();
-		//Counts of k-mers mapping to each protein in the FM-index
-		Map<String,Integer> kmerSupportMap = new TreeMap<>();
-		int totalKmers = 0;
 		String searchSequence = unit.getUnitSequence();
 		//Step 1: Generate k-mers to query the FM-Index looking for homologous transcripts to calculate the kmer counts
+		List<String> kmers = new ArrayList<>();
 		for(int i=0; i<searchSequence.length()-kmerLength+1; i+=kmerLength) {
-			String kmer = searchSequence.substring(i, i+kmerLength);
-			
-			List <UngappedSearchHit> kmerHits = indexCatalog.exactSearch(kmer);
-			for(UngappedSearchHit hit:kmerHits) {
-				String name = hit.getSequenceName();
-				if(kmerSupportMap.containsKey(name)) {
-					int value = 1 + kmerSupportMap.get(name);
-					kmerSupportMap.put(name, value);
-				} else {
-					kmerSupportMap.put(name, 1);
-				}
-			}
-			totalKmers++;
+			kmers.add(searchSequence.substring(i, i+kmerLength));
+		}
+		int totalKmers = kmers.size();
+		if(totalKmers==0) return edges;
+		int [][] kmerHits = indexCatalog.exactSearchSequenceIndexes(kmers);
+		//Counts of k-mers mapping to each protein in the FM-index are calculated sorting the ids of the hit proteins
+		int totalHits = 0;
+		for(int [] hits:kmerHits) totalHits+=hits.length;
+		int [] hitIds = new int [totalHits];
+		int n = 0;
+		for(int [] hits:kmerHits) {
+			System.arraycopy(hits, 0, hitIds, n, hits.length);
+			n+=hits.length;
 		}
+		Arrays.sort(hitIds);
 
 		//Step 2: Fill list traversing the counts and choosing transcripts for which at least x% of the k-mers support the match
-		for(Map.Entry<String,Integer> entry : kmerSupportMap.entrySet()) {
-			String homologId = entry.getKey();
-			double transcriptKmers = entry.getValue();
+		for(int i=0;i<hitIds.length;) {
+			int homologIdx = hitIds[i];
+			int j = i+1;
+			while(j<hitIds.length && hitIds[j]==homologIdx) j++;
+			double transcriptKmers = j-i;
+			i = j;
 			double percent = (transcriptKmers/totalKmers)*100;
 			if(percent < minPctKmers) continue;
-			HomologyUnit homolog = catalog.getHomologyUnit(homologId);
-			if(homolog==null) continue;
+			HomologyUnit homolog = catalog.getIndexedHomologyUnit(homologIdx);
 			if(homolog==unit) continue;
 			// TODO: calculate score
 			double score = percent;
-			HomologyEdge edge = new HomologyEdge(unit, homolog, score);
-			unit.addHomologRelationship(edge);
-			edges.add(edge);
+			edges.add(new HomologyEdge(unit, homolog, score));
 		}
+		//Keep the order of the relationships by id of the homolog
+		Collections.sort(edges, (e1,e2)->e1.getSubjectUnit().getId().compareTo(e2.getSubjectUnit().getId()));
+		for(HomologyEdge edge:edges) unit.addHomologRelationship(edge);
 		return edges;
 	}
 
@@ -12,6 +12,8 @@ import ngsep.sequences.QualifiedSequenceList;
 public class HomologyCatalog {
 	private Map<String, HomologyUnit> homologyUnitsMap= new HashMap<String, HomologyUnit>();
 	private FMIndex indexHomologyUnits=null;
+	//Units in the order of the sequences in the FM-index
+	private List<HomologyUnit> indexedUnits = new ArrayList<>();
 	
 	public HomologyCatalog (List<HomologyUnit> units) {
 		for(HomologyUnit unit: units) {
@@ -23,6 +25,7 @@ public class HomologyCatalog {
 		indexHomologyUnits = new FMIndex();
 		QualifiedSequenceList unitSequences = new QualifiedSequenceList();
 		for (HomologyUnit ql:homologyUnitsMap.values()) {
+			indexedUnits.add(ql);
 			String unitSequence = ql.getUnitSequence();
 			String unitId = ql.getId();
 			QualifiedSequence qualifiedSequence = new QualifiedSequence(unitId, unitSequence);
@@ -40,10 +43,19 @@ public class HomologyCatalog {
 	}
 	
 	public List<HomologyUnit> getHomologyUnits() {
-		return new ArrayList<>(homologyUnitsMap.values());
+		return new ArrayList<>(indexedUnits);
 	}
 	
 	public HomologyUnit getHomologyUnit(String unitId) {
 		return homologyUnitsMap.get(unitId);
 	}
+	
+	/**
+	 * Returns the homology unit corresponding to the given sequence index of the FM-index
+	 * @param sequenceIdx Index of the sequence within the FM-index of this catalog
+	 * @return HomologyUnit unit used to build the sequence with the given index
+	 */
+	public HomologyUnit getIndexedHomologyUnit(int sequenceIdx) {
+		return indexedUnits.get(sequenceIdx);
+	}
 }
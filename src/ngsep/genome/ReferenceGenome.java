@@ -21,7 +21,9 @@ package ngsep.genome;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.zip.CRC32;
 
 import ngsep.sequences.DNAMaskedSequence;
 import ngsep.sequences.LimitedSequence;
@@ -249,5 +251,31 @@ public class ReferenceGenome {
 	public List<String> getSequenceNamesStringList() {
 		return sequences.getNamesStringList();
 	}
+	/**
+	 * Calculates a checksum of the names and the characters of the sequences in this genome
+	 * @return long CRC32 checksum of the genome
+	 */
+	public long calculateChecksum() {
+		CRC32 crc = new CRC32();
+		byte [] buffer = new byte [1048576];
+		for(QualifiedSequence seq:sequences) {
+			crc.update('>');
+			crc.update(seq.getName().getBytes(StandardCharsets.UTF_8));
+			crc.update('\n');
+			CharSequence characters = seq.getCharacters();
+			int n = characters.length();
+			int j = 0;
+			for(int i=0;i<n;i++) {
+				buffer[j] = (byte)characters.charAt(i);
+				j++;
+				if(j==buffer.length) {
+					crc.update(buffer, 0, j);
+					j = 0;
+				}
+			}
+			crc.update(buffer, 0, j);
+		}
+		return crc.getValue();
+	}
 
 }
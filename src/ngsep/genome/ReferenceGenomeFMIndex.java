@@ -52,7 +52,8 @@ public class ReferenceGenomeFMIndex {
 	}
 
 	/**
-	 * Loads an instance of the FMIndex from a serialized binary file
+	 * Loads an instance of the FMIndex from a binary file. The index is mapped to memory
+	 * in read only mode, which allows different processes to share the same index
 	 * @param genome Indexed genome
 	 * @param filename Binary file with the serialization of an FMIndex
 	 * @return FMIndex serialized in the given file
@@ -72,7 +73,7 @@ public class ReferenceGenomeFMIndex {
 	}
 	
 	/**
-	 * Saves this FM-Index as a serializable object
+	 * Saves this FM-Index in binary format
 	 * @param filename
 	 * @throws IOException
 	 */
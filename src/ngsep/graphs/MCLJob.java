@@ -3,55 +3,112 @@ package ngsep.graphs;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Markov clustering on a sparse similarity matrix. Rows of the matrix are kept as probability distributions.
+ * Entries below a threshold are removed after each multiplication and each row keeps at most a maximum number of entries.
+ * Rows of matrix products can be calculated in parallel
+ */
 public class MCLJob extends Thread {
+	public static final int DEF_MAX_ENTRIES_ROW = 500;
 	private static final double INFERED_EDGE_VALUE = 1;
 	private static final double ZERO_THRESHOLD = 0.001;
 	private static final int E_POWER = 4;
 	private static final double INFLATION_COEFFICIENT = 8;
 	private static final double DEVIATION_THRESHOLD = 0.000001;
+	private static final int TIMEOUT_SECONDS = 30;
 	
-	private double[][] similarityMatrix;
+	private SparseMatrix similarityMatrix;
 	private int nextColumn = 0;
 	private List<List<Integer>> clusters;
+	private int numThreads = 1;
+	private int maxEntriesRow = DEF_MAX_ENTRIES_ROW;
 	
-	public MCLJob(double[][] providedMatrix) {
+	public MCLJob(SparseMatrix providedMatrix) {
 		super();
+		if(providedMatrix.length()!=providedMatrix.height()) throw new IllegalArgumentException("The similarity matrix must be square. Dimensions: "+providedMatrix.length()+" "+providedMatrix.height());
 		this.similarityMatrix = providedMatrix;
 		this.clusters = new ArrayList<>();
 	}
 
+	public MCLJob(double[][] providedMatrix) {
+		this(toSparseMatrix(providedMatrix));
+	}
+
+	private static SparseMatrix toSparseMatrix(double[][] matrix) {
+		SparseMatrix answer = new SparseMatrix(matrix.length, matrix.length);
+		for(int i = 0; i < matrix.length; i++) {
+			SparseVector row = answer.getVector(i);
+			for(int j = 0; j < matrix.length; j++) {
+				if(matrix[i][j] != 0) row.add(j, matrix[i][j]);
+			}
+		}
+		return answer;
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+	/**
+	 * @param numThreads Number of threads to calculate the rows of matrix products
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	public int getMaxEntriesRow() {
+		return maxEntriesRow;
+	}
+	/**
+	 * @param maxEntriesRow Maximum number of entries kept for each row after each multiplication.
+	 * Entries with the largest values are kept
+	 */
+	public void setMaxEntriesRow(int maxEntriesRow) {
+		this.maxEntriesRow = maxEntriesRow;
+	}
+
 	@Override
-	public void run() {		
-		similarityMatrix = completeMatrix(similarityMatrix);
-		similarityMatrix = fitMatrix(similarityMatrix);
+	public void run() {
+		ThreadPoolExecutor pool = null;
+		if(numThreads>1) pool = new ThreadPoolExecutor(numThreads, numThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		try {
+			similarityMatrix = completeMatrix(similarityMatrix);
+			similarityMatrix = fitMatrix(similarityMatrix);
 		
-		int runs = 0;
-		boolean convergenceState = false;
-		double[][] backup;
-		while(!convergenceState) {
-			runs++;
-			backup = copyOf(similarityMatrix);
-			backup = squareMatrixTimes(backup, E_POWER);
-			backup = inflateMatrix(backup, INFLATION_COEFFICIENT);
-			convergenceState = verifyConvergence(backup, similarityMatrix, DEVIATION_THRESHOLD);
-			similarityMatrix = backup;
-		}
+			int runs = 0;
+			boolean convergenceState = false;
+			SparseMatrix nextState;
+			while(!convergenceState) {
+				runs++;
+				nextState = squareMatrixTimes(similarityMatrix, E_POWER, pool);
+				nextState = inflateMatrix(nextState, INFLATION_COEFFICIENT);
+				convergenceState = verifyConvergence(nextState, similarityMatrix, DEVIATION_THRESHOLD);
+				similarityMatrix = nextState;
+			}
 		
-		System.out.println(String.format("Matrix converged after %d runs", runs));
+			System.out.println(String.format("Matrix converged after %d runs", runs));
+		} finally {
+			if(pool!=null) pool.shutdownNow();
+		}
 		similarityMatrix = consolidateAttractors(similarityMatrix);
 		clusters = extractResults(similarityMatrix);
 	}
 
-	public double[][] getSimilarityMatrix() {
+	public SparseMatrix getSimilarityMatrix() {
 		return similarityMatrix;
 	}
 	
-	public void printMatrix(double[][] matrix) {
-		for(double[] arr : matrix) {
+	public void printMatrix(SparseMatrix matrix) {
+		for(int i = 0; i < matrix.length(); i++) {
+			SparseVector row = matrix.getVector(i);
 			double sum = 0;
-			for(int i = 0; i < arr.length; i++) sum += arr[i];
-			System.out.println(String.format("%s || %f", Arrays.toString(arr), sum));
+			for(int k = 0; k < row.size(); k++) sum += row.getValue(k);
+			System.out.println(String.format("%s || %f", row.valuePairs(), sum));
 		}
 	}
 	
@@ -60,59 +117,89 @@ public class MCLJob extends Thread {
 	 * @param matrix matrix to extract results from.
 	 * @return lists with all-non empty clusters, with the cluster being represented as a list of indexes.
 	 */
-	private List<List<Integer>> extractResults(double[][] matrix) {
-		List<List<Integer>> clusters = new ArrayList<>();
-		
-		for(int j = 0; j < matrix.length; j++) {
-			ArrayList<Integer> cluster = new ArrayList<>();
-			for(int i = 0; i < matrix.length; i++) {
-				if(matrix[i][j] > 0) {
-					cluster.add(i);
+	private List<List<Integer>> extractResults(SparseMatrix matrix) {
+		int n = matrix.length();
+		List<List<Integer>> clustersByColumn = new ArrayList<>(n);
+		for(int j = 0; j < n; j++) clustersByColumn.add(null);
+		for(int i = 0; i < n; i++) {
+			SparseVector row = matrix.getVector(i);
+			for(int k = 0; k < row.size(); k++) {
+				if(row.getValue(k) <= 0) continue;
+				int j = row.getIndex(k);
+				List<Integer> cluster = clustersByColumn.get(j);
+				if(cluster == null) {
+					cluster = new ArrayList<>();
+					clustersByColumn.set(j, cluster);
 				}
+				cluster.add(i);
 			}
-			if(cluster.size() > 0) clusters.add(cluster);
 		}
-		
+		List<List<Integer>> clusters = new ArrayList<>();
+		for(List<Integer> cluster : clustersByColumn) {
+			if(cluster != null) clusters.add(cluster);
+		}
 		return clusters;
 	}
 	
 	/**
-	 * Verifies if the standard deviation the matrix is below the desired threshold. Each matrix needs to have the same dimensions.
+	 * Verifies if the standard deviation of the differences between two matrices is below the desired threshold. Each matrix needs to have the same dimensions.
+	 * Only the stored entries of each row are compared
 	 * @param oldState one state to be compared
 	 * @param newState other state to be compared
 	 * @return true if the std is below the desired threshold, false otherwise.
 	 */
-	private boolean verifyConvergence(double[][] oldState, double[][] newState, double threshold) {
+	private boolean verifyConvergence(SparseMatrix oldState, SparseMatrix newState, double threshold) {
 		double squaredSum = 0;
-		for(int i = 0; i < oldState.length; i++) {
-			for(int j = 0; j < oldState[0].length; j++) {
-				double errVal = oldState[i][j] - newState[i][j];
+		for(int i = 0; i < oldState.length(); i++) {
+			SparseVector oldRow = oldState.getVector(i);
+			SparseVector newRow = newState.getVector(i);
+			int k1 = 0;
+			int k2 = 0;
+			while(k1 < oldRow.size() || k2 < newRow.size()) {
+				int j1 = k1 < oldRow.size() ? oldRow.getIndex(k1) : Integer.MAX_VALUE;
+				int j2 = k2 < newRow.size() ? newRow.getIndex(k2) : Integer.MAX_VALUE;
+				double errVal;
+				if(j1 == j2) {
+					errVal = oldRow.getValue(k1) - newRow.getValue(k2);
+					k1++;
+					k2++;
+				} else if (j1 < j2) {
+					errVal = oldRow.getValue(k1);
+					k1++;
+				} else {
+					errVal = -newRow.getValue(k2);
+					k2++;
+				}
 				squaredSum += (errVal)*(errVal);
 			}
 		}
-		double count = (oldState.length*oldState[0].length) - 1;
+		double count = ((long)oldState.length()*oldState.height()) - 1;
+		if(count <= 0) return true;
 		double std = Math.sqrt(squaredSum/(count));
 		return std <= threshold;
 	}
 	
 	/**
 	 * Each row gets fitted so that each node can only belong to 1 cluster. Gets rid of any ties in the matrix, and selects the cluster with the highest probability for the node to be fitted to.
-	 * As a result, all values for the resulting matrix will be either 1 or 0.
+	 * As a result, each row will have a single entry with value 1.
 	 * @param matrix matrix to fit.
 	 * @return matrix with clear clusters.
 	 */
-	private double[][] consolidateAttractors(double[][] matrix) {
-		for(int i = 0; i < matrix.length; i++) {
+	private SparseMatrix consolidateAttractors(SparseMatrix matrix) {
+		int n = matrix.length();
+		for(int i = 0; i < n; i++) {
+			SparseVector row = matrix.getVector(i);
 			int index = 0;
 			double max = 0;
-			for(int j = 0; j < matrix.length; j++) {
-				if(max < matrix[i][j]) {
-					index = j;
-					max = matrix[i][j];
+			for(int k = 0; k < row.size(); k++) {
+				if(max < row.getValue(k)) {
+					index = row.getIndex(k);
+					max = row.getValue(k);
 				}
-				matrix[i][j] = 0;
 			}
-			matrix[i][index] = 1;
+			SparseVector attractor = new SparseVector(n, 1);
+			attractor.add(index, 1);
+			matrix.setVector(i, attractor);
 		}
 		return matrix;
 	}
@@ -122,23 +209,24 @@ public class MCLJob extends Thread {
 	 * @param matrix matrix to be normalized
 	 * @return
 	 */
-	private double[][] fitMatrix(double[][] matrix) {
-		for(int i = 0; i < matrix.length; i++) {
+	private SparseMatrix fitMatrix(SparseMatrix matrix) {
+		for(int i = 0; i < matrix.length(); i++) {
+			SparseVector row = matrix.getVector(i);
 			double sum = 0;
 			int valid = 0;
-			for(int j = 0; j < matrix.length; j++) {
-				if (matrix[i][j] > 0) {
-					sum += matrix[i][j];
+			for(int k = 0; k < row.size(); k++) {
+				if (row.getValue(k) > 0) {
+					sum += row.getValue(k);
 					valid++;
 				}
 			}
 			
 			if(sum > 0) {
-				matrix[i][i] = sum/valid;
+				row.set(i, sum/valid);
 				sum += (sum/valid);
-				for(int j = 0; j < matrix.length; j++) matrix[i][j] = matrix[i][j]/sum;
+				for(int k = 0; k < row.size(); k++) row.setValue(k, row.getValue(k)/sum);
 			} else {
-				matrix[i][i] = 1;
+				row.set(i, 1);
 			}
 		}
 		return matrix;
@@ -149,38 +237,37 @@ public class MCLJob extends Thread {
 	 * @param row row to be normalized
 	 * @return normalized row
 	 */
-	private double[] normalizeRow(double[] row) {
+	private SparseVector normalizeRow(SparseVector row) {
 		double sum = 0;
-		for(int j = 0; j < row.length; j++) {
-			if (row[j] > 0) {
-				sum += row[j];
+		for(int k = 0; k < row.size(); k++) {
+			if (row.getValue(k) > 0) {
+				sum += row.getValue(k);
 			}
 		}
 		
 		if(sum > 0) {
-			for(int j = 0; j < row.length; j++) row[j] = row[j]/sum;
+			for(int k = 0; k < row.size(); k++) row.setValue(k, row.getValue(k)/sum);
 		}
 		
 		return row;
 	}
 	
 	/**
-	 * Returns a matrix where if node_i has a link to node_j, then node_j will have a link to node_i. The added links have the value given by constant FAKE_LINK_VALUE
+	 * Returns a matrix where if node_i has a link to node_j, then node_j will have a link to node_i. The added links have the value given by constant INFERED_EDGE_VALUE
 	 * @param matrix matrix to be completed
 	 * @return
 	 */
-	private double[][] completeMatrix(double[][] matrix) {
-		for(int i = 0; i < matrix.length; i++) {
-			for(int j = 0; j < matrix.length - i; j++) {
+	private SparseMatrix completeMatrix(SparseMatrix matrix) {
+		List<int[]> missingLinks = new ArrayList<>();
+		for(int i = 0; i < matrix.length(); i++) {
+			SparseVector row = matrix.getVector(i);
+			for(int k = 0; k < row.size(); k++) {
+				int j = row.getIndex(k);
 				if(i == j) continue;
-				
-				if(matrix[i][j] > 0 && matrix[j][i] == 0) {
-					matrix[j][i] = INFERED_EDGE_VALUE;
-				} else if (matrix[j][i] > 0 && matrix[i][j] == 0) {
-					matrix[i][j] = INFERED_EDGE_VALUE;
-				}
+				if(row.getValue(k) > 0 && matrix.get(j, i) == 0) missingLinks.add(new int[] {j, i});
 			}
 		}
+		for(int[] link : missingLinks) matrix.set(link[0], link[1], INFERED_EDGE_VALUE);
 		return matrix;
 	}
 	
@@ -188,32 +275,108 @@ public class MCLJob extends Thread {
 	 * Squares the provided matrix a given number of times
 	 * @param matrix matrix to be squared, this matrix is square (n x n)
 	 * @param times iterations to square the matrix, has to be > 0. e.g. times = 4 returns M^16
+	 * @param pool to calculate rows in parallel. If null, rows are calculated by the current thread
 	 * @return
 	 */
-	private double[][] squareMatrixTimes(double[][] matrix, int times) {
-		if(times < 1) {
-			return matrix;
-		}
-		
+	private SparseMatrix squareMatrixTimes(SparseMatrix matrix, int times, ThreadPoolExecutor pool) {
 		for(int k = 0; k < times; k++) {
-			double[][] base = new double[matrix.length][];
-			for(int i = 0; i < matrix.length; i++) base[i] = new double[matrix.length];
-			
-			for(int i = 0; i < matrix.length; i++) {
-				for(int j = 0; j < matrix.length; j++) {
-					double val = 0;
-					for(int z = 0; z < matrix.length; z++) {
-						val += matrix[i][z]*matrix[z][j];
+			matrix = multiply(matrix, matrix, pool);
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Calculates the product of the two given matrices. Rows are calculated independently
+	 * and pruned keeping the largest entries above the zero threshold
+	 * @param m1 Left matrix
+	 * @param m2 Right matrix
+	 * @param pool to calculate rows in parallel. If null, rows are calculated by the current thread
+	 * @return SparseMatrix Product of the matrices
+	 */
+	private SparseMatrix multiply(SparseMatrix m1, SparseMatrix m2, ThreadPoolExecutor pool) {
+		int n = m1.length();
+		SparseMatrix answer = new SparseMatrix(n, m2.height());
+		if(pool == null) {
+			multiplyRows(m1, m2, answer, 0, n);
+			return answer;
+		}
+		int rowsPerTask = Math.max(1, n/(4*numThreads));
+		List<Future<?>> tasks = new ArrayList<>();
+		for(int first = 0; first < n; first += rowsPerTask) {
+			final int start = first;
+			final int end = Math.min(n, first+rowsPerTask);
+			tasks.add(pool.submit(()->multiplyRows(m1, m2, answer, start, end)));
+		}
+		try {
+			for(Future<?> task:tasks) task.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return answer;
+	}
+	
+	private void multiplyRows(SparseMatrix m1, SparseMatrix m2, SparseMatrix answer, int first, int last) {
+		int m = m2.height();
+		double [] accumulated = new double[m];
+		boolean [] used = new boolean[m];
+		int [] usedColumns = new int[m];
+		for(int i = first; i < last; i++) {
+			SparseVector row1 = m1.getVector(i);
+			int numUsed = 0;
+			for(int k1 = 0; k1 < row1.size(); k1++) {
+				int z = row1.getIndex(k1);
+				double value1 = row1.getValue(k1);
+				SparseVector row2 = m2.getVector(z);
+				for(int k2 = 0; k2 < row2.size(); k2++) {
+					int j = row2.getIndex(k2);
+					if(!used[j]) {
+						used[j] = true;
+						usedColumns[numUsed] = j;
+						numUsed++;
 					}
-					if(val <= ZERO_THRESHOLD) val = 0;
-					base[i][j] = val;
+					accumulated[j] += value1*row2.getValue(k2);
 				}
 			}
-			
-			matrix = base;
+			Arrays.sort(usedColumns, 0, numUsed);
+			//Entries not larger than this value are removed
+			double minValue = ZERO_THRESHOLD;
+			int numEntries = 0;
+			for(int k = 0; k < numUsed; k++) {
+				if(accumulated[usedColumns[k]] > minValue) numEntries++;
+			}
+			int numTies = 0;
+			if(numEntries > maxEntriesRow) {
+				double [] rowValues = new double[numEntries];
+				int l = 0;
+				for(int k = 0; k < numUsed; k++) {
+					double value = accumulated[usedColumns[k]];
+					if(value > minValue) rowValues[l++] = value;
+				}
+				Arrays.sort(rowValues);
+				double minSelected = rowValues[numEntries-maxEntriesRow];
+				//Entries equal to the smallest selected value are kept in ascending order of columns
+				numTies = 1;
+				for(int k = numEntries-maxEntriesRow+1; k < numEntries && rowValues[k] == minSelected; k++) numTies++;
+				minValue = minSelected;
+				numEntries = maxEntriesRow;
+			}
+			SparseVector answerRow = new SparseVector(m, numEntries);
+			for(int k = 0; k < numUsed; k++) {
+				int j = usedColumns[k];
+				double value = accumulated[j];
+				if(value > minValue) {
+					answerRow.add(j, value);
+				} else if (numTies > 0 && value == minValue) {
+					answerRow.add(j, value);
+					numTies--;
+				}
+				accumulated[j] = 0;
+				used[j] = false;
+			}
+			answer.setVector(i, answerRow);
 		}
-		
-		return matrix;
 	}
 	
 	/**
@@ -222,32 +385,22 @@ public class MCLJob extends Thread {
 	 * @param coefficient coefficient to be used.
 	 * @return
 	 */
-	private double[][] inflateMatrix(double[][] matrix, double coefficient) {
+	private SparseMatrix inflateMatrix(SparseMatrix matrix, double coefficient) {
 		//Select next row
 		int k = nextColumn;
-		if(++nextColumn >= matrix.length) nextColumn = 0;
-			
+		if(++nextColumn >= matrix.length()) nextColumn = 0;
+		
 		//Elevate to the coefficient
-		for(int j = 0; j < matrix.length; j++) {
-			matrix[k][j] = (double) Math.pow(matrix[k][j], coefficient);
+		SparseVector row = matrix.getVector(k);
+		for(int l = 0; l < row.size(); l++) {
+			row.setValue(l, (double) Math.pow(row.getValue(l), coefficient));
 		}
 		
 		//Normalize rows
-		for(int i = 0; i < matrix.length; i++) matrix[i] = this.normalizeRow(matrix[i]);
+		for(int i = 0; i < matrix.length(); i++) matrix.setVector(i, this.normalizeRow(matrix.getVector(i)));
 		return matrix;
 	}
 	
-	/**
-	 * Generates a copy of the given matrix.
-	 * @param matrix matrix to be copied.
-	 * @return
-	 */
-	private double[][] copyOf(double[][] matrix) {
-		double[][] copy = new double[matrix.length][];
-		for(int i = 0; i < matrix.length; i++) copy[i] = Arrays.copyOf(matrix[i], matrix[i].length);
-		return copy;
-	}
-	
 	public List<List<Integer>> getResults() {
 		return clusters;
 	}
@@ -1,10 +1,8 @@
 package ngsep.graphs;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
-
+/**
+ * Matrix represented as an array of sparse vectors. Each vector is a row of the matrix
+ */
 public class SparseMatrix {
 	private SparseVector[] vectors;
 	private int length;
@@ -25,6 +23,24 @@ public class SparseMatrix {
 		vectors[i].set(j, k);
 	}
 	
+	/**
+	 * @param i Index of the vector
+	 * @return SparseVector Vector at the given index
+	 */
+	public SparseVector getVector(int i) {
+		return vectors[i];
+	}
+
+	/**
+	 * Replaces the vector at the given index
+	 * @param i Index of the vector
+	 * @param vector New vector. Its length must be equal to the height of the matrix
+	 */
+	public void setVector(int i, SparseVector vector) {
+		if(vector.length()!=height) throw new IllegalArgumentException("Vector length "+vector.length()+" is different than the matrix height "+height);
+		vectors[i] = vector;
+	}
+
 	public double sumOfColumn(int j) {
 		double sum = 0;
 		for(int i = 0; i < length; i++) {
@@ -32,7 +48,7 @@ public class SparseMatrix {
 		}
 		return sum;
 	}
-	
+
 	public int length() {
 		return length;
 	}
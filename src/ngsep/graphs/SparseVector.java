@@ -1,47 +1,133 @@
 package ngsep.graphs;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Vector storing only the entries that are explicitly set. Indexes of the entries are kept sorted in ascending order
+ */
 public class SparseVector {
 	private int length = 0;  
-	private HashMap<Integer, Double> vector;
+	private int [] indexes;
+	private double [] values;
+	private int size = 0;
 	
 	public SparseVector(int length) {
-		vector = new HashMap<>();
+		this(length, 4);
+	}
+
+	/**
+	 * Creates a vector with capacity to store the given number of entries before growing
+	 * @param length of the vector
+	 * @param capacity Initial number of entries that can be stored
+	 */
+	public SparseVector(int length, int capacity) {
 		this.length = length;
+		indexes = new int[Math.max(1, capacity)];
+		values = new double[indexes.length];
 	}
 	
 	public void set(int pos, double k) {
 		if (pos < 0 || pos >= length) {
 			throw new IndexOutOfBoundsException();
-		} else {
-			vector.put(pos, k);
-			length++;
 		}
+		int idx = Arrays.binarySearch(indexes, 0, size, pos);
+		if(idx>=0) {
+			values[idx] = k;
+			return;
+		}
+		idx = -idx-1;
+		ensureCapacity(size+1);
+		System.arraycopy(indexes, idx, indexes, idx+1, size-idx);
+		System.arraycopy(values, idx, values, idx+1, size-idx);
+		indexes[idx] = pos;
+		values[idx] = k;
+		size++;
 	}
 	
 	public double get(int pos) {
 		if (pos < 0 || pos >= length) {
 			throw new IndexOutOfBoundsException();
-		} else {
-			if (vector.containsKey(pos)) {
-				return vector.get(pos);
-			} else {
-				return 0;
-			}
 		}
+		int idx = Arrays.binarySearch(indexes, 0, size, pos);
+		if(idx<0) return 0;
+		return values[idx];
 	}
 	
 	public void append(double k) {
-		vector.put(length++, k);
+		ensureCapacity(size+1);
+		indexes[size] = length++;
+		values[size] = k;
+		size++;
+	}
+
+	/**
+	 * Adds an entry after the last stored entry. This is faster than set when entries are added in ascending order
+	 * @param pos Position of the entry. Must be larger than the positions of the stored entries
+	 * @param k Value of the entry
+	 */
+	public void add(int pos, double k) {
+		if (pos < 0 || pos >= length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if(size>0 && indexes[size-1]>=pos) throw new IllegalArgumentException("Position "+pos+" is not larger than the last position "+indexes[size-1]);
+		ensureCapacity(size+1);
+		indexes[size] = pos;
+		values[size] = k;
+		size++;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity<=indexes.length) return;
+		int newCapacity = Math.max(capacity, 2*indexes.length);
+		indexes = Arrays.copyOf(indexes, newCapacity);
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	/**
+	 * @return int Length of the vector
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return int Number of stored entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param k Number of the stored entry. Entries are sorted by position
+	 * @return int Position in the vector of the given entry
+	 */
+	public int getIndex(int k) {
+		return indexes[k];
+	}
+
+	/**
+	 * @param k Number of the stored entry. Entries are sorted by position
+	 * @return double value of the given entry
+	 */
+	public double getValue(int k) {
+		return values[k];
+	}
+
+	/**
+	 * Changes the value of a stored entry
+	 * @param k Number of the stored entry. Entries are sorted by position
+	 * @param value New value
+	 */
+	public void setValue(int k, double value) {
+		values[k] = value;
 	}
 	
 	public List<ValuePair> valuePairs() {
-		ArrayList<ValuePair> tuples = new ArrayList<ValuePair>();
-		for (int index : vector.keySet()) {
-			tuples.add(new ValuePair(index, vector.get(index)));
+		ArrayList<ValuePair> tuples = new ArrayList<ValuePair>(size);
+		for (int k=0;k<size;k++) {
+			tuples.add(new ValuePair(indexes[k], values[k]));
 		}
 		return tuples;
 	}
@@ -61,4 +147,4 @@ public class SparseVector {
 			return String.format("(%d, %f)", this.index, this.value);
 		}
 	}
-}
\ No newline at end of file
+}
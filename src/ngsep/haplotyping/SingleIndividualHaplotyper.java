@@ -8,6 +8,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.Iterator;
 
@@ -36,6 +41,8 @@ public class SingleIndividualHaplotyper {
 	public static final String DEF_ALGORITHM_NAME=ALGORITHM_NAME_REFHAP;
 	
 	public static final int DEF_MIN_MQ = ReadAlignment.DEF_MIN_MQ_UNIQUE_ALIGNMENT;
+	public static final int DEF_NUM_THREADS = 1;
+	private static final int TIMEOUT_SECONDS = 30;
 	
 	// Logging and progress
 	private Logger log = Logger.getLogger(SingleIndividualHaplotyper.class.getName());
@@ -49,6 +56,7 @@ public class SingleIndividualHaplotyper {
 	private String algorithmName = DEF_ALGORITHM_NAME;
 	private SIHAlgorithm algorithm;
 	private int minMQ = DEF_MIN_MQ;
+	private int numThreads = DEF_NUM_THREADS;
 	
 	public Logger getLog() {
 		return log;
@@ -102,6 +110,15 @@ public class SingleIndividualHaplotyper {
 	public void setMinMQ(String value) {
 		this.setMinMQ((int)OptionValuesDecoder.decode(value, Integer.class));
 	}
+	public int getNumThreads() {
+		return numThreads;
+	}
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	public void setNumThreads(String value) {
+		this.setNumThreads((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
 	public ReferenceGenome getGenome() {
 		return genome;
 	}
@@ -140,6 +157,7 @@ public class SingleIndividualHaplotyper {
 		else out.println("VCF file written to standard output");
 		out.println("Minimum mapping quality: "+minMQ);
 		out.println("Algorithm: "+algorithmName);
+		out.println("Number of threads: "+numThreads);
 		log.info(""+os.toString());
 	}
 	
@@ -154,7 +172,8 @@ public class SingleIndividualHaplotyper {
 		List<VCFRecord> records = new ArrayList<>();
 		List<CalledGenomicVariant> hetCalls = new ArrayList<>();
 		
-		
+		ThreadPoolExecutor pool = null;
+		if(numThreads>1) pool = new ThreadPoolExecutor(numThreads, numThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 		VCFFileWriter vcfWriter = new VCFFileWriter();
 		try (VCFFileReader inputVCF = new VCFFileReader(vcfFilename);
 			 ReadAlignmentFileReader alnReader = new ReadAlignmentFileReader(bamFilename,genome)) {
@@ -167,7 +186,7 @@ public class SingleIndividualHaplotyper {
 			filterFlags+=ReadAlignment.FLAG_MULTIPLE_ALN;
 			alnReader.setFilterFlags(filterFlags);
 			Iterator<ReadAlignment> alnIt = alnReader.iterator();
-			ReadAlignment nextAln = alnIt.next();
+			ReadAlignment nextAln = alnIt.hasNext()?alnIt.next():null;
 			String lastSeqName = null;
 			Iterator<VCFRecord> iter = inputVCF.iterator();
 			while(iter.hasNext())
@@ -176,7 +195,7 @@ public class SingleIndividualHaplotyper {
 				if(!record.getSequenceName().equals(lastSeqName)) {
 					if(records.size()>0) {
 						log.info("Phasing "+records.size()+" variants from VCF file for sequence "+lastSeqName+ " heterozygous calls: "+hetCalls.size());
-						nextAln = phaseSequenceVariants(lastSeqName, hetCalls, nextAln, alnIt);
+						nextAln = phaseSequenceVariants(lastSeqName, hetCalls, nextAln, alnIt, pool);
 						vcfWriter.printVCFRecords(records, out);
 					}
 					records.clear();
@@ -195,44 +214,148 @@ public class SingleIndividualHaplotyper {
 			}
 			if(records.size()>0) {
 				log.info("Phasing "+records.size()+" variants from VCF file for sequence "+lastSeqName);
-				phaseSequenceVariants(lastSeqName, hetCalls, nextAln, alnIt);
+				phaseSequenceVariants(lastSeqName, hetCalls, nextAln, alnIt, pool);
 				vcfWriter.printVCFRecords(records, out);
 			}
+		} finally {
+			if(pool!=null) pool.shutdownNow();
 		}
 	}
 	private void loadAlgorithm() throws IOException {
+		algorithm = createAlgorithm();
+	}
+	private SIHAlgorithm createAlgorithm() throws IOException {
 		try {
 			String algorithmClassName = "ngsep.haplotyping."+algorithmName+"SIHAlgorithm";
 			Class<?> algClass = Class.forName(algorithmClassName);
 			Constructor<?> constructor = algClass.getDeclaredConstructors()[0];
-			algorithm = (SIHAlgorithm) constructor.newInstance();
-			algorithm.setLog(log);
+			SIHAlgorithm answer = (SIHAlgorithm) constructor.newInstance();
+			answer.setLog(log);
+			return answer;
 		} catch (Exception e) {
 			throw new IOException("Can not load algorithm: "+algorithmName,e);
 		}
 		
 	}
-	private ReadAlignment phaseSequenceVariants(String seqName, List<CalledGenomicVariant> hetCalls, ReadAlignment nextAln, Iterator<ReadAlignment> alnIt) throws IOException {
+	/**
+	 * Phases the given heterozygous calls extracting fragments from the alignments of the given sequence while they are read.
+	 * Alignments are not kept in memory. Blocks of overlapping fragments are phased in the given pool
+	 * @param seqName Name of the sequence to phase
+	 * @param hetCalls Heterozygous calls within the sequence
+	 * @param nextAln First alignment of the sequence
+	 * @param alnIt Iterator over the remaining alignments
+	 * @param pool to phase blocks in parallel. If null, blocks are phased by the current thread
+	 * @return ReadAlignment First alignment of the next sequence
+	 * @throws IOException If the algorithm can not be loaded
+	 */
+	private ReadAlignment phaseSequenceVariants(String seqName, List<CalledGenomicVariant> hetCalls, ReadAlignment nextAln, Iterator<ReadAlignment> alnIt, ThreadPoolExecutor pool) throws IOException {
 		log.info("Sequence: "+seqName+" Phasing "+hetCalls.size()+" het calls");
 		if(nextAln!=null) log.info("First alignment. "+nextAln.getSequenceName()+":"+nextAln.getFirst());
-		List<ReadAlignment> sequenceAlignments = new ArrayList<ReadAlignment>();
+		FragmentsBlocksBuilder builder = new FragmentsBlocksBuilder(seqName, hetCalls);
+		List<Future<?>> phasingTasks = new ArrayList<>();
 		while(nextAln!=null && nextAln.getSequenceName().equals(seqName)) {
-			sequenceAlignments.add(nextAln);
+			FragmentsBlock completeBlock = builder.addAlignment(nextAln);
+			if(completeBlock!=null) phasingTasks.add(phaseBlock(seqName, completeBlock, pool));
 			if(alnIt.hasNext()) nextAln = alnIt.next();
 			else nextAln = null;
 		}
-		phaseSequenceVariants(seqName, hetCalls, sequenceAlignments);
+		FragmentsBlock lastBlock = builder.finish();
+		if(lastBlock!=null) phasingTasks.add(phaseBlock(seqName, lastBlock, pool));
+		try {
+			for(Future<?> task:phasingTasks) {
+				if(task!=null) task.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			throw new RuntimeException(cause);
+		}
 		if(nextAln!=null) System.err.println("First alignment for next sequence. "+nextAln.getSequenceName()+":"+nextAln.getFirst());
 		return nextAln;
 	}
 	
+	private Future<?> phaseBlock(String seqName, FragmentsBlock block, ThreadPoolExecutor pool) throws IOException {
+		if(pool==null) {
+			phaseBlock(seqName, block, algorithm);
+			return null;
+		}
+		//Algorithms are created for each block because their implementations are not required to be thread safe
+		return pool.submit(()->{
+			phaseBlock(seqName, block, createAlgorithm());
+			return null;
+		});
+	}
+	
+	private void phaseBlock(String seqName, FragmentsBlock fragmentsBlock, SIHAlgorithm blockAlgorithm) {
+		HaplotypeBlock block = fragmentsBlock.getBlock();
+		blockAlgorithm.buildHaplotype(block);
+		block.phaseCallsWithHaplotype(fragmentsBlock.getFirst(), fragmentsBlock.getLast());
+		log.info("Phased block of "+seqName+" between "+fragmentsBlock.getFirst()+" and "+fragmentsBlock.getLast()+" with "+block.getNumFragments()+" fragments. MEC: "+block.calculateMECCurrentHaplotypes()+" calls proportion: "+block.calculateRelativeCallsProportion());
+	}
+	
 	public List<List<ReadAlignment>> phaseSequenceVariants (String seqName, List<CalledGenomicVariant> hetCalls, List<ReadAlignment> alignments) throws IOException {
-		HaplotypeBlock block = new HaplotypeBlock(hetCalls);
 		List<List<ReadAlignment>> answer = new ArrayList<List<ReadAlignment>>();
-		int i=0;
-		int firstNextBlock = 0;
-		int lastNextBlock = -1;
+		if(algorithm==null) loadAlgorithm();
+		FragmentsBlocksBuilder builder = new FragmentsBlocksBuilder(seqName, hetCalls);
+		for(ReadAlignment aln:alignments) {
+			FragmentsBlock completeBlock = builder.addAlignment(aln);
+			if(completeBlock!=null) {
+				phaseBlock(seqName, completeBlock, algorithm);
+				answer.addAll(buildAlignmentClusters(alignments, completeBlock.getBlock()));
+			}
+		}
+		FragmentsBlock lastBlock = builder.finish();
+		if(lastBlock!=null) {
+			phaseBlock(seqName, lastBlock, algorithm);
+			answer.addAll(buildAlignmentClusters(alignments, lastBlock.getBlock()));
+		}
+		return answer;
+	}
+	private List<List<ReadAlignment>> buildAlignmentClusters(List<ReadAlignment> alignments, HaplotypeBlock block) {
+		List<List<HaplotypeFragment>> fragmentsClusters = block.getFragmentsClusters();
+		Map<Integer,ReadAlignment> alnsByReadId = new HashMap<Integer, ReadAlignment>();
 		for(ReadAlignment aln:alignments) {
+			//if(block.getNumFragments()==34) System.out.println("Build aln clusters. Next aln: "+aln);
+			alnsByReadId.put(aln.getReadNumber(),aln);
+		}
+		List<List<ReadAlignment>> answer = new ArrayList<List<ReadAlignment>>(fragmentsClusters.size());
+		for(List<HaplotypeFragment> cluster:fragmentsClusters) {
+			List<ReadAlignment> alnsCluster = new ArrayList<ReadAlignment>(cluster.size());
+			for(HaplotypeFragment fragment:cluster) {
+				ReadAlignment aln = alnsByReadId.get(fragment.getId());
+				//if(block.getNumFragments()==34) System.out.println("Build aln clusters. Next clusteredId: "+fragment.getId()+" cluster: "+answer.size()+" aln: " +aln);
+				if(aln!=null) alnsCluster.add(aln);
+			}
+			answer.add(alnsCluster);
+		}
+		return answer;
+	}
+	
+	/**
+	 * Builds blocks of fragments from alignments sorted by position. Fragments have the allele calls of each alignment
+	 * at the heterozygous variants. A block is complete when the next fragment does not share variants with the fragments of the block
+	 */
+	private class FragmentsBlocksBuilder {
+		private String seqName;
+		private List<CalledGenomicVariant> hetCalls;
+		private HaplotypeBlock block;
+		private int i=0;
+		private int firstNextBlock = 0;
+		private int lastNextBlock = -1;
+		
+		public FragmentsBlocksBuilder(String seqName, List<CalledGenomicVariant> hetCalls) {
+			this.seqName = seqName;
+			this.hetCalls = hetCalls;
+			block = new HaplotypeBlock(hetCalls);
+		}
+		/**
+		 * Adds the fragment of the given alignment
+		 * @param aln Next alignment sorted by position
+		 * @return FragmentsBlock Block completed before adding the fragment or null if the fragment was added to the current block
+		 */
+		public FragmentsBlock addAlignment(ReadAlignment aln) {
 			//Advance i
 			GenomicVariant firstHetVar = null;
 			while(i<hetCalls.size()) {
@@ -242,7 +365,7 @@ public class SingleIndividualHaplotyper {
 				}
 				i++;
 			}
-			if(i==hetCalls.size()) break;
+			if(i==hetCalls.size()) return null;
 			//Extract relevant calls from alignment
 			int lastAln = aln.getLast();
 			List<Byte> calls = new ArrayList<>(50);
@@ -280,18 +403,13 @@ public class SingleIndividualHaplotyper {
 				calls.remove(j);
 			}
 			
-			if(realCalls==0) continue;
+			if(realCalls==0) return null;
+			FragmentsBlock answer = null;
 			if(lastNextBlock>=0 && first>lastNextBlock) {
 				CalledGenomicVariant lastCall = hetCalls.get(lastNextBlock);
 				CalledGenomicVariant nextCall = hetCalls.get(first);
 				log.info("Discontiguity in haplotype block for sequence: "+seqName+". Last SNP with information "+lastNextBlock +" "+lastCall.getFirst()+" next SNP: "+first+" "+nextCall.getFirst()+" next alignment: "+aln);
-				if(block.getNumFragments()>0) {	
-					if(algorithm==null) loadAlgorithm();
-					algorithm.buildHaplotype(block);
-					block.phaseCallsWithHaplotype(firstNextBlock, lastNextBlock);
-					log.info("Phased block of "+seqName+" between "+firstNextBlock+" and "+lastNextBlock+" with "+block.getNumFragments()+" fragments. MEC: "+block.calculateMECCurrentHaplotypes()+" calls proportion: "+block.calculateRelativeCallsProportion());
-					answer.addAll(buildAlignmentClusters(alignments, block));
-				}
+				if(block.getNumFragments()>0) answer = new FragmentsBlock(block, firstNextBlock, lastNextBlock);
 				block = new HaplotypeBlock(hetCalls);
 				firstNextBlock = first;
 				lastNextBlock = first;
@@ -299,36 +417,38 @@ public class SingleIndividualHaplotyper {
 			block.addFragment (aln.getReadNumber(), first,NumberArrays.toByteArray(calls));
 			if(block.getNumFragments()%1000==0) log.info("Added "+block.getNumFragments()+" fragments"+" calls last fragment: "+realCalls);
 			lastNextBlock=Math.max(lastNextBlock, first+calls.size()-1);
-			
+			return answer;
 		}
-		log.info("Phasing last block of sequence "+seqName+" with "+block.getNumFragments()+" fragments");
-		
-		if(block.getNumFragments()>0) {	
-			if(algorithm==null) loadAlgorithm();
-			algorithm.buildHaplotype(block);
-			block.phaseCallsWithHaplotype(firstNextBlock, lastNextBlock);
-			log.info("Phased block of "+seqName+" between "+firstNextBlock+" and "+lastNextBlock+" with "+block.getNumFragments()+" fragments and "+hetCalls.size()+" heterozygous SNVs. MEC: "+block.calculateMECCurrentHaplotypes()+" calls proportion: "+block.calculateRelativeCallsProportion());
-			answer.addAll(buildAlignmentClusters(alignments, block));
+		/**
+		 * @return FragmentsBlock Last block of the sequence or null if the last block does not have fragments
+		 */
+		public FragmentsBlock finish() {
+			log.info("Phasing last block of sequence "+seqName+" with "+block.getNumFragments()+" fragments and "+hetCalls.size()+" heterozygous SNVs");
+			if(block.getNumFragments()==0) return null;
+			return new FragmentsBlock(block, firstNextBlock, lastNextBlock);
 		}
-		return answer;
 	}
-	private List<List<ReadAlignment>> buildAlignmentClusters(List<ReadAlignment> alignments, HaplotypeBlock block) {
-		List<List<HaplotypeFragment>> fragmentsClusters = block.getFragmentsClusters();
-		Map<Integer,ReadAlignment> alnsByReadId = new HashMap<Integer, ReadAlignment>();
-		for(ReadAlignment aln:alignments) {
-			//if(block.getNumFragments()==34) System.out.println("Build aln clusters. Next aln: "+aln);
-			alnsByReadId.put(aln.getReadNumber(),aln);
-		}
-		List<List<ReadAlignment>> answer = new ArrayList<List<ReadAlignment>>(fragmentsClusters.size());
-		for(List<HaplotypeFragment> cluster:fragmentsClusters) {
-			List<ReadAlignment> alnsCluster = new ArrayList<ReadAlignment>(cluster.size());
-			for(HaplotypeFragment fragment:cluster) {
-				ReadAlignment aln = alnsByReadId.get(fragment.getId());
-				//if(block.getNumFragments()==34) System.out.println("Build aln clusters. Next clusteredId: "+fragment.getId()+" cluster: "+answer.size()+" aln: " +aln);
-				if(aln!=null) alnsCluster.add(aln);
-			}
-			answer.add(alnsCluster);
-		}
-		return answer;
+}
+/**
+ * Block of fragments together with the range of variants that should be phased with its haplotype
+ */
+class FragmentsBlock {
+	private HaplotypeBlock block;
+	private int first;
+	private int last;
+	
+	public FragmentsBlock(HaplotypeBlock block, int first, int last) {
+		this.block = block;
+		this.first = first;
+		this.last = last;
+	}
+	public HaplotypeBlock getBlock() {
+		return block;
+	}
+	public int getFirst() {
+		return first;
+	}
+	public int getLast() {
+		return last;
 	}
 }
@@ -25,18 +25,19 @@ import java.util.logging.Logger;
 
 import ngsep.math.LogMath;
 
-
+/**
+ * Base implementation of the forward-backward and Viterbi algorithms. Calculations are performed
+ * over primitive arrays in linear space, scaling the values of each step to avoid underflow.
+ * Work arrays are kept per thread, which allows to run queries on the same model from different threads
+ * @author Jorge Duitama
+ */
 public abstract class AbstractHMM implements HMM {
 	
 	public static final int DEF_STARTS_BAUM_WELCH = 5;
 	public static final int DEF_ITER_BAUM_WELCH = 20;
 	
 	private Logger log = Logger.getLogger(AbstractHMM.class.getName());
-	private Double [][] forwardLogs=new Double[0][0];
-	private Double [][] backwardLogs=new Double[0][0];
-	private Double [][] posteriorLogs=new Double[0][0];
-	private Double [][] viterbiLogs = new Double [0][0];
-	private int [][] viterbiBacktrace = new int [0][0];
+	private final ThreadLocal<HMMWorkspace> workspaces = ThreadLocal.withInitial(HMMWorkspace::new);
 	
 	public Logger getLog() {
 		return log;
@@ -51,54 +52,179 @@ public abstract class AbstractHMM implements HMM {
 		return getState(state).getEmission(value,step);
 	}
 	
+	/**
+	 * Returns the probability of emission of the given value by the given state at the given step.
+	 * This is the value used by the forward, backward and Viterbi calculations
+	 * @param state From which the value is emitted
+	 * @param value observed value
+	 * @param step At which the value is emitted
+	 * @return double Probability of emission of the given value
+	 */
+	protected double getEmissionProbability(int state, Object value, int step) {
+		return getState(state).getEmissionProbability(value, step);
+	}
+	
 	@Override
 	public Double getStart(int state) {
 		return getState(state).getLogStart();
 	}
+	
+	/**
+	 * Returns the probability of transition between the source and the dest states at the given step.
+	 * By default it is calculated from the logarithm returned by getTransition. Subclasses storing
+	 * transitions in linear space should override this method to avoid the conversion
+	 * @param source First state
+	 * @param dest Second state
+	 * @param step Step at which the transition will happen
+	 * @return double Probability of transition between source and dest at step
+	 */
+	protected double getTransitionProbability(int source, int dest, int step) {
+		return LogMath.power10(getTransition(source, dest, step));
+	}
+	
+	/**
+	 * Returns the probability of changing state at the given step if transitions at this step
+	 * are uniform, which means that the probability of staying is 1-p and the probability of
+	 * moving to each other state is p/(n-1)
+	 * @param step Step at which the transition will happen
+	 * @return double Probability of change if the transitions at the given step are uniform. NaN otherwise
+	 */
+	protected double getUniformChangeProbability(int step) {
+		return Double.NaN;
+	}
+	
+	/**
+	 * Multiplies the given probabilities by the transition matrix at the given step: out[k] = sum_j in[j]*T(j,k)
+	 * @param in Probabilities of each state at the given step
+	 * @param step Step at which the transitions will happen
+	 * @param out Output array with the probabilities of each state at the next step
+	 */
+	public void propagateForward(double [] in, int step, double [] out) {
+		int n = in.length;
+		double p = getUniformChangeProbability(step);
+		if(!Double.isNaN(p)) {
+			double stay = 1-p;
+			double change = (n>1)?p/(n-1):0;
+			double sum = 0;
+			for(int j=0;j<n;j++) sum+=in[j];
+			for(int k=0;k<n;k++) out[k] = change*(sum-in[k])+stay*in[k];
+			return;
+		}
+		Arrays.fill(out, 0, n, 0);
+		for(int j=0;j<n;j++) {
+			double v = in[j];
+			if(v==0) continue;
+			for(int k=0;k<n;k++) out[k]+=v*getTransitionProbability(j, k, step);
+		}
+	}
+	
+	/**
+	 * Multiplies the transition matrix at the given step by the given probabilities: out[j] = sum_k T(j,k)*in[k]
+	 * @param in Probabilities of each state at the step after the given step
+	 * @param step Step at which the transitions will happen
+	 * @param out Output array with the probabilities of each state at the given step
+	 */
+	public void propagateBackward(double [] in, int step, double [] out) {
+		int n = in.length;
+		double p = getUniformChangeProbability(step);
+		if(!Double.isNaN(p)) {
+			//Uniform transitions are symmetric
+			propagateForward(in, step, out);
+			return;
+		}
+		for(int j=0;j<n;j++) {
+			double sum = 0;
+			for(int k=0;k<n;k++) sum+=getTransitionProbability(j, k, step)*in[k];
+			out[j] = sum;
+		}
+	}
+	
+	/**
+	 * Calculates the maximum of the products between the given probabilities and the transition matrix
+	 * at the given step: out[k] = max_j in[j]*T(j,k)
+	 * @param in Probabilities of each state at the given step
+	 * @param step Step at which the transitions will happen
+	 * @param out Output array with the maximum probabilities of each state at the next step
+	 * @param backtrace Output array with the first state j achieving the maximum for each state k.
+	 * -1 if the maximum is zero
+	 */
+	public void propagateViterbi(double [] in, int step, double [] out, int [] backtrace) {
+		int n = in.length;
+		double p = getUniformChangeProbability(step);
+		if(!Double.isNaN(p)) {
+			double stay = 1-p;
+			double change = (n>1)?p/(n-1):0;
+			//First and second states with maximum probability
+			int max1 = -1;
+			int max2 = -1;
+			for(int j=0;j<n;j++) {
+				if(max1==-1 || in[max1]<in[j]) {
+					max2 = max1;
+					max1 = j;
+				} else if (max2==-1 || in[max2]<in[j]) {
+					max2 = j;
+				}
+			}
+			for(int k=0;k<n;k++) {
+				int other = (k!=max1)?max1:max2;
+				double best = in[k]*stay;
+				int bestState = k;
+				if(other!=-1) {
+					double prob = in[other]*change;
+					if(prob>best || (prob==best && other<k)) {
+						best = prob;
+						bestState = other;
+					}
+				}
+				out[k] = best;
+				backtrace[k] = (best>0)?bestState:-1;
+			}
+			return;
+		}
+		Arrays.fill(out, 0, n, 0);
+		Arrays.fill(backtrace, 0, n, -1);
+		for(int j=0;j<n;j++) {
+			double v = in[j];
+			if(v==0) continue;
+			for(int k=0;k<n;k++) {
+				double prob = v*getTransitionProbability(j, k, step);
+				if(prob>out[k]) {
+					out[k] = prob;
+					backtrace[k] = j;
+				}
+			}
+		}
+	}
+	
 	@Override
 	public Double calculatePosteriorLogs(List<? extends Object> observations,Double[][] posteriorLogs) {
 		int m = observations.size();
-		int k = getNumStates();
-		initArrays(m,k,false);
+		int n = getNumStates();
 		if(posteriorLogs.length!=m) throw new IllegalArgumentException("Invalid rows of posterior logs. Expected: "+m+" Given: "+posteriorLogs.length);
-		if(m>0 && posteriorLogs[0].length!=k) throw new IllegalArgumentException("Invalid columns of posterior logs. Expected: "+k+" Given: "+posteriorLogs[0].length);
-		Double logProb = calculateForward(observations,forwardLogs);
-		calculateBackward(observations,backwardLogs);
-		for(int i=0;i<posteriorLogs.length;i++) {
-			for(int j=0;j<posteriorLogs[0].length;j++) {
-				Double f = forwardLogs[i][j];
-				Double b = backwardLogs[i][j];
-				Double e = getEmission(j, observations.get(i), i);
-				Double fTimesE = LogMath.logProduct(f,e);
-				posteriorLogs[i][j] = LogMath.logProduct(b, fTimesE);
-				if(i==posteriorLogs.length-1) logProb=LogMath.logSum(logProb, fTimesE);
+		if(m>0 && posteriorLogs[0].length!=n) throw new IllegalArgumentException("Invalid columns of posterior logs. Expected: "+n+" Given: "+posteriorLogs[0].length);
+		HMMWorkspace workspace = runForwardBackward(observations);
+		for(int i=0;i<m;i++) {
+			double [] f = workspace.forward[i];
+			double [] e = workspace.emissions[i];
+			double [] b = workspace.backward[i];
+			double offset = workspace.forwardLogOffsets[i]+workspace.backwardLogOffsets[i];
+			for(int j=0;j<n;j++) {
+				Double logP = LogMath.log10(f[j]*e[j]*b[j]);
+				posteriorLogs[i][j] = (logP!=null)?logP+offset:null;
 			}
 		}
-		return logProb;
-	}
-	protected Double [][] calculatePosteriorLogs (List<? extends Object> observations) {
-		//Init arrays if not previously created to avoid reassignment of posteriorLogs cache attribute
-		int m = observations.size();
-		int k = getNumStates();
-		initArrays(m,k,true);
-		calculatePosteriorLogs(observations,posteriorLogs);
-		return posteriorLogs;
+		return workspace.logProbability;
 	}
-	
 
 	@Override
 	public void calculatePosteriors(List<? extends Object> observations, double[][] posteriors) {
 		int m = observations.size();
-		int k = getNumStates();
+		int n = getNumStates();
 		if(posteriors.length!=m) throw new IllegalArgumentException("Invalid rows of posterior logs. Expected: "+m+" Given: "+posteriors.length);
-		if(m>0 && posteriors[0].length!=k) throw new IllegalArgumentException("Invalid columns of posteriors. Expected: "+k+" Given: "+posteriors[0].length);
-		Double [][] posteriorLogs = calculatePosteriorLogs(observations);
-		for(int i=0;i<posteriorLogs.length;i++) {
-			//System.out.println("i: "+i+" observation: "+observations.get(i)+" posteriorLogs: "+posteriorLogs[i][0]+" "+posteriorLogs[i][1]);
-			LogMath.normalizeLogs(posteriorLogs[i]);
-			for(int j=0;j<posteriorLogs[i].length;j++) {
-				posteriors[i][j] = LogMath.power10(posteriorLogs[i][j]);
-			}
+		if(m>0 && posteriors[0].length!=n) throw new IllegalArgumentException("Invalid columns of posteriors. Expected: "+n+" Given: "+posteriors[0].length);
+		HMMWorkspace workspace = runForwardBackward(observations);
+		for(int i=0;i<m;i++) {
+			workspace.calculatePosteriors(i, posteriors[i]);
 		}
 	}
 
@@ -108,172 +234,166 @@ public abstract class AbstractHMM implements HMM {
 		int n = getNumStates();
 		if(forwardLogs.length!=m) throw new IllegalArgumentException("Invalid rows of forward logs. Expected: "+m+" Given: "+forwardLogs.length);
 		if(m>0 && forwardLogs[0].length!=n) throw new IllegalArgumentException("Invalid columns of forwardLogs. Expected: "+n+" Given: "+forwardLogs.length);
-		
-		//Array to precalculate forward times emission
-		Double [] fTimesE = new Double[n]; 
+		HMMWorkspace workspace = getWorkspace(observations);
+		runForward(workspace);
 		for(int i=0;i<m;i++) {
-			Object lastO = null;
-			if(i>0) {
-				lastO = observations.get(i-1);
-				Arrays.fill(fTimesE, null);
-				for(int k=0;k<n;k++) {
-					Double e = getEmission(k, lastO, i-1);
-					fTimesE[k] = LogMath.logProduct(forwardLogs[i-1][k],e);
-				}
+			double offset = workspace.forwardLogOffsets[i];
+			for(int j=0;j<n;j++) {
+				Double logF = LogMath.log10(workspace.forward[i][j]);
+				forwardLogs[i][j] = (logF!=null)?logF+offset:null;
 			}
-			
+		}
+		return workspace.logProbability;
+	}
+
+	@Override
+	public void calculateBackward(List<? extends Object> observations, Double [][] backwardLogs) {
+		int m = observations.size();
+		int n = getNumStates();
+		if(backwardLogs.length!=m) throw new IllegalArgumentException("Invalid rows of backwardLogs. Expected: "+m+" Given: "+backwardLogs.length);
+		if(m>0 && backwardLogs[0].length!=n) throw new IllegalArgumentException("Invalid columns of backwardLogs. Expected: "+n+" Given: "+backwardLogs.length);
+		HMMWorkspace workspace = getWorkspace(observations);
+		runBackward(workspace);
+		for(int i=0;i<m;i++) {
+			double offset = workspace.backwardLogOffsets[i];
 			for(int j=0;j<n;j++) {
-				if(lastO==null) forwardLogs[i][j] = getStart(j);
-				else {
-					//The sum of probabilities starts with zero which in logarithm is represented as null
-					forwardLogs[i][j] = null;
-					for(int k=0;k<n;k++) {
-						Double t = getTransition(k, j, i-1);
-						forwardLogs[i][j]=LogMath.logSum(forwardLogs[i][j],LogMath.logProduct(fTimesE[k],t));
-					}
-				}
-			}	
+				Double logB = LogMath.log10(workspace.backward[i][j]);
+				backwardLogs[i][j] = (logB!=null)?logB+offset:null;
+			}
 		}
-		//Calculate final probability
-		return getSequenceLogProb(observations, forwardLogs);
 	}
 	
 	/**
-	 * Method that recalculates forward probabilities and returns the internal array where they get saved
-	 * @param observations
-	 * @return Double [][] array with forward probabilities with as many rows as observations and as many columns as states
+	 * Runs the forward and backward algorithms on the given observations
+	 * @param observations List of observed values
+	 * @return HMMWorkspace Work arrays of the current thread with the emissions, and the scaled forward and backward probabilities
 	 */
-	protected Double [][] calculateForward (List<? extends Object> observations) {
-		int m = observations.size();
-		int k = getNumStates();
-		initArrays(m, k, true);
-		calculateForward(observations,forwardLogs);
-		return forwardLogs;
+	protected HMMWorkspace runForwardBackward(List<? extends Object> observations) {
+		HMMWorkspace workspace = getWorkspace(observations);
+		runForward(workspace);
+		runBackward(workspace);
+		return workspace;
 	}
 	
 	/**
-	 * Calculates the total probability of the given observations
-	 * @param observations list of m observations
-	 * @param forwardLogs precalculated forward logs
-	 * @return Double log of the total probability of the sequence of observations
+	 * Retrieves the work arrays for the current thread and loads the emission probabilities of the given observations
+	 * @param observations List of observed values
+	 * @return HMMWorkspace Work arrays of the current thread
 	 */
-	protected Double getSequenceLogProb(List<? extends Object> observations, Double [][] forwardLogs) {
-		Double logProb = null;
+	private HMMWorkspace getWorkspace(List<? extends Object> observations) {
 		int m = observations.size();
-		for(int j=0;j<forwardLogs[m-1].length;j++) {
-			Double f = forwardLogs[m-1][j];
-			Double e = getEmission(j, observations.get(m-1), m-1);
-			logProb=LogMath.logSum(logProb, LogMath.logProduct(f,e));
+		int n = getNumStates();
+		HMMWorkspace workspace = workspaces.get();
+		if(workspace.ensureCapacity(m, n)) getLog().fine("Created work arrays for HMM calculations of dimensions "+m+" x "+n);
+		workspace.steps = m;
+		double [][] emissions = workspace.emissions;
+		for(int i=0;i<m;i++) {
+			Object o = observations.get(i);
+			for(int j=0;j<n;j++) emissions[i][j] = getEmissionProbability(j, o, i);
 		}
-		return logProb;
+		return workspace;
 	}
-
-	@Override
-	public void calculateBackward(List<? extends Object> observations, Double [][] backwardLogs) {
-		int m = observations.size();
-		int n = getNumStates();
-		
-		if(backwardLogs.length!=m) throw new IllegalArgumentException("Invalid rows of backwardLogs. Expected: "+m+" Given: "+backwardLogs.length);
-		if(m>0 && backwardLogs[0].length!=n) throw new IllegalArgumentException("Invalid columns of backwardLogs. Expected: "+n+" Given: "+backwardLogs.length);
-		
-		Double [] bTimesE = new Double[n]; 
-		for(int i=m-1;i>=0;i--) {
-			Object lastO = null;
-			if(i<m-1) {
-				lastO = observations.get(i+1);
-				for(int k=0;k<n;k++) {
-					Double e = getEmission(k, lastO, i+1);
-					bTimesE[k] = LogMath.logProduct(backwardLogs[i+1][k],e);
-				}
+	
+	private void runForward(HMMWorkspace workspace) {
+		int m = workspace.steps;
+		int n = workspace.states;
+		double [][] forward = workspace.forward;
+		double [][] emissions = workspace.emissions;
+		double [] offsets = workspace.forwardLogOffsets;
+		double [] fTimesE = workspace.buffer;
+		workspace.logProbability = null;
+		if(m==0) return;
+		for(int j=0;j<n;j++) forward[0][j] = LogMath.power10(getStart(j));
+		double logProb = 0;
+		boolean zero = false;
+		for(int i=0;i<m;i++) {
+			offsets[i] = logProb;
+			if(zero) {
+				Arrays.fill(forward[i], 0, n, 0);
+				continue;
 			}
+			double scale = 0;
 			for(int j=0;j<n;j++) {
-				if(lastO==null) backwardLogs[i][j] = (double) 0;
-				else {
-					//The sum of probabilities starts with zero which in logarithm is represented as null
-					backwardLogs[i][j]=null;
-					for(int k=0;k<n;k++) {
-						Double t = getTransition(j, k, i);
-						backwardLogs[i][j]=LogMath.logSum(backwardLogs[i][j],LogMath.logProduct(bTimesE[k],t));
-					}
-				}
-			}	
+				fTimesE[j] = forward[i][j]*emissions[i][j];
+				scale+=fTimesE[j];
+			}
+			if(scale==0) {
+				zero = true;
+				continue;
+			}
+			logProb+=Math.log10(scale);
+			if(i==m-1) break;
+			for(int j=0;j<n;j++) fTimesE[j]/=scale;
+			propagateForward(fTimesE, i, forward[i+1]);
 		}
+		if(!zero) workspace.logProbability = logProb;
 	}
 	
-	/**
-	 * Method that recalculates backward probabilities and returns the internal array where they get saved
-	 * @param observations
-	 * @return Double [][] array with backward probabilities with as many rows as observations and as many columns as states
-	 */
-	protected Double [][] calculateBackward (List<? extends Object> observations) {
-		int m = observations.size();
-		int k = getNumStates();
-		initArrays(m, k, true);
-		calculateBackward(observations, backwardLogs);
-		return backwardLogs;
+	private void runBackward(HMMWorkspace workspace) {
+		int m = workspace.steps;
+		int n = workspace.states;
+		if(m==0) return;
+		double [][] backward = workspace.backward;
+		double [][] emissions = workspace.emissions;
+		double [] offsets = workspace.backwardLogOffsets;
+		double [] bTimesE = workspace.buffer;
+		Arrays.fill(backward[m-1], 0, n, 1);
+		offsets[m-1] = 0;
+		for(int i=m-2;i>=0;i--) {
+			for(int k=0;k<n;k++) bTimesE[k] = backward[i+1][k]*emissions[i+1][k];
+			propagateBackward(bTimesE, i, backward[i]);
+			double scale = 0;
+			for(int j=0;j<n;j++) scale+=backward[i][j];
+			if(scale == 0) scale = 1;
+			for(int j=0;j<n;j++) backward[i][j]/=scale;
+			offsets[i] = offsets[i+1]+Math.log10(scale);
+		}
 	}
 
 	@Override
 	public Double getViterbiPath(List<? extends Object> observations, int [] path) {
 		int m = observations.size();
-		int n = getNumStates();
-		initArraysViterbi(m, n);
-		//Array to precalculate viterbi times emission
-		Double [] vTimesE = new Double[n];
-		for(int i=0;i<m;i++) {
-			Object lastO = null;
-			if(i>0) {
-				lastO = observations.get(i-1);
-				Arrays.fill(vTimesE, null);
-				for(int k=0;k<n;k++) {
-					Double e = getEmission(k, lastO, i-1);
-					vTimesE[k] = LogMath.logProduct(viterbiLogs[i-1][k],e);
-				}
-			}
-			
+		if(m==0) return null;
+		HMMWorkspace workspace = getWorkspace(observations);
+		int n = workspace.states;
+		double [][] emissions = workspace.emissions;
+		int [][] backtrace = workspace.viterbiBacktrace;
+		double [] current = workspace.viterbi;
+		double [] vTimesE = workspace.buffer;
+		for(int j=0;j<n;j++) {
+			current[j] = LogMath.power10(getStart(j));
+			backtrace[0][j] = -1;
+		}
+		double logScale = 0;
+		for(int i=0;i<m-1;i++) {
+			double max = 0;
 			for(int j=0;j<n;j++) {
-				if(lastO==null) {
-					viterbiLogs[i][j] = getStart(j);
-					viterbiBacktrace[i][j] = -1;
-				}
-				else {
-					//The max probabilities starts with zero which in logarithm is represented as null
-					viterbiLogs[i][j] = null;
-					viterbiBacktrace[i][j] = -1;
-					for(int k=0;k<n;k++) {
-						Double t = getTransition(k, j, i-1);
-						Double prob = LogMath.logProduct(vTimesE[k],t);
-						if(prob != null && (viterbiLogs[i][j] == null || viterbiLogs[i][j] < prob) ) {
-							viterbiLogs[i][j] = prob;
-							viterbiBacktrace[i][j] = k;
-						}
-					}
-				}
-			}	
+				vTimesE[j] = current[j]*emissions[i][j];
+				max = Math.max(max, vTimesE[j]);
+			}
+			if(max == 0) return null;
+			for(int j=0;j<n;j++) vTimesE[j]/=max;
+			logScale+=Math.log10(max);
+			propagateViterbi(vTimesE, i, current, backtrace[i+1]);
 		}
-		Double bestP = null;
+		double bestP = 0;
 		int bestState = -1;
 		for(int j=0;j<n;j++) {
-			Double p = viterbiLogs[m-1][j];
-			p = LogMath.logProduct(p,getEmission(j, observations.get(m-1), m-1));
-			if(p!=null && (bestP == null || bestP < p)) {
+			double p = current[j]*emissions[m-1][j];
+			if(p>bestP) {
 				bestState = j;
 				bestP = p;
 			}
 		}
-		if(bestP == null) {
-			return bestP;
-		}
+		if(bestState == -1) return null;
 		//Backtrace best path
 		for(int i=m-1;i>=0;i--) {
 			path[i] = bestState;
-			bestState = viterbiBacktrace[i][bestState];
+			bestState = backtrace[i][bestState];
 		}
-		return bestP;
+		return Math.log10(bestP)+logScale;
 	}
 	
-
-	
 	public static void calculateUniformChangeTransitions(double changeProbability, Double [][]transitions) {
 		int n = transitions.length;
 		
@@ -288,29 +408,100 @@ public abstract class AbstractHMM implements HMM {
 			}
 		}
 	}
-	private void initArrays(int m, int k, boolean initPosteriors) {
-		if(forwardLogs.length!=m || forwardLogs[0].length!=k) {
-			getLog().info("Creating array for forward probabilities of dimensions "+m+" x "+k);
-			forwardLogs = new Double[m][k];
+	
+	public static void calculateUniformChangeTransitions(double changeProbability, double [][]transitions) {
+		int n = transitions.length;
+		double noChangeP = 1.0-changeProbability;
+		//The probability of recombination is split uniformly across the parents
+		double change1 = (n>1)?changeProbability/(n-1):0;
+		for(int j=0;j<n;j++) {
+			for(int k=0;k<n;k++) {
+				if(j==k) transitions[j][k] = noChangeP;
+				else transitions[j][k] = change1;
+			}
+		}
+	}
+	
+	/**
+	 * Work arrays for the forward-backward and Viterbi algorithms. Forward and backward probabilities
+	 * are stored in linear space divided by scale factors that are accumulated as logarithms per step
+	 */
+	protected static class HMMWorkspace {
+		private int steps = 0;
+		private int states = -1;
+		private double [][] emissions = new double[0][0];
+		private double [][] forward = new double[0][0];
+		private double [][] backward = new double[0][0];
+		private double [] forwardLogOffsets = new double[0];
+		private double [] backwardLogOffsets = new double[0];
+		private int [][] viterbiBacktrace = new int[0][0];
+		private double [] viterbi = new double[0];
+		private double [] buffer = new double[0];
+		private Double logProbability = null;
+		
+		private boolean ensureCapacity(int m, int n) {
+			if(states==n && emissions.length>=m) return false;
+			if(states!=n) {
+				viterbi = new double[n];
+				buffer = new double[n];
+			}
+			states = n;
+			emissions = new double[m][n];
+			forward = new double[m][n];
+			backward = new double[m][n];
+			forwardLogOffsets = new double[m];
+			backwardLogOffsets = new double[m];
+			viterbiBacktrace = new int [m][n];
+			return true;
+		}
+		
+		/**
+		 * @return double [][] Emission probabilities of the observations (rows) at each state (columns)
+		 */
+		public double[][] getEmissions() {
+			return emissions;
 		}
-		if(backwardLogs.length!=m || backwardLogs[0].length!=k) {
-			getLog().info("Creating array for backward probabilities of dimensions "+m+" x "+k);
-			backwardLogs = new Double[m][k];
+		
+		/**
+		 * @return double [][] Scaled forward probabilities. As in the log based methods, these do not include the emission at each step
+		 */
+		public double[][] getForward() {
+			return forward;
 		}
-		if(initPosteriors && (posteriorLogs.length!=m || posteriorLogs[0].length!=k)) {
-			getLog().info("Creating array for posterior probabilities of dimensions "+m+" x "+k);
-			posteriorLogs = new Double[m][k];
+		
+		/**
+		 * @return double [][] Scaled backward probabilities
+		 */
+		public double[][] getBackward() {
+			return backward;
 		}
-	}
-	private void initArraysViterbi(int m, int k) {
-		if(viterbiLogs.length!=m || viterbiLogs[0].length!=k) {
-			getLog().info("Creating array for viterbi probabilities of dimensions "+m+" x "+k);
-			viterbiLogs = new Double[m][k];
+		
+		/**
+		 * @return Double log10 of the probability of the observations. Null if the probability is zero
+		 */
+		public Double getLogProbability() {
+			return logProbability;
 		}
-		if(viterbiBacktrace.length!=m || viterbiBacktrace[0].length!=k) {
-			getLog().info("Creating array for viterbi backtrack of dimensions "+m+" x "+k);
-			viterbiBacktrace = new int[m][k];
+		
+		/**
+		 * Calculates the normalized posterior probabilities of the states at the given step
+		 * @param step Step to calculate the posteriors
+		 * @param posteriors Output array. Posteriors are left in zero if every state has zero probability
+		 * @return double Sum of the products of forward, emission and backward before normalization 
+		 */
+		public double calculatePosteriors(int step, double [] posteriors) {
+			double [] f = forward[step];
+			double [] e = emissions[step];
+			double [] b = backward[step];
+			double total = 0;
+			for(int j=0;j<states;j++) {
+				posteriors[j] = f[j]*e[j]*b[j];
+				total+=posteriors[j];
+			}
+			if(total>0) {
+				for(int j=0;j<states;j++) posteriors[j]/=total;
+			}
+			return total;
 		}
 	}
-	
 }
@@ -21,10 +21,14 @@ package ngsep.hmm;
 
 import java.util.List;
 
+import ngsep.math.LogMath;
+
 public class ConstantTransitionHMM extends AbstractHMM {
 	private List<? extends HMMState> states;
 	private int n;
-	private Double [][] transitions;
+	private double [][] transitions;
+	//Change probability if transitions are uniform. NaN otherwise
+	private double uniformChangeProbability = Double.NaN;
 	
 	/**
 	 * @param states
@@ -33,23 +37,34 @@ public class ConstantTransitionHMM extends AbstractHMM {
 		super();
 		this.states = states;
 		n = states.size();
-		transitions = new Double[n][n];
+		transitions = new double[n][n];
 	}
 
 	public void setTransitions(Double[][] transitions) {
 		if(transitions.length!=n) throw new IllegalArgumentException("Transitions matrix should have the same number of rows as states of the HMM. States: "+n+" rows: "+transitions.length);
 		for(int i=0;i<n;i++) {
 			if(transitions[i].length!=n) throw new IllegalArgumentException("Transitions matrix should have the same number of columns as states of the HMM. States: "+n+" columns: "+transitions[i].length);
-			for(int j=0;j<n;j++) this.transitions[i][j] = transitions[i][j];
+			for(int j=0;j<n;j++) this.transitions[i][j] = LogMath.power10(transitions[i][j]);
 		}
+		uniformChangeProbability = Double.NaN;
 	}
 
 
 	@Override
 	public Double getTransition(int source, int dest, int step) {
+		return LogMath.log10(transitions[source][dest]);
+	}
+	
+	@Override
+	protected double getTransitionProbability(int source, int dest, int step) {
 		return transitions[source][dest];
 	}
 	
+	@Override
+	protected double getUniformChangeProbability(int step) {
+		return uniformChangeProbability;
+	}
+	
 	@Override
 	public HMMState getState(int state) {
 		return states.get(state);
@@ -61,6 +76,7 @@ public class ConstantTransitionHMM extends AbstractHMM {
 	}
 	public void calculateUniformChangeTransitions(double changeProbability) {
 		AbstractHMM.calculateUniformChangeTransitions(changeProbability, this.transitions);
+		uniformChangeProbability = changeProbability;
 	}
 	
 
@@ -19,6 +19,8 @@
  *******************************************************************************/
 package ngsep.hmm;
 
+import ngsep.math.LogMath;
+
 public interface HMMState {
 	/**
 	 * Returns the logarithm (base 10) of the probability of emission of the given value
@@ -29,6 +31,17 @@ public interface HMMState {
 	 */
 	public Double getEmission(Object value, int step);
 	
+	/**
+	 * Returns the probability of emission of the given value. By default it is calculated from the logarithm
+	 * returned by getEmission. States that can calculate the probability without boxing should override this method
+	 * @param value that will be emitted
+	 * @param step At which the value is emitted
+	 * @return double probability of observing the given value
+	 */
+	public default double getEmissionProbability(Object value, int step) {
+		return LogMath.power10(getEmission(value, step));
+	}
+	
 	/**
 	 * Returns the logarithm (base 10) of the probability of starting at this state
 	 * @return double log10 of the probability of starting at this state
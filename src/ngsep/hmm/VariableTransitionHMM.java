@@ -19,24 +19,37 @@
  *******************************************************************************/
 package ngsep.hmm;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
+import ngsep.main.ThreadPoolManager;
 import ngsep.math.LogMath;
 
 public class VariableTransitionHMM extends AbstractHMM {
+	private static final int TIMEOUT_SECONDS = 30;
 
 	private int iterationsBaumWelch = DEF_ITER_BAUM_WELCH;
 	
 	private List<? extends HMMState> states;
 	private int steps;
 	private int numStates;
-	private Double [][][] logTransitions;
+	//Transition probabilities per step. Matrices are created the first time that transitions are set for each step
+	private double [][][] transitions;
+	//Change probabilities for steps with uniform transitions. NaN for steps with arbitrary transitions
+	private double [] uniformChangeProbabilities;
 	private boolean skipTransitionsTraining = false;
-	//Local arrays to save reallocation over many runs
-	private Double [] logStarts = new Double [0];
-	private Double [][][] logTransitionsTrain = new Double [0][0][0];
+	private int numThreads = 1;
+	//Local arrays to save reallocation over many runs. One set of counts is kept per thread
+	private List<BaumWelchCounts> countsTrain = new ArrayList<>();
 	private List<List<? extends Object>> trainingData = null;
 	
 	/**
@@ -48,8 +61,9 @@ public class VariableTransitionHMM extends AbstractHMM {
 		this.states = states;
 		numStates = states.size();
 		this.steps = steps;
-		getLog().info("Creating array for transitions of dimensions "+(steps-1)+" x "+numStates+" x "+numStates);
-		logTransitions = new Double [steps-1][numStates][numStates];
+		transitions = new double [Math.max(0, steps-1)][][];
+		uniformChangeProbabilities = new double [transitions.length];
+		Arrays.fill(uniformChangeProbabilities, Double.NaN);
 	}
 	
 	public int getIterationsBaumWelch() {
@@ -70,6 +84,19 @@ public class VariableTransitionHMM extends AbstractHMM {
 		this.skipTransitionsTraining = skipTransitionsTraining;
 	}
 	
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Changes the number of threads used to train the model and to decode the training sequences.
+	 * Queries on a trained model can also be executed from different threads
+	 * @param numThreads Number of threads
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
 	public List<List<? extends Object>> getTrainingData() {
 		return trainingData;
 	}
@@ -80,49 +107,115 @@ public class VariableTransitionHMM extends AbstractHMM {
 
 	public void setTransitions(Double[][] logTransitions, int step) {
 		if(logTransitions.length!=numStates) throw new IllegalArgumentException("Transitions matrix should have the same number of rows as states of the HMM. States: "+numStates+" rows: "+logTransitions.length);
+		double [][] transitionsStep = getTransitionsMatrix(step);
 		for(int i=0;i<numStates;i++) {
 			if(logTransitions[i].length!=numStates) throw new IllegalArgumentException("Transitions matrix should have the same number of columns as states of the HMM. States: "+numStates+" columns: "+logTransitions[i].length);
 			//Normalize before update
 			LogMath.normalizeLogs(logTransitions[i]);
-			for(int j=0;j<numStates;j++)  this.logTransitions[step][i][j] = logTransitions[i][j];
+			for(int j=0;j<numStates;j++)  transitionsStep[i][j] = LogMath.power10(logTransitions[i][j]);
+		}
+		uniformChangeProbabilities[step] = Double.NaN;
+	}
+	
+	/**
+	 * Sets the transition probabilities at the given step. Rows are normalized before the update.
+	 * Rows adding up to zero are ignored
+	 * @param transitions Matrix of transition probabilities (not logarithms) between states
+	 * @param step Step at which the transitions will happen
+	 */
+	public void setTransitions(double[][] transitions, int step) {
+		if(transitions.length!=numStates) throw new IllegalArgumentException("Transitions matrix should have the same number of rows as states of the HMM. States: "+numStates+" rows: "+transitions.length);
+		double [][] transitionsStep = getTransitionsMatrix(step);
+		for(int i=0;i<numStates;i++) {
+			if(transitions[i].length!=numStates) throw new IllegalArgumentException("Transitions matrix should have the same number of columns as states of the HMM. States: "+numStates+" columns: "+transitions[i].length);
+			double total = 0;
+			for(int j=0;j<numStates;j++) total+=transitions[i][j];
+			if(total == 0) continue;
+			for(int j=0;j<numStates;j++)  transitionsStep[i][j] = transitions[i][j]/total;
 		}
+		uniformChangeProbabilities[step] = Double.NaN;
+	}
+	
+	private double [][] getTransitionsMatrix(int step) {
+		if(transitions[step]==null) transitions[step] = new double [numStates][numStates];
+		return transitions[step];
 	}
 	
 	public void setRandomTransitions() {
-		Double[][] logRandom = new Double[numStates][numStates];
+		double[][] random = new double[numStates][numStates];
 		Random r = new Random();
 		//System.out.println("Random transitions for "+steps+" steps");
 		for(int i=0;i<steps-1;i++) {
 			for(int j=0;j<numStates;j++) {
 				for(int k=0;k<numStates;k++) {
 					//TODO: Improve sampling from Direlecht
-					logRandom[j][k] = Math.log10(r.nextDouble()*0.6+0.2);
+					random[j][k] = r.nextDouble()*0.6+0.2;
 				}
 			}
-			setTransitions(logRandom, i);
+			setTransitions(random, i);
 		}
 		//printTransitions(0);
 	}
 	
 	public void calculateUniformChangeTransitions(double[] changeProbabilities) {
-		int n = this.getNumStates();
 		int m = getSteps();
 		if(m-1!=changeProbabilities.length) throw new IllegalArgumentException("Length of changes vector "+changeProbabilities.length+" is not consistent with the number of steps "+m+". It should be "+(m-1));
 		if(changeProbabilities.length>0)getLog().info("Using change probabilities to infer transitions. First probability: "+changeProbabilities[0]);
-		Double [][] transitions = new Double [n][n];
 		for(int i=0;i<m-1;i++) {
 			double p = changeProbabilities[i];
-			AbstractHMM.calculateUniformChangeTransitions(p, transitions);
-			setTransitions(transitions, i);
-			//if (i==0) System.out.println("Transition between "+states.get(0).getId()+" and "+states.get(1).getId()+": "+this.transitions[0][1][0]);
+			AbstractHMM.calculateUniformChangeTransitions(p, getTransitionsMatrix(i));
+			uniformChangeProbabilities[i] = p;
 		}	
 	}
 
 	@Override
 	public Double getTransition(int source, int dest, int step) {
-		return logTransitions[step][source][dest];
+		if(transitions[step]==null) return null;
+		return LogMath.log10(transitions[step][source][dest]);
+	}
+	
+	@Override
+	protected double getTransitionProbability(int source, int dest, int step) {
+		if(transitions[step]==null) return 0;
+		return transitions[step][source][dest];
+	}
+	
+	@Override
+	protected double getUniformChangeProbability(int step) {
+		return uniformChangeProbabilities[step];
 	}
 	
+	@Override
+	public void propagateForward(double[] in, int step, double[] out) {
+		double [][] transitionsStep = transitions[step];
+		if(transitionsStep==null || !Double.isNaN(uniformChangeProbabilities[step])) {
+			super.propagateForward(in, step, out);
+			return;
+		}
+		Arrays.fill(out, 0, numStates, 0);
+		for(int j=0;j<numStates;j++) {
+			double v = in[j];
+			if(v==0) continue;
+			double [] row = transitionsStep[j];
+			for(int k=0;k<numStates;k++) out[k]+=v*row[k];
+		}
+	}
+
+	@Override
+	public void propagateBackward(double[] in, int step, double[] out) {
+		double [][] transitionsStep = transitions[step];
+		if(transitionsStep==null || !Double.isNaN(uniformChangeProbabilities[step])) {
+			super.propagateBackward(in, step, out);
+			return;
+		}
+		for(int j=0;j<numStates;j++) {
+			double [] row = transitionsStep[j];
+			double sum = 0;
+			for(int k=0;k<numStates;k++) sum+=row[k]*in[k];
+			out[j] = sum;
+		}
+	}
+
 	@Override
 	public HMMState getState(int state) {
 		return states.get(state);
@@ -150,9 +243,17 @@ public class VariableTransitionHMM extends AbstractHMM {
 			state.setLogStart(logUniformStart);
 			randomizeEmissions(j);
 		}
-		for(int h = 0; h < iterationsBaumWelch; h++) {
-			getLog().info("Running "+h+" Baum-Welch iteration");
-			runBaumWelchStep();
+		//The same threads are used for all iterations
+		int numWorkers = Math.max(1, Math.min(numThreads, trainingData.size()));
+		ThreadPoolExecutor pool = null;
+		if(numWorkers>1) pool = new ThreadPoolExecutor(numWorkers, numWorkers, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		try {
+			for(int h = 0; h < iterationsBaumWelch; h++) {
+				getLog().info("Running "+h+" Baum-Welch iteration");
+				runBaumWelchStep(numWorkers, pool);
+			}
+		} finally {
+			if(pool!=null) pool.shutdown();
 		}
 		//printTransitions(0);
 		//printTransitions(2000);
@@ -160,72 +261,45 @@ public class VariableTransitionHMM extends AbstractHMM {
 	
 	
 	/**
-	 * Runs a step of baum-welch training with the attribute training data
+	 * Runs a step of baum-welch training with the attribute training data.
+	 * Expected counts are calculated in parallel for different training sequences
+	 * and then added to update the parameters of the model
+	 * @param numWorkers Number of workers calculating expected counts. Each worker has its own counts
+	 * @param pool Executor to run the workers. If null, the counts are calculated by the current thread
 	 */
-	protected void runBaumWelchStep() {
-		initArrays();
-		Arrays.fill(logStarts, null);
-		for(int i=0;i<logTransitionsTrain.length;i++) {
-			for(int j=0;j<logTransitionsTrain[i].length;j++) {
-				Arrays.fill(logTransitionsTrain[i][j], null);
-			}
-		}
-		initEmissionsBaumWelch();
-		//int datumIdx = 0;
-		for (List<? extends Object> trainingDatum:trainingData) {
-			Double [][] forwardLogs=calculateForward(trainingDatum);
-			Double [][] backwardLogs=calculateBackward(trainingDatum);
-			Double logProb = getSequenceLogProb(trainingDatum, forwardLogs);
-			//Calculate new starts
-			for(int j=0;j<logStarts.length;j++) {
-				Object o = trainingDatum.get(0);
-				Double seqProduct = LogMath.logProduct(forwardLogs[0][j], backwardLogs[0][j]);
-				Double emission = getEmission(j, o, 0);
-				seqProduct = LogMath.logProduct(seqProduct, emission);
-				seqProduct = LogMath.logProduct(seqProduct, -logProb);
-				//if(seqProduct>-0.5) System.out.println("Datum: "+datumIdx+". Next most likely start: "+j+" forward: "+forwardLogs[0][j]+" backward: "+backwardLogs[0][j]+" emission: "+emission+" logProb: "+logProb+"seq product: "+seqProduct);
-				logStarts[j] = LogMath.logSum(logStarts[j], seqProduct);
+	protected void runBaumWelchStep(int numWorkers, ExecutorService pool) {
+		initArrays(numWorkers);
+		initEmissionsBaumWelch(numWorkers);
+		if(pool==null) {
+			for(int w=0;w<numWorkers;w++) accumulateBaumWelchCounts(w, numWorkers);
+		} else {
+			List<Future<?>> tasks = new ArrayList<>(numWorkers);
+			for(int w=0;w<numWorkers;w++) {
+				final int worker = w;
+				tasks.add(pool.submit(()->accumulateBaumWelchCounts(worker, numWorkers)));
 			}
-			//Calculate new transitions
-			if(!skipTransitionsTraining) {
-				for(int i=0;i<logTransitionsTrain.length;i++) {
-					for(int j=0;j<logTransitionsTrain[i].length;j++) {
-						
-						for(int k=0;k<logTransitionsTrain[i][j].length;k++) {
-							Object o1 = trainingDatum.get(i);
-							Object o2 = trainingDatum.get(i+1);
-							
-							Double seqProduct = LogMath.logProduct(forwardLogs[i][j], backwardLogs[i+1][k]);
-							seqProduct = LogMath.logProduct(seqProduct, getEmission(j, o1, i));
-							seqProduct = LogMath.logProduct(seqProduct, getEmission(k, o2, i+1));
-							seqProduct = LogMath.logProduct(seqProduct, getTransition(j, k, i));
-							seqProduct = LogMath.logProduct(seqProduct, -logProb);
-							logTransitionsTrain[i][j][k] = LogMath.logSum(logTransitionsTrain[i][j][k], seqProduct);
-						}
-					}
-				}
-			}
-			
-			//Calculate new emissions
-			for(int i=0;i<steps;i++) {
-				Object o = trainingDatum.get(i);
-				for(int j=0;j<numStates;j++) {
-					Double seqProduct = LogMath.logProduct(forwardLogs[i][j], backwardLogs[i][j]);
-					seqProduct = LogMath.logProduct(seqProduct, getEmission(j, o, i));
-					seqProduct = LogMath.logProduct(seqProduct, -logProb);
-					accumulateEmissionBaumWelch(i,j,o,seqProduct);
-				}
+			try {
+				for(Future<?> task:tasks) task.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+				throw new RuntimeException(cause);
 			}
-			//datumIdx++;
 		}
+		//Sum counts of the different threads
+		BaumWelchCounts totalCounts = countsTrain.get(0);
+		for(int w=1;w<numWorkers;w++) totalCounts.add(countsTrain.get(w));
+		double [] startsTrain = totalCounts.starts;
 		//Normalize and update starts
-		Double total = null;
-		for(int j=0;j<logStarts.length;j++) total = LogMath.logSum(total, logStarts[j]);
-		for(int j=0;j<logStarts.length;j++) getState(j).setLogStart(LogMath.logProduct(logStarts[j],-total));
+		double total = 0;
+		for(int j=0;j<startsTrain.length;j++) total+=startsTrain[j];
+		for(int j=0;j<startsTrain.length;j++) getState(j).setLogStart(LogMath.log10(startsTrain[j]/total));
 		//Normalize and update transitions
 		if(!skipTransitionsTraining) {
-			for(int i=0;i<logTransitionsTrain.length;i++) {
-				setTransitions(logTransitionsTrain[i], i);
+			for(int i=0;i<totalCounts.transitions.length;i++) {
+				setTransitions(totalCounts.transitions[i], i);
 			}
 		}
 		
@@ -235,6 +309,94 @@ public class VariableTransitionHMM extends AbstractHMM {
 		}
 	}
 	
+	private void accumulateBaumWelchCounts(int worker, int numWorkers) {
+		BaumWelchCounts counts = countsTrain.get(worker);
+		for(int d=worker;d<trainingData.size();d+=numWorkers) {
+			accumulateBaumWelchCounts(trainingData.get(d), worker, counts);
+		}
+	}
+	
+	private void accumulateBaumWelchCounts(List<? extends Object> trainingDatum, int worker, BaumWelchCounts counts) {
+		HMMWorkspace workspace = runForwardBackward(trainingDatum);
+		if(workspace.getLogProbability()==null) {
+			getLog().warning("Training sequence with zero probability will be ignored");
+			return;
+		}
+		double [][] forward = workspace.getForward();
+		double [][] backward = workspace.getBackward();
+		double [][] emissions = workspace.getEmissions();
+		double [] posteriors = counts.posteriors;
+		double [] bTimesE = counts.bTimesE;
+		//Calculate new starts and emissions
+		for(int i=0;i<steps;i++) {
+			Object o = trainingDatum.get(i);
+			workspace.calculatePosteriors(i, posteriors);
+			for(int j=0;j<numStates;j++) {
+				if(i==0) counts.starts[j]+=posteriors[j];
+				accumulateEmissionBaumWelch(worker,i,j,o,posteriors[j]);
+			}
+		}
+		if(skipTransitionsTraining) return;
+		//Calculate new transitions
+		for(int i=0;i<steps-1;i++) {
+			double [][] transitionsStep = transitions[i];
+			if(transitionsStep==null) continue;
+			for(int k=0;k<numStates;k++) bTimesE[k] = backward[i+1][k]*emissions[i+1][k];
+			//Probabilities of each pair of states are normalized by their total at each step
+			double total = 0;
+			for(int j=0;j<numStates;j++) {
+				double fTimesE = forward[i][j]*emissions[i][j];
+				if(fTimesE==0) continue;
+				double [] row = transitionsStep[j];
+				double sum = 0;
+				for(int k=0;k<numStates;k++) sum+=row[k]*bTimesE[k];
+				total+=fTimesE*sum;
+			}
+			if(total==0) continue;
+			for(int j=0;j<numStates;j++) {
+				double fTimesE = forward[i][j]*emissions[i][j]/total;
+				if(fTimesE==0) continue;
+				double [] row = transitionsStep[j];
+				double [] rowTrain = counts.transitions[i][j];
+				for(int k=0;k<numStates;k++) rowTrain[k]+=fTimesE*row[k]*bTimesE[k];
+			}
+		}
+	}
+	
+	/**
+	 * Runs the given task for each number between zero and numTasks-1 using the number of threads of this HMM
+	 * @param numTasks Number of tasks to run
+	 * @param task Task to run receiving the task number as parameter
+	 */
+	protected void runTasks(int numTasks, IntConsumer task) {
+		if(numThreads<=1 || numTasks<=1) {
+			for(int i=0;i<numTasks;i++) task.accept(i);
+			return;
+		}
+		List<RuntimeException> errors = new ArrayList<>();
+		ThreadPoolManager pool = new ThreadPoolManager(numThreads, numThreads);
+		try {
+			for(int i=0;i<numTasks && errors.isEmpty();i++) {
+				final int taskNumber = i;
+				pool.queueTask(()->{
+					try {
+						task.accept(taskNumber);
+					} catch (RuntimeException e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				});
+			}
+			pool.terminatePool();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		synchronized (errors) {
+			if(errors.size()>0) throw errors.get(0);
+		}
+	}
+	
 	public void printTransitions(int step) {
 		int n = getNumStates();
 		System.out.println("Transitions step: "+step);
@@ -259,25 +421,27 @@ public class VariableTransitionHMM extends AbstractHMM {
 	/**
 	 * Initializes training emissions for a baum welch step
 	 * WARN: This method will throw a RuntimeException because it should be redefined to use automated training
+	 * @param numWorkers Number of workers that will register emissions. Each worker should have its own counts
 	 */
-	protected void initEmissionsBaumWelch() {
+	protected void initEmissionsBaumWelch(int numWorkers) {
 		throw new RuntimeException("This method should be redefined in a subclass to use automated Baum-Welch training");	
 	}
 
 	/**
 	 * Registers a posterior probability of a fixed emission during Baum-Welch training
 	 * WARN: This method will throw a RuntimeException because it should be redefined to use automated training
+	 * @param worker Number of the worker registering the observation. Workers run in different threads
 	 * @param step at which the observation is registered
 	 * @param stateIndex Index of the state where the posterior was calculated
 	 * @param datum observed value
-	 * @param logPosterior Logarithm of the posterior probability
+	 * @param posterior Posterior probability of the state at the given step
 	 */
-	protected void accumulateEmissionBaumWelch(int step, int stateIndex, Object datum, Double logPosterior) {
+	protected void accumulateEmissionBaumWelch(int worker, int step, int stateIndex, Object datum, double posterior) {
 		throw new RuntimeException("This method should be redefined in a subclass to use automated Baum-Welch training");
 	}
 
 	/**
-	 * Updates the emission probabilities during Baum-Welch training
+	 * Updates the emission probabilities during Baum-Welch training, adding the counts of the different workers
 	 * WARN: This method will throw a RuntimeException because it should be redefined in a subclass to use automated training
 	 * @param stateIndex Index of the state to be updated
 	 */
@@ -285,12 +449,47 @@ public class VariableTransitionHMM extends AbstractHMM {
 		throw new RuntimeException("This method should be redefined in a subclass to use automated Baum-Welch training");
 	}
 
-	private void initArrays() {
-		if(logTransitionsTrain.length!=steps-1 || logTransitionsTrain[0].length!=numStates) {
-			getLog().info("Creating array for transitions of dimensions "+(steps-1)+" x "+numStates+" x "+numStates);
-			logTransitionsTrain = new Double [steps-1][numStates][numStates];
-		}
-		if(logStarts.length!=numStates) logStarts = new Double [numStates];
+	private void initArrays(int numWorkers) {
+		while(countsTrain.size()<numWorkers) countsTrain.add(new BaumWelchCounts());
+		for(int w=0;w<numWorkers;w++) countsTrain.get(w).reset();
 	}
 	
+	/**
+	 * Expected counts of starts and transitions calculated during a step of Baum-Welch training
+	 */
+	private class BaumWelchCounts {
+		private double [] starts = new double [0];
+		private double [][][] transitions = new double [0][0][0];
+		private double [] posteriors = new double [0];
+		private double [] bTimesE = new double [0];
+		
+		private void reset() {
+			if(starts.length!=numStates) {
+				starts = new double [numStates];
+				posteriors = new double [numStates];
+				bTimesE = new double [numStates];
+			}
+			Arrays.fill(starts, 0);
+			if(skipTransitionsTraining) return;
+			if(transitions.length!=steps-1 || (steps>1 && transitions[0].length!=numStates)) {
+				getLog().info("Creating array for transitions of dimensions "+(steps-1)+" x "+numStates+" x "+numStates);
+				transitions = new double [steps-1][numStates][numStates];
+			}
+			for(int i=0;i<transitions.length;i++) {
+				for(int j=0;j<transitions[i].length;j++) {
+					Arrays.fill(transitions[i][j], 0);
+				}
+			}
+		}
+		
+		private void add(BaumWelchCounts counts) {
+			for(int j=0;j<starts.length;j++) starts[j]+=counts.starts[j];
+			if(skipTransitionsTraining) return;
+			for(int i=0;i<transitions.length;i++) {
+				for(int j=0;j<transitions[i].length;j++) {
+					for(int k=0;k<transitions[i][j].length;k++) transitions[i][j][k]+=counts.transitions[i][j][k];
+				}
+			}
+		}
+	}
 }
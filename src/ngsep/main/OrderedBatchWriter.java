@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * NGSEP - Next Generation Sequencing Experience Platform
+ * Copyright 2016 Jorge Duitama
+ *
+ * This file is part of NGSEP.
+ *
+ *     NGSEP is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     NGSEP is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with NGSEP.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package ngsep.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes batches calculated by different threads in the order given by the batch numbers.
+ * Batches should be formatted by the threads adding them. A single thread writes them using the given callback
+ * @author Jorge Duitama
+ * @param <T> Type of the formatted batches
+ */
+public class OrderedBatchWriter<T> implements Closeable {
+	
+	/**
+	 * Callback to write one formatted batch
+	 * @param <T> Type of the formatted batches
+	 */
+	public interface BatchWriteCallback<T> {
+		public void write(T batch) throws IOException;
+	}
+	
+	private BatchWriteCallback<T> callback;
+	private int maxPendingBatches;
+	
+	// Formatted batches waiting for the previous batches to be written
+	private Map<Integer, T> pendingBatches = new HashMap<>();
+	private int nextBatch = 0;
+	private int totalBatches = -1;
+	private boolean closed = false;
+	private Throwable error = null;
+	private Thread writerThread;
+	
+	/**
+	 * Creates a new batch writer and starts the thread that writes the batches
+	 * @param name Name of the thread writing the batches
+	 * @param callback Writes one batch. Only the thread created by this object calls this callback
+	 * @param maxPendingBatches Maximum number of formatted batches waiting to be written.
+	 * If this limit is reached, threads adding batches wait for the next batch to be written
+	 */
+	public OrderedBatchWriter(String name, BatchWriteCallback<T> callback, int maxPendingBatches) {
+		this.callback = callback;
+		this.maxPendingBatches = Math.max(1, maxPendingBatches);
+		writerThread = new Thread(this::writeBatches, name);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+	
+	/**
+	 * Adds the given formatted batch
+	 * @param batchNumber Zero based number of the batch. Batches are written in order of these numbers
+	 * @param batch to write
+	 * @throws InterruptedException If the thread is interrupted while waiting for space to add the batch
+	 */
+	public synchronized void addBatch(int batchNumber, T batch) throws InterruptedException {
+		while(error==null && !closed && batchNumber!=nextBatch && pendingBatches.size()>=maxPendingBatches) wait();
+		checkError();
+		pendingBatches.put(batchNumber, batch);
+		notifyAll();
+	}
+	
+	/**
+	 * Stops writing batches because of the given error. The error is thrown to threads adding batches
+	 * and to the thread waiting for the batches to be written.
+	 * Threads calculating batches must call this method if they fail, otherwise the batch is never written
+	 * and the call to finish does not return
+	 * @param e Error preventing to complete the batches
+	 */
+	public synchronized void setError (Throwable e) {
+		if(error == null) error = e;
+		notifyAll();
+	}
+	
+	/**
+	 * Throws the error found by this writer if any.
+	 * Checked exceptions are wrapped in a RuntimeException
+	 */
+	public synchronized void checkError() {
+		if(error==null) return;
+		if(error instanceof RuntimeException) throw (RuntimeException) error;
+		if(error instanceof Error) throw (Error) error;
+		throw new RuntimeException(error);
+	}
+	
+	private void writeBatches() {
+		try {
+			while (true) {
+				T batch;
+				synchronized (this) {
+					while(error==null && !closed && nextBatch!=totalBatches && !pendingBatches.containsKey(nextBatch)) wait();
+					if(error!=null || closed || nextBatch==totalBatches) return;
+					batch = pendingBatches.remove(nextBatch);
+				}
+				callback.write(batch);
+				synchronized (this) {
+					nextBatch++;
+					notifyAll();
+				}
+			}
+		} catch (Throwable e) {
+			setError(e);
+		}
+	}
+	
+	/**
+	 * Waits until the given number of batches is written
+	 * @param totalBatches Total number of batches to write
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 */
+	public void finish(int totalBatches) throws InterruptedException {
+		synchronized (this) {
+			this.totalBatches = totalBatches;
+			notifyAll();
+		}
+		writerThread.join();
+		checkError();
+	}
+	
+	/**
+	 * Stops the thread writing batches. The destination of the callback is not closed
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+	}
+}
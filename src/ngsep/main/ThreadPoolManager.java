@@ -19,12 +19,20 @@
  *******************************************************************************/
 package ngsep.main;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 
+ * Executes tasks in a fixed number of threads keeping a bounded number of pending tasks.
+ * When the limit is reached, the thread queuing tasks waits until a task is finished.
+ * Hence, worker threads never wait for the queue to be drained.
  * @author Jorge Gomez
  *
  */
@@ -34,13 +42,34 @@ public class ThreadPoolManager {
 	private int maxTaskCount;
 	private int secondsPerTask=1;
 	private final int numThreads;
-	private ThreadPoolExecutor pool;
+	private final ExecutorService pool;
+	// Available slots for queued and running tasks
+	private final Semaphore taskSlots;
 	private boolean cancelled = false;
 	
+	// Statistics of execution times in nanoseconds
+	private final AtomicLong completedTasks = new AtomicLong();
+	private final AtomicLong totalTaskTime = new AtomicLong();
+	private final AtomicLong maxTaskTime = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	
 	public ThreadPoolManager(int numberOfThreads, int maxTaskCount) {
-		this.pool = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		this(numberOfThreads, maxTaskCount, false);
+	}
+	
+	/**
+	 * Creates a new manager
+	 * @param numberOfThreads Number of threads to execute tasks
+	 * @param maxTaskCount Maximum number of tasks waiting for execution
+	 * @param workStealing Tells if the tasks should be executed by a work stealing pool.
+	 * This reduces contention between threads when tasks are very short
+	 */
+	public ThreadPoolManager(int numberOfThreads, int maxTaskCount, boolean workStealing) {
+		if(workStealing) this.pool = new ForkJoinPool(numberOfThreads);
+		else this.pool = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 		this.maxTaskCount = maxTaskCount;
 		this.numThreads = numberOfThreads;
+		this.taskSlots = new Semaphore(maxTaskCount+numberOfThreads);
 	}
 	
 	public boolean isCancelled() {
@@ -59,42 +88,106 @@ public class ThreadPoolManager {
 	public void setSecondsPerTask(int secondsPerTask) {
 		this.secondsPerTask = secondsPerTask;
 	}
+	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	
+	/**
+	 * @return long Number of tasks completed by this manager
+	 */
+	public long getCompletedTasks() {
+		return completedTasks.get();
+	}
+	
+	/**
+	 * @return double Average time in milliseconds of the tasks completed by this manager
+	 */
+	public double getAverageTaskTime() {
+		long n = completedTasks.get();
+		if(n==0) return 0;
+		return totalTaskTime.get()/(1000000.0*n);
+	}
+	
+	/**
+	 * @return double Maximum time in milliseconds of a task completed by this manager
+	 */
+	public double getMaxTaskTime() {
+		return maxTaskTime.get()/1000000.0;
+	}
+	
+	/**
+	 * @return double Total time in milliseconds that threads queuing tasks waited for a free slot
+	 */
+	public double getTotalWaitTime() {
+		return totalWaitTime.get()/1000000.0;
+	}
 
 	/**
-	 * Adds task to the threadPoolExecutor for this instance. If the task queue limit is exceeded,
-	 * the pool will be relaunched afterwards, after waiting for all queued tasks to finish.
+	 * Adds task to the pool managed by this instance. If the maximum number of queued tasks is reached,
+	 * this method blocks until one of the running tasks is finished.
 	 * @param task task to add to the pool
-	 * @throws InterruptedException if the relauch process is interrupted
+	 * @throws InterruptedException if the process is cancelled or if the thread is interrupted while waiting
 	 */
 	public void queueTask(Runnable task) throws InterruptedException {
 		if(cancelled) throw new InterruptedException("Process cancelled by user");
-		int taskCount = pool.getQueue().size();
-		if(taskCount == maxTaskCount) {
-			relaunchPool();
+		long time = System.nanoTime();
+		taskSlots.acquire();
+		totalWaitTime.addAndGet(System.nanoTime()-time);
+		try {
+			pool.execute(()->runTask(task));
+		} catch (RejectedExecutionException e) {
+			taskSlots.release();
+			throw e;
 		}
-		pool.execute(task);
 	}
 	
 	/**
-	 * Terminates the pool, shutting it down and waiting for it to finish all queued tasks.
-	 * @throws InterruptedException if the shutdown operation is interrupted
+	 * Adds task to the pool managed by this instance and returns a future to wait for its completion.
+	 * This allows to wait for a group of tasks without terminating the pool.
+	 * If the maximum number of queued tasks is reached, this method blocks until one of the running tasks is finished.
+	 * @param task task to add to the pool
+	 * @return Future<?> Future of the task. Errors thrown by the task are reported by the get method of the future
+	 * @throws InterruptedException if the process is cancelled or if the thread is interrupted while waiting
 	 */
-	public void terminatePool() throws InterruptedException  {
-		pool.shutdown();
-    	pool.awaitTermination(maxTaskCount*secondsPerTask, TimeUnit.SECONDS);
-    	if(!pool.isShutdown()) {
-			throw new InterruptedException("The ThreadPoolExecutor was not shutdown after an await Termination call");
+	public Future<?> submitTask(Runnable task) throws InterruptedException {
+		if(cancelled) throw new InterruptedException("Process cancelled by user");
+		long time = System.nanoTime();
+		taskSlots.acquire();
+		totalWaitTime.addAndGet(System.nanoTime()-time);
+		try {
+			return pool.submit(()->runTask(task));
+		} catch (RejectedExecutionException e) {
+			taskSlots.release();
+			throw e;
 		}
 	}
 	
+	private void runTask(Runnable task) {
+		long time = System.nanoTime();
+		try {
+			task.run();
+		} finally {
+			time = System.nanoTime()-time;
+			completedTasks.incrementAndGet();
+			totalTaskTime.addAndGet(time);
+			maxTaskTime.accumulateAndGet(time, Math::max);
+			taskSlots.release();
+		}
+	}
 	
 	/**
-	 * Shuts down the pool, waiting for all queued tasks to finish. Then, it creates a new one.
-	 * @throws InterruptedException if the shutdown operation is interrupted or if the pool was not shutdown correctly.
+	 * Terminates the pool, shutting it down and waiting for it to finish all queued tasks.
+	 * @throws InterruptedException if the shutdown operation is interrupted or if the process is cancelled
 	 */
-	private void relaunchPool() throws InterruptedException {
-		this.terminatePool();
-    	//Create new pool
-		pool = new ThreadPoolExecutor(numThreads, numThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+	public void terminatePool() throws InterruptedException  {
+		pool.shutdown();
+		long timeout = Math.max(1, (long)maxTaskCount*secondsPerTask);
+		while(!pool.awaitTermination(timeout, TimeUnit.SECONDS)) {
+			if(cancelled) {
+				pool.shutdownNow();
+				throw new InterruptedException("Process cancelled by user");
+			}
+		}
 	}
 }
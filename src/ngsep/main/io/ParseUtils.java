@@ -38,18 +38,13 @@ public class ParseUtils {
 	public static String[] parseString(String s,char delim) {
 		//return s.split(""+delim);
 		List<String> answer = new ArrayList<String>();
-		char [] a = s.toCharArray();
-		StringBuilder current = new StringBuilder(a.length);
-		for (int i=0;i<a.length;i++) {
-			if(a[i] == delim) {
-				answer.add(current.toString());
-				current = new StringBuilder(a.length);
-				continue;
-			}
-			current.append(a[i]);
+		int start = 0;
+		for (int end = s.indexOf(delim);end>=0;end = s.indexOf(delim, start)) {
+			answer.add(s.substring(start, end));
+			start = end+1;
 		}
-		answer.add(current.toString());
-		return answer.toArray(new String[0]);
+		answer.add(s.substring(start));
+		return answer.toArray(new String[answer.size()]);
 	}
 	/**
 	 * Parse the given string with possible text that should not be parsed, 
@@ -62,21 +57,20 @@ public class ParseUtils {
 	public static String[] parseStringWithText(String s, char delim, char textDelimiter) {
 		//return s.split(""+delim);
 		List<String> answer = new ArrayList<String>();
-		char [] a = s.toCharArray();
-		StringBuilder current = new StringBuilder(a.length);
+		int n = s.length();
+		int start = 0;
 		boolean inText = false;
-		for (int i=0;i<a.length;i++) {
-			if(a[i] == textDelimiter) {
+		for (int i=0;i<n;i++) {
+			char c = s.charAt(i);
+			if(c == textDelimiter) {
 				inText = !inText;
-			} else if( !inText && a[i] == delim) {
-				answer.add(current.toString());
-				current = new StringBuilder(a.length);
-				continue;
+			} else if( !inText && c == delim) {
+				answer.add(s.substring(start, i));
+				start = i+1;
 			}
-			current.append(a[i]);
 		}
-		answer.add(current.toString());
-		return answer.toArray(new String[0]);
+		answer.add(s.substring(start));
+		return answer.toArray(new String[answer.size()]);
 	}
 	
 	/**
@@ -88,19 +82,72 @@ public class ParseUtils {
 	 */
 	public static String[] parseString(String s,char delim1, char delim2) {
 		//return s.split(""+delim);
-		char [] a = s.toCharArray();
 		List<String> answer = new ArrayList<String>();
-		StringBuilder current = new StringBuilder(a.length);
-		for (int i=0;i<a.length;i++) {
-			if(a[i] == delim1 || a[i] == delim2) {
-				answer.add(current.toString());
-				current = new StringBuilder(a.length);
-				continue;
+		int n = s.length();
+		int start = 0;
+		for (int i=0;i<n;i++) {
+			char c = s.charAt(i);
+			if(c == delim1 || c == delim2) {
+				answer.add(s.substring(start, i));
+				start = i+1;
 			}
-			current.append(a[i]);
 		}
-		answer.add(current.toString());
-		return answer.toArray(new String[0]);
+		answer.add(s.substring(start));
+		return answer.toArray(new String[answer.size()]);
 		
 	}
+	
+	/**
+	 * Parses an integer number from a region of the given text without creating substrings.
+	 * It accepts the same numbers accepted by Integer.parseInt
+	 * @param s Text to parse
+	 * @param start First position of the number
+	 * @param end Position after the last character of the number
+	 * @return int Parsed number
+	 * @throws NumberFormatException If the region does not contain a valid integer number
+	 */
+	public static int parseInt(CharSequence s, int start, int end) {
+		if(start>=end) throw new NumberFormatException("Empty number at position "+start);
+		boolean negative = false;
+		int limit = -Integer.MAX_VALUE;
+		int i = start;
+		char first = s.charAt(i);
+		if(first == '-' || first == '+') {
+			if(first == '-') {
+				negative = true;
+				limit = Integer.MIN_VALUE;
+			}
+			i++;
+			if(i==end) throw new NumberFormatException("Invalid number: "+s.subSequence(start, end));
+		}
+		//Accumulated as a negative number to handle Integer.MIN_VALUE
+		int answer = 0;
+		for(;i<end;i++) {
+			int digit = s.charAt(i)-'0';
+			if(digit<0 || digit>9) throw new NumberFormatException("Invalid number: "+s.subSequence(start, end));
+			if(answer < limit/10) throw new NumberFormatException("Number out of range: "+s.subSequence(start, end));
+			answer*=10;
+			if(answer < limit + digit) throw new NumberFormatException("Number out of range: "+s.subSequence(start, end));
+			answer-=digit;
+		}
+		return negative?answer:-answer;
+	}
+	
+	/**
+	 * Tells if the given region of the text is an integer number that can be parsed with parseInt
+	 * @param s Text to check
+	 * @param start First position of the region
+	 * @param end Position after the last character of the region
+	 * @return boolean true if the region has an optional sign followed by at most nine digits
+	 */
+	public static boolean isInteger(CharSequence s, int start, int end) {
+		int i = start;
+		if(i<end && (s.charAt(i)=='-' || s.charAt(i)=='+')) i++;
+		if(i==end || end-i>9) return false;
+		for(;i<end;i++) {
+			char c = s.charAt(i);
+			if(c<'0' || c>'9') return false;
+		}
+		return true;
+	}
 }
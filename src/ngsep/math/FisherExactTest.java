@@ -27,7 +27,7 @@ import java.util.Random;
  *
  */
 public class FisherExactTest {
-	private static double [] logFactorials;
+	private static volatile double [] logFactorials;
 	private static boolean quick = true;
 	
 	public static void main(String[] args) throws Exception {
@@ -97,14 +97,17 @@ public class FisherExactTest {
 		}
 		return answer;
 	}
-	private static void initLogFactorials(int n) {
+	private static double [] initLogFactorials(int n) {
 		if(n<10000) n=10000;
-		logFactorials = new double [n+1];
-		logFactorials[0] = logFactorials[1] = 0;
+		//The cache is filled before publication to allow concurrent calls
+		double [] factorials = new double [n+1];
+		factorials[0] = factorials[1] = 0;
 		for(int i=2;i<=n;i++) {
-			logFactorials[i] = logFactorials[i-1]+LogMath.log10(i);
-			//System.out.println("Log factorials ["+i+"] : "+logFactorials[i]);
+			factorials[i] = factorials[i-1]+LogMath.log10(i);
+			//System.out.println("Log factorials ["+i+"] : "+factorials[i]);
 		}
+		logFactorials = factorials;
+		return factorials;
 	}
 	
 	/**
@@ -118,8 +121,9 @@ public class FisherExactTest {
 	 */
 	public static double calculateExactValue(int a, int b, int c, int d) {
 		int n = a + b + c + d;
+		double [] logFactorials = FisherExactTest.logFactorials;
 		if(logFactorials==null || logFactorials.length<=n) {
-			initLogFactorials(n);
+			logFactorials = initLogFactorials(n);
 		}
 		double answer = logFactorials[a+b];
 		answer+=logFactorials[c+d];
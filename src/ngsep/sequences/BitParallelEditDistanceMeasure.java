@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * NGSEP - Next Generation Sequencing Experience Platform
+ * Copyright 2016 Jorge Duitama
+ *
+ * This file is part of NGSEP.
+ *
+ *     NGSEP is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     NGSEP is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with NGSEP.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package ngsep.sequences;
+
+import java.util.Arrays;
+
+/**
+ * Edit distance with unit costs calculated with the bit parallel algorithm of Myers (1999) as formulated by Hyyro (2003).
+ * The first sequence is encoded in blocks of 64 bits. Hence, time is proportional to the length of the second sequence
+ * times the number of blocks and memory is proportional to the number of blocks
+ * @author Jorge Duitama
+ */
+public class BitParallelEditDistanceMeasure implements SequenceDistanceMeasure {
+	
+	private static final int BLOCK_SIZE = 64;
+	
+	/**
+	 * Calculates the minimum number of mismatches, insertions and deletions needed to transform one sequence into the other
+	 * @param seq1 first sequence
+	 * @param seq2 second sequence
+	 * @return double edit distance between the two sequences
+	 */
+	@Override
+	public double calculateDistance(CharSequence seq1, CharSequence seq2) {
+		return calculateEditDistance(seq1, seq2);
+	}
+	
+	/**
+	 * Calculates the edit distance between the two sequences divided by the length of the longest sequence
+	 * @param seq1 first sequence
+	 * @param seq2 second sequence
+	 * @return double normalized edit distance. Returns zero if both sequences are empty
+	 */
+	@Override
+	public double calculateNormalizedDistance(CharSequence seq1, CharSequence seq2) {
+		int maxLength = Math.max(seq1.length(), seq2.length());
+		if(maxLength==0) return 0;
+		return calculateDistance(seq1, seq2)/maxLength;
+	}
+	
+	private int calculateEditDistance(CharSequence pattern, CharSequence text) {
+		int m = pattern.length();
+		int n = text.length();
+		if(m==0) return n;
+		if(n==0) return m;
+		int numBlocks = (m+BLOCK_SIZE-1)/BLOCK_SIZE;
+		//Match bit vectors for each distinct character of the pattern
+		char [] alphabet = new char[Math.min(m, 256)];
+		int alphabetSize = 0;
+		long [][] peq = new long[alphabet.length][];
+		for(int i=0;i<m;i++) {
+			char c = pattern.charAt(i);
+			int idx = findCharacter(alphabet, alphabetSize, c);
+			if(idx<0) {
+				if(alphabetSize==alphabet.length) {
+					alphabet = Arrays.copyOf(alphabet, 2*alphabetSize);
+					peq = Arrays.copyOf(peq, 2*alphabetSize);
+				}
+				idx = alphabetSize;
+				alphabet[idx] = c;
+				peq[idx] = new long[numBlocks];
+				alphabetSize++;
+			}
+			peq[idx][i/BLOCK_SIZE] |= 1L<<(i%BLOCK_SIZE);
+		}
+		long [] noMatches = new long[numBlocks];
+		
+		long [] pv = new long[numBlocks];
+		long [] mv = new long[numBlocks];
+		Arrays.fill(pv, -1L);
+		//Mask of the bit corresponding to the last row of the pattern within the last block
+		long lastBit = 1L<<((m-1)%BLOCK_SIZE);
+		int score = m;
+		for(int j=0;j<n;j++) {
+			int idx = findCharacter(alphabet, alphabetSize, text.charAt(j));
+			long [] eqs = idx>=0?peq[idx]:noMatches;
+			//Horizontal delta entering the first row
+			int hin = 1;
+			for(int b=0;b<numBlocks;b++) {
+				long highBit = (b==numBlocks-1)?lastBit:Long.MIN_VALUE;
+				long eq = eqs[b];
+				long pvb = pv[b];
+				long mvb = mv[b];
+				long xv = eq | mvb;
+				if(hin<0) eq |= 1L;
+				long xh = (((eq & pvb) + pvb) ^ pvb) | eq;
+				long ph = mvb | ~(xh | pvb);
+				long mh = pvb & xh;
+				int hout = 0;
+				if((ph & highBit)!=0) hout = 1;
+				else if((mh & highBit)!=0) hout = -1;
+				ph <<= 1;
+				mh <<= 1;
+				if(hin<0) mh |= 1L;
+				else if(hin>0) ph |= 1L;
+				pv[b] = mh | ~(xv | ph);
+				mv[b] = ph & xv;
+				hin = hout;
+			}
+			score+=hin;
+		}
+		return score;
+	}
+	
+	private static int findCharacter(char [] alphabet, int alphabetSize, char c) {
+		for(int i=0;i<alphabetSize;i++) {
+			if(alphabet[i]==c) return i;
+		}
+		return -1;
+	}
+}
@@ -19,19 +19,25 @@
  *******************************************************************************/
 package ngsep.sequences;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
 
 import ngsep.main.io.ConcatGZIPInputStream;
 
@@ -42,6 +48,15 @@ import ngsep.main.io.ConcatGZIPInputStream;
  */
 public class FMIndex
 {
+	/**
+	 * Magic bytes at the start of binary index files
+	 */
+	private static final byte [] BINARY_FORMAT_MAGIC = "NGSEPFMI".getBytes(StandardCharsets.US_ASCII);
+	/**
+	 * Version of the binary format. It should be updated every time the layout of the file changes
+	 */
+	public static final int BINARY_FORMAT_VERSION = 2;
+	
 	private QualifiedSequenceList sequencesWithNames;
 	private List<Integer> sequenceLengths = new ArrayList<>();
 	private List<FMIndexSingleSequence> internalIndexes = new ArrayList<>();
@@ -155,6 +170,58 @@ public class FMIndex
 		}
 		return hits;
 	}
+	/**
+	 * Searches a batch of queries against this FMindex. Each internal index is traversed once for the whole batch
+	 * and repeated queries are searched only once. Hits are reported as indexes of the subject sequences
+	 * to avoid building hit objects and looking up sequence names.
+	 * This search is case sensitive.
+	 * @param queries Sequences to search
+	 * @return int [][] Array with one entry for each query. Each entry has the indexes of the subject sequences
+	 * having exact hits to the query. An index is repeated if the query has more than one hit in the same subject sequence
+	 */
+	public int [][] exactSearchSequenceIndexes (List<String> queries) {
+		int n = queries.size();
+		int [][] hits = new int [n][];
+		int [] numHits = new int [n];
+		//Position of the first occurrence of each query within the batch
+		int [] distinctQueryPos = new int [n];
+		Map<String, Integer> distinctQueries = new HashMap<>();
+		for(int j=0;j<n;j++) {
+			Integer pos = distinctQueries.putIfAbsent(queries.get(j), j);
+			distinctQueryPos[j] = (pos!=null)?pos:j;
+			if(pos==null) hits[j] = new int [4];
+		}
+		for (int i=0;i<internalIndexes.size();i++) {
+			FMIndexSingleSequence idxSeq = internalIndexes.get(i);
+			CombinedMultisequenceFMIndexMetadata metadata = internalMetadata.get(i);
+			for(int j=0;j<n;j++) {
+				if(distinctQueryPos[j]!=j || numHits[j]>=maxHitsQuery) continue;
+				String query = queries.get(j);
+				int [] range = idxSeq.getRange(query);
+				if(range==null) continue;
+				int [] matches = idxSeq.getSuffixArrayValues(range[0], range[1]);
+				for (int internalPosMatch:matches) {
+					int [] realData = metadata.getSequenceIdxAndStart(internalPosMatch);
+					if(realData==null) continue;
+					int sequenceIdx = realData[0];
+					if(sequenceIdx>=sequenceLengths.size()) throw new RuntimeException("Problem with internal index answer: "+realData[0]+"-"+realData[1]+". Absolute: "+internalPosMatch+" total length: "+metadata.getTotalLength()+" first idx: "+metadata.getFirstInputSequenceIdx()+" last idx: "+metadata.getLastInputSequenceIdx());
+					int last = internalPosMatch-realData[1] + query.length() - 1;
+					//Match with artificial concatenation between sequences
+					if(last>=sequenceLengths.get(sequenceIdx)) continue;
+					if(numHits[j]==hits[j].length) hits[j] = Arrays.copyOf(hits[j], 2*hits[j].length);
+					hits[j][numHits[j]] = sequenceIdx;
+					numHits[j]++;
+					if(numHits[j]>=maxHitsQuery) break;
+				}
+			}
+		}
+		for(int j=0;j<n;j++) {
+			int pos = distinctQueryPos[j];
+			if(pos==j) hits[j] = Arrays.copyOf(hits[j], numHits[j]);
+			else hits[j] = hits[pos];
+		}
+		return hits;
+	}
 	/**
 	 * Return the sequence with the given name
 	 * @param sequenceName Name of the sequence to search
@@ -181,32 +248,67 @@ public class FMIndex
 		return characters.subSequence(first-1, last);
 		
 	}	
+	/**
+	 * Saves this index in binary format. The file can be loaded with the method load mapping the internal indexes to memory
+	 * @param filename Name of the file to save the index
+	 * @throws IOException If the file can not be written
+	 */
 	public void save (String filename) throws IOException {
-		try(OutputStream os = new GZIPOutputStream(new FileOutputStream(filename));
-			PrintStream out = new PrintStream(os)) {
+		try(FileOutputStream fos = new FileOutputStream(filename);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1048576))) {
 			save(out);
 		}
 	}
-	public void save (PrintStream out) {
-		out.println("#COMPOUNDINDEX\t"+maxHitsQuery);
+	public void save (DataOutputStream out) throws IOException {
+		out.write(BINARY_FORMAT_MAGIC);
+		out.writeInt(BINARY_FORMAT_VERSION);
+		out.writeInt(maxHitsQuery);
+		out.writeInt(internalIndexes.size());
 		for (CombinedMultisequenceFMIndexMetadata metadata:internalMetadata) {
 			metadata.save(out);
 		}
-		out.println("#INTERNALINDEXES");
-		//int i=0;
 		for(FMIndexSingleSequence index:internalIndexes) {
-			//System.out.println("Saving internal index: "+i);
 			index.save(out);
-			//System.out.println("Saved internal index: "+i);
-			//i++;
 		}
 	}
+	/**
+	 * Loads the index saved in the given file. Internal indexes saved in binary format are mapped to memory in read only mode.
+	 * Hence, different processes using the same index share the same physical memory.
+	 * Text files generated by previous versions are also supported.
+	 * @param sequences Indexed sequences
+	 * @param indexFile File with the index
+	 * @return FMIndex loaded from the file
+	 * @throws IOException If the file can not be read or its format is not valid
+	 */
 	public static FMIndex load (QualifiedSequenceList sequences, String indexFile) throws IOException {
 		FMIndex index = new FMIndex();
 		index.sequencesWithNames = sequences;
 		for(QualifiedSequence seq:sequences) index.sequenceLengths.add(seq.getLength());
 		try (FileInputStream fis = new FileInputStream(indexFile);
-			 ConcatGZIPInputStream gzis = new ConcatGZIPInputStream(fis);
+			 FileChannel channel = fis.getChannel()) {
+			ByteBuffer magic = ByteBuffer.allocate(BINARY_FORMAT_MAGIC.length);
+			while(magic.hasRemaining() && channel.read(magic)>=0);
+			if(!Arrays.equals(magic.array(), BINARY_FORMAT_MAGIC)) {
+				channel.position(0);
+				loadText(index, fis);
+				return index;
+			}
+			IntBuffer header = FMIndexSingleSequence.readInts(channel, 3);
+			int version = header.get();
+			if(version!=BINARY_FORMAT_VERSION) throw new IOException("Unsupported version of the binary format: "+version+". Current version: "+BINARY_FORMAT_VERSION);
+			index.maxHitsQuery = header.get();
+			int numInternalIndexes = header.get();
+			for(int i=0;i<numInternalIndexes;i++) {
+				index.internalMetadata.add(CombinedMultisequenceFMIndexMetadata.load(channel));
+			}
+			for(int i=0;i<numInternalIndexes;i++) {
+				index.internalIndexes.add(FMIndexSingleSequence.load(channel));
+			}
+		}
+		return index;
+	}
+	private static void loadText (FMIndex index, FileInputStream fis) throws IOException {
+		try (ConcatGZIPInputStream gzis = new ConcatGZIPInputStream(fis);
 			 InputStreamReader isr = new InputStreamReader(gzis);
 			 BufferedReader reader = new BufferedReader(isr)) {
 			String line = reader.readLine();
@@ -229,12 +331,10 @@ public class FMIndex
 			while(true) {
 				FMIndexSingleSequence internalIndex = FMIndexSingleSequence.load(reader);
 				if(internalIndex==null) break;
-				System.out.println("Loaded internal index: "+index.internalIndexes.size());
 				index.internalIndexes.add(internalIndex);			
 			}
 			if(index.internalMetadata.size()!=index.internalIndexes.size())  throw new IOException("Inconsistent metadata and internal indexes. Metadata entries: "+index.internalMetadata.size()+" indexes: "+index.internalIndexes.size());
 		}
-		return index;
 	}
 }
 class CombinedMultisequenceFMIndexMetadata {
@@ -296,10 +396,21 @@ class CombinedMultisequenceFMIndexMetadata {
 		return totalLength;
 	}
 	
-	public void save (PrintStream out) {
-		out.print("#METADATA");
-		for(int i=0;i<idxs.size();i++) out.print("\t"+idxs.get(i)+"\t"+lengths.get(i));
-		out.println();
+	public void save (DataOutputStream out) throws IOException {
+		out.writeInt(idxs.size());
+		for(int i=0;i<idxs.size();i++) {
+			out.writeInt(idxs.get(i));
+			out.writeInt(lengths.get(i));
+		}
+	}
+	
+	public static CombinedMultisequenceFMIndexMetadata load (FileChannel channel) throws IOException {
+		CombinedMultisequenceFMIndexMetadata metadata = new CombinedMultisequenceFMIndexMetadata();
+		int n = FMIndexSingleSequence.readInts(channel, 1).get(0);
+		if(n<0) throw new IOException("Invalid number of sequences in internal index: "+n);
+		IntBuffer data = FMIndexSingleSequence.readInts(channel, 2*n);
+		for(int i=0;i<n;i++) metadata.addInputSequence(data.get(), data.get());
+		return metadata;
 	}
 	
 }
@@ -20,92 +20,95 @@
 package ngsep.sequences;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.IntUnaryOperator;
 
 /**
  * Class that implements an FM-index to perform quick queries over large
- * sequence databases
+ * sequence databases.
+ * The BWT is stored packed with the minimum number of bits per character of the alphabet.
+ * Rows are grouped in blocks. Each block starts with the number of occurrences of each character
+ * before the block, followed by the packed characters of the block. The partial suffix array
+ * is stored as a bit vector with rank support marking the sampled rows
  * 
  * @author German Andrade
  * @author Jorge Duitama
  * @author Juan Camilo Bojaca
  */
-public class FMIndexSingleSequence implements Serializable {
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = 5981359942407474671L;
-
+public class FMIndexSingleSequence {
 	/** Character to BWT */
 	public static final char SPECIAL_CHARACTER = 0;
-	private static final int DEFAULT_TALLY_DISTANCE = 100;
 	private static final int DEFAULT_SUFFIX_FRACTION = 50;
+	// Number of 64 bit words with packed characters in each block of the BWT
+	private static final int WORDS_PER_BLOCK = 8;
 
-	// Start position in the original sequence of some rows of the BW matrix
-	// representing a partial suffix array
-	private Map<Integer, Integer> partialSuffixArray = new HashMap<>();
-
-	// Ranks in the bwt for each character in the alphabet for some of the rows in
-	// the BW matrix
-	private int[][] tallyIndexes;
-
-	// 1 of each tallyDistance is saved
-	private int tallyDistance;
+	// Bit vector with the rows of the BW matrix having a value in the partial suffix array
+	private LongBuffer partialSuffixArrayRows;
+	// Number of sampled rows before each word of the bit vector
+	private IntBuffer partialSuffixArrayRanks;
+	// Start position in the original sequence of the sampled rows
+	private IntBuffer partialSuffixArrayValues;
 
 	// 1/suffixFraction indexes are saved
 	private int suffixFraction;
 
-	// Burrows Wheeler transform
-	private byte [] bwt;
+	// Burrows Wheeler transform packed in blocks. Buffers are either wrapped arrays or
+	// read only segments of a memory mapped index file
+	private LongBuffer bwt;
+	private int bwtLength;
 	private int rowBWTSpecialCharacter;
-
-	//For each character tells the number of times it appears
-	private Map<Character, Integer> characterCounts;
-	// For each character tells the first time it appears in the left column of the
+	
+	// Layout of the packed BWT
+	private int bitsPerCharacter;
+	private int charactersPerWord;
+	private int charactersPerBlock;
+	private int countWordsPerBlock;
+	private int wordsPerBlock;
+	// Masks to count occurrences of characters within a word
+	private long lowBitsMask;
+	private long highBitsMask;
+	private long characterMask;
+	private long [] characterPatterns;
+
+	// For each character code tells the number of times it appears
+	private int [] characterCounts;
+	// For each character code tells the first time it appears in the left column of the
 	// BW matrix
-	private Map<Character, Integer> firstRowsInMatrix;
+	private int [] firstRowsInMatrix;
 
-	// For each character tells the last time it appears in the left column of the
+	// For each character code tells the last time it appears in the left column of the
 	// BW matrix
-	private Map<Character, Integer> lastRowsInMatrix;
+	private int [] lastRowsInMatrix;
 	
 	//Maximum hits to return per query
 	private int maxHitsQuery = 100000;
-	
-	
 
 	// Inferred alphabet of the sequence ordered lexicographical
 	private String alphabet;
 	
-	private Map<Character, Integer> alphabetIndexes;
+	// Code of each character in the alphabet. -1 for characters not in the alphabet
+	private int [] alphabetCodes;
 
 	//Used for loading
 	private FMIndexSingleSequence () {
-		characterCounts = new HashMap<Character, Integer>();
-		firstRowsInMatrix = new HashMap<Character, Integer>();
-		lastRowsInMatrix = new HashMap<Character, Integer>();
-		alphabetIndexes = new HashMap<Character, Integer>();
 		
 	}
 	public FMIndexSingleSequence(CharSequence sequence) {
-		this(sequence, DEFAULT_TALLY_DISTANCE, DEFAULT_SUFFIX_FRACTION);
+		this(sequence, DEFAULT_SUFFIX_FRACTION);
 	}
 
-	public FMIndexSingleSequence(CharSequence sequence, int tallyDistance, int suffixFraction) {
-		this.tallyDistance = tallyDistance;
+	public FMIndexSingleSequence(CharSequence sequence, int suffixFraction) {
 		this.suffixFraction = suffixFraction;
 		calculate(sequence);
 	}
-
-	public int getTallyDistance() {
-		return tallyDistance;
-	}
 	
 	public int getMaxHitsQuery() {
 		return maxHitsQuery;
@@ -119,7 +122,7 @@ public class FMIndexSingleSequence implements Serializable {
 	 * @return Length of the sequence represented by this FMIndex
 	 */
 	public int getSequenceLength() {
-		return bwt.length-1;
+		return bwtLength-1;
 	}
 
 	private void calculate(CharSequence sequence) {
@@ -131,96 +134,166 @@ public class FMIndexSingleSequence implements Serializable {
 		//System.out.println("First pos SA: "+sa[0]+" "+sa[1]+" "+sa[2] );
 		buildBWT(sequence, sa);
 		createPartialSuffixArray(sa);
-		buildTally();
 		//printIndexInfo();
 	}
 
 	private void countCharacters(CharSequence sequence) {
-		characterCounts = new HashMap<Character, Integer>();
+		int [] counts = new int [Character.MAX_VALUE+1];
 		for(int i=0;i<sequence.length();i++) {
-			char c = sequence.charAt(i);
-			characterCounts.compute(c, (k, v) -> (v == null) ? 1 : v+1);
+			counts[sequence.charAt(i)]++;
 		}
-		Set<Character> sortedAlphabet = new TreeSet<Character>();
-		sortedAlphabet.addAll(characterCounts.keySet());
 		StringBuilder alphB = new StringBuilder();
-		for(char c:sortedAlphabet) alphB.append(c);
+		for(int c=0;c<counts.length;c++) {
+			if(counts[c]>0) alphB.append((char)c);
+		}
 		alphabet = alphB.toString();
-		alphabetIndexes = new HashMap<>();
-		for(int i=0;i<alphabet.length();i++) alphabetIndexes.put(alphabet.charAt(i), i);
+		buildAlphabetCodes();
+		characterCounts = new int [alphabet.length()];
+		for(int i=0;i<alphabet.length();i++) characterCounts[i] = counts[alphabet.charAt(i)];
+	}
+	
+	private void buildAlphabetCodes() {
+		int maxChar = 255;
+		for(int i=0;i<alphabet.length();i++) maxChar = Math.max(maxChar, alphabet.charAt(i));
+		alphabetCodes = new int [maxChar+1];
+		Arrays.fill(alphabetCodes, -1);
+		for(int i=0;i<alphabet.length();i++) alphabetCodes[alphabet.charAt(i)] = i;
+	}
+	
+	private int getAlphabetCode(char c) {
+		if(c>=alphabetCodes.length) return -1;
+		return alphabetCodes[c];
 	}
 
 	private void buildCharacterFirstAndLastRows() {
-		firstRowsInMatrix = new HashMap<>();
-		lastRowsInMatrix = new HashMap<>();
-		
-		firstRowsInMatrix.put(SPECIAL_CHARACTER, 0);
-		lastRowsInMatrix.put(SPECIAL_CHARACTER, 0);
+		firstRowsInMatrix = new int [alphabet.length()];
+		lastRowsInMatrix = new int [alphabet.length()];
 		int totalChars = 1;
 		for(int i=0;i<alphabet.length();i++) {
-			char c = alphabet.charAt(i);
-			firstRowsInMatrix.put(c, totalChars);
-	    	totalChars += characterCounts.get(c);
-	    	lastRowsInMatrix.put(c, totalChars - 1);
+			firstRowsInMatrix[i] = totalChars;
+			totalChars += characterCounts[i];
+			lastRowsInMatrix[i] = totalChars - 1;
 		}
 	}
 	
 	private void printIndexInfo() {
 		System.out.println("Alphabet: "+alphabet);
-		System.out.println("BWT: "+new String(bwt));
-		System.out.println("Partial array: "+partialSuffixArray);
-		System.out.println("First rows: "+firstRowsInMatrix);
-		System.out.println("Last rows: "+lastRowsInMatrix);
+		StringBuilder bwtChars = new StringBuilder();
+		for(int i=0;i<bwtLength;i++) {
+			int code = getCharacterCode(i);
+			bwtChars.append(code<0?'$':alphabet.charAt(code));
+		}
+		System.out.println("BWT: "+bwtChars);
+		System.out.println("Partial array rows: "+partialSuffixArrayValues.limit());
+		System.out.println("First rows: "+Arrays.toString(firstRowsInMatrix));
+		System.out.println("Last rows: "+Arrays.toString(lastRowsInMatrix));
 	}
 	
 	private void buildBWT(CharSequence sequence, int [] sa) {
-		bwt = new byte[sequence.length() + 1];
-	
 		if(sa[0]!=sequence.length()) throw new RuntimeException("Suffix array should have "+sequence.length()+" as first entry");
 		//assert sa[0]==sequence.length();
-		int j = 0;
-		for (int i : sa) {
-			if (i > 0) {
-				bwt[j] = (byte)sequence.charAt(i - 1);
-			} else {
-				bwt[j] = SPECIAL_CHARACTER;
-				rowBWTSpecialCharacter = j;
+		for (int j=0;j<sa.length;j++) {
+			if (sa[j] == 0) rowBWTSpecialCharacter = j;
+		}
+		bwtLength = sequence.length() + 1;
+		buildPackedBWT((row)->sequence.charAt(sa[row] - 1));
+	}
+	
+	private void calculateBWTLayout() {
+		int alphabetSize = alphabet.length();
+		//The special character is stored with code zero and recognized by its row
+		bitsPerCharacter = Math.max(1, 32 - Integer.numberOfLeadingZeros(alphabetSize-1));
+		charactersPerWord = 64 / bitsPerCharacter;
+		charactersPerBlock = charactersPerWord * WORDS_PER_BLOCK;
+		//Counts of two characters are stored in each word
+		countWordsPerBlock = (alphabetSize+1)/2;
+		wordsPerBlock = countWordsPerBlock + WORDS_PER_BLOCK;
+		characterMask = (1L<<bitsPerCharacter)-1;
+		lowBitsMask = 0;
+		highBitsMask = 0;
+		for(int i=0;i<charactersPerWord;i++) {
+			lowBitsMask |= (characterMask>>>1) << (i*bitsPerCharacter);
+			highBitsMask |= (1L<<(bitsPerCharacter-1)) << (i*bitsPerCharacter);
+		}
+		characterPatterns = new long [alphabetSize];
+		for(int c=0;c<alphabetSize;c++) {
+			for(int i=0;i<charactersPerWord;i++) characterPatterns[c] |= ((long)c) << (i*bitsPerCharacter);
+		}
+	}
+	
+	/**
+	 * Builds the packed BWT
+	 * @param bwtCharacters Function returning the character of the BWT at each row, except for the row of the special character
+	 */
+	private void buildPackedBWT(IntUnaryOperator bwtCharacters) {
+		calculateBWTLayout();
+		int numBlocks = (bwtLength + charactersPerBlock - 1) / charactersPerBlock;
+		long [] packed = new long[numBlocks*wordsPerBlock];
+		int [] counts = new int [alphabet.length()];
+		for(int row = 0;row<bwtLength;row++) {
+			int block = row / charactersPerBlock;
+			int blockPos = row - block * charactersPerBlock;
+			int offset = block * wordsPerBlock;
+			if(blockPos == 0) {
+				for(int c=0;c<counts.length;c++) {
+					if(c%2==0) packed[offset + c/2] |= ((long)counts[c])<<32;
+					else packed[offset + c/2] |= counts[c];
+				}
 			}
-			j++;
+			if(row==rowBWTSpecialCharacter) continue;
+			int code = getAlphabetCode((char)bwtCharacters.applyAsInt(row));
+			if(code<0) throw new RuntimeException("Character at row "+row+" of the BWT does not belong to the alphabet "+alphabet);
+			counts[code]++;
+			packed[offset + countWordsPerBlock + blockPos/charactersPerWord] |= ((long)code) << ((blockPos%charactersPerWord)*bitsPerCharacter);
 		}
+		bwt = LongBuffer.wrap(packed);
 	}
 
-	private void buildTally() {
-		int tallyRows = bwt.length / tallyDistance;
-		if (bwt.length % tallyDistance > 0) tallyRows++;
-		
-		final int[] arr = new int[alphabet.length()];
-		tallyIndexes = new int[tallyRows][alphabet.length()];
-		
-
-		int j = 0;
-		for (int i = 0; i < bwt.length; i++) {
-			char c = (char)bwt[i];
-			if (c != SPECIAL_CHARACTER) {
-				int indexC = alphabetIndexes.get(c);
-				arr[indexC]++;
+	private void createPartialSuffixArray(int [] sa) {
+		long [] rows = new long [(sa.length+63)/64];
+		int n = 0;
+		for (int i = 0; i < sa.length; i ++) {
+			//Partial suffix array module should be calculated on the suffix values (real sequence positions)
+			if(i==0 || i==sa.length-1 || sa[i]%suffixFraction==0) {
+				rows[i/64] |= 1L<<(i%64);
+				n++;
 			}
-			if (i % tallyDistance == 0) {
-				System.arraycopy(arr, 0, tallyIndexes[j], 0, arr.length);
+		}
+		int [] values = new int [n];
+		int j = 0;
+		for (int i = 0; i < sa.length; i ++) {
+			if((rows[i/64] & (1L<<(i%64)))!=0) {
+				values[j] = sa[i];
 				j++;
 			}
 		}
+		buildPartialSuffixArray(rows, values);
 	}
-
-	private void createPartialSuffixArray(int [] sa) {
-		partialSuffixArray = new HashMap<>();
-		partialSuffixArray.put(0, sa[0]);
-		//Partial suffix array module should be calculated on the suffix values (real sequence positions)
-		for (int i = 1; i < sa.length-1; i ++) {
-			int value = sa[i];
-			if(value%suffixFraction==0) partialSuffixArray.put(i, sa[i]);
+	
+	private void buildPartialSuffixArray(long [] rows, int [] values) {
+		int [] ranks = new int [rows.length];
+		int total = 0;
+		for(int i=0;i<rows.length;i++) {
+			ranks[i] = total;
+			total += Long.bitCount(rows[i]);
 		}
-		partialSuffixArray.put(sa.length-1, sa[sa.length-1]);
+		partialSuffixArrayRows = LongBuffer.wrap(rows);
+		partialSuffixArrayRanks = IntBuffer.wrap(ranks);
+		partialSuffixArrayValues = IntBuffer.wrap(values);
+	}
+	
+	/**
+	 * Looks for the given row in the partial suffix array
+	 * @param row of the BW matrix
+	 * @return int Start position in the sequence of the suffix in the given row. -1 if the row is not sampled
+	 */
+	private int getPartialSuffixArrayValue(int row) {
+		int wordIdx = row >>> 6;
+		long word = partialSuffixArrayRows.get(wordIdx);
+		long bit = 1L << (row & 63);
+		if((word & bit) == 0) return -1;
+		int rank = partialSuffixArrayRanks.get(wordIdx) + Long.bitCount(word & (bit-1));
+		return partialSuffixArrayValues.get(rank);
 	}
 
 	/**
@@ -253,19 +326,25 @@ public class FMIndexSingleSequence implements Serializable {
 	public int[] getRange(String query) {
 		if(query.length()==0) return null;
 		char actualChar = query.charAt(query.length() - 1);
-
-		Integer rowS = firstRowsInMatrix.get(actualChar);
-		Integer rowF = lastRowsInMatrix.get(actualChar);
-		//System.out.println("Char: "+actualChar+" Range: "+rowS+"-"+rowF);
-		if (rowS == null || rowF == null || rowS == -1 || rowF == -1) {
-			return null;
+		int rowS;
+		int rowF;
+		if(actualChar == SPECIAL_CHARACTER) {
+			rowS = 0;
+			rowF = 0;
+		} else {
+			int code = getAlphabetCode(actualChar);
+			if(code<0) return null;
+			rowS = firstRowsInMatrix[code];
+			rowF = lastRowsInMatrix[code];
 		}
+		//System.out.println("Char: "+actualChar+" Range: "+rowS+"-"+rowF);
 		for (int j = query.length() - 2; j >= 0; j--) {
-			actualChar = query.charAt(j);
-			if (alphabet.indexOf(actualChar) < 0)
-				return null;
-			rowS = lfMapping(actualChar, rowS, true);
-			rowF = lfMapping(actualChar, rowF, false);
+			int code = getAlphabetCode(query.charAt(j));
+			if (code < 0) return null;
+			// The first row is calculated from the occurrences before rowS because
+			// the character at rowS is not necessarily the given character
+			rowS = firstRowsInMatrix[code] + countOccurrences(code, rowS-1);
+			rowF = firstRowsInMatrix[code] + countOccurrences(code, rowF) - 1;
 			if (rowS > rowF) {
 				return null;
 			}
@@ -286,19 +365,43 @@ public class FMIndexSingleSequence implements Serializable {
 		// From this point is just transform the range into the real indexes in the
 		// sequence
 		for (int i = firstRow; i <= lastRow && startIndexes.size()<maxHitsQuery; i++) {
-			int row = i;
-			Integer begin = partialSuffixArray.get(row);
-			int steps;
-			for (steps = 0; begin == null; steps++) {
-				//System.out.println("Next row: "+row+" bwt: "+((char)bwt[row])+" steps: "+steps);
-				row = lfMapping(row);
-				begin = partialSuffixArray.get(row);
-			}
-			begin += steps;
-			startIndexes.add(begin);
+			startIndexes.add(getSuffixArrayValue(i));
 		}
 		return startIndexes;
 	}
+	
+	/**
+	 * Provides the start indexes in the original sequence corresponding to the given range of rows
+	 * without boxing or sorting the values. Positions are reported following the order of the rows
+	 * @param firstRow of this index
+	 * @param lastRow of this index
+	 * @return int [] Start positions in the subject sequence (values of the suffix array).
+	 * At most maxHitsQuery positions are returned
+	 */
+	public int [] getSuffixArrayValues(int firstRow, int lastRow) {
+		int n = Math.min(lastRow-firstRow+1, maxHitsQuery);
+		int [] answer = new int [n];
+		for (int i = 0; i < n; i++) {
+			answer[i] = getSuffixArrayValue(firstRow+i);
+		}
+		return answer;
+	}
+	
+	/**
+	 * Calculates the value of the suffix array at the given row, walking through the LF mapping until a sampled row is found
+	 * @param row of the BW matrix
+	 * @return int Start position in the sequence of the suffix in the given row
+	 */
+	private int getSuffixArrayValue(int row) {
+		int begin = getPartialSuffixArrayValue(row);
+		int steps;
+		for (steps = 0; begin == -1; steps++) {
+			//System.out.println("Next row: "+row+" steps: "+steps);
+			row = lfMapping(row);
+			begin = getPartialSuffixArrayValue(row);
+		}
+		return begin + steps;
+	}
 
 	/**
 	 * Returns the tally count for the given character in the given row of this index 
@@ -310,59 +413,68 @@ public class FMIndexSingleSequence implements Serializable {
 		if(c==SPECIAL_CHARACTER) {
 			return (row>=rowBWTSpecialCharacter)?1:0;
 		}
-		int r = 0;
-
-		int a = row / tallyDistance;
-		int b = a + 1;
-
-		if (row - a * tallyDistance < b * tallyDistance - row || tallyIndexes.length <= b) {
-			// Recalculate from top record
-			r = tallyIndexes[a][alphabet.indexOf(c)];
-
-			for (int j = a * tallyDistance + 1; j <= row; j++) {
-				char cA = (char)bwt[j];
-				if (cA == c)
-					r++;
-			}
-		} else {
-			// Recalculate from bottom record
-			r = tallyIndexes[b][alphabet.indexOf(c)];
-			for (int j = b * tallyDistance; j > row; j--) {
-				char cA = (char)bwt[j];
-				if (cA == c)
-					r--;
-			}
+		int code = getAlphabetCode(c);
+		if(code<0) return 0;
+		return countOccurrences(code, row);
+	}
+	
+	/**
+	 * Counts the occurrences of the character with the given code in the BWT up to the given row 
+	 * @param code of the character to count
+	 * @param row to query. Counts up to this row (included)
+	 * @return int count of appearances of the character in the bwt up to the given row
+	 */
+	private int countOccurrences (int code, int row) {
+		if(row<0) return 0;
+		int block = row / charactersPerBlock;
+		int offset = block * wordsPerBlock;
+		long counts = bwt.get(offset + (code>>1));
+		int answer = (int)((code&1)==0?counts>>>32:counts);
+		int remaining = row - block * charactersPerBlock + 1;
+		int wordIdx = offset + countWordsPerBlock;
+		long pattern = characterPatterns[code];
+		while(remaining>=charactersPerWord) {
+			answer += countMatches(bwt.get(wordIdx), pattern, highBitsMask);
+			remaining -= charactersPerWord;
+			wordIdx++;
 		}
-		return r;
+		if(remaining>0) answer += countMatches(bwt.get(wordIdx), pattern, highBitsMask & ((1L<<(remaining*bitsPerCharacter))-1));
+		//The special character is packed as the character with code zero
+		if(code == 0 && rowBWTSpecialCharacter<=row && rowBWTSpecialCharacter>=block * charactersPerBlock) answer--;
+		return answer;
 	}
-
+	
 	/**
-	 * Finds the row corresponding to the given character in the given row of the
-	 * index, according to the tally indexes in that row
-	 * 
-	 * @param c Character to query
-	 * @param row of the index to query
-	 * @param firstIndexAfter If true, calculates the rank of the character at or after the row
-	 * @return int Row of the FM-index of the rank of the given character according
-	 *         to the tally indexes at the given row
+	 * Counts the characters within the given word equal to the given pattern
+	 * @param word with packed characters
+	 * @param pattern Character code repeated along the word
+	 * @param mask with the highest bit of each character that should be considered
+	 * @return int number of matches
 	 */
-	private int lfMapping(char c, int row, boolean firstIndexAfter) {
-
-		int rank = getTallyCount(c, row);
-		// add1 is true when actualChar is different of bwt[rowS] because in this case,
-		// the last appearance of actualChar before rowS is outside the range defined by
-		// rowS, rowF
-		boolean add1 = firstIndexAfter && (bwt[row] != c);
-		// System.out.println("char: "+c+" row: "+row+" rank: "+rank+" first c: "+firstRowsInMatrix.get(c));
-		int newRank = firstRowsInMatrix.get(c) + rank - 1;
-		if (add1) newRank++;
-		return newRank;
+	private int countMatches(long word, long pattern, long mask) {
+		long x = word ^ pattern;
+		// The highest bit of each character is set if the character is different from the pattern
+		long t = ((x & lowBitsMask) + lowBitsMask) | x;
+		return Long.bitCount(~t & mask);
+	}
+	
+	/**
+	 * Returns the code of the character in the given row of the BWT
+	 * @param row of the BWT
+	 * @return int code of the character. -1 if the row has the special character
+	 */
+	private int getCharacterCode(int row) {
+		if(row == rowBWTSpecialCharacter) return -1;
+		int block = row / charactersPerBlock;
+		int blockPos = row - block * charactersPerBlock;
+		long word = bwt.get(block * wordsPerBlock + countWordsPerBlock + blockPos/charactersPerWord);
+		return (int)((word >>> ((blockPos%charactersPerWord)*bitsPerCharacter)) & characterMask);
 	}
 
 	private int lfMapping(int row) {
-		char c = (char)bwt[row];
-		// System.out.println(""+c);
-		return lfMapping(c, row, false);
+		int code = getCharacterCode(row);
+		if(code<0) return 0;
+		return firstRowsInMatrix[code] + countOccurrences(code, row) - 1;
 	}
 	
 	public static void main(String[] args) {
@@ -387,30 +499,101 @@ public class FMIndexSingleSequence implements Serializable {
 		
 	}
 	
-	public void save (PrintStream out) {
-		out.println("#INDEX\t"+alphabet+"\t"+suffixFraction+"\t"+tallyDistance+"\t"+rowBWTSpecialCharacter+"\t"+maxHitsQuery+"\t"+bwt.length);
-		for (int i=0;i<alphabet.length();i++) {
-			char c = alphabet.charAt(i);
-			out.println(""+c+"\t"+characterCounts.get(c)+"\t"+firstRowsInMatrix.get(c)+"\t"+lastRowsInMatrix.get(c)+"\t"+alphabetIndexes.get(c));
-		}
-		out.println("#PartialSuffixArray");
-		for(int key:partialSuffixArray.keySet()) {
-			int value = partialSuffixArray.get(key);
-			out.println(""+key+"\t"+value);
-		}
-		out.println("#BWT");
-		StringBuffer buffer = new StringBuffer(10000);
-		int i=0;
-		while(i<bwt.length) {
-			buffer.append((char)bwt[i]);
-			i++;
-			if(i%10000==0 || i==bwt.length) {
-				out.println(buffer.toString());
-				if(i<bwt.length) buffer = new StringBuffer(10000);
-			}
+	/**
+	 * Saves this index in binary format. Header fields are saved as big endian integers,
+	 * followed by the words of the packed BWT and the arrays of the partial suffix array.
+	 * @param out Stream to save the index
+	 * @throws IOException If the index can not be written
+	 */
+	public void save (DataOutputStream out) throws IOException {
+		int alphabetSize = alphabet.length();
+		out.writeInt(alphabetSize);
+		for (int i=0;i<alphabetSize;i++) out.writeInt(alphabet.charAt(i));
+		out.writeInt(suffixFraction);
+		out.writeInt(rowBWTSpecialCharacter);
+		out.writeInt(maxHitsQuery);
+		out.writeInt(bwtLength);
+		for (int i=0;i<alphabetSize;i++) out.writeInt(characterCounts[i]);
+		out.writeInt(partialSuffixArrayValues.limit());
+		
+		saveLongBuffer(out, bwt);
+		saveLongBuffer(out, partialSuffixArrayRows);
+		saveIntBuffer(out, partialSuffixArrayRanks);
+		saveIntBuffer(out, partialSuffixArrayValues);
+	}
+	private static void saveLongBuffer(DataOutputStream out, LongBuffer buffer) throws IOException {
+		int n = buffer.limit();
+		for(int i=0;i<n;i++) out.writeLong(buffer.get(i));
+	}
+	private static void saveIntBuffer(DataOutputStream out, IntBuffer buffer) throws IOException {
+		int n = buffer.limit();
+		for(int i=0;i<n;i++) out.writeInt(buffer.get(i));
+	}
+	
+	/**
+	 * Loads an index saved in binary format starting at the current position of the given channel.
+	 * Large arrays are not copied to memory. Instead, they are mapped in read only mode to the file.
+	 * At the end, the channel is positioned at the end of the index
+	 * @param channel to read the index
+	 * @return FMIndexSingleSequence Index mapped to the given file
+	 * @throws IOException If the file can not be read or mapped
+	 */
+	public static FMIndexSingleSequence load (FileChannel channel) throws IOException {
+		FMIndexSingleSequence index = new FMIndexSingleSequence();
+		int alphabetSize = readInts(channel, 1).get(0);
+		if(alphabetSize<0) throw new IOException("Invalid alphabet size: "+alphabetSize);
+		IntBuffer header = readInts(channel, 2*alphabetSize+5);
+		StringBuilder alphB = new StringBuilder();
+		for(int i=0;i<alphabetSize;i++) alphB.append((char)header.get());
+		index.alphabet = alphB.toString();
+		index.suffixFraction = header.get();
+		index.rowBWTSpecialCharacter = header.get();
+		index.maxHitsQuery = header.get();
+		index.bwtLength = header.get();
+		index.characterCounts = new int [alphabetSize];
+		for(int i=0;i<alphabetSize;i++) index.characterCounts[i] = header.get();
+		int partialSuffixArrayLength = header.get();
+		index.buildAlphabetCodes();
+		index.buildCharacterFirstAndLastRows();
+		index.calculateBWTLayout();
+		
+		int numBlocks = (index.bwtLength + index.charactersPerBlock - 1) / index.charactersPerBlock;
+		int partialSuffixArrayWords = (index.bwtLength+63)/64;
+		long position = channel.position();
+		index.bwt = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L*numBlocks*index.wordsPerBlock).asLongBuffer();
+		position += 8L*numBlocks*index.wordsPerBlock;
+		index.partialSuffixArrayRows = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L*partialSuffixArrayWords).asLongBuffer();
+		position += 8L*partialSuffixArrayWords;
+		index.partialSuffixArrayRanks = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*partialSuffixArrayWords).asIntBuffer();
+		position += 4L*partialSuffixArrayWords;
+		index.partialSuffixArrayValues = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*partialSuffixArrayLength).asIntBuffer();
+		position += 4L*partialSuffixArrayLength;
+		if(position>channel.size()) throw new IOException("Unexpected end of file reading index. Expected length: "+position+" file size: "+channel.size());
+		channel.position(position);
+		return index;
+	}
+	/**
+	 * Reads the given number of integers from the current position of the given channel
+	 * @param channel to read
+	 * @param n Number of integers to read
+	 * @return IntBuffer with the integers read
+	 * @throws IOException If the channel ends before n integers can be read
+	 */
+	static IntBuffer readInts (FileChannel channel, int n) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4*n);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer)<0) throw new IOException("Unexpected end of file reading "+n+" integers");
 		}
-		out.println("#END");
+		buffer.flip();
+		return buffer.asIntBuffer();
 	}
+	
+	/**
+	 * Loads an index saved in the text format of previous versions
+	 * @param reader to load the index
+	 * @return FMIndexSingleSequence Index loaded from the reader. Null if the reader is at the end of the input
+	 * @throws IOException If the format is not valid
+	 */
 	public static FMIndexSingleSequence load (BufferedReader reader) throws IOException {
 		String line = reader.readLine();
 		if(line == null) return null;
@@ -419,46 +602,59 @@ public class FMIndexSingleSequence implements Serializable {
 		FMIndexSingleSequence index = new FMIndexSingleSequence();
 		index.alphabet = items[1];
 		index.suffixFraction = Integer.parseInt(items[2]);
-		index.tallyDistance = Integer.parseInt(items[3]);
 		index.rowBWTSpecialCharacter = Integer.parseInt(items[4]);
 		index.maxHitsQuery = Integer.parseInt(items[5]);
-		int bwtLength = Integer.parseInt(items[6]);
-		
+		index.bwtLength = Integer.parseInt(items[6]);
+		index.buildAlphabetCodes();
+		index.characterCounts = new int [index.alphabet.length()];
 		for (int i=0;i<index.alphabet.length();i++) {
 			char c = index.alphabet.charAt(i);
 			line = reader.readLine();
 			if(line==null) throw new IOException("Unexpected end of file reading character counts.");
 			items = line.split("\t");
 			if(items[0].length()!=1 || c!=items[0].charAt(0)) throw new IOException("Inconsistency found reading line for character "+c+". Line: "+line);
-			index.characterCounts.put(c, Integer.parseInt(items[1]));
-			index.firstRowsInMatrix.put(c, Integer.parseInt(items[2]));
-			index.lastRowsInMatrix.put(c, Integer.parseInt(items[3]));
-			index.alphabetIndexes.put(c, Integer.parseInt(items[4]));
+			index.characterCounts[i] = Integer.parseInt(items[1]);
 		}
+		index.buildCharacterFirstAndLastRows();
 		line = reader.readLine();
 		if(line==null) throw new IOException("Unexpected end of file reading suffix array.");
 		if(!line.startsWith("#PartialSuffixArray")) throw new IOException("#PartialSuffixArray section not found. Line: "+line);
 		line = reader.readLine();
+		long [] partialSuffixArray = new long [1000];
+		int n = 0;
 		while (line!=null && !line.equals("#BWT")) {
 			items = line.split("\t");
-			index.partialSuffixArray.put(Integer.parseInt(items[0]), Integer.parseInt(items[1]));
+			if(n==partialSuffixArray.length) partialSuffixArray = Arrays.copyOf(partialSuffixArray, 2*n);
+			//Rows are stored in the most significant bits to sort by row
+			partialSuffixArray[n] = ((long)Integer.parseInt(items[0]))<<32 | Integer.parseInt(items[1]);
+			n++;
 			line = reader.readLine();
 		}
 		if(line == null) throw new IOException("Unexpected end of file reading suffix array.");
-		index.bwt = new byte[bwtLength];
+		Arrays.sort(partialSuffixArray, 0, n);
+		long [] rows = new long [(index.bwtLength+63)/64];
+		int [] values = new int [n];
+		for(int i=0;i<n;i++) {
+			int row = (int)(partialSuffixArray[i]>>>32);
+			if(row>=index.bwtLength) throw new IOException("Invalid row in partial suffix array: "+row+" bwt length: "+index.bwtLength);
+			rows[row/64] |= 1L<<(row%64);
+			values[i] = (int)partialSuffixArray[i];
+		}
+		index.buildPartialSuffixArray(rows, values);
+		byte [] bwt = new byte[index.bwtLength];
 		line = reader.readLine();
 		int i=0;
 		while (line!=null && !line.equals("#END")) {
 			for(int j=0;j<line.length();j++) {
-				if(i>=bwtLength)  throw new IOException("Inconsistent bwt length: "+bwtLength);
-				index.bwt[i] = (byte) line.charAt(j);
+				if(i>=index.bwtLength)  throw new IOException("Inconsistent bwt length: "+index.bwtLength);
+				bwt[i] = (byte) line.charAt(j);
 				i++;
 			}
 			line = reader.readLine();
 		}
 		if(line == null) throw new IOException("Unexpected end of file reading bwt.");
-		index.buildTally();
+		index.buildPackedBWT((row)->bwt[row]&0xFF);
 		return index;
 		
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * NGSEP - Next Generation Sequencing Experience Platform
+ * Copyright 2016 Jorge Duitama
+ *
+ * This file is part of NGSEP.
+ *
+ *     NGSEP is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     NGSEP is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with NGSEP.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package ngsep.sequences;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of encoded hits by integer keys such as minimizers or k-mer codes.
+ * Keys are assigned to rows through a primitive open addressing table. Hits are first appended to
+ * a staging area in arrival order. Calling freeze builds a compressed layout in which the hits of each row
+ * are stored contiguously in one flat array delimited by offsets. Hits are added by one thread at a time.
+ * Once the index is frozen, queries can be executed concurrently without locking.
+ * Adding hits to a frozen index is allowed. The new hits are merged the next time that the index is frozen.
+ * A frozen index can be saved in binary format. When it is loaded, the hits are mapped to memory in read only mode.
+ * @author Jorge Duitama
+ */
+public class KmerHitsIndex {
+
+	public static final int MAX_KEYS = 1<<29;
+	public static final int MAX_HITS_PER_KEY = Short.MAX_VALUE;
+	private static final long [] EMPTY_LONG_ARRAY = new long[0];
+	private static final double MAX_LOAD = 0.5;
+	private static final int PAGE_BITS = 24;
+	private static final int PAGE_SIZE = 1<<PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE-1;
+	private static final int STAGING_PAGE_SIZE = 1<<16;
+
+	//Open addressing table with keys and rows
+	private int [] keys;
+	//Row assigned to each key. Empty slots have -1
+	private int [] keyRows;
+	private int keysMask;
+	private int numKeys = 0;
+
+	//Total hits of each row including hits not merged in the frozen structure
+	private short [] rowNumHits;
+	//Count of different sequences reporting each row
+	private short [] rowCountDifferentSequences;
+	private long totalHits = 0;
+
+	//Frozen structure. The hits of row i are located between hitsOffsets[i] and hitsOffsets[i+1]
+	private long [] hitsOffsets = new long[1];
+	private LongBuffer [] hits = new LongBuffer [0];
+	private int frozenRows = 0;
+
+	//Staging area with rows and hits in arrival order
+	private int [][] stagingRows = new int [0][];
+	private long [][] stagingHits = new long [0][];
+	private long numStaging = 0;
+
+	private volatile boolean frozen = true;
+
+	/**
+	 * Creates a new index
+	 * @param initialCapacity Expected number of keys
+	 */
+	public KmerHitsIndex(int initialCapacity) {
+		int rowsCapacity = Math.max(16, Math.min(initialCapacity, MAX_KEYS));
+		int capacity = 16;
+		while(capacity*MAX_LOAD<rowsCapacity) capacity*=2;
+		keys = new int[capacity];
+		keyRows = new int [capacity];
+		Arrays.fill(keyRows, -1);
+		keysMask = capacity-1;
+		rowNumHits = new short [rowsCapacity];
+		rowCountDifferentSequences = new short[rowsCapacity];
+	}
+
+	/**
+	 * @return int Number of different keys
+	 */
+	public int size() {
+		return numKeys;
+	}
+
+	/**
+	 * @return long Total number of hits
+	 */
+	public long getTotalHits() {
+		return totalHits;
+	}
+
+	/**
+	 * Tells if the given key has hits
+	 * @param key to search
+	 * @return boolean true if the key has been added
+	 */
+	public boolean containsKey(int key) {
+		return findRow(key)>=0;
+	}
+
+	/**
+	 * Calculates the number of hits of the given key
+	 * @param key to search
+	 * @return int number of hits
+	 */
+	public int getNumHits (int key) {
+		int row = findRow(key);
+		if(row<0) return 0;
+		return rowNumHits[row];
+	}
+
+	/**
+	 * Calculates the number of hits of the key stored at the given row
+	 * @param row Rows are assigned to keys in the order in which keys are added
+	 * @return int number of hits
+	 */
+	public int getNumHitsRow (int row) {
+		return rowNumHits[row];
+	}
+
+	/**
+	 * Calculates the number of sequences contributing hits to the given key
+	 * @param key to search
+	 * @return int number of calls to addHits for the given key
+	 */
+	public int getCountDifferentSequences(int key) {
+		int row = findRow(key);
+		if(row<0) return 0;
+		return rowCountDifferentSequences[row];
+	}
+
+	/**
+	 * Retrieves the hits of the given key. Freezes the index if needed
+	 * @param key to search
+	 * @return long [] Encoded hits in the order in which they were added
+	 */
+	public long [] lookupHits(int key) {
+		if(!frozen) freeze();
+		int row = findRow(key);
+		if(row<0) return EMPTY_LONG_ARRAY;
+		long [] answer = new long [(int)(hitsOffsets[row+1] - hitsOffsets[row])];
+		copyHits(row, answer);
+		return answer;
+	}
+
+	/**
+	 * Retrieves the hits of the given key copying them to the given buffer. Freezes the index if needed.
+	 * This method allows to reuse the same buffer for many queries
+	 * @param key to search
+	 * @param buffer Array to store the encoded hits in the order in which they were added.
+	 * If the buffer is smaller than the number of hits, only the first buffer.length hits are copied
+	 * @return int Number of hits of the given key. The buffer should be enlarged if this number is larger than its length
+	 */
+	public int lookupHits(int key, long [] buffer) {
+		if(!frozen) freeze();
+		int row = findRow(key);
+		if(row<0) return 0;
+		return copyHits(row, buffer);
+	}
+
+	private int copyHits(int row, long [] buffer) {
+		long start = hitsOffsets[row];
+		int n = (int)(hitsOffsets[row+1] - start);
+		int m = Math.min(n, buffer.length);
+		for(int i=0;i<m;i++) {
+			long pos = start+i;
+			buffer[i] = hits[(int)(pos>>>PAGE_BITS)].get((int)(pos & PAGE_MASK));
+		}
+		return n;
+	}
+
+	/**
+	 * Adds the hits of one sequence for the given key. Hits are not added if the key would exceed
+	 * the maximum number of hits. This method should not be called concurrently
+	 * @param key of the hits
+	 * @param entries hits to add
+	 * @return boolean true if the hits were added, false otherwise
+	 */
+	public boolean addHits(int key, List<MinimizersTableEntry> entries) {
+		int row = findRow(key);
+		if(row<0) {
+			if(numKeys==MAX_KEYS) return false;
+			row = insertKey(key);
+		}
+		if (rowNumHits[row]+entries.size()>=MAX_HITS_PER_KEY) return false;
+		frozen = false;
+		for (MinimizersTableEntry entry:entries) addStaging(row, entry.encode());
+		rowNumHits[row]+=entries.size();
+		rowCountDifferentSequences[row]++;
+		totalHits+=entries.size();
+		return true;
+	}
+
+	private int getSlot(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h>>>16)) & keysMask;
+	}
+
+	private int findRow(int key) {
+		int slot = getSlot(key);
+		while(true) {
+			int row = keyRows[slot];
+			if(row<0) return -1;
+			if(keys[slot]==key) return row;
+			slot = (slot+1)&keysMask;
+		}
+	}
+
+	private int insertKey(int key) {
+		if(numKeys+1>MAX_LOAD*keys.length) resizeKeys();
+		int row = numKeys;
+		int slot = getSlot(key);
+		while(keyRows[slot]>=0) slot = (slot+1)&keysMask;
+		keys[slot] = key;
+		keyRows[slot] = row;
+		if(row==rowNumHits.length) {
+			int newCapacity = (int)Math.min(MAX_KEYS, 2L*rowNumHits.length);
+			rowNumHits = Arrays.copyOf(rowNumHits, newCapacity);
+			rowCountDifferentSequences = Arrays.copyOf(rowCountDifferentSequences, newCapacity);
+		}
+		numKeys++;
+		return row;
+	}
+
+	private void resizeKeys() {
+		int [] oldKeys = keys;
+		int [] oldRows = keyRows;
+		int capacity = 2*oldKeys.length;
+		keys = new int [capacity];
+		keyRows = new int [capacity];
+		Arrays.fill(keyRows, -1);
+		keysMask = capacity-1;
+		for(int i=0;i<oldKeys.length;i++) {
+			if(oldRows[i]<0) continue;
+			int slot = getSlot(oldKeys[i]);
+			while(keyRows[slot]>=0) slot = (slot+1)&keysMask;
+			keys[slot] = oldKeys[i];
+			keyRows[slot] = oldRows[i];
+		}
+	}
+
+	private void addStaging(int row, long hit) {
+		int page = (int)(numStaging/STAGING_PAGE_SIZE);
+		int column = (int)(numStaging%STAGING_PAGE_SIZE);
+		if(page==stagingHits.length) {
+			int newLength = Math.max(16, 2*stagingHits.length);
+			stagingHits = Arrays.copyOf(stagingHits, newLength);
+			stagingRows = Arrays.copyOf(stagingRows, newLength);
+		}
+		if(stagingHits[page]==null) {
+			stagingHits[page] = new long [STAGING_PAGE_SIZE];
+			stagingRows[page] = new int [STAGING_PAGE_SIZE];
+		}
+		stagingHits[page][column] = hit;
+		stagingRows[page][column] = row;
+		numStaging++;
+	}
+
+	/**
+	 * Builds the read-only structure merging the hits in the staging area with the hits already frozen.
+	 * The hits of each row are kept in the order in which they were added.
+	 * This method is called automatically by the first query after hits are added
+	 */
+	public synchronized void freeze() {
+		if(frozen) return;
+		//First pass: Offsets from the number of hits per row
+		long [] newOffsets = new long [numKeys+1];
+		for(int i=0;i<numKeys;i++) newOffsets[i+1] = newOffsets[i]+rowNumHits[i];
+		long total = newOffsets[numKeys];
+		int numPages = (int)((total+PAGE_SIZE-1)>>>PAGE_BITS);
+		long [][] newHits = new long [numPages][];
+		for(int i=0;i<numPages;i++) {
+			newHits[i] = new long [(int)Math.min(PAGE_SIZE, total-((long)i<<PAGE_BITS))];
+		}
+		//Second pass: Copy hits already frozen and then hits in the staging area
+		long [] nextPositions = Arrays.copyOf(newOffsets, numKeys);
+		for(int row=0;row<frozenRows;row++) {
+			for(long pos = hitsOffsets[row];pos<hitsOffsets[row+1];pos++) {
+				long hit = hits[(int)(pos>>>PAGE_BITS)].get((int)(pos & PAGE_MASK));
+				long newPos = nextPositions[row]++;
+				newHits[(int)(newPos>>>PAGE_BITS)][(int)(newPos & PAGE_MASK)] = hit;
+			}
+		}
+		for(long i=0;i<numStaging;i++) {
+			int page = (int)(i/STAGING_PAGE_SIZE);
+			int column = (int)(i%STAGING_PAGE_SIZE);
+			int row = stagingRows[page][column];
+			long newPos = nextPositions[row]++;
+			newHits[(int)(newPos>>>PAGE_BITS)][(int)(newPos & PAGE_MASK)] = stagingHits[page][column];
+		}
+		hitsOffsets = newOffsets;
+		hits = new LongBuffer[numPages];
+		for(int i=0;i<numPages;i++) hits[i] = LongBuffer.wrap(newHits[i]);
+		frozenRows = numKeys;
+		stagingRows = new int [0][];
+		stagingHits = new long [0][];
+		numStaging = 0;
+		frozen = true;
+	}
+
+	/**
+	 * Saves this index in binary format. The index is frozen before saving
+	 * @param out Stream to write the index
+	 * @throws IOException If the index can not be written
+	 */
+	public void save (DataOutputStream out) throws IOException {
+		freeze();
+		out.writeInt(keys.length);
+		out.writeInt(numKeys);
+		for(int i=0;i<keys.length;i++) out.writeInt(keys[i]);
+		for(int i=0;i<keyRows.length;i++) out.writeInt(keyRows[i]);
+		//Counts are padded to keep offsets and hits aligned to eight bytes
+		int paddedRows = 4*((numKeys+3)/4);
+		for(int i=0;i<paddedRows;i++) out.writeShort(i<numKeys?rowCountDifferentSequences[i]:0);
+		for(int i=0;i<=numKeys;i++) out.writeLong(hitsOffsets[i]);
+		for(LongBuffer page:hits) {
+			int n = page.limit();
+			for(int i=0;i<n;i++) out.writeLong(page.get(i));
+		}
+	}
+
+	/**
+	 * Loads an index saved in binary format starting at the current position of the given channel.
+	 * Hits are mapped to memory in read only mode. The position of the channel is updated to the end of the index
+	 * @param channel to read the index
+	 * @return KmerHitsIndex loaded index
+	 * @throws IOException If the index can not be read
+	 */
+	public static KmerHitsIndex load (FileChannel channel) throws IOException {
+		IntBuffer header = FMIndexSingleSequence.readInts(channel, 2);
+		int capacity = header.get();
+		int numKeys = header.get();
+		if(capacity<16 || Integer.bitCount(capacity)!=1 || numKeys<0 || numKeys>MAX_LOAD*capacity) throw new IOException("Invalid dimensions of k-mer hits index. Capacity: "+capacity+" keys: "+numKeys);
+		KmerHitsIndex index = new KmerHitsIndex(0);
+		long position = channel.position();
+		index.keys = new int [capacity];
+		for(int done=0;done<capacity;) {
+			int n = Math.min(capacity-done, PAGE_SIZE);
+			channel.map(FileChannel.MapMode.READ_ONLY, position+4L*done, 4L*n).asIntBuffer().get(index.keys, done, n);
+			done+=n;
+		}
+		position+=4L*capacity;
+		index.keyRows = new int [capacity];
+		for(int done=0;done<capacity;) {
+			int n = Math.min(capacity-done, PAGE_SIZE);
+			channel.map(FileChannel.MapMode.READ_ONLY, position+4L*done, 4L*n).asIntBuffer().get(index.keyRows, done, n);
+			done+=n;
+		}
+		position+=4L*capacity;
+		index.keysMask = capacity-1;
+		index.numKeys = numKeys;
+		int rowsCapacity = Math.max(16, numKeys);
+		index.rowCountDifferentSequences = new short [rowsCapacity];
+		if(numKeys>0) channel.map(FileChannel.MapMode.READ_ONLY, position, 2L*numKeys).asShortBuffer().get(index.rowCountDifferentSequences, 0, numKeys);
+		position+=8L*((numKeys+3)/4);
+		index.hitsOffsets = new long [numKeys+1];
+		for(int done=0;done<=numKeys;) {
+			int n = Math.min(numKeys+1-done, PAGE_SIZE);
+			channel.map(FileChannel.MapMode.READ_ONLY, position+8L*done, 8L*n).asLongBuffer().get(index.hitsOffsets, done, n);
+			done+=n;
+		}
+		position+=8L*(numKeys+1);
+		index.rowNumHits = new short [rowsCapacity];
+		for(int i=0;i<numKeys;i++) {
+			long numHits = index.hitsOffsets[i+1]-index.hitsOffsets[i];
+			if(numHits<0 || numHits>=MAX_HITS_PER_KEY) throw new IOException("Invalid number of hits "+numHits+" for row "+i);
+			index.rowNumHits[i] = (short)numHits;
+		}
+		long total = index.hitsOffsets[numKeys];
+		index.totalHits = total;
+		int numPages = (int)((total+PAGE_SIZE-1)>>>PAGE_BITS);
+		index.hits = new LongBuffer[numPages];
+		for(int i=0;i<numPages;i++) {
+			long n = Math.min(PAGE_SIZE, total-((long)i<<PAGE_BITS));
+			index.hits[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L*n).asLongBuffer();
+			position+=8L*n;
+		}
+		if(position>channel.size()) throw new IOException("Unexpected end of file reading k-mer hits index. Expected length: "+position+" file size: "+channel.size());
+		index.frozenRows = numKeys;
+		channel.position(position);
+		return index;
+	}
+}
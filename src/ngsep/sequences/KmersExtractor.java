@@ -19,7 +19,14 @@
  *******************************************************************************/
 package ngsep.sequences;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -56,10 +63,13 @@ public class KmersExtractor {
 	public static final byte DEF_KMER_LENGTH = 15;
 	public static final int DEF_MIN_KMER_COUNT = 5;
 	public static final int DEF_NUM_THREADS = 1;
+	public static final int DEF_NUM_PARTITIONS = 1;
 	public static final byte INPUT_FORMAT_FASTQ=0;
 	public static final byte INPUT_FORMAT_FASTA=1;
 	
 	private static final int MAX_LENGTH_SINGLE_TASK = 100000;
+	//Number of codes collected by each thread before they are aggregated and written to the partitions
+	private static final int PARTITION_BUFFER_SIZE = 1<<20;
 	
 	// Logging and progress
 	private Logger log = Logger.getLogger(KmersExtractor.class.getName());
@@ -75,9 +85,16 @@ public class KmersExtractor {
 	private boolean ignoreLowComplexity = false;
 	private int numThreads = DEF_NUM_THREADS;
 	private int minReadLength = 0;
+	private int numPartitions = DEF_NUM_PARTITIONS;
 	
 	// Model attributes
 	private KmersMap kmersMap = null;
+	private DataOutputStream [] partitionStreams = null;
+	private File [] partitionFiles = null;
+	private ThreadLocal<long []> partitionBuffers = new ThreadLocal<long []>();
+	private ThreadLocal<int []> partitionBufferSizes = new ThreadLocal<int []>();
+	private List<long []> allPartitionBuffers = new ArrayList<long []>();
+	private List<int []> allPartitionBufferSizes = new ArrayList<int []>();
 	private boolean loadSequences = false;
 	private List<QualifiedSequence> loadedSequences = null;
 	
@@ -178,6 +195,17 @@ public class KmersExtractor {
 	}
 	
 	
+	public int getNumPartitions() {
+		return numPartitions;
+	}
+	public void setNumPartitions(int numPartitions) {
+		if(numPartitions<1) throw new IllegalArgumentException("The number of partitions must be positive. Given: "+numPartitions);
+		this.numPartitions = numPartitions;
+	}
+	public void setNumPartitions(String value) {
+		this.setNumPartitions((int) OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
 	public int getMinReadLength() {
 		return minReadLength;
 	}
@@ -185,9 +213,14 @@ public class KmersExtractor {
 		this.minReadLength = minReadLength;
 	}
 	/**
+	 * Returns the map of k-mers counted so far. Occurrences remaining in buffers are added before returning the map.
+	 * K-mers counted in partitions (see setNumPartitions) are only saved to files and they are not available in memory
 	 * @return the hashKmers
+	 * @throws IllegalStateException If k-mers are counted in partitions
 	 */
 	public KmersMap getKmersMap() {
+		if(partitionFiles!=null) throw new IllegalStateException("K-mers counted in partitions are not available in memory. Use one partition to obtain the k-mers map");
+		flushBuffers();
 		return kmersMap;
 	}
 	
@@ -241,6 +274,8 @@ public class KmersExtractor {
 		if (inputFormat == INPUT_FORMAT_FASTQ)  out.println("Fastq format");
 		if (inputFormat == INPUT_FORMAT_FASTA)  out.println("Fasta format");
 		if (ignoreLowComplexity) out.println("Ignore low complexity k-mers");
+		out.println("Number of threads: "+ numThreads);
+		if (numPartitions>1) out.println("Number of partitions to count k-mers: "+ numPartitions);
 		log.info(os.toString());
 		
 	}
@@ -261,12 +296,42 @@ public class KmersExtractor {
 	}
 	
 	private void initialize() {
-		if(kmersMap==null) {
+		if(kmersMap==null && partitionStreams==null) {
 			if(!isFreeText() && kmerLength<=15) kmersMap = new ShortArrayDNAKmersMapImpl((byte)kmerLength);
+			else if (!isFreeText() && kmerLength<=31 && numPartitions>1) initializePartitions();
+			else if (!isFreeText() && kmerLength<=31) kmersMap = new OpenAddressingDNAKmersMapImpl((byte)kmerLength);
 			else kmersMap = new DefaultKmersMapImpl();
 			if(loadSequences) loadedSequences=new ArrayList<QualifiedSequence>();
 		}
 	}
+	
+	private void initializePartitions() {
+		if(outputPrefix==null) throw new IllegalArgumentException("Counting k-mers in partitions requires an output prefix");
+		partitionStreams = new DataOutputStream[numPartitions];
+		partitionFiles = new File[numPartitions];
+		try {
+			for(int i=0;i<numPartitions;i++) {
+				partitionFiles[i] = new File(outputPrefix+"_kmers_partition_"+i+".tmp");
+				partitionStreams[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partitionFiles[i]), 1000000));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Can not create temporary files for k-mer partitions", e);
+		}
+		log.info("Created "+numPartitions+" temporary files to count k-mers in partitions");
+	}
+	
+	private void flushBuffers() {
+		if(kmersMap instanceof OpenAddressingDNAKmersMapImpl) ((OpenAddressingDNAKmersMapImpl)kmersMap).flushBuffers();
+		if(partitionStreams!=null) {
+			synchronized (allPartitionBuffers) {
+				for(int i=0;i<allPartitionBuffers.size();i++) {
+					int [] bufferSize = allPartitionBufferSizes.get(i);
+					writeToPartitions(allPartitionBuffers.get(i), bufferSize[0]);
+					bufferSize[0] = 0;
+				}
+			}
+		}
+	}
 	/**
 	 * Processes the file with the given name as fastq and updates the kmers table
 	 * @param filename Name of the file with the sequences to process.
@@ -275,7 +340,8 @@ public class KmersExtractor {
 	 */
     public void processFastqFile(String filename) throws IOException, InterruptedException {
     	initialize();
-    	ThreadPoolManager poolKmers = new ThreadPoolManager(numThreads, 100);
+    	//Tasks counting k-mers of single reads are short. A work stealing pool reduces contention between threads
+    	ThreadPoolManager poolKmers = new ThreadPoolManager(numThreads, 100, true);
     	long totalLength = 0;
 		try (FastqFileReader reader = new FastqFileReader(filename)) {
 			reader.setSequenceType(DNAMaskedSequence.class);
@@ -291,6 +357,7 @@ public class KmersExtractor {
 			}
 		}
 		poolKmers.terminatePool();
+		flushBuffers();
 	 }
     
 	/**
@@ -301,7 +368,7 @@ public class KmersExtractor {
      */
 	public void processFastqFile(InputStream fis) throws IOException, InterruptedException {
 		initialize();
-		ThreadPoolManager poolKmers = new ThreadPoolManager(numThreads, 1000);
+		ThreadPoolManager poolKmers = new ThreadPoolManager(numThreads, 1000, true);
 		try (FastqFileReader reader = new FastqFileReader(fis)) {
 			Iterator<RawRead> it = reader.iterator();
 			for (int i=0;it.hasNext();i++) {
@@ -313,6 +380,7 @@ public class KmersExtractor {
 			}
 		}
 		poolKmers.terminatePool();
+		flushBuffers();
 	}
 	
 	/**
@@ -332,11 +400,12 @@ public class KmersExtractor {
 				if(seq.getLength()>1000000) log.info("Processing sequence "+seq.getName());
 				countSequenceKmers (seq, poolKmers);
 				if(loadSequences) loadedSequences.add(seq);
-				if(seq.getLength()>1000000) log.info("Processed sequence "+seq.getName()+" total k-mers: "+kmersMap.size());
+				if(seq.getLength()>1000000 && kmersMap!=null) log.info("Processed sequence "+seq.getName()+" total k-mers: "+kmersMap.size());
 				if((i+1)%1000==0) log.info("Processed "+(i+1)+" sequences");
 			}
     	}
     	poolKmers.terminatePool();
+    	flushBuffers();
 	}
     public void processQualifiedSequences(List<QualifiedSequence> sequences) throws InterruptedException {
     	initialize();
@@ -346,11 +415,12 @@ public class KmersExtractor {
     		if(qseq.getLength()<minReadLength) continue;
     		if(qseq.getLength()>1000000) log.info("Processing sequence "+qseq.getName());
     		countSequenceKmers (qseq, poolKmers);
-    		if(qseq.getLength()>1000000) log.info("Processed sequence "+qseq.getName()+" total k-mers: "+kmersMap.size());
+    		if(qseq.getLength()>1000000 && kmersMap!=null) log.info("Processed sequence "+qseq.getName()+" total k-mers: "+kmersMap.size());
     		i++;
     		if(i%100==0) log.info("Processed "+i+" sequences");
     	}
     	poolKmers.terminatePool();
+    	flushBuffers();
     }
    
     public void countSequenceKmers(QualifiedSequence qseq, ThreadPoolManager manager) throws InterruptedException {
@@ -368,8 +438,13 @@ public class KmersExtractor {
     	}
     }
 	public void countSequenceKmers(QualifiedSequence qseq) {
-		//Forward		
 		CharSequence sequence = qseq.getCharacters();
+		if(!freeText && kmerLength<=31) {
+			//Codes of the reverse complement are calculated together with the forward codes
+			countSequenceKmerCodes(sequence.toString(), !onlyForwardStrand);
+			return;
+		}
+		//Forward		
 		countSequenceKmers(sequence.toString());
 		//Reverse complement
 		if(!onlyForwardStrand){
@@ -383,6 +458,10 @@ public class KmersExtractor {
 	 */
 	public void countSequenceKmers(String seq)
 	{
+		if(!freeText && kmerLength<=31) {
+			countSequenceKmerCodes(seq, false);
+			return;
+		}
 		initialize();
 		int seqLength = seq.length();
 		
@@ -390,25 +469,130 @@ public class KmersExtractor {
 			log.warning("Sequence "+seq+" smaller than k-mer length");
 			return;
 		}
-		if(!freeText && !ignoreLowComplexity && kmerLength<=15) {
-			//Faster alternative
-			Map<Integer,Long> codes = extractDNAKmerCodes(seq, kmerLength, 0, seq.length());
-			synchronized (kmersMap) {
-				ShortArrayDNAKmersMapImpl skmersMap = (ShortArrayDNAKmersMapImpl) kmersMap;
-				for(long code:codes.values()) {	
-					skmersMap.addCodeOccurance(code);
-				}
-			}
-			return;
-		}
 		String [] kmers = extractKmers(seq, kmerLength, 1, 0, seq.length(), false, freeText, ignoreLowComplexity);
-		//synchronized (kmersMap) {
+		synchronized (kmersMap) {
 			for(String kmer:kmers) {
 				if(kmer==null) continue;
 				if(kmer.length()<=15) kmersMap.addOcurrance(kmer);
 				else kmersMap.addOcurrance(pack(kmer));
 			}
-		//}
+		}
+	}
+	/**
+	 * Updates the k-mers table with the codes of the DNA k-mers of the given sequence.
+	 * Faster alternative to count k-mers of length up to 31. Maps for DNA k-mer codes support concurrent updates
+	 * @param seq Sequence to extract the k-mers
+	 * @param includeReverse Tells if the k-mers of the reverse complement should also be counted
+	 */
+	private void countSequenceKmerCodes(String seq, boolean includeReverse) {
+		initialize();
+		int seqLength = seq.length();
+		if(seqLength < kmerLength) {
+			log.warning("Sequence "+seq+" smaller than k-mer length");
+			return;
+		}
+		int numKmers = seqLength-kmerLength+1;
+		long [] codes = new long [numKmers];
+		long [] reverseCodes = includeReverse?new long [numKmers]:null;
+		extractDNAKmerCodes(seq, kmerLength, 0, seqLength, codes, reverseCodes);
+		//Valid codes are moved to the first positions of the arrays
+		int numCodes = 0;
+		for(int i=0;i<numKmers;i++) {
+			if(codes[i]<0) continue;
+			if(ignoreLowComplexity && isLowComplexity(seq.substring(i, i+kmerLength))) continue;
+			codes[numCodes] = codes[i];
+			if(includeReverse) reverseCodes[numCodes] = reverseCodes[i];
+			numCodes++;
+		}
+		addCodes(codes, numCodes);
+		if(includeReverse) addCodes(reverseCodes, numCodes);
+	}
+	
+	private void addCodes(long [] codes, int numCodes) {
+		if(partitionStreams!=null) {
+			addCodesToPartitionBuffer(codes, numCodes);
+		} else if(kmersMap instanceof ShortArrayDNAKmersMapImpl) {
+			ShortArrayDNAKmersMapImpl skmersMap = (ShortArrayDNAKmersMapImpl) kmersMap;
+			for(int i=0;i<numCodes;i++) skmersMap.addCodeOccurance(codes[i]);
+		} else {
+			OpenAddressingDNAKmersMapImpl okmersMap = (OpenAddressingDNAKmersMapImpl) kmersMap;
+			for(int i=0;i<numCodes;i++) okmersMap.addCodeOccuranceBuffered(codes[i]);
+		}
+	}
+	
+	private static int getPartition(long code, int numPartitions) {
+		long h = (code ^ (code >>> 29)) * 0xBF58476D1CE4E5B9L;
+		return (int)((h >>> 33) % numPartitions);
+	}
+	/**
+	 * Adds the given codes to the buffer of the current thread. The buffer is written to the partitions when it is full.
+	 * Call flushBuffers after all threads finish to write the codes remaining in the buffers
+	 * @param codes of the k-mers to add
+	 * @param n number of codes to add from the start of the array
+	 */
+	private void addCodesToPartitionBuffer(long [] codes, int n) {
+		long [] buffer = partitionBuffers.get();
+		int [] bufferSize = partitionBufferSizes.get();
+		if(buffer==null) {
+			buffer = new long[PARTITION_BUFFER_SIZE];
+			bufferSize = new int[1];
+			partitionBuffers.set(buffer);
+			partitionBufferSizes.set(bufferSize);
+			synchronized (allPartitionBuffers) {
+				allPartitionBuffers.add(buffer);
+				allPartitionBufferSizes.add(bufferSize);
+			}
+		}
+		for(int i=0;i<n;i++) {
+			if(bufferSize[0]==buffer.length) {
+				writeToPartitions(buffer, bufferSize[0]);
+				bufferSize[0] = 0;
+			}
+			buffer[bufferSize[0]] = codes[i];
+			bufferSize[0]++;
+		}
+	}
+	/**
+	 * Writes the given codes to the temporary files of the partitions.
+	 * Each distinct code is written once followed by its number of occurrences
+	 * @param codes of the k-mers to write
+	 * @param n number of codes to write from the start of the array
+	 */
+	private void writeToPartitions(long [] codes, int n) {
+		//Sort codes by partition to lock each file only once
+		int [] partitions = new int[n];
+		int [] starts = new int[numPartitions+1];
+		for(int i=0;i<n;i++) {
+			int p = getPartition(codes[i], numPartitions);
+			partitions[i] = p;
+			starts[p+1]++;
+		}
+		for(int p=0;p<numPartitions;p++) starts[p+1]+=starts[p];
+		long [] sortedCodes = new long[n];
+		int [] nextPositions = Arrays.copyOf(starts, numPartitions);
+		for(int i=0;i<n;i++) {
+			sortedCodes[nextPositions[partitions[i]]++] = codes[i];
+		}
+		try {
+			for(int p=0;p<numPartitions;p++) {
+				if(starts[p]==starts[p+1]) continue;
+				Arrays.sort(sortedCodes, starts[p], starts[p+1]);
+				DataOutputStream out = partitionStreams[p];
+				synchronized (out) {
+					int j = starts[p];
+					while(j<starts[p+1]) {
+						long code = sortedCodes[j];
+						int k = j+1;
+						while(k<starts[p+1] && sortedCodes[k]==code) k++;
+						out.writeLong(code);
+						out.writeInt(k-j);
+						j = k;
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Can not write k-mers to temporary file", e);
+		}
 	}
 	
 	/**
@@ -500,33 +684,56 @@ public class KmersExtractor {
 	 * @return Map<Integer,Long> with kmer codes indexed by start position
 	 */
 	public static Map<Integer,Long> extractDNAKmerCodes (CharSequence source, int kmerLength, int start, int end) {
+		Map<Integer,Long> kmerCodesMap = new LinkedHashMap<Integer, Long>();
+		long [] codes = new long [Math.max(0, end-start)];
+		int numCodes = extractDNAKmerCodes(source, kmerLength, start, end, codes, null);
+		for(int i=0;i<numCodes;i++) {
+			if(codes[i]>=0) kmerCodesMap.put(start+i, codes[i]);
+		}
+		return kmerCodesMap;
+	}
+	/**
+	 * Extracts the codes representing DNA kmers from the given sequence into the given arrays.
+	 * Codes are calculated updating the code of the previous kmer with the next character.
+	 * Position i of the arrays corresponds to the kmer starting at position start+i of the sequence.
+	 * Kmers including characters different from A, C, G or T are represented with the code -1
+	 * @param source Sequence to extract kmers. Usually a String but it works with StringBuilder or other types of sequences
+	 * @param kmerLength must be at most 31 to allow unique encoding of DNA kmers
+	 * @param start of the source sequence
+	 * @param end of the source sequence
+	 * @param forwardCodes Array to store the codes of the kmers. It must have at least end-start-kmerLength+1 positions
+	 * @param reverseCodes Array to store the codes of the reverse complement of each kmer. It can be null if these codes are not needed
+	 * @return int Number of positions filled in the arrays. Zero if the region is shorter than the kmer length
+	 */
+	public static int extractDNAKmerCodes (CharSequence source, int kmerLength, int start, int end, long [] forwardCodes, long [] reverseCodes) {
 		validateLimits(source, start, end);
 		if(kmerLength>31) throw new IllegalArgumentException("This method only works with kmer lengths up to 31");
-		int n = source.length();
-		Map<Integer,Long> kmerCodesMap = new LinkedHashMap<Integer, Long>();
-		if (n < kmerLength) return kmerCodesMap;
-		int lastKmerStart = end - kmerLength;
-		long lastCode = -1;
-		for(int i = start; i <=lastKmerStart; i++) {
-			long code;
-			if(lastCode==-1) {
-				CharSequence kmer = source.subSequence(i, i+kmerLength);
-				if (!DNASequence.isDNA(kmer)) continue;
-				code = AbstractLimitedSequence.getHash(kmer, 0, kmerLength, EMPTYDNASEQ);
+		int numCodes = end - start - kmerLength + 1;
+		if(numCodes<=0) return 0;
+		if(forwardCodes.length<numCodes) throw new IllegalArgumentException("Array of length "+forwardCodes.length+" can not store "+numCodes+" kmer codes");
+		if(reverseCodes!=null && reverseCodes.length<numCodes) throw new IllegalArgumentException("Array of length "+reverseCodes.length+" can not store "+numCodes+" kmer codes");
+		long mask = (1L<<(2*kmerLength))-1;
+		int shiftFirst = 2*(kmerLength-1);
+		long code = 0;
+		long reverseCode = 0;
+		//Number of consecutive DNA characters ending at the current position
+		int validLength = 0;
+		for(int i=start;i<end;i++) {
+			int index = DNASequence.BASES_STRING.indexOf(source.charAt(i));
+			if(index<0) {
+				validLength = 0;
 			} else {
-				char lastCharNextKmer = source.charAt(i+kmerLength-1);
-				if(!DNASequence.isInAlphabeth(lastCharNextKmer)) {
-					lastCode = -1;
-					//Ignore all kmers spanning the non DNA character
-					i+=kmerLength-1;
-					continue;
-				}
-				code = AbstractLimitedSequence.getNextHash(lastCode,kmerLength,lastCharNextKmer,EMPTYDNASEQ);
+				code = ((code<<2) | index) & mask;
+				reverseCode = (reverseCode>>>2) | ((long)(3-index)<<shiftFirst);
+				validLength++;
 			}
-			kmerCodesMap.put(i, code);
-			lastCode = code;
+			int kmerIdx = i-start-kmerLength+1;
+			if(kmerIdx<0) continue;
+			boolean valid = validLength>=kmerLength;
+			forwardCodes[kmerIdx] = valid?code:-1;
+			if(reverseCodes!=null) reverseCodes[kmerIdx] = valid?reverseCode:-1;
 		}
-		return kmerCodesMap;
+		return numCodes;
 	}
 	public static Map<Long, Integer> extractLocallyUniqueKmerCodes(CharSequence sequence, int kmerLength, int start, int end) {
 		Map<Integer,Long> rawCodes = KmersExtractor.extractDNAKmerCodes(sequence, kmerLength, start, end);
@@ -581,7 +788,11 @@ public class KmersExtractor {
 		if(kmerStr.contains("TATATATA")) return true;
 		return false;
 	}
-	public void saveResults () throws IOException {
+	public void saveResults () throws IOException, InterruptedException {
+		if(partitionStreams!=null) {
+			savePartitionedResults();
+			return;
+		}
 		log.info("Calculating distribution of abundances from "+kmersMap.size()+" k-mers");
 		Distribution kmerSpectrum = kmersMap.calculateAbundancesDistribution();
 		try (PrintStream out=new PrintStream(outputPrefix+"_kmers_distribution.txt")) {
@@ -595,5 +806,68 @@ public class KmersExtractor {
 			kmersMap.save(out);
 		}
 		
-	}	
+	}
+	
+	/**
+	 * Counts the k-mers of each partition and saves the filtered k-mers of all partitions.
+	 * Temporary files are deleted after each partition is processed
+	 * @throws IOException If the temporary files can not be read or the output files can not be written
+	 * @throws InterruptedException If the counting process is interrupted
+	 */
+	private void savePartitionedResults() throws IOException, InterruptedException {
+		//Codes can remain in the buffers if sequences were counted without processing a file
+		flushBuffers();
+		for(DataOutputStream out:partitionStreams) out.close();
+		Distribution kmerSpectrum = new Distribution(1, Short.MAX_VALUE, 1);
+		long totalKmers = 0;
+		long savedKmers = 0;
+		try (OutputStream os = new GZIPOutputStream(new FileOutputStream(outputPrefix+"_kmers.txt.gz"));
+			 PrintStream out = new PrintStream(os)) {
+			for(int p=0;p<numPartitions;p++) {
+				OpenAddressingDNAKmersMapImpl partitionMap = countPartition(partitionFiles[p]);
+				totalKmers+=partitionMap.size();
+				partitionMap.updateAbundancesDistribution(kmerSpectrum);
+				partitionMap.filterKmers(minKmerCount);
+				savedKmers+=partitionMap.size();
+				partitionMap.save(out);
+				if(!partitionFiles[p].delete()) log.warning("Can not delete temporary file "+partitionFiles[p].getAbsolutePath());
+				log.info("Processed partition "+(p+1)+" of "+numPartitions+". Total k-mers: "+totalKmers+" saved k-mers: "+savedKmers);
+			}
+		}
+		partitionStreams = null;
+		try (PrintStream out=new PrintStream(outputPrefix+"_kmers_distribution.txt")) {
+			out.println("Kmer_frequency\tNumber_of_distinct_kmers");
+			kmerSpectrum.printDistributionInt(out);
+		}
+		log.info("Saved "+savedKmers+" filtered k-mers with minimum count "+minKmerCount+" from "+totalKmers+" k-mers");
+	}
+	
+	private OpenAddressingDNAKmersMapImpl countPartition(File partitionFile) throws IOException, InterruptedException {
+		//Every code is stored in eight bytes followed by four bytes with the number of occurrences
+		long numCodes = partitionFile.length()/12;
+		int initialCapacity = (int)Math.min(OpenAddressingDNAKmersMapImpl.MAX_CAPACITY, Math.max(OpenAddressingDNAKmersMapImpl.DEF_INITIAL_CAPACITY, numCodes/4));
+		OpenAddressingDNAKmersMapImpl partitionMap = new OpenAddressingDNAKmersMapImpl((byte)kmerLength, initialCapacity);
+		ThreadPoolManager poolPartition = new ThreadPoolManager(numThreads, Math.max(numThreads, 10));
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(partitionFile), 1000000))) {
+			boolean eof = false;
+			while(!eof) {
+				long [] codes = new long[OpenAddressingDNAKmersMapImpl.DEF_BUFFER_SIZE];
+				int [] counts = new int[codes.length];
+				int n = 0;
+				try {
+					for(;n<codes.length;n++) {
+						codes[n] = in.readLong();
+						counts[n] = in.readInt();
+					}
+				} catch (EOFException e) {
+					eof = true;
+				}
+				if(n==0) break;
+				final int size = n;
+				poolPartition.queueTask(()->partitionMap.addCodeOccurances(codes, counts, 0, size));
+			}
+		}
+		poolPartition.terminatePool();
+		return partitionMap;
+	}
 }
@@ -1,7 +1,10 @@
 package ngsep.sequences;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -15,8 +18,6 @@ import ngsep.math.PrimeNumbers;
 
 public class MinimizersTable {
 	
-	private static final long [] EMPTY_LONG_ARRAY = new long[0];
-	
 	private Logger log = Logger.getLogger(MinimizersTable.class.getName());
 	
 	private int kmerLength;
@@ -29,18 +30,10 @@ public class MinimizersTable {
 	private int mode=1;
 	private int kmerDistModeLocalSD=5;
 	
-	//Structures to implement the minimizers hash table
-	//Map with minimizer as key and row of the sequencesByMinimizerTable as value
-	private Map<Integer,Integer> matrixRowMap;
-	//Table with encoded entries. Each row corresponds to a single minimizer
-	private long [][] sequencesByMinimizerTable;
-	//Actual lengths of the lists within the table
-	private short [] sequencesByMinimizerTableColumnLengths;
-	//Count of different sequences reporting each minimizer
-	private short [] minimizerCountDifferentSequences;
+	//Index with the encoded entries of each minimizer
+	private KmerHitsIndex minimizersIndex;
 	
 	private Map<Integer,Integer> sequenceLengths = new HashMap<Integer, Integer>();
-	private long totalEntries = 0;
 	private PrimeNumbers primeNumbersHelper;
 	
 	
@@ -75,23 +68,12 @@ public class MinimizersTable {
 		initializeTable(capacity);
 	}
 	public void initializeTable(int capacity) {
-		matrixRowMap = new HashMap<Integer, Integer>(capacity);
-		sequencesByMinimizerTable = new long [capacity][1];
-		for(int i=0;i<sequencesByMinimizerTable.length;i++) Arrays.fill(sequencesByMinimizerTable[i], 0);
-		sequencesByMinimizerTableColumnLengths = new short [capacity];
-		Arrays.fill(sequencesByMinimizerTableColumnLengths, (short)0);
-		minimizerCountDifferentSequences = new short [capacity];
-		Arrays.fill(minimizerCountDifferentSequences, (short)0);
+		minimizersIndex = new KmerHitsIndex(capacity);
 	}
 	
 	//Hash table management methods
-	private long[] lookupHits(int minimizer) {
-		Integer row = matrixRowMap.get(minimizer);
-		if(row==null) return EMPTY_LONG_ARRAY;
-		return Arrays.copyOf(sequencesByMinimizerTable[row], sequencesByMinimizerTableColumnLengths[row]);
-	}
 	public int size() {
-		return matrixRowMap.size();
+		return minimizersIndex.size();
 	}
 	
 	/**
@@ -100,9 +82,7 @@ public class MinimizersTable {
 	 * @return int times that the given minimizer has been observed
 	 */
 	public int getTotalHits(int minimizer) {
-		Integer row = matrixRowMap.get(minimizer);
-		if(row==null) return 0;
-		return sequencesByMinimizerTableColumnLengths[row];
+		return minimizersIndex.getNumHits(minimizer);
 	}
 	
 	/**
@@ -111,52 +91,56 @@ public class MinimizersTable {
 	 * @return int number of different sequences where the minimizer has been observed
 	 */
 	public int getCountDifferentSequences(int minimizer) {
-		Integer row = matrixRowMap.get(minimizer);
-		if(row==null) return 0;
-		return minimizerCountDifferentSequences[row];
+		return minimizersIndex.getCountDifferentSequences(minimizer);
 	}
 	
 	private void addMinimizerSequence (int minimizer, List<MinimizersTableEntry> entries) {
-		Integer row = matrixRowMap.get(minimizer);
-		if(row==null) {
-			row = size();
-			if(row ==Integer.MAX_VALUE) {
-				log.warning("Reached maximum number of minimizers that can be saved "+row);
-				return;
-			}
-			matrixRowMap.put(minimizer, row);
-			if(row==sequencesByMinimizerTable.length) resizeTable();
-		}
-		int currentCount = sequencesByMinimizerTableColumnLengths[row];
-		if (currentCount+entries.size()<Short.MAX_VALUE) {
-			for (MinimizersTableEntry entry:entries) addToTable(row, entry.encode());
-			totalEntries+=entries.size();
-			minimizerCountDifferentSequences[row]++;
+		if(minimizersIndex.size()==KmerHitsIndex.MAX_KEYS && !minimizersIndex.containsKey(minimizer)) {
+			log.warning("Reached maximum number of minimizers that can be saved "+minimizersIndex.size());
+			return;
 		}
+		minimizersIndex.addHits(minimizer, entries);
 	}
-	private void resizeTable() {
-		log.info("Resizing minimizers table. Current number of minimizers: "+size()+" current capacity: "+sequencesByMinimizerTable.length);
-		int newCapacity =  2*sequencesByMinimizerTable.length;
-		if(newCapacity<0) newCapacity = Integer.MAX_VALUE;
-		sequencesByMinimizerTableColumnLengths = Arrays.copyOf(sequencesByMinimizerTableColumnLengths, newCapacity);
-		minimizerCountDifferentSequences = Arrays.copyOf(minimizerCountDifferentSequences, newCapacity);
-		long [][] newTable = new long [newCapacity][0];
-		for(int i=0;i<newCapacity;i++) {
-			if(i<sequencesByMinimizerTable.length) newTable[i] = sequencesByMinimizerTable[i];
-			else newTable[i] = new long[1];
-		}
-		sequencesByMinimizerTable = newTable;
-		log.info("Resized minimizers table. New capacity: "+sequencesByMinimizerTable.length);
+	/**
+	 * Builds the read-only structure of the table. After this call, queries can be executed concurrently.
+	 * Sequences added after this call are included the next time that the table is frozen.
+	 * This method is called automatically by the first query after sequences are added
+	 */
+	public void freeze() {
+		minimizersIndex.freeze();
 	}
-	private void addToTable(int row, long value) {
-		long [] minimizerEntries = sequencesByMinimizerTable[row];
-		int column = sequencesByMinimizerTableColumnLengths[row];
-		if(column == minimizerEntries.length ) {
-			//Resize entries
-			sequencesByMinimizerTable[row] = Arrays.copyOf(minimizerEntries, 2*minimizerEntries.length);
-		}
-		sequencesByMinimizerTable[row][column] = value;
-		sequencesByMinimizerTableColumnLengths[row]++;
+	/**
+	 * Saves this table in binary format. Only tables with hash codes that do not depend on k-mer counts can be saved
+	 * @param out Stream to write the table
+	 * @throws IOException If the table can not be written
+	 */
+	public void save(DataOutputStream out) throws IOException {
+		if(kmersAnalyzer!=null) throw new IOException("Minimizers calculated from k-mer counts can not be saved");
+		out.writeInt(kmerLength);
+		out.writeInt(windowLength);
+		minimizersIndex.save(out);
+	}
+	/**
+	 * Loads a table saved in binary format starting at the current position of the given channel.
+	 * The entries of the table are mapped to memory in read only mode
+	 * @param channel to read the table
+	 * @return MinimizersTable loaded table
+	 * @throws IOException If the table can not be read
+	 */
+	public static MinimizersTable load(FileChannel channel) throws IOException {
+		IntBuffer header = FMIndexSingleSequence.readInts(channel, 2);
+		int kmerLength = header.get();
+		int windowLength = header.get();
+		if(kmerLength<1 || kmerLength>31 || windowLength<1) throw new IOException("Invalid parameters of minimizers table. K-mer length: "+kmerLength+" window length: "+windowLength);
+		MinimizersTable table = new MinimizersTable(kmerLength, windowLength);
+		table.minimizersIndex = KmerHitsIndex.load(channel);
+		return table;
+	}
+	public int getKmerLength() {
+		return kmerLength;
+	}
+	public int getWindowLength() {
+		return windowLength;
 	}
 	public Logger getLog() {
 		return log;
@@ -207,56 +191,62 @@ public class MinimizersTable {
 	 * @return Map<Integer, List<MinimizersTableEntry>> Minimizers calculated for the given sequence indexed by the minimizer
 	 */
 	public List<MinimizersTableEntry> computeSequenceMinimizers(int sequenceId, String sequence,int start,int end) {
-		//Map<Integer, String> kmers = KmersExtractor.extractKmersAsMap(sequence.toString(), kmerLength, 1, start, Math.min(sequence.length(),end+windowLength+kmerLength), false, true, true);
-		Map<Integer, Long> codes = KmersExtractor.extractDNAKmerCodes(sequence, kmerLength, start, Math.min(sequence.length(),end+windowLength+kmerLength));
-		//log.info("Extracted codes for sequence "+sequenceId+" from "+start+" to "+end+" Nuber of codes: "+codes.size());
-		return computeSequenceMinimizers(sequenceId, start, Math.min(end, sequence.length()-kmerLength-windowLength), codes);
+		int codesEnd = Math.min(sequence.length(),end+windowLength+kmerLength);
+		long [] codes = new long [Math.max(0, codesEnd-start)];
+		int numCodes = KmersExtractor.extractDNAKmerCodes(sequence, kmerLength, start, codesEnd, codes, null);
+		//log.info("Extracted codes for sequence "+sequenceId+" from "+start+" to "+end+" Nuber of codes: "+numCodes);
+		return computeSequenceMinimizers(sequenceId, start, Math.min(end, sequence.length()-kmerLength-windowLength), codes, start, numCodes);
 	}
 	/**
-	 * Calculates the minimizers of the sequence represented by the given kmers
+	 * Calculates the minimizers of the sequence represented by the given kmer codes
 	 * @param sequenceId Id of the sequence to calculate
 	 * @param start of the sequence to consider
 	 * @param end of the sequence to consider
-	 * @param sequenceKmers Kmers considered to build minimizers
+	 * @param kmerCodes Codes of the kmers considered to build minimizers. Codes of kmers with non DNA characters are negative
+	 * @param codesStart Sequence position of the kmer code stored at the first position of the array
+	 * @param numCodes Number of codes in the array
 	 * @return Map<Integer, List<MinimizersTableEntry>> Minimizers calculated for the given sequence indexed by the minimizer
 	 */
-	private List<MinimizersTableEntry> computeSequenceMinimizers(int sequenceId, int start, int end, Map<Integer, Long> kmerCodes) {
+	private List<MinimizersTableEntry> computeSequenceMinimizers(int sequenceId, int start, int end, long [] kmerCodes, int codesStart, int numCodes) {
 		int debugIdx = -2;
 		List<MinimizersTableEntry> minimizersSeq = new ArrayList<MinimizersTableEntry>();
-		Map<Integer, Integer> hashcodesForward = new HashMap<Integer, Integer>();
-		for(Map.Entry<Integer, Long> entry: kmerCodes.entrySet()) {
-			int i = entry.getKey();
-			long code = entry.getValue();
-			int hash = getHash(code);
-			hashcodesForward.put(i, hash);
+		int [] hashcodesForward = new int [numCodes];
+		for(int i=0;i<numCodes;i++) {
+			if(kmerCodes[i]>=0) hashcodesForward[i] = getHash(kmerCodes[i]);
 		}
-		if(sequenceId==debugIdx) System.err.println("Filtered codes for sequence "+sequenceId+" from "+start+" to "+end+" Filtered codes: "+hashcodesForward.size());
-		Integer previousMinimizer = null;
+		if(sequenceId==debugIdx) System.err.println("Filtered codes for sequence "+sequenceId+" from "+start+" to "+end+" Filtered codes: "+numCodes);
+		//Minimizers are compared by position. A negative position means that there is no minimizer
+		int previousMinimizer = 0;
 		int previousMinimizerPos = -1;
 		for(int i=start;i<end;i++) {
-			Integer minimizerI = null;
+			int minimizerI = 0;
 			int minPos = -1;
-			Integer newHash = hashcodesForward.get(i+windowLength-1);
-			boolean lastInRange = previousMinimizer!=null && previousMinimizerPos>=i;
-			if(lastInRange && (newHash==null || previousMinimizer < newHash)) {
+			int newPos = i+windowLength-1;
+			int newIdx = newPos-codesStart;
+			boolean hasNew = newIdx>=0 && newIdx<numCodes && kmerCodes[newIdx]>=0;
+			int newHash = hasNew?hashcodesForward[newIdx]:0;
+			boolean lastInRange = previousMinimizerPos>=0 && previousMinimizerPos>=i;
+			if(lastInRange && (!hasNew || previousMinimizer < newHash)) {
 				minimizerI = previousMinimizer;
 				minPos = previousMinimizerPos;
-			} else if (newHash!=null && (previousMinimizer==null || newHash <= previousMinimizer)) {
+			} else if (hasNew && (previousMinimizerPos<0 || newHash <= previousMinimizer)) {
 				minimizerI = newHash;
-				minPos = i+windowLength-1;
+				minPos = newPos;
 			}
-			if(minimizerI == null) {
+			if(minPos<0) {
 				for(int j=0;j<windowLength;j++) {
-					Integer hashForward = hashcodesForward.get(i+j);
-					if (hashForward!=null && (minimizerI==null || hashForward <= minimizerI)) {
+					int idx = i+j-codesStart;
+					if(idx<0 || idx>=numCodes || kmerCodes[idx]<0) continue;
+					int hashForward = hashcodesForward[idx];
+					if (minPos<0 || hashForward <= minimizerI) {
 						minimizerI = hashForward;
 						minPos = i+j;
 					}
 				}
-				//if(sequenceId==debugIdx && i>0 && i<3000) System.err.println("Minimizer calculated with cycle. Start: "+i+" New pos: "+minPos+" new minimizer: "+minimizerI+" previous: "+previousMinimizer+" kmer code: "+kmerCodes.get(minPos)+" total: "+minimizersSeq.size());
+				//if(sequenceId==debugIdx && i>0 && i<3000) System.err.println("Minimizer calculated with cycle. Start: "+i+" New pos: "+minPos+" new minimizer: "+minimizerI+" previous: "+previousMinimizer+" total: "+minimizersSeq.size());
 			}
-			if (minimizerI==previousMinimizer) continue;
-			if(minimizerI != null) {
+			if (minPos==previousMinimizerPos) continue;
+			if(minPos>=0) {
 				MinimizersTableEntry entry = new MinimizersTableEntry(minimizerI, sequenceId, minPos);
 				minimizersSeq.add(entry);
 			}
@@ -268,8 +258,10 @@ public class MinimizersTable {
 	}
 
 	private int getHash(long dnaHash) {
-		Integer code = explicitKmerHashCodes.get(dnaHash);
-		if(code!=null) return code;
+		if(!explicitKmerHashCodes.isEmpty()) {
+			Integer code = explicitKmerHashCodes.get(dnaHash);
+			if(code!=null) return code;
+		}
 		int prime = 1073676287;
 		//if(kmersAnalyzer!=null) {
 		if(kmersAnalyzer==null) {
@@ -315,9 +307,10 @@ public class MinimizersTable {
 	 * @return Map<Integer,List<MinimizersTableEntry>> Sequences matching kmers of the given query indexed by subject and sorted by subject start position
 	 */
 	public Map<Integer,List<UngappedSearchHit>> match (int queryIdx, CharSequence query) {
-		Map<Integer, Long> codes = KmersExtractor.extractDNAKmerCodes(query.toString(), kmerLength, 0, query.length());
-		//computeSequenceMinimizers(-1, 0, query.length(), codes);
-		return match(queryIdx, query.length(), codes);
+		int n = query.length();
+		long [] codes = new long [n];
+		int numCodes = KmersExtractor.extractDNAKmerCodes(query, kmerLength, 0, n, codes, null);
+		return match(queryIdx, n, codes, numCodes);
 		//return new HashMap<Integer, List<UngappedSearchHit>>();
 		/*Random r = new Random();
 		Map<Integer, Long> selectedCodes = new HashMap<Integer, Long>();
@@ -328,16 +321,19 @@ public class MinimizersTable {
 		*/
 	}
 	/**
-	 * Calculates the hits of the given query
-	 * @param query sequence
+	 * Calculates the hits of the query represented by the given kmer codes
+	 * @param queryIdx Id of the query
+	 * @param queryLength Length of the query
+	 * @param codes Codes of the kmers of the query indexed by start position. Codes of kmers with non DNA characters are negative
+	 * @param numCodes Number of codes in the array
 	 * @return Map<Integer,List<MinimizersTableEntry>> Sequences matching kmers of the given query indexed by subject and sorted by subject start position
 	 */
-	public Map<Integer,List<UngappedSearchHit>> match (int queryIdx, int queryLength, Map<Integer, Long> codes) {
+	public Map<Integer,List<UngappedSearchHit>> match (int queryIdx, int queryLength, long [] codes, int numCodes) {
 		int idxDebug = -2;
 		//int idxDebug = 1;
 		//int limitSequences = Math.max(sequenceLengths.size()/10, 4*mode);
 		int limitSequences = Math.max(100, 4*mode);
-		List<MinimizersTableEntry> minimizersQueryList = computeSequenceMinimizers(-1, 0, queryLength, codes);
+		List<MinimizersTableEntry> minimizersQueryList = computeSequenceMinimizers(-1, 0, queryLength, codes, 0, numCodes);
 		
 		Map<Integer,Integer> minimizersLocalCounts = new HashMap<Integer, Integer>();
 		for(MinimizersTableEntry entry:minimizersQueryList) {
@@ -345,14 +341,16 @@ public class MinimizersTable {
 		}
 		if (queryIdx == idxDebug) {
 			Set<Long> uniqueCodes = new HashSet<Long>();
-			uniqueCodes.addAll(codes.values());
-			System.out.println("Minimizers table. Counting hits for query. Codes: "+codes.size()+" unique: "+uniqueCodes.size()+" minimizer counts. total: "+minimizersQueryList.size()+" unique: "+minimizersLocalCounts.size());
+			for(int i=0;i<numCodes;i++) if(codes[i]>=0) uniqueCodes.add(codes[i]);
+			System.out.println("Minimizers table. Counting hits for query. Codes: "+numCodes+" unique: "+uniqueCodes.size()+" minimizer counts. total: "+minimizersQueryList.size()+" unique: "+minimizersLocalCounts.size());
 		}
 		int numUsedMinimizers = 0;
 		int multihitMinimizers = 0;
 		int withoutkmerMinimizers = 0;
 		int selfSequenceCount = 0;
 		Map<Integer,List<UngappedSearchHit>> answer = new HashMap<Integer, List<UngappedSearchHit>>();
+		//Buffer reused to retrieve the hits of every key
+		long [] hitsBuffer = new long [16];
 		//Set<Integer> usedMinimizers = new HashSet<Integer>();
 		for(MinimizersTableEntry entry:minimizersQueryList) {
 			int minimizer = entry.getMinimizer();
@@ -365,16 +363,22 @@ public class MinimizersTable {
 				multihitMinimizers++;
 				continue;
 			}
-			Long kmerCode = codes.get(entry.getStart());
-			if(kmerCode == null) {
+			int kmerStart = entry.getStart();
+			long kmerCode = kmerStart<numCodes?codes[kmerStart]:-1;
+			if(kmerCode < 0) {
 				//Kmers that are not a minimizers are not considered
 				withoutkmerMinimizers++;
 				continue;
 			}
 			CharSequence kmer = new String(AbstractLimitedSequence.getSequence(kmerCode, kmerLength, DNASequence.EMPTY_DNA_SEQUENCE));
-			long [] codesMatching = lookupHits(minimizer);
-			if(codesMatching.length>0) numUsedMinimizers++;
-			for(long entryCode:codesMatching) {
+			int numHits = minimizersIndex.lookupHits(minimizer, hitsBuffer);
+			if(numHits>hitsBuffer.length) {
+				hitsBuffer = new long [Math.max(numHits, 2*hitsBuffer.length)];
+				minimizersIndex.lookupHits(minimizer, hitsBuffer);
+			}
+			if(numHits>0) numUsedMinimizers++;
+			for(int h=0;h<numHits;h++) {
+				long entryCode = hitsBuffer[h];
 				MinimizersTableEntry matchingEntry = new MinimizersTableEntry(minimizer, entryCode);
 				int subjectIdx = matchingEntry.getSequenceId();
 				if (subjectIdx < 0) {
@@ -413,13 +417,13 @@ public class MinimizersTable {
 		Distribution dist = new Distribution(1, 300, 1);
 		int numMinimizers = size();
 		for(int i=0;i<numMinimizers;i++) {
-			dist.processDatapoint(sequencesByMinimizerTableColumnLengths[i]);	
+			dist.processDatapoint(minimizersIndex.getNumHitsRow(i));	
 		}
 		return dist;
 	}
 
 	public long getTotalEntries() {
-		return totalEntries;
+		return minimizersIndex.getTotalHits();
 	}
 	
 	
@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * NGSEP - Next Generation Sequencing Experience Platform
+ * Copyright 2016 Jorge Duitama
+ *
+ * This file is part of NGSEP.
+ *
+ *     NGSEP is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     NGSEP is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with NGSEP.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package ngsep.sequences;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+import ngsep.math.Distribution;
+
+/**
+ * K-mers map for DNA k-mers of length up to 31 stored as codes in an open addressing hash table.
+ * Occurrences can be added concurrently. Counts are updated with compare and set operations and
+ * the table is only locked to increase its capacity. Queries do not acquire the lock unless the table is resized
+ * while they run. Threads adding many occurrences can accumulate codes in a buffer per thread
+ * that is sorted to add the count of each distinct k-mer once. Methods receiving arrays of codes acquire
+ * the lock once for the whole array and should be preferred over the methods receiving single codes.
+ * @author Jorge Duitama
+ */
+public class OpenAddressingDNAKmersMapImpl implements KmersMap {
+
+	public static final int DEF_INITIAL_CAPACITY = 1<<20;
+	public static final int MAX_CAPACITY = 1<<30;
+	public static final int DEF_BUFFER_SIZE = 1<<16;
+	private static final double MAX_LOAD = 0.75;
+
+	private byte kmerLength;
+	//Replaced as a whole when the capacity increases
+	private volatile Table table;
+	private volatile int resizeThreshold;
+	private AtomicInteger size = new AtomicInteger(0);
+	private StampedLock resizeLock = new StampedLock();
+
+	private ThreadLocal<long []> threadBuffers = new ThreadLocal<long []>();
+	private ThreadLocal<int []> threadBufferSizes = new ThreadLocal<int []>();
+	private List<long []> allBuffers = new ArrayList<long []>();
+	private List<int []> allBufferSizes = new ArrayList<int []>();
+
+	public OpenAddressingDNAKmersMapImpl(byte kmerLength) {
+		this(kmerLength, DEF_INITIAL_CAPACITY);
+	}
+
+	public OpenAddressingDNAKmersMapImpl(byte kmerLength, int initialCapacity) {
+		if(kmerLength>31) throw new IllegalArgumentException("The kmer length must be less or equal than 31");
+		this.kmerLength = kmerLength;
+		int capacity = 16;
+		while(capacity<initialCapacity && capacity<MAX_CAPACITY) capacity*=2;
+		initTable(capacity);
+	}
+
+	private void initTable(int capacity) {
+		table = new Table(capacity);
+		resizeThreshold = (int)(MAX_LOAD*capacity);
+	}
+
+	public byte getKmerLength() {
+		return kmerLength;
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	private static int getSlot(long code, int mask) {
+		long h = code * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h>>>32)) & mask;
+	}
+	/**
+	 * Finds the position of the given code in the given table
+	 * @return int position of the code or -1 if the code is not in the table
+	 */
+	private static int findPosition(Table t, long code) {
+		long key = code+1;
+		int slot = getSlot(code, t.mask);
+		while(true) {
+			long current = t.keys.get(slot);
+			if(current==key) return slot;
+			if(current==0) return -1;
+			slot = (slot+1)&t.mask;
+		}
+	}
+
+	private long getCode(CharSequence kmer) {
+		if(kmer.length()!=kmerLength) throw new IllegalArgumentException("Unexpected length for query: "+kmer+" expected: "+kmerLength);
+		return AbstractLimitedSequence.getHash(kmer, 0, kmer.length(), DNASequence.EMPTY_DNA_SEQUENCE);
+	}
+
+	@Override
+	public int getCount(CharSequence kmer) {
+		if(!DNASequence.isDNA(kmer)) return 0;
+		return getCount(getCode(kmer));
+	}
+
+	public int getCount(long code) {
+		//The table is only replaced holding the write lock. Validation fails if it was replaced during the query
+		long stamp = resizeLock.tryOptimisticRead();
+		if(stamp!=0) {
+			int count = getCount(table, code);
+			if(resizeLock.validate(stamp)) return count;
+		}
+		stamp = resizeLock.readLock();
+		try {
+			return getCount(table, code);
+		} finally {
+			resizeLock.unlockRead(stamp);
+		}
+	}
+
+	private static int getCount(Table t, long code) {
+		int pos = findPosition(t, code);
+		if(pos<0) return 0;
+		return t.counts.get(pos);
+	}
+
+	/**
+	 * Retrieves the counts of the codes in the given array. The lock is acquired at most once for the whole array
+	 * @param codes Array of k-mer codes
+	 * @param start First position to process
+	 * @param end Position after the last position to process
+	 * @param answer Array to store the counts. The count of codes[i] is stored at answer[i-start]
+	 */
+	public void getCounts(long [] codes, int start, int end, int [] answer) {
+		long stamp = resizeLock.tryOptimisticRead();
+		if(stamp!=0) {
+			Table t = table;
+			for(int i=start;i<end;i++) answer[i-start] = getCount(t, codes[i]);
+			if(resizeLock.validate(stamp)) return;
+		}
+		stamp = resizeLock.readLock();
+		try {
+			Table t = table;
+			for(int i=start;i<end;i++) answer[i-start] = getCount(t, codes[i]);
+		} finally {
+			resizeLock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public void addOcurrance(CharSequence kmer) {
+		addCodeOccurances(getCode(kmer), 1);
+	}
+
+	@Override
+	public void setCount(CharSequence kmer, int count) {
+		if(count>Short.MAX_VALUE) count = Short.MAX_VALUE;
+		long code = getCode(kmer);
+		long stamp = resizeLock.readLock();
+		try {
+			setCount(table, code, count);
+		} finally {
+			resizeLock.unlockRead(stamp);
+		}
+		ensureCapacity();
+	}
+
+	/**
+	 * Sets the counts of the codes in the given array. The lock is acquired once for the whole array
+	 * unless the capacity of the table must be increased
+	 * @param codes Array of k-mer codes
+	 * @param newCounts Array with the counts to set. The count of codes[i] is newCounts[i]
+	 * @param start First position to process
+	 * @param end Position after the last position to process
+	 */
+	public void setCounts(long [] codes, int [] newCounts, int start, int end) {
+		int i = start;
+		while(i<end) {
+			long stamp = resizeLock.readLock();
+			try {
+				//The lock is released to allow resizing if needed
+				Table t = table;
+				for(;i<end && size.get()<=resizeThreshold;i++) {
+					setCount(t, codes[i], Math.min(Short.MAX_VALUE, newCounts[i]));
+				}
+			} finally {
+				resizeLock.unlockRead(stamp);
+			}
+			ensureCapacity();
+		}
+	}
+
+	private void setCount(Table t, long code, int count) {
+		if(count<=0) {
+			int pos = findPosition(t, code);
+			if(pos>=0) t.counts.set(pos, 0);
+			return;
+		}
+		t.counts.set(insert(t, code), count);
+	}
+
+	/**
+	 * Adds one to the count of the given k-mer code. This method can be called concurrently.
+	 * To add many codes use addCodeOccuranceBuffered or addCodeOccurances with an array of codes
+	 * @param code of the k-mer
+	 */
+	public void addCodeOccurance(long code) {
+		addCodeOccurances(code, 1);
+	}
+
+	/**
+	 * Adds the given number of occurrences to the count of the given k-mer code. This method can be called concurrently
+	 * @param code of the k-mer
+	 * @param occurrences to add
+	 */
+	public void addCodeOccurances(long code, int occurrences) {
+		long stamp = resizeLock.readLock();
+		try {
+			Table t = table;
+			increaseCount(t, insert(t, code), occurrences);
+		} finally {
+			resizeLock.unlockRead(stamp);
+		}
+		ensureCapacity();
+	}
+
+	/**
+	 * Adds the occurrences of the codes in the given array.
+	 * The segment of the array is sorted to update only once the count of each distinct code
+	 * @param codes Array of k-mer codes. The segment is sorted after this call
+	 * @param start First position to process
+	 * @param end Position after the last position to process
+	 */
+	public void addCodeOccurances(long [] codes, int start, int end) {
+		Arrays.sort(codes, start, end);
+		int i = start;
+		while(i<end) {
+			long stamp = resizeLock.readLock();
+			try {
+				//The lock is released to allow resizing if needed
+				Table t = table;
+				while(i<end && size.get()<=resizeThreshold) {
+					long code = codes[i];
+					int j = i+1;
+					while(j<end && codes[j]==code) j++;
+					increaseCount(t, insert(t, code), j-i);
+					i = j;
+				}
+			} finally {
+				resizeLock.unlockRead(stamp);
+			}
+			ensureCapacity();
+		}
+	}
+
+	/**
+	 * Adds the given numbers of occurrences to the counts of the codes in the given array
+	 * @param codes Array of k-mer codes
+	 * @param occurrences Number of occurrences to add for each code
+	 * @param start First position to process
+	 * @param end Position after the last position to process
+	 */
+	public void addCodeOccurances(long [] codes, int [] occurrences, int start, int end) {
+		int i = start;
+		while(i<end) {
+			long stamp = resizeLock.readLock();
+			try {
+				//The lock is released to allow resizing if needed
+				Table t = table;
+				for(;i<end && size.get()<=resizeThreshold;i++) {
+					increaseCount(t, insert(t, codes[i]), occurrences[i]);
+				}
+			} finally {
+				resizeLock.unlockRead(stamp);
+			}
+			ensureCapacity();
+		}
+	}
+
+	/**
+	 * Adds the given code to the buffer of the current thread. The buffer is processed when it is full.
+	 * Call flushBuffers after all threads finish to add the codes remaining in the buffers
+	 * @param code of the k-mer
+	 */
+	public void addCodeOccuranceBuffered(long code) {
+		long [] buffer = threadBuffers.get();
+		int [] bufferSize = threadBufferSizes.get();
+		if(buffer==null) {
+			buffer = new long[DEF_BUFFER_SIZE];
+			bufferSize = new int[1];
+			threadBuffers.set(buffer);
+			threadBufferSizes.set(bufferSize);
+			synchronized (allBuffers) {
+				allBuffers.add(buffer);
+				allBufferSizes.add(bufferSize);
+			}
+		}
+		if(bufferSize[0]==buffer.length) {
+			addCodeOccurances(buffer, 0, bufferSize[0]);
+			bufferSize[0] = 0;
+		}
+		buffer[bufferSize[0]] = code;
+		bufferSize[0]++;
+	}
+
+	/**
+	 * Adds the codes remaining in the buffers of all threads. This method should be called
+	 * when no thread is adding codes to the buffers.
+	 */
+	public void flushBuffers() {
+		synchronized (allBuffers) {
+			for(int i=0;i<allBuffers.size();i++) {
+				int [] bufferSize = allBufferSizes.get(i);
+				addCodeOccurances(allBuffers.get(i), 0, bufferSize[0]);
+				bufferSize[0] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Finds or creates the entry for the given code in the given table. The read lock must be held
+	 * @return int position of the code in the table
+	 */
+	private int insert(Table t, long code) {
+		long key = code+1;
+		int slot = getSlot(code, t.mask);
+		while(true) {
+			long current = t.keys.get(slot);
+			if(current==key) return slot;
+			if(current==0) {
+				if(t.keys.compareAndSet(slot, 0, key)) {
+					size.incrementAndGet();
+					return slot;
+				}
+				//Another thread took the slot. Check if it inserted the same code
+				if(t.keys.get(slot)==key) return slot;
+			}
+			slot = (slot+1)&t.mask;
+		}
+	}
+
+	private static void increaseCount(Table t, int pos, int occurrences) {
+		while(true) {
+			int count = t.counts.get(pos);
+			if(count>=Short.MAX_VALUE) return;
+			int newCount = (int)Math.min(Short.MAX_VALUE, (long)count+occurrences);
+			if(t.counts.compareAndSet(pos, count, newCount)) return;
+		}
+	}
+
+	private void ensureCapacity() {
+		if(size.get()<=resizeThreshold) return;
+		long stamp = resizeLock.writeLock();
+		try {
+			//Other thread could have increased the capacity
+			if(size.get()<=resizeThreshold) return;
+			int capacity = table.keys.length();
+			if(capacity>=MAX_CAPACITY) {
+				if(size.get()>=MAX_CAPACITY-1) throw new IllegalStateException("Maximum capacity of k-mers map reached. Consider counting k-mers in partitions");
+				//Allow higher load before failing
+				resizeThreshold = MAX_CAPACITY-1;
+				return;
+			}
+			rehash(2*capacity, 0);
+		} finally {
+			resizeLock.unlockWrite(stamp);
+		}
+	}
+	/**
+	 * Rebuilds the table keeping only k-mers with at least the given count. The write lock must be held
+	 */
+	private void rehash(int capacity, int minCount) {
+		Table old = table;
+		Table t = new Table(capacity);
+		int newSize = 0;
+		int n = old.keys.length();
+		for(int i=0;i<n;i++) {
+			long key = old.keys.get(i);
+			int count = old.counts.get(i);
+			if(key==0 || count==0 || count<minCount) continue;
+			int slot = getSlot(key-1, t.mask);
+			while(t.keys.get(slot)!=0) slot = (slot+1)&t.mask;
+			t.keys.set(slot, key);
+			t.counts.set(slot, count);
+			newSize++;
+		}
+		table = t;
+		resizeThreshold = (int)(MAX_LOAD*capacity);
+		size.set(newSize);
+	}
+
+	@Override
+	public void filterKmers(int minAbundance) {
+		long stamp = resizeLock.writeLock();
+		try {
+			rehash(table.keys.length(), Math.max(1, minAbundance));
+		} finally {
+			resizeLock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public Distribution calculateAbundancesDistribution() {
+		Distribution dist = new Distribution(1, Short.MAX_VALUE, 1);
+		updateAbundancesDistribution(dist);
+		return dist;
+	}
+
+	/**
+	 * Adds the abundances of the k-mers in this map to the given distribution
+	 * @param dist Distribution to update
+	 */
+	public void updateAbundancesDistribution(Distribution dist) {
+		AtomicIntegerArray counts = table.counts;
+		int n = counts.length();
+		for(int i=0;i<n;i++) {
+			int count = counts.get(i);
+			if(count>0) dist.processDatapoint(count);
+		}
+	}
+
+	@Override
+	public void save(PrintStream out) {
+		Table t = table;
+		int n = t.keys.length();
+		for(int i=0;i<n;i++) {
+			long key = t.keys.get(i);
+			int count = t.counts.get(i);
+			if(key==0 || count==0) continue;
+			char [] sequence = AbstractLimitedSequence.getSequence(key-1, kmerLength, DNASequence.EMPTY_DNA_SEQUENCE);
+			out.println(new String(sequence)+"\t"+count);
+		}
+	}
+
+	@Override
+	public List<CharSequence> getKmersWithCount(int count) {
+		List<CharSequence> answer = new ArrayList<CharSequence>();
+		Table t = table;
+		int n = t.keys.length();
+		for(int i=0;i<n;i++) {
+			long key = t.keys.get(i);
+			if(key==0 || t.counts.get(i)!=count) continue;
+			char [] sequence = AbstractLimitedSequence.getSequence(key-1, kmerLength, DNASequence.EMPTY_DNA_SEQUENCE);
+			answer.add(new DNAShortKmer(new String(sequence)));
+		}
+		return answer;
+	}
+
+	private static class Table {
+		//Codes are stored adding one to reserve zero for empty entries
+		private final AtomicLongArray keys;
+		private final AtomicIntegerArray counts;
+		private final int mask;
+
+		public Table(int capacity) {
+			keys = new AtomicLongArray(capacity);
+			counts = new AtomicIntegerArray(capacity);
+			mask = capacity-1;
+		}
+	}
+}
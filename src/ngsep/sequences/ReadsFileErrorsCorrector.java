@@ -255,22 +255,40 @@ public class ReadsFileErrorsCorrector {
 	private void loadKmersMap() throws IOException {
 		log.info("Loading k-mers map from : "+kmersMapFile);
 		if(kmerLength<=15) kmersMap = new ShortArrayDNAKmersMapImpl((byte) kmerLength);
+		else if(kmerLength<=31) kmersMap = new OpenAddressingDNAKmersMapImpl((byte) kmerLength);
 		else kmersMap = new DefaultKmersMapImpl();
 		try (FileInputStream fis = new FileInputStream(kmersMapFile)) {
 			InputStream is=fis;
 			if(kmersMapFile.toLowerCase().endsWith(".gz")) {
 				is = new ConcatGZIPInputStream(is);
 			}
+			//Counts of the open addressing map are set in batches to acquire its lock once per batch
+			OpenAddressingDNAKmersMapImpl batchMap = (kmersMap instanceof OpenAddressingDNAKmersMapImpl)?(OpenAddressingDNAKmersMapImpl)kmersMap:null;
+			long [] codes = (batchMap!=null)?new long[OpenAddressingDNAKmersMapImpl.DEF_BUFFER_SIZE]:null;
+			int [] counts = (batchMap!=null)?new int[OpenAddressingDNAKmersMapImpl.DEF_BUFFER_SIZE]:null;
+			int n = 0;
 			try (BufferedReader in = new BufferedReader(new InputStreamReader(is))) {
 				String line = in.readLine();
 				while(line!=null) {
 					String [] items = line.split("\t| ");
 					String kmer = items[0];
 					int count = Integer.parseInt(items[1]);
-					kmersMap.setCount(kmer,count);
+					if(batchMap!=null) {
+						if(kmer.length()!=kmerLength) throw new IOException("Unexpected length for k-mer: "+kmer+" expected: "+kmerLength);
+						codes[n] = AbstractLimitedSequence.getHash(kmer, 0, kmerLength, DNASequence.EMPTY_DNA_SEQUENCE);
+						counts[n] = count;
+						n++;
+						if(n==codes.length) {
+							batchMap.setCounts(codes, counts, 0, n);
+							n = 0;
+						}
+					} else {
+						kmersMap.setCount(kmer,count);
+					}
 					line = in.readLine();
 				}
 			}
+			if(batchMap!=null) batchMap.setCounts(codes, counts, 0, n);
 		}
 		System.out.println("Extracted "+kmersMap.size()+" k-mers from: " + kmersMapFile);
 		
@@ -2,29 +2,37 @@ package ngsep.sequences;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import ngsep.math.Distribution;
 
+/**
+ * K-mers map indexed directly by the code of each DNA k-mer. Counts are stored as 16 bits numbers
+ * packed in pairs within an array of atomic integers. Hence, occurrences can be added concurrently without locks
+ * @author Jorge Duitama
+ */
 public class ShortArrayDNAKmersMapImpl implements KmersMap {
 
 	private byte kmerLength;
-	private short [] kmerCounts;
-	private int size = 0;
+	private int numKmers;
+	//Each entry stores the counts of two consecutive codes, the lower 16 bits for the even code
+	private AtomicIntegerArray kmerCounts;
+	private AtomicInteger size = new AtomicInteger(0);
 	
 	public ShortArrayDNAKmersMapImpl( byte kmerLength) {
 		if(kmerLength>15) throw new IllegalArgumentException("The kmer length must be less or equal than 15");
 		this.kmerLength = kmerLength;
-		kmerCounts = new short [(int)Math.pow(4, kmerLength)];
-		Arrays.fill(kmerCounts, (short)0);
+		numKmers = (int)Math.pow(4, kmerLength);
+		kmerCounts = new AtomicIntegerArray((numKmers+1)/2);
 	}
 	
 	@Override
 	public int size() {
-		return size;
+		return size.get();
 	}
 
 	@Override
@@ -36,8 +44,31 @@ public class ShortArrayDNAKmersMapImpl implements KmersMap {
 	
 	public int getCount(long kmerCode) {
 		int hash = (int)kmerCode;
-		if(hash<0 || hash>=kmerCounts.length) return 0;
-		return kmerCounts[hash];
+		if(hash<0 || hash>=numKmers) return 0;
+		return getStoredCount(hash);
+	}
+	
+	private int getStoredCount(int hash) {
+		return extractCount(kmerCounts.get(hash>>1), hash);
+	}
+	private static int extractCount(int entry, int hash) {
+		if((hash&1)==0) return entry & 0xFFFF;
+		return entry>>>16;
+	}
+	/**
+	 * Replaces the count of the given code
+	 * @param hash Code of the k-mer
+	 * @param count New count
+	 * @return int Previous count
+	 */
+	private int replaceCount(int hash, int count) {
+		int idx = hash>>1;
+		int shift = 16*(hash&1);
+		while(true) {
+			int entry = kmerCounts.get(idx);
+			int newEntry = (entry & ~(0xFFFF<<shift)) | (count<<shift);
+			if(kmerCounts.compareAndSet(idx, entry, newEntry)) return extractCount(entry, hash);
+		}
 	}
 
 	public void setCount(CharSequence kmer, int count) {
@@ -45,8 +76,10 @@ public class ShortArrayDNAKmersMapImpl implements KmersMap {
 		//Casting is possible because the kmer length is less than 16
 		int hash = (int)AbstractLimitedSequence.getHash(kmer, 0, kmer.length(), DNASequence.EMPTY_DNA_SEQUENCE);
 		if(count>Short.MAX_VALUE) count = Short.MAX_VALUE;
-		if(kmerCounts[hash]==0 && count>0) size++;
-		kmerCounts[hash] = (short) count;
+		if(count<0) count = 0;
+		int previous = replaceCount(hash, count);
+		if(previous==0 && count>0) size.incrementAndGet();
+		else if (previous>0 && count==0) size.decrementAndGet();
 	}
 
 	@Override
@@ -57,22 +90,38 @@ public class ShortArrayDNAKmersMapImpl implements KmersMap {
 		
 	}
 	
+	/**
+	 * Adds one to the count of the given k-mer code. This method can be called concurrently
+	 * @param code of the k-mer
+	 */
 	public void addCodeOccurance(long code) {
-		// TODO Auto-generated method stub
 		int hash = (int)code;
-		//synchronized (kmerCounts) {
-			if(kmerCounts[hash]==0) size++;
-			if(kmerCounts[hash]<Short.MAX_VALUE) (kmerCounts[hash])++;
-		//}
-		
+		int idx = hash>>1;
+		int increment = 1<<(16*(hash&1));
+		while(true) {
+			int entry = kmerCounts.get(idx);
+			int count = extractCount(entry, hash);
+			if(count>=Short.MAX_VALUE) return;
+			if(kmerCounts.compareAndSet(idx, entry, entry+increment)) {
+				if(count==0) size.incrementAndGet();
+				return;
+			}
+		}
 	}
 
 	@Override
 	public void filterKmers(int minAbundance) {
-		for(int i=0;i<kmerCounts.length;i++) {
-			if(kmerCounts[i]>0 && kmerCounts[i]<minAbundance) {
-				kmerCounts[i]=0;
-				size--;
+		int n = kmerCounts.length();
+		for(int j=0;j<n;j++) {
+			//Entries are read once and empty entries are skipped
+			int entry = kmerCounts.get(j);
+			if(entry==0) continue;
+			for(int i=2*j;i<2*j+2 && i<numKmers;i++) {
+				int count = extractCount(entry, i);
+				if(count>0 && count<minAbundance) {
+					replaceCount(i, 0);
+					size.decrementAndGet();
+				}
 			}
 		}
 		
@@ -83,18 +132,30 @@ public class ShortArrayDNAKmersMapImpl implements KmersMap {
 	@Override
 	public Distribution calculateAbundancesDistribution() {
 		Distribution dist = new Distribution(1, Short.MAX_VALUE, 1);
-		for(int i=0;i<kmerCounts.length;i++) {
-			if(kmerCounts[i]>0) dist.processDatapoint(kmerCounts[i]);
+		int n = kmerCounts.length();
+		for(int j=0;j<n;j++) {
+			int entry = kmerCounts.get(j);
+			if(entry==0) continue;
+			for(int i=2*j;i<2*j+2 && i<numKmers;i++) {
+				int count = extractCount(entry, i);
+				if(count>0) dist.processDatapoint(count);
+			}
 		}
 		return dist;
 	}
 
 	@Override
 	public void save(PrintStream out) {
-		for(int i=0;i<kmerCounts.length;i++) {
-			if(kmerCounts[i]>0) {
-				char [] sequence = AbstractLimitedSequence.getSequence(i, kmerLength, DNASequence.EMPTY_DNA_SEQUENCE);
-				out.println(new String(sequence)+"\t"+kmerCounts[i]);
+		int n = kmerCounts.length();
+		for(int j=0;j<n;j++) {
+			int entry = kmerCounts.get(j);
+			if(entry==0) continue;
+			for(int i=2*j;i<2*j+2 && i<numKmers;i++) {
+				int count = extractCount(entry, i);
+				if(count>0) {
+					char [] sequence = AbstractLimitedSequence.getSequence(i, kmerLength, DNASequence.EMPTY_DNA_SEQUENCE);
+					out.println(new String(sequence)+"\t"+count);
+				}
 			}
 		}
 		
@@ -103,8 +164,8 @@ public class ShortArrayDNAKmersMapImpl implements KmersMap {
 	@Override
 	public List<CharSequence> getKmersWithCount(int count) {
 		List<CharSequence> answer = new ArrayList<CharSequence>();
-		for(int i=0;i<kmerCounts.length;i++) {
-			if(kmerCounts[i]==count) {
+		for(int i=0;i<numKmers;i++) {
+			if(getStoredCount(i)==count) {
 				char [] sequence = AbstractLimitedSequence.getSequence(i, kmerLength, DNASequence.EMPTY_DNA_SEQUENCE);
 				answer.add(new DNAShortKmer(new String(sequence)));
 			}
@@ -114,9 +175,10 @@ public class ShortArrayDNAKmersMapImpl implements KmersMap {
 	
 	public Map<Integer,Short> getKmerCodesWithCount(int minCount, int maxCount) {
 		Map<Integer,Short> answer = new HashMap<Integer,Short>();
-		for(int i=0;i<kmerCounts.length;i++) {
-			if(kmerCounts[i]>=minCount && kmerCounts[i]<=maxCount) {
-				answer.put(i,kmerCounts[i]);
+		for(int i=0;i<numKmers;i++) {
+			int count = getStoredCount(i);
+			if(count>=minCount && count<=maxCount) {
+				answer.put(i,(short)count);
 			}
 		}
 		return answer;
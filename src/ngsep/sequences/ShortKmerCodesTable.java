@@ -1,7 +1,6 @@
 package ngsep.sequences;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,8 +11,6 @@ import ngsep.math.PrimeNumbers;
 
 public class ShortKmerCodesTable {
 	
-	private static final long [] EMPTY_LONG_ARRAY = new long[0];
-	
 	private Logger log = Logger.getLogger(ShortKmerCodesTable.class.getName());
 	
 	private int kmerLength;
@@ -25,18 +22,10 @@ public class ShortKmerCodesTable {
 	private int mode=1;
 	private int kmerDistModeLocalSD=5;
 	
-	//Structures to implement the minimizers like codes hash table
-	//Map with code as key and row of the sequencesByCodeTable as value
-	private Map<Integer,Integer> matrixRowMap;
-	//Table with encoded entries. Each row corresponds to a single code
-	private long [][] sequencesByCodeTable;
-	//Actual lengths of the lists within the table
-	private short [] sequencesByCodeTableColumnLengths;
-	//Count of different sequences reporting each code
-	private short [] codeCountDifferentSequences;
+	//Index with the encoded entries of each code
+	private KmerHitsIndex codesIndex;
 	
 	private Map<Integer,Integer> sequenceLengths = new HashMap<Integer, Integer>();
-	private long totalEntries = 0;
 	private PrimeNumbers primeNumbersHelper;
 	
 	
@@ -63,23 +52,12 @@ public class ShortKmerCodesTable {
 		initializeTable(capacity);
 	}
 	public void initializeTable(int capacity) {
-		matrixRowMap = new HashMap<Integer, Integer>(capacity);
-		sequencesByCodeTable = new long [capacity][1];
-		for(int i=0;i<sequencesByCodeTable.length;i++) Arrays.fill(sequencesByCodeTable[i], 0);
-		sequencesByCodeTableColumnLengths = new short [capacity];
-		Arrays.fill(sequencesByCodeTableColumnLengths, (short)0);
-		codeCountDifferentSequences = new short [capacity];
-		Arrays.fill(codeCountDifferentSequences, (short)0);
+		codesIndex = new KmerHitsIndex(capacity);
 	}
 	
 	//Hash table management methods
-	private long[] lookupHits(int code) {
-		Integer row = matrixRowMap.get(code);
-		if(row==null) return EMPTY_LONG_ARRAY;
-		return Arrays.copyOf(sequencesByCodeTable[row], sequencesByCodeTableColumnLengths[row]);
-	}
 	public int size() {
-		return matrixRowMap.size();
+		return codesIndex.size();
 	}
 	
 	/**
@@ -88,9 +66,7 @@ public class ShortKmerCodesTable {
 	 * @return int times that the given code has been observed
 	 */
 	public int getTotalHits(int minimizer) {
-		Integer row = matrixRowMap.get(minimizer);
-		if(row==null) return 0;
-		return sequencesByCodeTableColumnLengths[row];
+		return codesIndex.getNumHits(minimizer);
 	}
 	
 	/**
@@ -99,52 +75,23 @@ public class ShortKmerCodesTable {
 	 * @return int number of different sequences where the minimizer has been observed
 	 */
 	public int getCountDifferentSequences(int minimizer) {
-		Integer row = matrixRowMap.get(minimizer);
-		if(row==null) return 0;
-		return codeCountDifferentSequences[row];
+		return codesIndex.getCountDifferentSequences(minimizer);
 	}
 	
 	private void addCodeSequence (int code, List<MinimizersTableEntry> entries) {
-		Integer row = matrixRowMap.get(code);
-		if(row==null) {
-			row = size();
-			if(row ==Integer.MAX_VALUE) {
-				log.warning("Reached maximum number of minimizers that can be saved "+row);
-				return;
-			}
-			matrixRowMap.put(code, row);
-			if(row==sequencesByCodeTable.length) resizeTable();
-		}
-		int currentCount = sequencesByCodeTableColumnLengths[row];
-		if (currentCount+entries.size()<Short.MAX_VALUE) {
-			for (MinimizersTableEntry entry:entries) addToTable(row, entry.encode());
-			totalEntries+=entries.size();
-			codeCountDifferentSequences[row]++;
+		if(codesIndex.size()==KmerHitsIndex.MAX_KEYS && !codesIndex.containsKey(code)) {
+			log.warning("Reached maximum number of codes that can be saved "+codesIndex.size());
+			return;
 		}
+		codesIndex.addHits(code, entries);
 	}
-	private void resizeTable() {
-		log.info("Resizing codes table. Current number of codes: "+size()+" current capacity: "+sequencesByCodeTable.length);
-		int newCapacity =  2*sequencesByCodeTable.length;
-		if(newCapacity<0) newCapacity = Integer.MAX_VALUE;
-		sequencesByCodeTableColumnLengths = Arrays.copyOf(sequencesByCodeTableColumnLengths, newCapacity);
-		codeCountDifferentSequences = Arrays.copyOf(codeCountDifferentSequences, newCapacity);
-		long [][] newTable = new long [newCapacity][0];
-		for(int i=0;i<newCapacity;i++) {
-			if(i<sequencesByCodeTable.length) newTable[i] = sequencesByCodeTable[i];
-			else newTable[i] = new long[1];
-		}
-		sequencesByCodeTable = newTable;
-		log.info("Resized codes table. New capacity: "+sequencesByCodeTable.length);
-	}
-	private void addToTable(int row, long value) {
-		long [] codeEntries = sequencesByCodeTable[row];
-		int column = sequencesByCodeTableColumnLengths[row];
-		if(column == codeEntries.length ) {
-			//Resize entries
-			sequencesByCodeTable[row] = Arrays.copyOf(codeEntries, 2*codeEntries.length);
-		}
-		sequencesByCodeTable[row][column] = value;
-		sequencesByCodeTableColumnLengths[row]++;
+	/**
+	 * Builds the read-only structure of the table. After this call, queries can be executed concurrently.
+	 * Sequences added after this call are included the next time that the table is frozen.
+	 * This method is called automatically by the first query after sequences are added
+	 */
+	public void freeze() {
+		codesIndex.freeze();
 	}
 	public Logger getLog() {
 		return log;
@@ -195,57 +142,63 @@ public class ShortKmerCodesTable {
 	 * @return List<MinimizersTableEntry> Codes selected for the given sequence.
 	 */
 	public List<MinimizersTableEntry> computeSequenceCodes(int sequenceId, String sequence,int start,int end) {
-		//Map<Integer, String> kmers = KmersExtractor.extractKmersAsMap(sequence.toString(), kmerLength, 1, start, Math.min(sequence.length(),end+windowLength+kmerLength), false, true, true);
-		Map<Integer, Long> codes = KmersExtractor.extractDNAKmerCodes(sequence, kmerLength, start, Math.min(sequence.length(),end+windowLength+kmerLength));
-		//log.info("Extracted codes for sequence "+sequenceId+" from "+start+" to "+end+" Nuber of codes: "+codes.size());
-		return computeSequenceCodes(sequenceId, start, Math.min(end, sequence.length()-kmerLength-windowLength), codes);
+		int codesEnd = Math.min(sequence.length(),end+windowLength+kmerLength);
+		long [] codes = new long [Math.max(0, codesEnd-start)];
+		int numCodes = KmersExtractor.extractDNAKmerCodes(sequence, kmerLength, start, codesEnd, codes, null);
+		//log.info("Extracted codes for sequence "+sequenceId+" from "+start+" to "+end+" Nuber of codes: "+numCodes);
+		return computeSequenceCodes(sequenceId, start, Math.min(end, sequence.length()-kmerLength-windowLength), codes, start, numCodes);
 	}
 	/**
 	 * Calculates the selected codes of the given codes following the same algorithm used for minimizers but saving the codes instead of the hashes
 	 * @param sequenceId Id of the sequence to calculate
 	 * @param start of the sequence to consider
 	 * @param end of the sequence to consider
-	 * @param kmerCodes Input codes to be selected
+	 * @param kmerCodes Input codes to be selected. Codes of kmers with non DNA characters are negative
+	 * @param codesStart Sequence position of the kmer code stored at the first position of the array
+	 * @param numCodes Number of codes in the array
 	 * @return List<MinimizersTableEntry> selected codes
 	 */
-	private List<MinimizersTableEntry> computeSequenceCodes(int sequenceId, int start, int end, Map<Integer, Long> kmerCodes) {
+	private List<MinimizersTableEntry> computeSequenceCodes(int sequenceId, int start, int end, long [] kmerCodes, int codesStart, int numCodes) {
 		int debugIdx = -2;
 		List<MinimizersTableEntry> answer = new ArrayList<MinimizersTableEntry>();
-		Map<Integer, Integer> hashcodes = new HashMap<Integer, Integer>();
-		for(Map.Entry<Integer, Long> entry: kmerCodes.entrySet()) {
-			int i = entry.getKey();
-			long code = entry.getValue();
-			int hash = getHash(code);
-			hashcodes.put(i, hash);
+		int [] hashcodes = new int [numCodes];
+		for(int i=0;i<numCodes;i++) {
+			if(kmerCodes[i]>=0) hashcodes[i] = getHash(kmerCodes[i]);
 		}
-		if(sequenceId==debugIdx) System.err.println("Calculated hash codes for sequence "+sequenceId+" from "+start+" to "+end+" Hash codes: "+hashcodes.size());
-		Integer previousMinimizer = null;
+		if(sequenceId==debugIdx) System.err.println("Calculated hash codes for sequence "+sequenceId+" from "+start+" to "+end+" Hash codes: "+numCodes);
+		//Selected codes are compared by position. A negative position means that there is no selected code
+		int previousMinimizer = 0;
 		int previousMinimizerPos = -1;
 		for(int i=start;i<end;i++) {
-			Integer minimizerI = null;
+			int minimizerI = 0;
 			int minPos = -1;
-			Integer newHash = hashcodes.get(i+windowLength-1);
-			boolean lastInRange = previousMinimizer!=null && previousMinimizerPos>=i;
-			if(lastInRange && (newHash==null || previousMinimizer < newHash)) {
+			int newPos = i+windowLength-1;
+			int newIdx = newPos-codesStart;
+			boolean hasNew = newIdx>=0 && newIdx<numCodes && kmerCodes[newIdx]>=0;
+			int newHash = hasNew?hashcodes[newIdx]:0;
+			boolean lastInRange = previousMinimizerPos>=0 && previousMinimizerPos>=i;
+			if(lastInRange && (!hasNew || previousMinimizer < newHash)) {
 				minimizerI = previousMinimizer;
 				minPos = previousMinimizerPos;
-			} else if (newHash!=null && (previousMinimizer==null || newHash <= previousMinimizer)) {
+			} else if (hasNew && (previousMinimizerPos<0 || newHash <= previousMinimizer)) {
 				minimizerI = newHash;
-				minPos = i+windowLength-1;
+				minPos = newPos;
 			}
-			if(minimizerI == null) {
+			if(minPos<0) {
 				for(int j=0;j<windowLength;j++) {
-					Integer hash = hashcodes.get(i+j);
-					if (hash!=null && (minimizerI==null || hash <= minimizerI)) {
+					int idx = i+j-codesStart;
+					if(idx<0 || idx>=numCodes || kmerCodes[idx]<0) continue;
+					int hash = hashcodes[idx];
+					if (minPos<0 || hash <= minimizerI) {
 						minimizerI = hash;
 						minPos = i+j;
 					}
 				}
-				//if(sequenceId==debugIdx && i>0 && i<3000) System.err.println("Minimizer calculated with cycle. Start: "+i+" New pos: "+minPos+" new minimizer: "+minimizerI+" previous: "+previousMinimizer+" kmer code: "+kmerCodes.get(minPos)+" total: "+minimizersSeq.size());
+				//if(sequenceId==debugIdx && i>0 && i<3000) System.err.println("Minimizer calculated with cycle. Start: "+i+" New pos: "+minPos+" new minimizer: "+minimizerI+" previous: "+previousMinimizer+" total: "+answer.size());
 			}
-			if (minimizerI==previousMinimizer) continue;
-			if(minimizerI != null) {
-				long originalCode = kmerCodes.get(minPos);
+			if (minPos==previousMinimizerPos) continue;
+			if(minPos>=0) {
+				long originalCode = kmerCodes[minPos-codesStart];
 				MinimizersTableEntry entry = new MinimizersTableEntry((int)originalCode, sequenceId, minPos);
 				answer.add(entry);
 			}
@@ -289,17 +242,21 @@ public class ShortKmerCodesTable {
 	 * @return Map<Integer,List<MinimizersTableEntry>> Sequences matching kmers of the given query indexed by subject and sorted by subject start position
 	 */
 	public Map<Integer,List<UngappedSearchHit>> match (int queryIdx, CharSequence query) {
-		Map<Integer, Long> codes = KmersExtractor.extractDNAKmerCodes(query.toString(), kmerLength, 0, query.length());
-		//computeSequenceMinimizers(-1, 0, query.length(), codes);
-		return match(queryIdx, query.length(), codes);
+		int n = query.length();
+		long [] codes = new long [n];
+		int numCodes = KmersExtractor.extractDNAKmerCodes(query, kmerLength, 0, n, codes, null);
+		return match(queryIdx, n, codes, numCodes);
 		//return new HashMap<Integer, List<UngappedSearchHit>>();
 	}
 	/**
-	 * Calculates the hits of the given query
-	 * @param query sequence
+	 * Calculates the hits of the query represented by the given kmer codes
+	 * @param queryIdx Id of the query
+	 * @param queryLength Length of the query
+	 * @param codes Codes of the kmers of the query indexed by start position. Codes of kmers with non DNA characters are negative
+	 * @param numCodes Number of codes in the array
 	 * @return Map<Integer,List<MinimizersTableEntry>> Sequences matching kmers of the given query indexed by subject and sorted by subject start position
 	 */
-	public Map<Integer,List<UngappedSearchHit>> match (int queryIdx, int queryLength, Map<Integer, Long> codes) {
+	public Map<Integer,List<UngappedSearchHit>> match (int queryIdx, int queryLength, long [] codes, int numCodes) {
 		int idxDebug = -2;
 		//int idxDebug = 1;
 		//int limitSequences = Math.max(sequenceLengths.size()/10, 4*mode);
@@ -314,9 +271,11 @@ public class ShortKmerCodesTable {
 		int multihitCodes = 0;
 		int selfSequenceCount = 0;
 		Map<Integer,List<UngappedSearchHit>> answer = new HashMap<Integer, List<UngappedSearchHit>>();
-		for(Map.Entry<Integer, Long> entry:codes.entrySet()) {
-			int startQuery = entry.getKey();
-			long kmerCode = entry.getValue();
+		//Buffer reused to retrieve the hits of every key
+		long [] hitsBuffer = new long [16];
+		for(int startQuery=0;startQuery<numCodes;startQuery++) {
+			long kmerCode = codes[startQuery];
+			if(kmerCode<0) continue;
 			int intCode = (int)kmerCode;
 			//int count = codesLocalCounts.getOrDefault(kmerCode, 0);
 			int countSeqs = getCountDifferentSequences(intCode);
@@ -326,10 +285,15 @@ public class ShortKmerCodesTable {
 				continue;
 			}
 			
-			long [] codesMatching = lookupHits(intCode);
-			if(codesMatching.length>0) numUsedCodes++;
+			int numHits = codesIndex.lookupHits(intCode, hitsBuffer);
+			if(numHits>hitsBuffer.length) {
+				hitsBuffer = new long [Math.max(numHits, 2*hitsBuffer.length)];
+				codesIndex.lookupHits(intCode, hitsBuffer);
+			}
+			if(numHits>0) numUsedCodes++;
 			CharSequence kmer = new String(AbstractLimitedSequence.getSequence(kmerCode, kmerLength, DNASequence.EMPTY_DNA_SEQUENCE));
-			for(long entryCode:codesMatching) {
+			for(int h=0;h<numHits;h++) {
+				long entryCode = hitsBuffer[h];
 				MinimizersTableEntry matchingEntry = new MinimizersTableEntry(intCode, entryCode);
 				int subjectIdx = matchingEntry.getSequenceId();
 				if (subjectIdx < 0) {
@@ -368,13 +332,13 @@ public class ShortKmerCodesTable {
 		Distribution dist = new Distribution(1, 300, 1);
 		int numCodes = size();
 		for(int i=0;i<numCodes;i++) {
-			dist.processDatapoint(sequencesByCodeTableColumnLengths[i]);	
+			dist.processDatapoint(codesIndex.getNumHitsRow(i));	
 		}
 		return dist;
 	}
 
 	public long getTotalEntries() {
-		return totalEntries;
+		return codesIndex.getTotalHits();
 	}
 	
 	
@@ -29,8 +29,11 @@ public class SimpleEditDistanceMeasure implements SequenceDistanceMeasure {
 
 	private int indelDistance = 1;
 	private int mismatchDistance = 1;
+	private BitParallelEditDistanceMeasure unitCostsMeasure = new BitParallelEditDistanceMeasure();
 	@Override
 	public double calculateDistance(CharSequence seq1, CharSequence seq2) {
+		//Unit costs do not require the full matrix
+		if(indelDistance==1 && mismatchDistance==1) return unitCostsMeasure.calculateDistance(seq1, seq2);
 		int [][] scores = calculateScoresMatrix(seq1, seq2);
 		return scores[seq1.length()][seq2.length()];
 	}
@@ -107,8 +110,9 @@ public class SimpleEditDistanceMeasure implements SequenceDistanceMeasure {
 
 	@Override
 	public double calculateNormalizedDistance(CharSequence seq1, CharSequence seq2) {
-		// TODO Implement
-		return 0;
+		int maxLength = Math.max(seq1.length(), seq2.length());
+		if(maxLength==0) return 0;
+		return calculateDistance(seq1, seq2)/maxLength;
 	}
 
 }
@@ -161,7 +161,8 @@ public class Transcriptome {
 
 
 	public char getReferenceBase (String seqName, int absolutePosition) {
-		GenomicRegionSortedCollection<Transcript> transcripts = getTranscripts(seqName, absolutePosition); 
+		List<Transcript> transcripts = new ArrayList<>();
+		sortedTranscripts.findSpanningRegions(seqName, absolutePosition, absolutePosition, transcripts);
 		for(Transcript t:transcripts) {
 			char base = t.getReferenceBase(absolutePosition);
 			if(base!=0) {
@@ -171,10 +172,7 @@ public class Transcriptome {
 		return 0;
 	}
 	public void setReferenceBase(String seqName, int absolutePosition, char base) {
-		GenomicRegionSortedCollection<Transcript> transcripts = getTranscripts(seqName, absolutePosition);
-		for(Transcript t:transcripts) {
-				t.setReferenceBase(absolutePosition, base);
-		}
+		sortedTranscripts.forEachSpanningRegion(seqName, absolutePosition, absolutePosition, (t)->t.setReferenceBase(absolutePosition, base));
 	}
 	/**
 	 * Retrieves the reference base at the region enclosed by the given parameters
@@ -184,7 +182,8 @@ public class Transcriptome {
 	 * @return String Sequence of the requested region
 	 */
 	public String getReference(String sequenceName, int first, int last) {
-		GenomicRegionSortedCollection<Transcript> transcripts = getTranscripts(sequenceName, first); 
+		List<Transcript> transcripts = new ArrayList<>();
+		sortedTranscripts.findSpanningRegions(sequenceName, first, first, transcripts);
 		for(Transcript t:transcripts) {
 			char base = t.getReferenceBase(last);
 			if(base!=0) {
@@ -207,7 +206,9 @@ public class Transcriptome {
 		int offsetUpstream = parameters.getOffsetUpstream();
 		int offsetDownstream = parameters.getOffsetDownstream();
 		int maxOffset = Math.max(offsetUpstream, offsetDownstream);
-		for(Transcript t:getTranscripts(variant.getSequenceName(), variant.getFirst()-maxOffset, variant.getLast()+maxOffset)) {
+		List<Transcript> transcripts = new ArrayList<>();
+		sortedTranscripts.findSpanningRegions(variant.getSequenceName(), variant.getFirst()-maxOffset, variant.getLast()+maxOffset, transcripts);
+		for(Transcript t:transcripts) {
 			//if(variant.getFirst()==1096) System.err.println("Transcript: "+t.getId()+". Coding: "+t.isCoding()+". Reverse: "+t.isNegativeStrand()+" at "+t.getSequenceName()+": "+t.getFirst()+"-"+t.getLast());
 			TranscriptSegment segmentStart = t.getTranscriptSegmentByAbsolutePosition(variant.getFirst());
 			TranscriptSegment segmentEnd = t.getTranscriptSegmentByAbsolutePosition(variant.getLast());
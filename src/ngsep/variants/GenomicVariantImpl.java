@@ -39,8 +39,11 @@ public class GenomicVariantImpl implements GenomicVariant {
 	private short variantQS=0;
 	private byte type = GenomicVariant.TYPE_UNDETERMINED;
 	
-	private static Map<String, Byte> variantTypesByName = null;
-	private static Map<Byte, String> variantTypesById = null;
+	private static Map<String, Byte> variantTypesByName;
+	private static Map<Byte, String> variantTypesById;
+	static {
+		buildVariantTypeMaps();
+	}
 	private static void buildVariantTypeMaps () {
 		variantTypesByName = new HashMap<String, Byte>(10);	
 		variantTypesByName.put(TYPENAME_BIALLELIC_SNV, TYPE_BIALLELIC_SNV);
@@ -73,7 +76,6 @@ public class GenomicVariantImpl implements GenomicVariant {
 	
 	
 	public static String getVariantTypeName (byte variantTypeId) {
-		if(variantTypesById==null) buildVariantTypeMaps();
 		return variantTypesById.get(variantTypeId);
 	}
 	
@@ -86,7 +88,6 @@ public class GenomicVariantImpl implements GenomicVariant {
 	}
 
 	public static byte getVariantTypeId (String variantTypeName) {
-		if(variantTypesByName==null) buildVariantTypeMaps();
 		if(variantTypeName==null) return TYPE_UNDETERMINED;
 		Byte id = variantTypesByName.get(variantTypeName);
 		if(id == null) return TYPE_UNDETERMINED;
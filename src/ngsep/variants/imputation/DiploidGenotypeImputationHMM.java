@@ -34,10 +34,20 @@ public class DiploidGenotypeImputationHMM extends RecombinationHMM {
 	private int startsBaumWelch = HaplotypeClustersHMM.DEF_STARTS_BAUM_WELCH;
 	
 	private HaplotypeClustersHMM haploidBaseHMM;
+	//True if the pair of haploid states (i,j) is located at index i*k+j. Allows to propagate probabilities through the haploid model
+	private boolean pairsLayout;
+	private final ThreadLocal<PairTransitionBuffers> pairBuffers;
+	
 	public DiploidGenotypeImputationHMM(HaplotypeClustersHMM baseHMM, List<? extends HaplotypePairHMMState> states, int numMarkers, List<Integer> positions) {
 		super(states, numMarkers, positions);
 		haploidBaseHMM = baseHMM;
-		
+		int k = baseHMM.getNumStates();
+		pairsLayout = states.size()==k*k;
+		for(int i=0;i<states.size() && pairsLayout;i++) {
+			HaplotypePairHMMState state = states.get(i);
+			pairsLayout = state.getIndex1()==i/k && state.getIndex2()==i%k;
+		}
+		pairBuffers = ThreadLocal.withInitial(()->new PairTransitionBuffers(k));
 	}
 
 	public static DiploidGenotypeImputationHMM createHMM (Map<String, List<CalledSNV>> genotypes, List<String> parentIds, int k, boolean inbreds) {
@@ -88,6 +98,11 @@ public class DiploidGenotypeImputationHMM extends RecombinationHMM {
 		haploidBaseHMM.setSkipTransitionsTraining(skipTransitionsTraining);
 	}
 	
+	public void setNumThreads(int numThreads) {
+		super.setNumThreads(numThreads);
+		haploidBaseHMM.setNumThreads(numThreads);
+	}
+	
 	public void setTrainingData(List<List<? extends Object>> trainingData) {
 		super.setTrainingData(trainingData);
 		haploidBaseHMM.setTrainingData(trainingData);
@@ -111,9 +126,9 @@ public class DiploidGenotypeImputationHMM extends RecombinationHMM {
 		if(m!=getSteps()) throw new IllegalArgumentException("Number of variants: "+m+" in the set of genotypes does not coincide with steps of the HMM: "+getSteps());
 		double [][][] sumGenotypeProbs = new double [n][m][3];
 		double [][][] nextGenotypeProbs = new double [n][m][3];
-		
-		double [][] nextPosteriorsSample = new double [m][k];
-		int [] nextViterbiPathSample = new int [m];
+		//Work arrays are kept per thread to decode samples in parallel
+		ThreadLocal<double [][]> nextPosteriorsSample = ThreadLocal.withInitial(()->new double [m][k]);
+		ThreadLocal<int []> nextViterbiPathSample = ThreadLocal.withInitial(()->new int [m]);
 		for(int i=0;i<n;i++) {
 			NumberArrays.initializeDoubleMatrix(sumGenotypeProbs[i]);
 		}
@@ -121,23 +136,25 @@ public class DiploidGenotypeImputationHMM extends RecombinationHMM {
 			getLog().info("Training and sampling iteration: "+h);
 			train();
 			getLog().info("Model trained");
-			for(int i=0;i<n;i++) {
+			final int start = h;
+			runTasks(n, (i)-> {
 				String sampleId = sampleIds.get(i);
 				List<CalledSNV> genotypesSample = genotypes.get(sampleId);
 				calculateGenotypePosteriors(genotypesSample, nextGenotypeProbs[i]);
 				NumberArrays.accumulate(sumGenotypeProbs[i],nextGenotypeProbs[i]);
 				
 				//State posteriors for assignments
-				calculatePosteriors(genotypesSample, nextPosteriorsSample);
+				double [][] posteriors = nextPosteriorsSample.get();
+				calculatePosteriors(genotypesSample, posteriors);
 				
 				//Best viterbi path
-				getViterbiPath(genotypesSample, nextViterbiPathSample);
+				int [] viterbiPath = nextViterbiPathSample.get();
+				getViterbiPath(genotypesSample, viterbiPath);
 				
 				//Conciliate viterbi with posterior
-				assignClusters (sampleId, genotypesSample, nextPosteriorsSample,nextViterbiPathSample,outClusters[h][i]);
+				assignClusters (sampleId, genotypesSample, posteriors, viterbiPath, outClusters[start][i]);
 				getLog().info("Calculated posteriors for sample: "+sampleId);
-				
-			}
+			});
 		}
 		//Map<String,List<Integer>> assignments = new TreeMap<String, List<Integer>>();
 		for(int i=0;i<n;i++) {
@@ -153,57 +170,132 @@ public class DiploidGenotypeImputationHMM extends RecombinationHMM {
 		haploidBaseHMM.train();
 		getLog().info("Trained internal haploid model ");
 		int n = getSteps();
-		int kD = getNumStates();
-		Double [][] logTransitionsStep = new Double [kD][kD];
+		int k = haploidBaseHMM.getNumStates();
+		//Transitions between pairs of states are the products of the transitions of the haploid model
 		for(int step=0;step<n-1;step++) {
-			for(int i = 0;i<kD; i++) {
-				HaplotypePairHMMState statePair1 = (HaplotypePairHMMState)getState(i);
-				for(int j = 0;j<kD; j++) {
-					HaplotypePairHMMState statePair2 = (HaplotypePairHMMState)getState(j);
-					Double t1 = haploidBaseHMM.getTransition(statePair1.getIndex1(), statePair2.getIndex1(), step);
-					if(t1==null) {
-						getLog().info("WARN: Zero transition between: "+statePair1.getIndex1()+" and "+statePair2.getIndex1()+" at step: "+step+" value: "+t1);
-					}
-					else if(statePair1.getIndex1()!=statePair2.getIndex1() && t1 > -1) {
-						getLog().info("WARN: Abnormally high transition between: "+statePair1.getIndex1()+" and "+statePair2.getIndex1()+" at step: "+step+" value: "+t1);
-					}
-					Double t2 = haploidBaseHMM.getTransition(statePair1.getIndex2(), statePair2.getIndex2(), step);
-					if(t2==null) {
-						getLog().info("WARN: Zero transition between: "+statePair1.getIndex2()+" and "+statePair2.getIndex2()+" at step: "+step+" value: "+t2);
+			for(int i = 0;i<k; i++) {
+				for(int j = 0;j<k; j++) {
+					Double t = haploidBaseHMM.getTransition(i, j, step);
+					if(t==null) {
+						getLog().info("WARN: Zero transition between: "+i+" and "+j+" at step: "+step+" value: "+t);
 					}
-					else if(statePair1.getIndex2()!=statePair2.getIndex2() && t2 > -1) {
-						getLog().info("WARN: Abnormally high transition between: "+statePair1.getIndex2()+" and "+statePair2.getIndex2()+" at step: "+step+" value: "+t2);
+					else if(i!=j && t > -1) {
+						getLog().info("WARN: Abnormally high transition between: "+i+" and "+j+" at step: "+step+" value: "+t);
 					}
-					logTransitionsStep[i][j] = LogMath.logProduct(t1, t2);
 				}
 			}
-			//getLog().info("Setting transitions for step: "+step);
-			setTransitions(logTransitionsStep, step);
 		}
 		getLog().info("Trained diploid model ");
 	}
+	
+	@Override
+	public Double getTransition(int source, int dest, int step) {
+		HaplotypePairHMMState statePair1 = (HaplotypePairHMMState)getState(source);
+		HaplotypePairHMMState statePair2 = (HaplotypePairHMMState)getState(dest);
+		Double t1 = haploidBaseHMM.getTransition(statePair1.getIndex1(), statePair2.getIndex1(), step);
+		Double t2 = haploidBaseHMM.getTransition(statePair1.getIndex2(), statePair2.getIndex2(), step);
+		return LogMath.logProduct(t1, t2);
+	}
+	
+	@Override
+	protected double getTransitionProbability(int source, int dest, int step) {
+		//Transitions between pairs are not stored by the superclass
+		return LogMath.power10(getTransition(source, dest, step));
+	}
+	
+	@Override
+	protected double getUniformChangeProbability(int step) {
+		return Double.NaN;
+	}
+
+	@Override
+	public void propagateForward(double[] in, int step, double[] out) {
+		if(!pairsLayout) {
+			super.propagateForward(in, step, out);
+			return;
+		}
+		//The transition matrix is the Kronecker product of the haploid transitions with itself
+		PairTransitionBuffers buffers = pairBuffers.get();
+		int k = buffers.k;
+		double [] inner = buffers.inner;
+		for(int i=0;i<k;i++) {
+			System.arraycopy(in, i*k, buffers.in, 0, k);
+			haploidBaseHMM.propagateForward(buffers.in, step, buffers.out);
+			System.arraycopy(buffers.out, 0, inner, i*k, k);
+		}
+		for(int j=0;j<k;j++) {
+			for(int i=0;i<k;i++) buffers.in[i] = inner[i*k+j];
+			haploidBaseHMM.propagateForward(buffers.in, step, buffers.out);
+			for(int i=0;i<k;i++) out[i*k+j] = buffers.out[i];
+		}
+	}
+
+	@Override
+	public void propagateBackward(double[] in, int step, double[] out) {
+		if(!pairsLayout) {
+			super.propagateBackward(in, step, out);
+			return;
+		}
+		PairTransitionBuffers buffers = pairBuffers.get();
+		int k = buffers.k;
+		double [] inner = buffers.inner;
+		for(int i=0;i<k;i++) {
+			System.arraycopy(in, i*k, buffers.in, 0, k);
+			haploidBaseHMM.propagateBackward(buffers.in, step, buffers.out);
+			System.arraycopy(buffers.out, 0, inner, i*k, k);
+		}
+		for(int j=0;j<k;j++) {
+			for(int i=0;i<k;i++) buffers.in[i] = inner[i*k+j];
+			haploidBaseHMM.propagateBackward(buffers.in, step, buffers.out);
+			for(int i=0;i<k;i++) out[i*k+j] = buffers.out[i];
+		}
+	}
+
+	@Override
+	public void propagateViterbi(double[] in, int step, double[] out, int[] backtrace) {
+		if(!pairsLayout) {
+			super.propagateViterbi(in, step, out, backtrace);
+			return;
+		}
+		PairTransitionBuffers buffers = pairBuffers.get();
+		int k = buffers.k;
+		double [] inner = buffers.inner;
+		int [] innerBacktrace = buffers.innerBacktrace;
+		for(int i=0;i<k;i++) {
+			System.arraycopy(in, i*k, buffers.in, 0, k);
+			haploidBaseHMM.propagateViterbi(buffers.in, step, buffers.out, buffers.backtrace);
+			System.arraycopy(buffers.out, 0, inner, i*k, k);
+			System.arraycopy(buffers.backtrace, 0, innerBacktrace, i*k, k);
+		}
+		for(int j=0;j<k;j++) {
+			for(int i=0;i<k;i++) buffers.in[i] = inner[i*k+j];
+			haploidBaseHMM.propagateViterbi(buffers.in, step, buffers.out, buffers.backtrace);
+			for(int i=0;i<k;i++) {
+				out[i*k+j] = buffers.out[i];
+				int source1 = buffers.backtrace[i];
+				backtrace[i*k+j] = (source1>=0)?source1*k+innerBacktrace[source1*k+j]:-1;
+			}
+		}
+	}
 
 	public void calculateGenotypePosteriors(List<CalledSNV> genotypes, double[][] genotypePosteriors) {
 		int m = genotypes.size();
 		int k = getNumStates();
-		Double [][] forwardLogs=calculateForward(genotypes);
-		Double [][] backwardLogs=calculateBackward(genotypes);
+		HMMWorkspace workspace = runForwardBackward(genotypes);
+		double [][] forward = workspace.getForward();
+		double [][] backward = workspace.getBackward();
 		for(int i=0;i<m;i++) {
-			Double log0 = null;
-			Double log1 = null;
-			Double log2 = null;
+			double prob0 = 0;
+			double prob1 = 0;
+			double prob2 = 0;
 			for(int j=0;j<k;j++) {
-				Double fTimesB = LogMath.logProduct(forwardLogs[i][j], backwardLogs[i][j]);
-				log0 = LogMath.logSum(log0, LogMath.logProduct(fTimesB, getEmission(j, CalledSNV.GENOTYPE_HOMOREF, i)));
-				log1 = LogMath.logSum(log1, LogMath.logProduct(fTimesB, getEmission(j, CalledSNV.GENOTYPE_HETERO, i)));
-				log2 = LogMath.logSum(log2, LogMath.logProduct(fTimesB, getEmission(j, CalledSNV.GENOTYPE_HOMOALT, i)));
+				double fTimesB = forward[i][j]*backward[i][j];
+				if(fTimesB==0) continue;
+				prob0 += fTimesB*getEmissionProbability(j, CalledSNV.GENOTYPE_HOMOREF, i);
+				prob1 += fTimesB*getEmissionProbability(j, CalledSNV.GENOTYPE_HETERO, i);
+				prob2 += fTimesB*getEmissionProbability(j, CalledSNV.GENOTYPE_HOMOALT, i);
 			}
-			//Normalize and raise to calculate final probabilities of genotypes
-			Double logSum = LogMath.logSum(log0, log1);
-			logSum = LogMath.logSum(logSum, log2);
-			double prob0 = LogMath.power10(LogMath.logProduct(log0, -logSum));
-			double prob1 = LogMath.power10(LogMath.logProduct(log1, -logSum));
-			double prob2 = LogMath.power10(LogMath.logProduct(log2, -logSum));
+			//Normalize to calculate final probabilities of genotypes
 			double sum = prob0 + prob1 + prob2;
 			prob0/=sum;
 			prob1/=sum;
@@ -299,4 +391,24 @@ public class DiploidGenotypeImputationHMM extends RecombinationHMM {
 
 
 	
+	/**
+	 * Work arrays to propagate probabilities of pairs of states through the haploid model
+	 */
+	private static class PairTransitionBuffers {
+		private int k;
+		private double [] inner;
+		private int [] innerBacktrace;
+		private double [] in;
+		private double [] out;
+		private int [] backtrace;
+		
+		public PairTransitionBuffers(int k) {
+			this.k = k;
+			inner = new double [k*k];
+			innerBacktrace = new int [k*k];
+			in = new double [k];
+			out = new double [k];
+			backtrace = new int [k];
+		}
+	}
 }
@@ -75,8 +75,9 @@ public class GenotypeImputationHMM extends HaplotypeClustersHMM {
 		if(m!=getSteps()) throw new IllegalArgumentException("Number of variants: "+m+" in the set of genotypes does not coincide with steps of the HMM: "+getSteps());
 		double [][][] sumAlleleProbs = new double [n][m][2];
 		double [][][] nextAlleleProbs = new double [n][m][2];
-		double [][] nextPosteriorsSample = new double [m][k];
-		int [] nextViterbiPathSample = new int [m];
+		//Work arrays are kept per thread to decode samples in parallel
+		ThreadLocal<double [][]> nextPosteriorsSample = ThreadLocal.withInitial(()->new double [m][k]);
+		ThreadLocal<int []> nextViterbiPathSample = ThreadLocal.withInitial(()->new int [m]);
 		for(int i=0;i<n;i++) {
 			NumberArrays.initializeDoubleMatrix(sumAlleleProbs[i]);
 		}
@@ -84,7 +85,8 @@ public class GenotypeImputationHMM extends HaplotypeClustersHMM {
 			NumberArrays.initializeIntMatrix(outClusters[h]);
 			getLog().info("Training and sampling iteration: "+h);
 			train();
-			for(int i=0;i<n;i++) {
+			final int start = h;
+			runTasks(n, (i)-> {
 				String sampleId = sampleIds.get(i);
 				List<CalledSNV> genotypesSample = genotypes.get(sampleId);
 				List<Byte> haplotype = makeHaplotypeWithHomozygous(genotypesSample);
@@ -94,14 +96,16 @@ public class GenotypeImputationHMM extends HaplotypeClustersHMM {
 				NumberArrays.accumulate(sumAlleleProbs[i],nextAlleleProbs[i]);
 				
 				//State posteriors for assignments
-				calculatePosteriors(haplotype, nextPosteriorsSample);
+				double [][] posteriors = nextPosteriorsSample.get();
+				calculatePosteriors(haplotype, posteriors);
 				
 				//Best viterbi path
-				getViterbiPath(haplotype, nextViterbiPathSample);
+				int [] viterbiPath = nextViterbiPathSample.get();
+				getViterbiPath(haplotype, viterbiPath);
 				
 				//Conciliate viterbi with posterior
-				assignClusters (sampleId,genotypesSample, nextPosteriorsSample, nextViterbiPathSample, outClusters[h][i]);
-			}
+				assignClusters (sampleId,genotypesSample, posteriors, viterbiPath, outClusters[start][i]);
+			});
 		}
 		for(int i=0;i<n;i++) {
 			String sampleId = sampleIds.get(i);
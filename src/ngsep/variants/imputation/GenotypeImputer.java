@@ -53,6 +53,7 @@ public class GenotypeImputer {
 	public static final int DEF_WINDOW_SIZE = 5000;
 	public static final int DEF_OVERLAP = 50;
 	public static final double DEF_AVG_CM_PER_KBP = 0.001;
+	public static final int DEF_NUM_THREADS = 1;
 	
 	// Logging and progress
 	private Logger log = Logger.getLogger(GenotypeImputer.class.getName());
@@ -70,6 +71,7 @@ public class GenotypeImputer {
 	private boolean skipTransitionsTraining = false;
 	private boolean inbredParents = false;
 	private boolean inbredSamples = false;
+	private int numThreads = DEF_NUM_THREADS;
 	
 	// Model attributes
 	private PrintStream outAssignments;
@@ -182,6 +184,16 @@ public class GenotypeImputer {
 		this.setInbredSamples(inbredSamples.booleanValue());
 	}
 
+	public int getNumThreads() {
+		return numThreads;
+	}
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	public void setNumThreads(String value) {
+		setNumThreads((int)OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
 	public PrintStream getOutAssignments() {
 		return outAssignments;
 	}
@@ -227,6 +239,7 @@ public class GenotypeImputer {
 		if(skipTransitionsTraining) out.println("Transitions will not be modified during the HMM training");
 		if(inbredParents) out.println("Parents of the population are assumed to be inbred");
 		if(inbredSamples) out.println("Samples of the population are assumed to be inbred. All imputed genotype calls will be homozygous");
+		out.println("Number of threads: "+numThreads);
 		log.info(""+os.toString());
 	}
 	public void impute(String filename, PrintStream outGenotypes) throws IOException {
@@ -337,6 +350,7 @@ public class GenotypeImputer {
 		hmm.setLog(log);
 		hmm.setAvgCMPerKbp(avgCMPerKbp);
 		hmm.setSkipTransitionsTraining(skipTransitionsTraining);
+		hmm.setNumThreads(numThreads);
 		hmm.setTrainingData(makeTrainingDataWithHomozygous(genotypes));
 		if(progressNotifier!=null) {
 			progress++;
@@ -354,6 +368,7 @@ public class GenotypeImputer {
 		DiploidGenotypeImputationHMM  hmm = DiploidGenotypeImputationHMM.createHMM(genotypes, parentIds, numHaplotypeClusters, inbredParents);
 		hmm.setAvgCMPerKbp(avgCMPerKbp);
 		hmm.setSkipTransitionsTraining(skipTransitionsTraining);
+		hmm.setNumThreads(numThreads);
 		hmm.setLog(log);
 		hmm.setTrainingData(makeTrainingDataWithHomozygous(genotypes));
 		
@@ -40,6 +40,7 @@ public class HaplotypeClusterHMMState implements HMMState {
 	
 	public static final Double LOGPROB_UNEXPECTED = Math.log10(0.01);
 	public static final Double LOGPROB_EXPECTED = Math.log10(0.99);
+	static final double PROB_UNEXPECTED = LogMath.power10(LOGPROB_UNEXPECTED);
 	
 	public HaplotypeClusterHMMState(int haplotypeLength) {
 		initArrays(haplotypeLength);
@@ -172,6 +173,28 @@ public class HaplotypeClusterHMMState implements HMMState {
 		}
 		return answer;
 	}
+	
+	/**
+	 * Primitive version of getEmission for alleles 0 and 1
+	 * @param allele Allele emitted
+	 * @param step At which the allele is emitted
+	 * @return double log10 of the probability of emitting the given allele
+	 */
+	double getLogEmission(byte allele, int step) {
+		Double log = null;
+		if(allele==0) log = allele0Logs[step];
+		else if(allele==1) log = allele1Logs[step];
+		if(log == null) return LOGPROB_UNEXPECTED;
+		return log+LOGPROB_EXPECTED;
+	}
+	
+	@Override
+	public double getEmissionProbability(Object value, int step) {
+		if(value == null) return 0;
+		byte b = (byte) value;
+		if(b!=0 && b!=1) return PROB_UNEXPECTED;
+		return Math.pow(10.0, getLogEmission(b, step));
+	}
 
 	public static List<HaplotypeClusterHMMState> createEmptyStates(int m, int k) {
 		List<HaplotypeClusterHMMState> states = new ArrayList<HaplotypeClusterHMMState>();
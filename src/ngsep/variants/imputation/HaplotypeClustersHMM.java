@@ -12,8 +12,10 @@ public class HaplotypeClustersHMM extends RecombinationHMM {
 
 	private boolean updateEmissionKnownSites = false;
 	
-	//Local arrays to save reallocation over many runs
-	private Double [][][] logEmissions = new Double [0][0][0];
+	//Local arrays to save reallocation over many runs. One set of counts is kept per worker
+	private double [][][][] emissionCounts = new double [0][0][0][0];
+	private int numWorkersBaumWelch = 0;
+	private Double [][] logEmissionsState = new Double [0][0];
 	
 	
 	public HaplotypeClustersHMM(List<? extends HaplotypeClusterHMMState> states, int numMarkers) {
@@ -40,33 +42,49 @@ public class HaplotypeClustersHMM extends RecombinationHMM {
 	}
 
 	@Override
-	protected void initEmissionsBaumWelch() {
+	protected void initEmissionsBaumWelch(int numWorkers) {
 		int k = getNumStates();
 		int m = getSteps();
-		if(logEmissions.length!=k || logEmissions[0].length!=m) {
-			getLog().info("Creating array for emissions of dimensions "+k+" x "+m+" x 2");
-			logEmissions = new Double [k][m][2];
+		if(emissionCounts.length<numWorkers || emissionCounts[0].length!=k || emissionCounts[0][0].length!=m) {
+			getLog().info("Creating arrays for emissions of dimensions "+k+" x "+m+" x 2 for "+numWorkers+" workers");
+			emissionCounts = new double [numWorkers][k][m][2];
+			logEmissionsState = new Double [m][2];
 		}
-		for(int j=0;j<logEmissions.length;j++) {
-			for(int i=0;i<logEmissions[j].length;i++) {
-				logEmissions[j][i][0] = logEmissions[j][i][1] = null;
+		numWorkersBaumWelch = numWorkers;
+		for(int w=0;w<numWorkers;w++) {
+			double [][][] countsWorker = emissionCounts[w];
+			for(int j=0;j<countsWorker.length;j++) {
+				for(int i=0;i<countsWorker[j].length;i++) {
+					countsWorker[j][i][0] = countsWorker[j][i][1] = 0;
+				}
 			}
 		}
 	}
 
 	@Override
-	protected void accumulateEmissionBaumWelch(int step, int stateIndex, Object datum, Double logPosterior) {
+	protected void accumulateEmissionBaumWelch(int worker, int step, int stateIndex, Object datum, double posterior) {
 		if(datum == null || !(datum instanceof Byte)) return;
 		byte allele = (Byte)datum;
 		if(allele != CalledGenomicVariant.ALLELE_REFERENCE && allele!=CalledGenomicVariant.ALLELE_ALTERNATIVE) return;
-		logEmissions[stateIndex][step][allele] = LogMath.logSum(logEmissions[stateIndex][step][allele], logPosterior);
+		emissionCounts[worker][stateIndex][step][allele] += posterior;
 	}
 
 	@Override
 	protected void updateEmissionsBaumWelch(int stateIndex) {
 		HaplotypeClusterHMMState state = (HaplotypeClusterHMMState)getState(stateIndex);
-		//System.out.println("Emissions state "+stateIndex+": "+logEmissions[stateIndex][0][0]+" "+logEmissions[stateIndex][0][1]);
-		state.setEmissionLogProbs(logEmissions[stateIndex], updateEmissionKnownSites);
+		double [][] counts = emissionCounts[0][stateIndex];
+		for(int w=1;w<numWorkersBaumWelch;w++) {
+			double [][] countsWorker = emissionCounts[w][stateIndex];
+			for(int i=0;i<counts.length;i++) {
+				counts[i][0]+=countsWorker[i][0];
+				counts[i][1]+=countsWorker[i][1];
+			}
+		}
+		for(int i=0;i<counts.length;i++) {
+			logEmissionsState[i][0] = LogMath.log10(counts[i][0]);
+			logEmissionsState[i][1] = LogMath.log10(counts[i][1]);
+		}
+		state.setEmissionLogProbs(logEmissionsState, updateEmissionKnownSites);
 	}
 
 	public void calculateAllelePosteriors(List<Byte> haplotype, double[][] allelePosteriors) {
@@ -74,22 +92,19 @@ public class HaplotypeClustersHMM extends RecombinationHMM {
 		Byte b1 = 1;
 		int m = haplotype.size();
 		int k = getNumStates();
-		Double [][] forwardLogs=calculateForward(haplotype);
-		Double [][] backwardLogs=calculateBackward(haplotype);
-		//calculateForward(haplotype, forwardLogs);
-		//calculateBackward(haplotype, backwardLogs);
+		HMMWorkspace workspace = runForwardBackward(haplotype);
+		double [][] forward = workspace.getForward();
+		double [][] backward = workspace.getBackward();
 		for(int i=0;i<m;i++) {
-			Double log0 = null;
-			Double log1 = null;
+			double prob0 = 0;
+			double prob1 = 0;
 			for(int j=0;j<k;j++) {
-				Double fTimesB = LogMath.logProduct(forwardLogs[i][j], backwardLogs[i][j]);
-				log0 = LogMath.logSum(log0, LogMath.logProduct(fTimesB, getEmission(j, b0, i)));
-				log1 = LogMath.logSum(log1, LogMath.logProduct(fTimesB, getEmission(j, b1, i)));
+				double fTimesB = forward[i][j]*backward[i][j];
+				if(fTimesB==0) continue;
+				prob0 += fTimesB*getEmissionProbability(j, b0, i);
+				prob1 += fTimesB*getEmissionProbability(j, b1, i);
 			}
-			//Normalize and raise to calculate final probabilities of genotypes
-			Double logSum = LogMath.logSum(log0, log1);
-			double prob0 = LogMath.power10(LogMath.logProduct(log0, -logSum));
-			double prob1 = LogMath.power10(LogMath.logProduct(log1, -logSum));
+			//Normalize to calculate final probabilities of alleles
 			double sum = prob0 + prob1;
 			prob0/=sum;
 			prob1/=sum;
@@ -63,6 +63,31 @@ public class HaplotypePairHMMState implements HMMState {
 		return answer;
 	}
 
+	@Override
+	public double getEmissionProbability(Object value, int step) {
+		Byte genotype = getGenotype (value);
+		if(genotype==null) return HaplotypeClusterHMMState.PROB_UNEXPECTED;
+		double answer;
+		if(genotype==CalledSNV.GENOTYPE_HOMOREF) answer = state1.getLogEmission((byte)0, step)+state2.getLogEmission((byte)0, step);
+		else if(genotype==CalledSNV.GENOTYPE_HOMOALT) answer = state1.getLogEmission((byte)1, step)+state2.getLogEmission((byte)1, step);
+		else if(genotype==CalledSNV.GENOTYPE_HETERO) {
+			double p1 = state1.getLogEmission((byte)0, step)+state2.getLogEmission((byte)1, step);
+			double p2 = state1.getLogEmission((byte)1, step)+state2.getLogEmission((byte)0, step);
+			answer = logSum(p1, p2);
+		}
+		else return HaplotypeClusterHMMState.PROB_UNEXPECTED;
+		return Math.pow(10.0, answer+HaplotypeClusterHMMState.LOGPROB_EXPECTED);
+	}
+	
+	/**
+	 * Primitive version of LogMath.logSum for non null values
+	 */
+	private static double logSum(double log1, double log2) {
+		if(log1-log2>LogMath.MAXLOGDIFF) return log1;
+		if(log2-log1>LogMath.MAXLOGDIFF) return log2;
+		return log1 + Math.log10(1+Math.pow(10.0, log2-log1));
+	}
+
 	private Byte getGenotype(Object value) {
 		Byte answer = null;
 		if(value == null) return answer;
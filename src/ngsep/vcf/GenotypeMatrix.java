@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * NGSEP - Next Generation Sequencing Experience Platform
+ * Copyright 2016 Jorge Duitama
+ *
+ * This file is part of NGSEP.
+ *
+ *     NGSEP is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     NGSEP is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with NGSEP.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package ngsep.vcf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ngsep.variants.CalledGenomicVariant;
+import ngsep.variants.GenomicVariant;
+
+/**
+ * Compact columnar representation of the genotype calls of a population. Genotypes are packed
+ * in two bits per call, grouped by sample, and the information of the variants is stored in parallel
+ * primitive arrays.
+ * Analyses that stream records one at a time (GWAS) or that write back the loaded records
+ * with updated calls (genotype imputation) keep using VCFRecord objects
+ * @author Jorge Duitama
+ */
+public class GenotypeMatrix {
+	public static final byte GENOTYPE_HOMOREF = 0;
+	public static final byte GENOTYPE_HETERO = 1;
+	public static final byte GENOTYPE_HOMOALT = 2;
+	public static final byte GENOTYPE_UNDECIDED = 3;
+	
+	private static final int GENOTYPES_PER_WORD = 32;
+	private static final int DEF_CAPACITY = 1024;
+	private static final byte FLAG_BIALLELIC = 1;
+	private static final byte FLAG_SNV = 2;
+	
+	private final List<String> sampleIds;
+	private final int numSamples;
+	private int numVariants = 0;
+	private int capacity = 0;
+	
+	//Genotypes packed per sample
+	private long [][] genotypes;
+	
+	//Information of variants
+	private int [] sequenceIdxs;
+	private int [] firsts;
+	private int [] lasts;
+	private int [] allelesIdxs;
+	private byte [] flags;
+	
+	//Dictionaries for sequence names and alleles
+	private final List<String> sequenceNames = new ArrayList<>();
+	private final Map<String, Integer> sequenceNamesIdxs = new HashMap<>();
+	private final List<String []> allelesDictionary = new ArrayList<>();
+	private final Map<String, Integer> allelesDictionaryIdxs = new HashMap<>();
+	
+	/**
+	 * Creates an empty matrix for the given samples
+	 * @param sampleIds Ids of the samples in the order in which calls will be added
+	 */
+	public GenotypeMatrix(List<String> sampleIds) {
+		this.sampleIds = Collections.unmodifiableList(new ArrayList<>(sampleIds));
+		this.numSamples = sampleIds.size();
+		clear();
+	}
+	
+	/**
+	 * @return List of sample ids
+	 */
+	public List<String> getSampleIds() {
+		return sampleIds;
+	}
+	/**
+	 * @return int number of samples
+	 */
+	public int getNumSamples() {
+		return numSamples;
+	}
+	/**
+	 * @return int number of variants loaded so far
+	 */
+	public int getNumVariants() {
+		return numVariants;
+	}
+	
+	/**
+	 * Removes all variants keeping the samples
+	 */
+	public void clear() {
+		numVariants = 0;
+		capacity = DEF_CAPACITY;
+		genotypes = new long [numSamples][capacity/GENOTYPES_PER_WORD];
+		sequenceIdxs = new int [capacity];
+		firsts = new int [capacity];
+		lasts = new int [capacity];
+		allelesIdxs = new int [capacity];
+		flags = new byte [capacity];
+		sequenceNames.clear();
+		sequenceNamesIdxs.clear();
+		allelesDictionary.clear();
+		allelesDictionaryIdxs.clear();
+	}
+	
+	/**
+	 * Adds the variant and the genotype calls of the given record
+	 * @param record to add
+	 */
+	public void addRecord(VCFRecord record) {
+		addVariant(record.getVariant(), record.getCalls());
+	}
+	
+	/**
+	 * Adds a new variant with its genotype calls
+	 * @param variant to add
+	 * @param calls Genotype calls in the same order of the samples of this matrix
+	 */
+	public void addVariant(GenomicVariant variant, List<CalledGenomicVariant> calls) {
+		if(calls.size()!=numSamples) throw new IllegalArgumentException("Number of calls "+calls.size()+" for variant at "+variant.getSequenceName()+":"+variant.getFirst()+" does not match the number of samples "+numSamples);
+		if(numVariants == capacity) grow();
+		int v = numVariants;
+		sequenceIdxs[v] = getDictionaryIndex(variant.getSequenceName(), sequenceNames, sequenceNamesIdxs);
+		firsts[v] = variant.getFirst();
+		lasts[v] = variant.getLast();
+		String [] alleles = variant.getAlleles();
+		String allelesKey = String.join(",", alleles);
+		Integer allelesIdx = allelesDictionaryIdxs.get(allelesKey);
+		if(allelesIdx == null) {
+			allelesIdx = allelesDictionary.size();
+			allelesDictionary.add(alleles);
+			allelesDictionaryIdxs.put(allelesKey, allelesIdx);
+		}
+		allelesIdxs[v] = allelesIdx;
+		byte variantFlags = 0;
+		if(variant.isBiallelic()) variantFlags |= FLAG_BIALLELIC;
+		if(variant.isSNV()) variantFlags |= FLAG_SNV;
+		flags[v] = variantFlags;
+		int word = v/GENOTYPES_PER_WORD;
+		int shift = 2*(v%GENOTYPES_PER_WORD);
+		for(int i=0;i<numSamples;i++) {
+			CalledGenomicVariant call = calls.get(i);
+			long genotype = encodeGenotype(call);
+			genotypes[i][word] |= genotype << shift;
+		}
+		numVariants++;
+	}
+	
+	private static byte encodeGenotype(CalledGenomicVariant call) {
+		if(call.isUndecided()) return GENOTYPE_UNDECIDED;
+		if(call.isHeterozygous()) return GENOTYPE_HETERO;
+		if(call.isHomozygousReference()) return GENOTYPE_HOMOREF;
+		return GENOTYPE_HOMOALT;
+	}
+	
+	private static int getDictionaryIndex(String value, List<String> values, Map<String, Integer> indexes) {
+		//Consecutive variants usually share the sequence name
+		int last = values.size()-1;
+		if(last>=0 && values.get(last).equals(value)) return last;
+		Integer idx = indexes.get(value);
+		if(idx == null) {
+			idx = values.size();
+			values.add(value);
+			indexes.put(value, idx);
+		}
+		return idx;
+	}
+	
+	private void grow() {
+		capacity *= 2;
+		for(int i=0;i<numSamples;i++) {
+			genotypes[i] = Arrays.copyOf(genotypes[i], capacity/GENOTYPES_PER_WORD);
+		}
+		sequenceIdxs = Arrays.copyOf(sequenceIdxs, capacity);
+		firsts = Arrays.copyOf(firsts, capacity);
+		lasts = Arrays.copyOf(lasts, capacity);
+		allelesIdxs = Arrays.copyOf(allelesIdxs, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+	}
+	
+	/**
+	 * Returns the genotype of the given sample at the given variant
+	 * @param sampleIdx Index of the sample
+	 * @param variantIdx Index of the variant
+	 * @return byte One of the GENOTYPE constants of this class
+	 */
+	public byte getGenotype(int sampleIdx, int variantIdx) {
+		if(variantIdx<0 || variantIdx>=numVariants) throw new IndexOutOfBoundsException("Invalid variant index: "+variantIdx+" number of variants: "+numVariants);
+		long word = genotypes[sampleIdx][variantIdx/GENOTYPES_PER_WORD];
+		return (byte)((word >>> (2*(variantIdx%GENOTYPES_PER_WORD))) & 3);
+	}
+	
+	public String getSequenceName(int variantIdx) {
+		return sequenceNames.get(sequenceIdxs[variantIdx]);
+	}
+	public int getFirst(int variantIdx) {
+		return firsts[variantIdx];
+	}
+	public int getLast(int variantIdx) {
+		return lasts[variantIdx];
+	}
+	/**
+	 * @param variantIdx Index of the variant
+	 * @return String [] Alleles of the variant. The array is shared by variants with the same alleles and should not be modified
+	 */
+	public String [] getAlleles(int variantIdx) {
+		return allelesDictionary.get(allelesIdxs[variantIdx]);
+	}
+	public String getReference(int variantIdx) {
+		return getAlleles(variantIdx)[0];
+	}
+	public boolean isBiallelic(int variantIdx) {
+		return (flags[variantIdx] & FLAG_BIALLELIC)!=0;
+	}
+	public boolean isSNV(int variantIdx) {
+		return (flags[variantIdx] & FLAG_SNV)!=0;
+	}
+}
@@ -392,8 +392,9 @@ public class VCFConverter {
 		PrintStream outJoinMap = null;
 		PrintStream outTreemix = null;
 		//Load the matrix if at least one format need the matrix to be transposed
-		boolean loadMatrix = printFasta || printStructure || printrrBLUP || printSpagedi || printEmma || printPlink || printHaploview || printPowerMarker || printFlapjack || printEigensoft || printDarwin || printFineStructure;
-		boolean loadMatrixSeqName = printPhase;
+		boolean loadMatrix = printFasta || printStructure || printrrBLUP || printSpagedi || printEmma || printPlink || printHaploview || printPowerMarker || printFlapjack || printEigensoft || printDarwin;
+		boolean loadMatrixSeqName = printPhase || printFineStructure;
+		GenotypeMatrix genotypes = null;
 		List<List<CalledGenomicVariant>> callsPerVariant = new ArrayList<List<CalledGenomicVariant>>();
 		List<String> sampleIds = null;
 		try {
@@ -401,6 +402,7 @@ public class VCFConverter {
 			if(!printGWASPoly) reader.setLoadMode(VCFFileReader.LOAD_MODE_MINIMAL);
 			VCFFileHeader header = reader.getHeader();
 			sampleIds = header.getSampleIds();
+			if(loadMatrix) genotypes = new GenotypeMatrix(sampleIds);
 			Iterator<VCFRecord> it = reader.iterator();
 			//Print header for formats that do not need transposition
 			if(printMatrix) {
@@ -446,9 +448,9 @@ public class VCFConverter {
 				VCFRecord record = it.next();
 				List<CalledGenomicVariant> calls = record.getCalls();
 				//Adds the calls for the new variant if needed
-				if(loadMatrix) callsPerVariant.add(calls);
-				//PHASE converter. Loads the variants only for the sequence name requested by the user
-				else if (loadMatrixSeqName && record.getVariant().getSequenceName().equals(sequenceName)) callsPerVariant.add(calls); 
+				if(genotypes!=null) genotypes.addRecord(record);
+				//PHASE and fineStructure converters. Load the variants only for the sequence name requested by the user
+				if (loadMatrixSeqName && record.getVariant().getSequenceName().equals(sequenceName)) callsPerVariant.add(calls); 
 				//Print genotypes for the current variant for formats that do not need transposition
 				if(outMatrix!=null)printGenotypesMatrix(record,outMatrix);
 				if(outHapmap!=null)printHapmap(record,outHapmap);
@@ -489,24 +491,26 @@ public class VCFConverter {
 		
 		
 		if(!loadMatrix && !loadMatrixSeqName) return;
-		System.out.println("Loaded "+callsPerVariant.size()+" calls");
+		if(genotypes!=null) System.out.println("Loaded "+genotypes.getNumVariants()+" calls");
+		else System.out.println("Loaded "+callsPerVariant.size()+" calls");
 		//Print formats that require transposition
-		if(printFasta) printFasta(sampleIds,callsPerVariant,prefix+"_aln.fa");
-		if(printDarwin)printDarwin(sampleIds, callsPerVariant, prefix);
-		if(printStructure) printStructure(sampleIds,callsPerVariant,prefix+"_structure.in");
-		if(printrrBLUP) printrrBLUP(sampleIds,callsPerVariant,prefix);
-		if(printSpagedi) printSpagedi(sampleIds, callsPerVariant, prefix+"_spagedi.in");
-		if(printEmma) printEmma(callsPerVariant, prefix+"_emma.in");
-		if(printPlink) printPlink(sampleIds,callsPerVariant,prefix+"_plink",true);
-		if(printHaploview) printPlink(sampleIds,callsPerVariant,prefix+"_haploview",false);
-		if(printPowerMarker) printPowerMarker(sampleIds,callsPerVariant,prefix);
-		if(printFlapjack) printFlapjack(sampleIds,callsPerVariant,prefix);
-		if(printEigensoft) printEigensoft(sampleIds,callsPerVariant,prefix);
+		if(printFasta) printFasta(genotypes,prefix+"_aln.fa");
+		if(printDarwin)printDarwin(genotypes, prefix);
+		if(printStructure) printStructure(genotypes,prefix+"_structure.in");
+		if(printrrBLUP) printrrBLUP(genotypes,prefix);
+		if(printSpagedi) printSpagedi(genotypes, prefix+"_spagedi.in");
+		if(printEmma) printEmma(genotypes, prefix+"_emma.in");
+		if(printPlink) printPlink(genotypes,prefix+"_plink",true);
+		if(printHaploview) printPlink(genotypes,prefix+"_haploview",false);
+		if(printPowerMarker) printPowerMarker(genotypes,prefix);
+		if(printFlapjack) printFlapjack(genotypes,prefix);
+		if(printEigensoft) printEigensoft(genotypes,prefix);
 		if(printPhase) printPhase(sampleIds,callsPerVariant,prefix+"_"+sequenceName+"_phase.inp");
 		if(printFineStructure) printFineStructure(sampleIds.size(),callsPerVariant,prefix+"_fs_"+sequenceName+".phase");
 	}
 	
-	private void printFlapjack(List<String> sampleIds,List<List<CalledGenomicVariant>> calls, String outPrefix) throws IOException {
+	private void printFlapjack(GenotypeMatrix genotypes, String outPrefix) throws IOException {
+		List<String> sampleIds = genotypes.getSampleIds();
 		StringBuilder [] sequences = new StringBuilder[sampleIds.size()];
 		for(int i=0;i<sequences.length;i++) sequences[i] = new StringBuilder(sampleIds.get(i));
 		
@@ -515,24 +519,23 @@ public class VCFConverter {
 		outMap.println("# fjFile = MAP");
 		outGenotypes.println("# fjFile = GENOTYPE");
 		int snpId=1;
-		for(List<CalledGenomicVariant> callsVariant:calls) {
-			if(callsVariant.size()>0 && !callsVariant.get(0).isBiallelic()) continue;
-			for(int i=0;i<callsVariant.size();i++) {
-				CalledGenomicVariant calledVar = callsVariant.get(i);
-				
-				String [] alleles = calledVar.getCalledAlleles(); 
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			if(sequences.length>0 && !genotypes.isBiallelic(j)) continue;
+			String [] alleles = genotypes.getAlleles(j);
+			for(int i=0;i<sequences.length;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
 				String allele = "-";
-				if(!calledVar.isUndecided()) {
-					if(alleles.length>=2) {
-						allele = ""+alleles[0]+"/"+alleles[1];
-					} else {
-						allele = ""+alleles[0];
-					}
+				if(genotype == GenotypeMatrix.GENOTYPE_HETERO) {
+					allele = ""+alleles[0]+"/"+alleles[1];
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) {
+					allele = ""+alleles[0];
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOALT) {
+					allele = ""+alleles[1];
 				}
 				sequences[i].append("\t"+allele);
 				if(i==0) {
 					String markerId = "Marker"+snpId;
-					outMap.println(markerId+"\t"+calledVar.getSequenceName()+"\t"+calledVar.getFirst());
+					outMap.println(markerId+"\t"+genotypes.getSequenceName(j)+"\t"+genotypes.getFirst(j));
 					outGenotypes.print("\t"+markerId);
 					snpId++;
 				}
@@ -548,7 +551,8 @@ public class VCFConverter {
 		outGenotypes.close();	
 	}
 	
-	private void printPowerMarker(List<String> sampleIds,List<List<CalledGenomicVariant>> calls, String outPrefix) throws IOException {
+	private void printPowerMarker(GenotypeMatrix genotypes, String outPrefix) throws IOException {
+		List<String> sampleIds = genotypes.getSampleIds();
 		StringBuilder [] sequences = new StringBuilder[sampleIds.size()];
 		for(int i=0;i<sequences.length;i++) sequences[i] = new StringBuilder(sampleIds.get(i));
 		
@@ -556,24 +560,22 @@ public class VCFConverter {
 		PrintStream outSNPs = new PrintStream(outPrefix+"_powermarker.snp");
 		out.print("Sample");
 		int snpId=1;
-		for(List<CalledGenomicVariant> callsVariant:calls) {
-			if(callsVariant.size()>0 && !callsVariant.get(0).isBiallelic()) continue;
-			for(int i=0;i<callsVariant.size();i++) {
-				CalledGenomicVariant calledVar = callsVariant.get(i);
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			if(sequences.length>0 && !genotypes.isBiallelic(j)) continue;
+			for(int i=0;i<sequences.length;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
 				String allele = "-9\t-9";
-				if(!calledVar.isUndecided()) {
-					if(calledVar.isHeterozygous()) {
-						allele = "0\t1";
-					} else if (calledVar.isHomozygousReference()) {
-						allele = "0\t0";
-					} else {
-						allele = "1\t1";
-					}
+				if(genotype == GenotypeMatrix.GENOTYPE_HETERO) {
+					allele = "0\t1";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) {
+					allele = "0\t0";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOALT) {
+					allele = "1\t1";
 				}
 				sequences[i].append("\t"+allele);
 				if(i==0) {
 					out.print("\t"+snpId+"\t"+snpId);
-					outSNPs.println(snpId+"\t"+calledVar.getSequenceName()+"\t"+calledVar.getFirst());
+					outSNPs.println(snpId+"\t"+genotypes.getSequenceName(j)+"\t"+genotypes.getFirst(j));
 					snpId++;
 				}
 			}
@@ -588,7 +590,8 @@ public class VCFConverter {
 		outSNPs.close();
 		
 	}
-	private void printPlink(List<String> sampleIds,List<List<CalledGenomicVariant>> calls, String prefix, boolean includeChrInMap) throws IOException {
+	private void printPlink(GenotypeMatrix genotypes, String prefix, boolean includeChrInMap) throws IOException {
+		List<String> sampleIds = genotypes.getSampleIds();
 		StringBuilder [] sequences = new StringBuilder[sampleIds.size()];
 		for(int i=0;i<sequences.length;i++) sequences[i] = new StringBuilder(sampleIds.get(i)+"\t"+sampleIds.get(i)+"\t0\t0\t0\t0");
 		PrintStream outMap;
@@ -596,29 +599,26 @@ public class VCFConverter {
 		else outMap = new PrintStream(prefix+".info");
 		String currentChr = null;
 		int chrN = 0;
-		for(List<CalledGenomicVariant> callsVariant:calls) {
-			if(callsVariant.size()==0) continue;
-			CalledGenomicVariant firstCall = callsVariant.get(0);
-			if(!firstCall.isBiallelic() || !firstCall.isSNV() ) continue;
-			for(int i=0;i<callsVariant.size();i++) {
-				CalledGenomicVariant calledVar = callsVariant.get(i);
-				if(i==0) {
-					String seqName = calledVar.getSequenceName();
-					if(!seqName.equals(currentChr)) {
-						chrN++;
-						currentChr = seqName;
-					}
-					if(includeChrInMap) outMap.print(""+chrN+"\t");
-					outMap.println(calledVar.getSequenceName()+"_"+calledVar.getFirst()+"\t"+calledVar.getFirst());
-				}
-				String [] calledAlleles = calledVar.getCalledAlleles(); 
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			if(sequences.length==0) continue;
+			if(!genotypes.isBiallelic(j) || !genotypes.isSNV(j) ) continue;
+			String seqName = genotypes.getSequenceName(j);
+			if(!seqName.equals(currentChr)) {
+				chrN++;
+				currentChr = seqName;
+			}
+			if(includeChrInMap) outMap.print(""+chrN+"\t");
+			outMap.println(seqName+"_"+genotypes.getFirst(j)+"\t"+genotypes.getFirst(j));
+			String [] alleles = genotypes.getAlleles(j);
+			for(int i=0;i<sequences.length;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
 				String allele = "0 0";
-				if(!calledVar.isUndecided()) {
-					if(calledAlleles.length>=2) {
-						allele = ""+calledAlleles[0]+" "+calledAlleles[1];
-					} else {
-						allele = ""+calledAlleles[0]+" "+calledAlleles[0];
-					}
+				if(genotype == GenotypeMatrix.GENOTYPE_HETERO) {
+					allele = ""+alleles[0]+" "+alleles[1];
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) {
+					allele = ""+alleles[0]+" "+alleles[0];
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOALT) {
+					allele = ""+alleles[1]+" "+alleles[1];
 				}
 				sequences[i].append("\t"+allele);
 			}
@@ -633,25 +633,27 @@ public class VCFConverter {
 		out.close();
 		
 	}
-	private void printEigensoft(List<String> sampleIds, List<List<CalledGenomicVariant>> selectedCalls, String outPrefix) throws IOException {
+	private void printEigensoft(GenotypeMatrix genotypes, String outPrefix) throws IOException {
 		PrintStream outGenotype = new PrintStream(outPrefix+"_eigensoft.geno");
 		PrintStream outSNP = new PrintStream(outPrefix+"_eigensoft.snp");
+		int numSamples = genotypes.getNumSamples();
 		int chrNum = 0;
 		String lastChr = "";
-		for(List<CalledGenomicVariant> varCalls:selectedCalls) {
-			if(varCalls.size()>0 && !varCalls.get(0).isBiallelic()) continue;
-			for(int i=0;i<varCalls.size();i++) {
-				CalledGenomicVariant calledVar =varCalls.get(i);
-				if(calledVar.isUndecided()) outGenotype.print("9");
-				else if (calledVar.isHomozygousReference()) outGenotype.print("2");
-				else if (calledVar.isHeterozygous()) outGenotype.print("1");
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			if(numSamples>0 && !genotypes.isBiallelic(j)) continue;
+			for(int i=0;i<numSamples;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
+				if(genotype == GenotypeMatrix.GENOTYPE_UNDECIDED) outGenotype.print("9");
+				else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) outGenotype.print("2");
+				else if (genotype == GenotypeMatrix.GENOTYPE_HETERO) outGenotype.print("1");
 				else outGenotype.print("0");
 				if(i==0) {
-					if(!lastChr.equals(calledVar.getSequenceName())) {
+					String seqName = genotypes.getSequenceName(j);
+					if(!lastChr.equals(seqName)) {
 						chrNum++;
-						lastChr = calledVar.getSequenceName();
+						lastChr = seqName;
 					}
-					outSNP.printf("%30s %20d      0.0%20d %1s %1s\n",calledVar.getSequenceName()+"_"+calledVar.getFirst(),chrNum,calledVar.getFirst(),calledVar.getReference(),calledVar.getAlleles()[1]);
+					outSNP.printf("%30s %20d      0.0%20d %1s %1s\n",seqName+"_"+genotypes.getFirst(j),chrNum,genotypes.getFirst(j),genotypes.getReference(j),genotypes.getAlleles(j)[1]);
 				}
 			}
 			outGenotype.println();
@@ -661,22 +663,23 @@ public class VCFConverter {
 		outSNP.flush();
 		outSNP.close();
 		PrintStream outInd = new PrintStream(outPrefix+"_eigensoft.ind");
-		for(String sampleId:sampleIds) {
+		for(String sampleId:genotypes.getSampleIds()) {
 			outInd.printf("%39s U Control\n", sampleId);
 		}
 		outInd.flush();
 		outInd.close();
 	}
-	private void printEmma(List<List<CalledGenomicVariant>> selectedCalls, String outFile) throws IOException {
+	private void printEmma(GenotypeMatrix genotypes, String outFile) throws IOException {
 		PrintStream out = new PrintStream(outFile);
-		for(List<CalledGenomicVariant> varCalls:selectedCalls) {
-			if(varCalls.size()>0 && !varCalls.get(0).isBiallelic()) continue;
-			for(int i=0;i<varCalls.size();i++) {
+		int numSamples = genotypes.getNumSamples();
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			if(numSamples>0 && !genotypes.isBiallelic(j)) continue;
+			for(int i=0;i<numSamples;i++) {
 				if(i>0) out.print("\t");
-				CalledGenomicVariant calledVar =varCalls.get(i);
-				if(calledVar.isUndecided()) out.print("NA");
-				else if (calledVar.isHomozygousReference()) out.print("0");
-				else if (calledVar.isHeterozygous()) out.print("0.5");
+				byte genotype = genotypes.getGenotype(i, j);
+				if(genotype == GenotypeMatrix.GENOTYPE_UNDECIDED) out.print("NA");
+				else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) out.print("0");
+				else if (genotype == GenotypeMatrix.GENOTYPE_HETERO) out.print("0.5");
 				else out.print("1");
 			}
 			out.println();
@@ -685,32 +688,31 @@ public class VCFConverter {
 		out.close();
 		
 	}
-	private void printSpagedi(List<String> sampleIds,List<List<CalledGenomicVariant>> calls, String outFile) throws IOException {
+	private void printSpagedi(GenotypeMatrix genotypes, String outFile) throws IOException {
+		List<String> sampleIds = genotypes.getSampleIds();
 		StringBuilder [] sequences = new StringBuilder[sampleIds.size()];
 		for(int i=0;i<sequences.length;i++) sequences[i] = new StringBuilder(sampleIds.get(i));
-		
-		for(List<CalledGenomicVariant> callsVariant:calls) {
-			if(callsVariant.size()>0 && !callsVariant.get(0).isBiallelic()) continue;
-			for(int i=0;i<callsVariant.size();i++) {
-				CalledGenomicVariant calledVar = callsVariant.get(i);
+		int numVariants = genotypes.getNumVariants();
+		for(int j=0;j<numVariants;j++) {
+			if(sequences.length>0 && !genotypes.isBiallelic(j)) continue;
+			for(int i=0;i<sequences.length;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
 				String allele = "0,0";
-				if(!calledVar.isUndecided()) {
-					if(calledVar.isHeterozygous()) {
-						allele = "1,2";
-					} else if (calledVar.isHomozygousReference()) {
-						allele = "1,1";
-					} else {
-						allele = "2,2";
-					}
+				if(genotype == GenotypeMatrix.GENOTYPE_HETERO) {
+					allele = "1,2";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) {
+					allele = "1,1";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOALT) {
+					allele = "2,2";
 				}
 				sequences[i].append("\t"+allele);
 			}
 		}
 		PrintStream out = new PrintStream(outFile);
-		out.println(""+sampleIds.size()+"\t0\t0\t"+calls.size()+"\t1\t2");
+		out.println(""+sampleIds.size()+"\t0\t0\t"+numVariants+"\t1\t2");
 		out.println("0");
 		out.print("Ind");
-		for(int i=0;i<calls.size();i++) {
+		for(int i=0;i<numVariants;i++) {
 			out.print("\tSNP_"+(i+1));
 		}
 		out.println();
@@ -819,23 +821,22 @@ public class VCFConverter {
 		out.println();
 	}
 		
-	private void printStructure(List<String> sampleIds,List<List<CalledGenomicVariant>> calls, String outFile) throws IOException {
+	private void printStructure(GenotypeMatrix genotypes, String outFile) throws IOException {
+		List<String> sampleIds = genotypes.getSampleIds();
 		StringBuilder [] sequences = new StringBuilder[sampleIds.size()];
 		for(int i=0;i<sequences.length;i++) sequences[i] = new StringBuilder(sampleIds.get(i));
 		
-		for(List<CalledGenomicVariant> callsVariant:calls) {
-			if(callsVariant.size()>0 && !callsVariant.get(0).isBiallelic()) continue;
-			for(int i=0;i<callsVariant.size();i++) {
-				CalledGenomicVariant calledVar = callsVariant.get(i);
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			if(sequences.length>0 && !genotypes.isBiallelic(j)) continue;
+			for(int i=0;i<sequences.length;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
 				String allele = "-9 -9";
-				if(!calledVar.isUndecided()) {
-					if(calledVar.isHeterozygous()) {
-						allele = "0 1";
-					} else if (calledVar.isHomozygousReference()) {
-						allele = "0 0";
-					} else {
-						allele = "1 1";
-					}
+				if(genotype == GenotypeMatrix.GENOTYPE_HETERO) {
+					allele = "0 1";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) {
+					allele = "0 0";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOALT) {
+					allele = "1 1";
 				}
 				sequences[i].append(" "+allele);
 			}
@@ -848,7 +849,8 @@ public class VCFConverter {
 		out.close();
 	}
 	
-	private void printrrBLUP(List<String> sampleIds,List<List<CalledGenomicVariant>> calls, String prefix) throws IOException {
+	private void printrrBLUP(GenotypeMatrix genotypes, String prefix) throws IOException {
+		List<String> sampleIds = genotypes.getSampleIds();
 		String outFile = prefix+"_rrBLUP.in";
 		String outSamples = prefix+"_rrBLUP_samples.txt";
 		PrintStream outS = new PrintStream(outSamples);
@@ -860,21 +862,19 @@ public class VCFConverter {
 		StringBuilder [] sequences = new StringBuilder[sampleIds.size()];
 		for(int i=0;i<sequences.length;i++) sequences[i] = new StringBuilder();
 		
-		for(List<CalledGenomicVariant> callsVariant:calls) {
-			if(callsVariant.size()>0 && !callsVariant.get(0).isBiallelic()) continue;
-			for(int i=0;i<callsVariant.size();i++) {
-				CalledGenomicVariant calledVar = callsVariant.get(i);
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			if(sequences.length>0 && !genotypes.isBiallelic(j)) continue;
+			for(int i=0;i<sequences.length;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
 				String allele = "NA";
-				if(!calledVar.isUndecided()) {
-					if(calledVar.isHeterozygous()) {
-						allele = "0";
-					} else if (calledVar.isHomozygousReference()) {
-						allele = "1";
-					} else {
-						allele = "-1";
-					}
+				if(genotype == GenotypeMatrix.GENOTYPE_HETERO) {
+					allele = "0";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) {
+					allele = "1";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOALT) {
+					allele = "-1";
 				}
-				if(i>=0) sequences[i].append(" ");
+				sequences[i].append(" ");
 				sequences[i].append(allele);
 			}
 		}
@@ -886,18 +886,19 @@ public class VCFConverter {
 		out.close();
 	}
 	
-	private void printFasta(List<String> sampleIds, List<List<CalledGenomicVariant>> calls, String outFile) throws IOException {
+	private void printFasta(GenotypeMatrix genotypes, String outFile) throws IOException {
+		List<String> sampleIds = genotypes.getSampleIds();
 		StringBuilder [] sequences = new StringBuilder[sampleIds.size()];
 		for(int i=0;i<sequences.length;i++) sequences[i] = new StringBuilder();
-		for(List<CalledGenomicVariant> callsVariant:calls) {
-			if(callsVariant.size()>0 && !callsVariant.get(0).isBiallelic()) continue;
-			for(int i=0;i<callsVariant.size();i++) {
-				CalledGenomicVariant calledVar = callsVariant.get(i);
-				String [] alleles = calledVar.getAlleles();
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			if(sequences.length>0 && !genotypes.isBiallelic(j)) continue;
+			String [] alleles = genotypes.getAlleles(j);
+			for(int i=0;i<sequences.length;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
 				char call = 'N';
-				if(calledVar.isHomozygousReference()) {
+				if(genotype == GenotypeMatrix.GENOTYPE_HOMOREF) {
 					call = alleles[0].charAt(0);
-				} else if (calledVar.isHomozygous()) {
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOALT) {
 					call = alleles[1].charAt(0);
 				} 
 				sequences[i].append(call);
@@ -1055,31 +1056,30 @@ public class VCFConverter {
 
 	
 	
-	private void printDarwin(List<String> sampleIds,List<List<CalledGenomicVariant>> calls, String outPrefix) throws IOException {
+	private void printDarwin(GenotypeMatrix genotypes, String outPrefix) throws IOException {
+		List<String> sampleIds = genotypes.getSampleIds();
 		StringBuilder [] sequences = new StringBuilder[sampleIds.size()];
 		for(int i=0;i<sequences.length;i++) sequences[i] = new StringBuilder(sampleIds.get(i));
 		PrintStream out = new PrintStream(outPrefix+"_Darwin.in");
 		PrintStream outSNPs = new PrintStream(outPrefix+"_Darwin.snp");
-		out.println(sampleIds.size()+"\t"+(2*calls.size()));
+		out.println(sampleIds.size()+"\t"+(2*genotypes.getNumVariants()));
 		out.print("N");
 		int snpId=1;
-		for(List<CalledGenomicVariant> callsVariant:calls) {
-			for(int i=0;i<callsVariant.size();i++) {
-				CalledGenomicVariant calledVar = callsVariant.get(i);
+		for(int j=0;j<genotypes.getNumVariants();j++) {
+			for(int i=0;i<sequences.length;i++) {
+				byte genotype = genotypes.getGenotype(i, j);
 				String allele = "-9\t-9";
-				if(!calledVar.isUndecided()) {
-					if(calledVar.isHeterozygous()) {
-						allele = "0\t1";
-					} else if (calledVar.isHomozygousReference()) {
-						allele = "0\t0";
-					} else {
-						allele = "1\t1";
-					}
+				if(genotype == GenotypeMatrix.GENOTYPE_HETERO) {
+					allele = "0\t1";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOREF) {
+					allele = "0\t0";
+				} else if (genotype == GenotypeMatrix.GENOTYPE_HOMOALT) {
+					allele = "1\t1";
 				}
 				sequences[i].append("\t"+allele);
 				if(i==0) {
 					out.print("\t"+snpId+"\t"+snpId);
-					outSNPs.println(snpId+"\t"+calledVar.getSequenceName()+"\t"+calledVar.getFirst());
+					outSNPs.println(snpId+"\t"+genotypes.getSequenceName(j)+"\t"+genotypes.getFirst(j));
 					snpId++;
 				}
 			}
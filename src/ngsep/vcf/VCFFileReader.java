@@ -31,8 +31,6 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Set;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import ngsep.main.io.ConcatGZIPInputStream;
@@ -70,6 +68,14 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 	
 	private int loadMode = LOAD_MODE_CALLINFO;
 	
+	//Buffers reused while parsing genotype calls
+	private String lastFormatStr = null;
+	private int lastFormatLoadMode = -1;
+	private int [] lastFormatInput = null;
+	private int [] fieldStarts = new int [VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY.length];
+	private int [] fieldEnds = new int [VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY.length];
+	private byte [] phasedAllelesBuffer = new byte [8];
+	
 	public VCFFileReader (String filename) throws IOException {
 		init(null,new File(filename));
 	}
@@ -150,8 +156,22 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 	
 	
 	private VCFRecord loadVCFRecord (String line) {
-		String [] items = ParseUtils.parseString(line,'\t');
-		if(items.length<8) {
+		//Only the first nine columns are extracted as strings. Sample columns are decoded directly from the line
+		String [] items = new String[9];
+		int numItems = 0;
+		int samplesStart = -1;
+		int start = 0;
+		while(numItems<items.length) {
+			int end = line.indexOf('\t', start);
+			if(end<0) {
+				items[numItems++] = line.substring(start);
+				break;
+			}
+			items[numItems++] = line.substring(start,end);
+			start = end+1;
+			if(numItems==items.length) samplesStart = start;
+		}
+		if(numItems<8) {
 			log.severe("Could not load line: "+line+". VCF records must have at least 8 columns");
 			return null;
 		}
@@ -161,29 +181,37 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 		List<GenomicVariantAnnotation> infoFields = loadInfoField(variant, items[7]);
 		
 		//if(variant.getType() == GenomicVariant.TYPE_UNDETERMINED && items[3].length()>1) variant.setType(GenomicVariant.TYPE_INDEL);
-		List<CalledGenomicVariant> calls = new ArrayList<CalledGenomicVariant>();
 		List<Sample> samples = header.getSamples();
 		
-		if(items.length==8) {
+		if(numItems==8) {
 			if (samples.size()>0) {
 				log.severe("Can not load genomic variant at "+items[0]+":"+items[1]+". Number of genotyped samples does not coincide with number of samples in the header");
 				return null;
 			}
-			return new VCFRecord(variant, filters, infoFields, new int [0], calls, header);
+			return new VCFRecord(variant, filters, infoFields, new int [0], new ArrayList<CalledGenomicVariant>(), header);
 		}
 		//If genotype information is present
 		int[] formatInput = loadInputFormat(items[8]);
-		if(items.length-9!=samples.size()) {
+		int numSampleColumns = 0;
+		if(samplesStart>=0) {
+			numSampleColumns = 1;
+			for(int i=line.indexOf('\t', samplesStart);i>=0;i=line.indexOf('\t', i+1)) numSampleColumns++;
+		}
+		if(numSampleColumns!=samples.size()) {
 			log.severe("Can not load genomic variant at "+items[0]+":"+items[1]+". Number of genotyped samples does not coincide with number of samples in the header");
 			return null;
 		}
+		List<CalledGenomicVariant> calls = new ArrayList<CalledGenomicVariant>(numSampleColumns);
 		boolean nonDefaultCN = false;
-		for(int i=9;i<items.length;i++) {
-			String [] itemsSample = ParseUtils.parseString(items[i], ':');
-			Sample s = samples.get(i-9);
-			CalledGenomicVariant call = loadCalledVariant(variant,formatInput,itemsSample,s); 
+		start = samplesStart;
+		for(int i=0;i<numSampleColumns;i++) {
+			int end = line.indexOf('\t', start);
+			if(end<0) end = line.length();
+			Sample s = samples.get(i);
+			CalledGenomicVariant call = loadCalledVariant(variant,formatInput,line,start,end,s); 
 			calls.add(call);
 			if(call.getCopyNumber()!=CalledGenomicVariant.DEFAULT_PLOIDY) nonDefaultCN = true;
+			start = end+1;
 		}
 		int [] formatLoad = makeLoadFormat (formatInput,loadMode!=LOAD_MODE_MINIMAL && nonDefaultCN && variant.getType()<=GenomicVariant.TYPE_STR);	
 		return new VCFRecord(variant, filters, infoFields, formatLoad, calls, header);
@@ -292,6 +320,8 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 	}
 	
 	private int[] loadInputFormat(String formatStr) {
+		//Consecutive records usually have the same format
+		if(formatStr.equals(lastFormatStr) && loadMode == lastFormatLoadMode) return lastFormatInput;
 		String [] itemsFormat = ParseUtils.parseString(formatStr, ':');
 		int [] answer = new int [itemsFormat.length];
 		Arrays.fill(answer, -1);
@@ -304,72 +334,108 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 				answer[i] = index;
 			}
 		}
+		lastFormatStr = formatStr;
+		lastFormatLoadMode = loadMode;
+		lastFormatInput = answer;
 		return answer;
 	}
-	private CalledGenomicVariant loadCalledVariant(GenomicVariant variant,int [] format, String[] itemsSample, Sample sample) {
+	/**
+	 * Loads the genotype call of a sample from the given region of a VCF line
+	 * @param variant Variant called
+	 * @param format Indexes of the known format fields. Negative indexes are not loaded
+	 * @param line VCF line
+	 * @param start First position of the sample information within the line
+	 * @param end Position after the last character of the sample information within the line
+	 * @param sample Sample called
+	 * @return CalledGenomicVariant Genotype call of the sample
+	 */
+	private CalledGenomicVariant loadCalledVariant(GenomicVariant variant,int [] format, String line, int start, int end, Sample sample) {
 		String sampleId = sample.getId();
-		if(itemsSample.length>format.length) {
-			log.severe("Can not load genotype of sample "+sampleId+" for genomic variant at "+variant.getSequenceName()+":"+variant.getFirst()+". Sample information does not match format");
-			CalledGenomicVariantImpl answer = new CalledGenomicVariantImpl(variant,new byte[0]);
-			answer.setSampleId(sampleId);
-			answer.updateAllelesCopyNumberFromCounts(sample.getNormalPloidy());
-			return answer;
-		}
-		String [] knownItemsSample = new String [VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY.length];
-		Arrays.fill(knownItemsSample, null);
-		for(int i=0;i<itemsSample.length;i++) {
-			if(format[i]>=0)knownItemsSample[format[i]] = itemsSample[i];
+		//Locate the fields to load without creating substrings
+		Arrays.fill(fieldStarts, -1);
+		int numItems = 0;
+		int itemStart = start;
+		while(true) {
+			int itemEnd = indexOf(line, ':', itemStart, end);
+			if(numItems>=format.length) {
+				log.severe("Can not load genotype of sample "+sampleId+" for genomic variant at "+variant.getSequenceName()+":"+variant.getFirst()+". Sample information does not match format");
+				CalledGenomicVariantImpl answer = new CalledGenomicVariantImpl(variant,new byte[0]);
+				answer.setSampleId(sampleId);
+				answer.updateAllelesCopyNumberFromCounts(sample.getNormalPloidy());
+				return answer;
+			}
+			int idx = format[numItems];
+			if(idx>=0) {
+				fieldStarts[idx] = itemStart;
+				fieldEnds[idx] = itemEnd;
+			}
+			numItems++;
+			if(itemEnd>=end) break;
+			itemStart = itemEnd+1;
 		}
 		//Load genotype field
 		String [] alleles = variant.getAlleles();
 		int numAlleles = alleles.length;
 		//Load called alleles with copy number if present
-		String genotypeStr=knownItemsSample[VCFRecord.FORMAT_IDX_GT];
-		if(genotypeStr==null) genotypeStr = ".";
-		String [] callItems = ParseUtils.parseString(genotypeStr, '|', '/');
-		boolean phased = callItems.length>1 && genotypeStr.charAt(callItems[0].length())=='|';
+		String genotypeSource = line;
+		int genotypeStart = fieldStarts[VCFRecord.FORMAT_IDX_GT];
+		int genotypeEnd = fieldEnds[VCFRecord.FORMAT_IDX_GT];
+		if(genotypeStart<0) {
+			genotypeSource = NO_INFO_CHAR;
+			genotypeStart = 0;
+			genotypeEnd = genotypeSource.length();
+		}
 		short [] allelesCNG = new short[numAlleles];
-		byte [] phasedAlleles = new byte[callItems.length];
-		short totalCNG = (short)Math.min(CalledGenomicVariant.MAX_PLOIDY_SAMPLE, callItems.length);
-		Arrays.fill(allelesCNG, (short)0);
-		Set<Byte> uniqueAlleles = new TreeSet<Byte>();
-		for(int j=0;j<callItems.length;j++)  {
-			if(callItems[j].length()>0 && callItems[j].charAt(0)!='.') {
-				byte nextAlleleId;
+		int numCallItems = 0;
+		boolean phased = false;
+		boolean validGenotype = true;
+		itemStart = genotypeStart;
+		while(true) {
+			int itemEnd = itemStart;
+			while(itemEnd<genotypeEnd && genotypeSource.charAt(itemEnd)!='/' && genotypeSource.charAt(itemEnd)!='|') itemEnd++;
+			if(numCallItems==1) phased = genotypeSource.charAt(itemStart-1)=='|';
+			if(numCallItems == phasedAllelesBuffer.length) phasedAllelesBuffer = Arrays.copyOf(phasedAllelesBuffer, 2*phasedAllelesBuffer.length);
+			phasedAllelesBuffer[numCallItems] = 0;
+			if(validGenotype && itemEnd>itemStart && genotypeSource.charAt(itemStart)!='.') {
+				int nextAlleleId = -1;
 				try {
-					nextAlleleId = Byte.parseByte(callItems[j]);
+					nextAlleleId = ParseUtils.parseInt(genotypeSource, itemStart, itemEnd);
+					if(nextAlleleId<Byte.MIN_VALUE || nextAlleleId>Byte.MAX_VALUE) throw new NumberFormatException("Value out of range: "+nextAlleleId);
 				} catch (NumberFormatException e) {
-					log.severe("Can not load genotype of sample "+sampleId+" for genomic variant at "+variant.getSequenceName()+":"+variant.getFirst()+". Called allele "+callItems[j]+" is not a number");
-					uniqueAlleles.clear();
-					break;
+					log.severe("Can not load genotype of sample "+sampleId+" for genomic variant at "+variant.getSequenceName()+":"+variant.getFirst()+". Called allele "+genotypeSource.substring(itemStart, itemEnd)+" is not a number");
+					validGenotype = false;
 				}
-				if(nextAlleleId<0 || nextAlleleId>=numAlleles) {
+				if(validGenotype && (nextAlleleId<0 || nextAlleleId>=numAlleles)) {
 					log.severe("Can not load genotype of sample "+sampleId+" for genomic variant at "+variant.getSequenceName()+":"+variant.getFirst()+". Inconsistent called allele "+nextAlleleId+" for the total number of alleles: "+numAlleles);
-					uniqueAlleles.clear();
-					break;
+					validGenotype = false;
 				}
-				uniqueAlleles.add(nextAlleleId);
-				allelesCNG[nextAlleleId]++;
-				phasedAlleles [j] = nextAlleleId;
+				if(validGenotype) {
+					allelesCNG[nextAlleleId]++;
+					phasedAllelesBuffer [numCallItems] = (byte)nextAlleleId;
+				}
+			}
+			numCallItems++;
+			if(itemEnd>=genotypeEnd) break;
+			itemStart = itemEnd+1;
+		}
+		short totalCNG = (short)Math.min(CalledGenomicVariant.MAX_PLOIDY_SAMPLE, numCallItems);
+		int numCalledAlleles = 0;
+		if(validGenotype) {
+			for(int j=0;j<numAlleles;j++) {
+				if(allelesCNG[j]>0) numCalledAlleles++;
 			}
 		}
-		byte [] calledAlleleIds = new byte[uniqueAlleles.size()];
-		if(calledAlleleIds.length==0) phased = false;
-		Iterator<Byte> it = uniqueAlleles.iterator();
-		for(int j=0;it.hasNext();j++)  {
-			byte nextAlleleId = it.next();
-			calledAlleleIds[j] = nextAlleleId;
+		byte [] calledAlleleIds = new byte[numCalledAlleles];
+		for(int j=0,k=0;k<numCalledAlleles;j++)  {
+			if(allelesCNG[j]>0) calledAlleleIds[k++] = (byte)j;
 		}
+		if(calledAlleleIds.length==0) phased = false;
 		
-		if(calledAlleleIds.length>numAlleles) {
-			log.severe("Can not load genotype of sample "+sampleId+" for genomic variant at "+variant.getSequenceName()+":"+variant.getFirst()+". More called alleles than total alleles");
-			calledAlleleIds = new byte[0];
-		}
 		//Load variant-specific optional information 
-		int [] allCounts = loadCounts(knownItemsSample[VCFRecord.FORMAT_IDX_BSDP],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_BSDP],sampleId,variant,4);
-		int [] counts = loadCounts(knownItemsSample[VCFRecord.FORMAT_IDX_ADP],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_ADP],sampleId,variant,alleles.length);
-		double [][] logConditionals = loadConditionals (numAlleles,knownItemsSample[VCFRecord.FORMAT_IDX_PL],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_PL],sampleId,variant,callItems.length==1,true);
-		if(logConditionals==null) logConditionals = loadConditionals (numAlleles,knownItemsSample[VCFRecord.FORMAT_IDX_GL],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_GL],sampleId,variant,callItems.length==1,false);
+		int [] allCounts = loadCounts(line,VCFRecord.FORMAT_IDX_BSDP,sampleId,variant,4);
+		int [] counts = loadCounts(line,VCFRecord.FORMAT_IDX_ADP,sampleId,variant,alleles.length);
+		double [][] logConditionals = loadConditionals (numAlleles,line,VCFRecord.FORMAT_IDX_PL,sampleId,variant,numCallItems==1,true);
+		if(logConditionals==null) logConditionals = loadConditionals (numAlleles,line,VCFRecord.FORMAT_IDX_GL,sampleId,variant,numCallItems==1,false);
 		//Create object consistent with the variant information
 		CalledGenomicVariant answer = null;
 		if(variant instanceof SNV) {
@@ -394,14 +460,14 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 				cnv = new CalledCNV(variant);
 			}
 			answer = cnv;
-			Double v = loadSingleNumber(knownItemsSample[VCFRecord.FORMAT_IDX_RNC],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_RNC],sampleId,variant, false);
-			if(v!=null) cnv.setNumCopies(v.floatValue(),false);
-			v = loadSingleNumber(knownItemsSample[VCFRecord.FORMAT_IDX_NTADF],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_NTADF],sampleId,variant, true);
-			if(v!=null) cnv.setTandemFragments(v.intValue());
-			v = loadSingleNumber(knownItemsSample[VCFRecord.FORMAT_IDX_NTRDF],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_NTRDF],sampleId,variant, true);
-			if(v!=null) cnv.setTransDupFragments(v.intValue());
-			String textGen = knownItemsSample[VCFRecord.FORMAT_IDX_TGEN];
-			if(textGen!=null) cnv.setTextGenotype(textGen);
+			double v = loadSingleNumber(line,VCFRecord.FORMAT_IDX_RNC,sampleId,variant, false);
+			if(!Double.isNaN(v)) cnv.setNumCopies((float)v,false);
+			v = loadSingleNumber(line,VCFRecord.FORMAT_IDX_NTADF,sampleId,variant, true);
+			if(!Double.isNaN(v)) cnv.setTandemFragments((int)v);
+			v = loadSingleNumber(line,VCFRecord.FORMAT_IDX_NTRDF,sampleId,variant, true);
+			if(!Double.isNaN(v)) cnv.setTransDupFragments((int)v);
+			int textGenStart = fieldStarts[VCFRecord.FORMAT_IDX_TGEN];
+			if(textGenStart>=0) cnv.setTextGenotype(line.substring(textGenStart, fieldEnds[VCFRecord.FORMAT_IDX_TGEN]));
 		} else {
 			CalledGenomicVariantImpl cv = new CalledGenomicVariantImpl(variant, calledAlleleIds);
 			answer = cv;
@@ -410,14 +476,14 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 		}
 		answer.setSampleId(sampleId);
 		//Allowed real numbers in this field to be able to load freebayes GQ fields
-		Double v = loadSingleNumber(knownItemsSample[VCFRecord.FORMAT_IDX_GQ],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_GQ],sampleId,variant, false);
-		if(v!=null) answer.setGenotypeQuality(v.shortValue());
-		v = loadSingleNumber(knownItemsSample[VCFRecord.FORMAT_IDX_DP],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_DP],sampleId,variant, true);
-		if(v!=null) answer.setTotalReadDepth(v.intValue());
+		double v = loadSingleNumber(line,VCFRecord.FORMAT_IDX_GQ,sampleId,variant, false);
+		if(!Double.isNaN(v)) answer.setGenotypeQuality((short)v);
+		v = loadSingleNumber(line,VCFRecord.FORMAT_IDX_DP,sampleId,variant, true);
+		if(!Double.isNaN(v)) answer.setTotalReadDepth((int)v);
 		//Load alleles copy number
 		if(variant.getType() != GenomicVariant.TYPE_CNV) {
 			short [] allelesCN = null;
-			int [] countsA = loadCounts(knownItemsSample[VCFRecord.FORMAT_IDX_ACN],VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[VCFRecord.FORMAT_IDX_ACN],sampleId,variant,alleles.length);
+			int [] countsA = loadCounts(line,VCFRecord.FORMAT_IDX_ACN,sampleId,variant,alleles.length);
 			int totalCopyNumber = 0;
 			if(countsA!=null) {
 				allelesCN = new short [countsA.length];		
@@ -446,14 +512,14 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 		//Load phasing
 		if(phased) {
 			int copyNumber = answer.getCopyNumber();
-			if(copyNumber == phasedAlleles.length) {
+			if(copyNumber == numCallItems) {
 				//TODO: Load SNVs with  
 				if(answer instanceof CalledSNV && copyNumber == 2) {
 					CalledSNV csnv = (CalledSNV)answer;
-					csnv.setPhasingCN2(phasedAlleles[0]==1);
+					csnv.setPhasingCN2(phasedAllelesBuffer[0]==1);
 				} else if (answer instanceof CalledGenomicVariantImpl) {
 					CalledGenomicVariantImpl call = (CalledGenomicVariantImpl)answer;
-					call.setIndexesPhasedAlleles(phasedAlleles);
+					call.setIndexesPhasedAlleles(Arrays.copyOf(phasedAllelesBuffer, numCallItems));
 				} else {
 					log.severe("Can not load phasing information for sample "+sampleId+" at genomic variant "+variant.getSequenceName()+":"+variant.getFirst()+". Phasing of SNVs with high copy number still not supported");
 				}
@@ -466,56 +532,84 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 		return answer;
 		
 	}
-	private Double loadSingleNumber (String value, String formatField, String sampleId, GenomicVariant var, boolean integer) {
-		if(value==null || NO_INFO_CHAR.equals(value)) return null;
+	private static int indexOf(String line, char c, int start, int end) {
+		for(int i=start;i<end;i++) {
+			if(line.charAt(i)==c) return i;
+		}
+		return end;
+	}
+	private static boolean isNoInfo(String line, int start, int end) {
+		return end-start==1 && line.charAt(start)==NO_INFO_CHAR.charAt(0);
+	}
+	private double loadSingleNumber (String line, int formatIdx, String sampleId, GenomicVariant var, boolean integer) {
+		int start = fieldStarts[formatIdx];
+		if(start<0) return Double.NaN;
+		int end = fieldEnds[formatIdx];
+		if(isNoInfo(line, start, end)) return Double.NaN;
 		try {
 			if(integer) {
-				return 0.0+Integer.parseInt(value);
+				return ParseUtils.parseInt(line, start, end);
 			}
-			return Double.parseDouble(value);
+			if(ParseUtils.isInteger(line, start, end)) return ParseUtils.parseInt(line, start, end);
+			return Double.parseDouble(line.substring(start, end));
 		} catch (NumberFormatException e) {
-			log.severe("Can not load value of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Error parsing value: "+value);
-			return null;
+			log.severe("Can not load value of format field "+VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[formatIdx]+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Error parsing value: "+line.substring(start, end));
+			return Double.NaN;
 		}
 	}
-	private int[] loadCounts(String countsStr, String formatField, String sampleId, GenomicVariant var, int expectedCounts) {
-		if(countsStr==null || NO_INFO_CHAR.equals(countsStr)) return null; 
-		String [] countsItems = ParseUtils.parseString(countsStr, ',');
-		if(countsItems.length!=expectedCounts) {
-			log.severe("Can not load counts of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Number of depths: "+countsItems.length+" different than the expected number: "+expectedCounts);
+	private int[] loadCounts(String line, int formatIdx, String sampleId, GenomicVariant var, int expectedCounts) {
+		int start = fieldStarts[formatIdx];
+		if(start<0) return null;
+		int end = fieldEnds[formatIdx];
+		if(isNoInfo(line, start, end)) return null;
+		String formatField = VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[formatIdx];
+		int numItems = 1;
+		for(int i=start;i<end;i++) {
+			if(line.charAt(i)==',') numItems++;
+		}
+		if(numItems!=expectedCounts) {
+			log.severe("Can not load counts of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Number of depths: "+numItems+" different than the expected number: "+expectedCounts);
 			return null;
 		}
-		int [] counts = new int[countsItems.length];
-		for(int j=0;j<countsItems.length;j++) {
+		int [] counts = new int[numItems];
+		int itemStart = start;
+		for(int j=0;j<numItems;j++) {
+			int itemEnd = indexOf(line, ',', itemStart, end);
 			try {
-				counts[j] = Integer.parseInt(countsItems[j]);
+				counts[j] = ParseUtils.parseInt(line, itemStart, itemEnd);
 			} catch (NumberFormatException e) {
-				log.severe("Can not load counts of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Error parsing count: "+countsItems[j]);
+				log.severe("Can not load counts of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Error parsing count: "+line.substring(itemStart, itemEnd));
 				return null;
 			}
+			itemStart = itemEnd+1;
 		}
 		return counts;
 	}
-	private double[][] loadConditionals(int numAlleles, String dataStr, String formatField, String sampleId, GenomicVariant var, boolean haploidGT, boolean phredScaled) {
-		if(dataStr==null || NO_INFO_CHAR.equals(dataStr)) return null;
+	private double[][] loadConditionals(int numAlleles, String line, int formatIdx, String sampleId, GenomicVariant var, boolean haploidGT, boolean phredScaled) {
+		int start = fieldStarts[formatIdx];
+		if(start<0) return null;
+		int end = fieldEnds[formatIdx];
+		if(isNoInfo(line, start, end)) return null;
+		String formatField = VCFRecord.KNOWN_FORMAT_FIELDS_ARRAY[formatIdx];
 		double [][] answer = new double [numAlleles][numAlleles];
-		String [] dataItems = ParseUtils.parseString(dataStr, ',');
-		if(haploidGT && numAlleles==dataItems.length) {
-			for(int i=0;i<dataItems.length;i++) {
+		int numItems = 1;
+		for(int i=start;i<end;i++) {
+			if(line.charAt(i)==',') numItems++;
+		}
+		int itemStart = start;
+		if(haploidGT && numAlleles==numItems) {
+			for(int i=0;i<numItems;i++) {
+				int itemEnd = indexOf(line, ',', itemStart, end);
 				Arrays.fill(answer[i], -100);
 				double next;
 				try {
-					if(phredScaled) {
-						next = Integer.parseInt(dataItems[i]);
-						next = -next/10;
-					} else {
-						next = Double.parseDouble(dataItems[i]);
-					}
+					next = parseConditional(line, itemStart, itemEnd, phredScaled);
 				} catch (NumberFormatException e) {
-					log.severe("Can not load values of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Error parsing value: "+dataItems[i]);
+					log.severe("Can not load values of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Error parsing value: "+line.substring(itemStart, itemEnd));
 					return null;
 				}
 				answer[i][i] = next;
+				itemStart = itemEnd+1;
 			}
 			return answer;
 		}
@@ -523,29 +617,33 @@ public class VCFFileReader implements Iterable<VCFRecord>,Closeable {
 		for(int j=0;j<numAlleles;j++) {
 			for(int i=0;i<=j;i++) {
 				//Not enough fields found
-				if(k>=dataItems.length) {
-					log.severe("Can not load genotype data of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Unexpected number of values: "+dataItems.length+" for "+numAlleles+" alleles");
+				if(k>=numItems) {
+					log.severe("Can not load genotype data of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Unexpected number of values: "+numItems+" for "+numAlleles+" alleles");
 					return null;
 				}
+				int itemEnd = indexOf(line, ',', itemStart, end);
 				double next;
 				try {
-					if(phredScaled) {
-						next = Integer.parseInt(dataItems[k]);
-						next = -next/10;
-					} else {
-						next = Double.parseDouble(dataItems[k]);
-					}
+					next = parseConditional(line, itemStart, itemEnd, phredScaled);
 				} catch (NumberFormatException e) {
-					log.severe("Can not load values of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Error parsing value: "+dataItems[k]);
+					log.severe("Can not load values of format field "+formatField+" for sample "+sampleId+" at genomic variant at "+var.getSequenceName()+":"+var.getFirst()+". Error parsing value: "+line.substring(itemStart, itemEnd));
 					return null;
 				}
 				answer[i][j] = next;
 				if(i!=j) answer [j][i] = next;
 				k++;
+				itemStart = itemEnd+1;
 			}
 		}
 		return answer;
 	}
+	private double parseConditional(String line, int start, int end, boolean phredScaled) {
+		if(phredScaled) {
+			double next = ParseUtils.parseInt(line, start, end);
+			return -next/10;
+		}
+		return Double.parseDouble(line.substring(start, end));
+	}
 	
 	private int[] makeLoadFormat(int[] formatInput, boolean forceCN) {
 		List<Integer> loadFields = new ArrayList<Integer>();
@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -31,7 +32,9 @@ import java.util.logging.Logger;
 import ngsep.genome.ReferenceGenome;
 import ngsep.main.CommandsDescriptor;
 import ngsep.main.OptionValuesDecoder;
+import ngsep.main.OrderedBatchWriter;
 import ngsep.main.ProgressNotifier;
+import ngsep.main.ThreadPoolManager;
 import ngsep.transcriptome.Transcriptome;
 import ngsep.transcriptome.VariantAnnotationParameters;
 import ngsep.transcriptome.VariantFunctionalAnnotation;
@@ -54,6 +57,9 @@ public class VCFFunctionalAnnotator {
 	public static final int DEF_SPLICE_ACCEPTOR=VariantAnnotationParameters.DEF_SPLICE_ACCEPTOR;
 	public static final int DEF_SPLICE_REGION_INTRON=VariantAnnotationParameters.DEF_SPLICE_REGION_INTRON;
 	public static final int DEF_SPLICE_REGION_EXON=VariantAnnotationParameters.DEF_SPLICE_REGION_EXON;
+	public static final int DEF_NUM_THREADS = 1;
+	public static final int DEF_BATCH_SIZE = 1000;
+	private static final int MAX_QUEUED_BATCHES = 10;
 	
 	// Logging and progress
 	private Logger log = Logger.getLogger(VCFFunctionalAnnotator.class.getName());
@@ -66,6 +72,8 @@ public class VCFFunctionalAnnotator {
 	private Transcriptome transcriptome;
 	private String outputFile = null;
 	private VariantAnnotationParameters parameters = new VariantAnnotationParameters();
+	private int numThreads = DEF_NUM_THREADS;
+	private int batchSize = DEF_BATCH_SIZE;
 	
 	// Get and set methods
 	public Logger getLog() {
@@ -204,6 +212,32 @@ public class VCFFunctionalAnnotator {
 		this.setSpliceRegionExonOffset((int) OptionValuesDecoder.decode(value, Integer.class));
 	}
 	
+	public int getNumThreads() {
+		return numThreads;
+	}
+	public void setNumThreads(int numThreads) {
+		if(numThreads<1) throw new IllegalArgumentException("Number of threads must be positive. Invalid value: "+numThreads);
+		this.numThreads = numThreads;
+	}
+	public void setNumThreads(String value) {
+		setNumThreads((int) OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+	/**
+	 * Changes the number of records annotated by each task when more than one thread is used
+	 * @param batchSize New number of records per batch
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize<1) throw new IllegalArgumentException("The batch size must be a positive number");
+		this.batchSize = batchSize;
+	}
+	public void setBatchSize(String value) {
+		setBatchSize((int) OptionValuesDecoder.decode(value, Integer.class));
+	}
+	
 	public static void main(String[] args) throws Exception {
 		VCFFunctionalAnnotator instance = new VCFFunctionalAnnotator();
 		CommandsDescriptor.getInstance().loadOptions(instance, args);
@@ -243,6 +277,8 @@ public class VCFFunctionalAnnotator {
 		out.println("Splice acceptor offset: "+getSpliceAcceptorOffset());
 		out.println("Splice region intron offset: "+getSpliceRegionIntronOffset());
 		out.println("Splice region exon offset: "+getSpliceRegionExonOffset());
+		out.println("Number of threads: "+numThreads);
+		if(numThreads>1) out.println("Records annotated by each task: "+batchSize);
 		
 		log.info(""+os.toString());
 	}
@@ -287,6 +323,10 @@ public class VCFFunctionalAnnotator {
 		header.addMissingEntries();
 		writer.printHeader(header,out);
 		Iterator<VCFRecord> it = in.iterator();
+		if(numThreads>1) {
+			annotateParallel(it, out);
+			return;
+		}
 		int n=0;
 		while (it.hasNext()) {
 			VCFRecord record = it.next();
@@ -304,6 +344,68 @@ public class VCFFunctionalAnnotator {
 		out.flush();
 	}
 
+	/**
+	 * Annotates the records of the given iterator in batches processed by different threads.
+	 * Records are parsed by the calling thread and written in the input order by a single thread
+	 * @param it Iterator over the records to annotate
+	 * @param out Stream to write the annotated records
+	 */
+	private void annotateParallel(Iterator<VCFRecord> it, PrintStream out) {
+		ThreadPoolManager pool = new ThreadPoolManager(numThreads, MAX_QUEUED_BATCHES);
+		int batchNumber = 0;
+		try (OrderedBatchWriter<ByteArrayOutputStream> batchWriter = new OrderedBatchWriter<>("VCFRecordBatchWriter", (formatted)->formatted.writeTo(out), MAX_QUEUED_BATCHES+numThreads)) {
+			List<VCFRecord> batch = new ArrayList<>(batchSize);
+			int n=0;
+			boolean cancelled = false;
+			while (it.hasNext() && !cancelled) {
+				batch.add(it.next());
+				n++;
+				if (progressNotifier!=null && n%1000==0) {
+					int progress = n/1000;
+					cancelled = !progressNotifier.keepRunning(progress);
+				}
+				if(batch.size()==batchSize || !it.hasNext() || cancelled) {
+					batchWriter.checkError();
+					final int number = batchNumber;
+					final List<VCFRecord> records = batch;
+					pool.queueTask(()->annotateBatch(number, records, batchWriter));
+					batchNumber++;
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+			batchWriter.finish(batchNumber);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			//Tasks finish quickly after an error because the batch writer stops accepting batches
+			try {
+				pool.terminatePool();
+			} catch (InterruptedException e) {
+				log.warning("Interrupted while terminating annotation threads: "+e.getMessage());
+			}
+		}
+		out.flush();
+	}
+	
+	private void annotateBatch(int batchNumber, List<VCFRecord> records, OrderedBatchWriter<ByteArrayOutputStream> batchWriter) {
+		try {
+			for(VCFRecord record:records) {
+				if(record.getVariant().getAlleles().length>=2) annotate(record);
+			}
+			VCFFileWriter writer = new VCFFileWriter();
+			ByteArrayOutputStream formatted = new ByteArrayOutputStream();
+			try (PrintStream batchOut = new PrintStream(formatted)) {
+				writer.printVCFRecords(records, batchOut);
+			}
+			batchWriter.addBatch(batchNumber, formatted);
+		} catch (InterruptedException e) {
+			batchWriter.setError(e);
+		} catch (RuntimeException | Error e) {
+			batchWriter.setError(e);
+			throw e;
+		}
+	}
+
 	public void annotate(VCFRecord record) {
 		GenomicVariant v = record.getVariant();
 		List<VariantFunctionalAnnotation> annotations = transcriptome.calculateAnnotations(v, parameters);
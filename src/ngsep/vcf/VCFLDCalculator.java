@@ -23,8 +23,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -105,9 +105,8 @@ public class VCFLDCalculator {
 	
 	public void run(VCFFileReader in, PrintStream out) {
 		if(log!=null)in.setLog(log);
-		
-		List<VCFRecord> recordsInMemory = new LinkedList<>();
 		in.setLoadMode(VCFFileReader.LOAD_MODE_MINIMAL);
+		GenotypeMatrix recordsInMemory = new GenotypeMatrix(in.getHeader().getSampleIds());
 		//TODO: Implement modes
 		Iterator<VCFRecord> it = in.iterator();
 		String lastSeqName = null;
@@ -116,13 +115,13 @@ public class VCFLDCalculator {
 			VCFRecord record = it.next();
 			if(!record.getVariant().isBiallelic()) continue;
 			if(!record.getSequenceName().equals(lastSeqName)) {
-				if(recordsInMemory.size()>0) {
+				if(recordsInMemory.getNumVariants()>0) {
 					calculateLDStatistics(recordsInMemory,out);
 					recordsInMemory.clear();
 				}
 				lastSeqName = record.getSequenceName();
 			}
-			recordsInMemory.add(record);
+			recordsInMemory.addRecord(record);
 			
 			n++;
 			if (progressNotifier!=null && n%1000==0) {
@@ -133,30 +132,65 @@ public class VCFLDCalculator {
 				}
 			}
 		}
-		//System.out.println("Loaded: "+recordsInMemory.size()+" variants");
-		if(recordsInMemory.size()>0) calculateLDStatistics(recordsInMemory,out);
+		//System.out.println("Loaded: "+recordsInMemory.getNumVariants()+" variants");
+		if(recordsInMemory.getNumVariants()>0) calculateLDStatistics(recordsInMemory,out);
 	}
 	/**
 	 * Calculates LD statistics for all pairs of records within the given list
-	 * @param records to process
+	 * @param records to process. All records should have calls for the same samples
 	 * @param out stream to write results
 	 */
 	public void calculateLDStatistics(List<VCFRecord> records, PrintStream out) {
+		if(records.isEmpty()) return;
+		List<String> sampleIds = new ArrayList<>();
+		for(CalledGenomicVariant call:records.get(0).getCalls()) sampleIds.add(call.getSampleId());
+		GenotypeMatrix genotypes = new GenotypeMatrix(sampleIds);
+		for(VCFRecord record:records) genotypes.addRecord(record);
+		calculateLDStatistics(genotypes, out);
+	}
+	/**
+	 * Calculates LD statistics for all pairs of variants within the given genotype matrix
+	 * @param genotypes to process
+	 * @param out stream to write results
+	 */
+	public void calculateLDStatistics(GenotypeMatrix genotypes, PrintStream out) {
 		DecimalFormat fmt = ParseUtils.ENGLISHFMT_PROBABILITIES;
-		int n = records.size();
-		//Array to ensure constant lookup time
-		VCFRecord [] recordsArray = records.toArray(new VCFRecord[0]);
+		int n = genotypes.getNumVariants();
+		int numSamples = genotypes.getNumSamples();
+		//Genotypes of the first variant decoded once for all pairs
+		byte [] genotypes1 = new byte[numSamples];
 		for(int i=0;i<n;i++) {
+			for(int k=0;k<numSamples;k++) genotypes1[k] = genotypes.getGenotype(k, i);
 			for(int j=i+1;j<n;j++) {
-				VCFRecord r1 = recordsArray[i];
-				VCFRecord r2 = recordsArray[j];
-				LDStatistics stats = calculateLDStatistics (r1, r2);
-				System.out.print(r1.getSequenceName()+"\t"+r1.getFirst()+"\t"+r1.getLast()+"\t"+r2.getSequenceName()+"\t"+r2.getFirst()+"\t"+r2.getLast());
-				System.out.println("\t"+(r2.getFirst()-r1.getFirst())+"\t"+stats.getSharedVariants()+"\t"+fmt.format(stats.getD())+"\t"+fmt.format(stats.getDPrime())+"\t"+fmt.format(stats.getR2()));
+				LDStatistics stats = calculateLDStatistics (genotypes1, genotypes, j);
+				out.print(genotypes.getSequenceName(i)+"\t"+genotypes.getFirst(i)+"\t"+genotypes.getLast(i)+"\t"+genotypes.getSequenceName(j)+"\t"+genotypes.getFirst(j)+"\t"+genotypes.getLast(j));
+				out.println("\t"+(genotypes.getFirst(j)-genotypes.getFirst(i))+"\t"+stats.getSharedVariants()+"\t"+fmt.format(stats.getD())+"\t"+fmt.format(stats.getDPrime())+"\t"+fmt.format(stats.getR2()));
 			}
 		}
 		
 	}
+	private LDStatistics calculateLDStatistics(byte [] genotypes1, GenotypeMatrix genotypes, int variantIdx2) {
+		//Frequency of alleles together
+		double n00=0;
+		//Individual frequencies of allele zero in shared sites
+		double n01=0;
+		double n02=0;
+		
+		int shared = 0;
+		for(int i=0;i<genotypes1.length;i++) {
+			byte genotype1 = genotypes1[i];
+			if(genotype1 == GenotypeMatrix.GENOTYPE_UNDECIDED || genotype1 == GenotypeMatrix.GENOTYPE_HETERO) continue;
+			byte genotype2 = genotypes.getGenotype(i, variantIdx2);
+			if(genotype2 == GenotypeMatrix.GENOTYPE_UNDECIDED || genotype2 == GenotypeMatrix.GENOTYPE_HETERO) continue;
+			shared++;
+			if(genotype1 == GenotypeMatrix.GENOTYPE_HOMOREF) {
+				n01++;
+				if(genotype2 == GenotypeMatrix.GENOTYPE_HOMOREF) n00++;
+			}
+			if(genotype2 == GenotypeMatrix.GENOTYPE_HOMOREF) n02++;
+		}
+		return buildStatistics(n00, n01, n02, shared);
+	}
 	public LDStatistics calculateLDStatistics(VCFRecord record1, VCFRecord record2) {
 		List<CalledGenomicVariant> calls1= record1.getCalls();
 		List<CalledGenomicVariant> calls2= record2.getCalls();
@@ -180,6 +214,9 @@ public class VCFLDCalculator {
 			}
 			if(call2.isHomozygousReference()) n02++;
 		}
+		return buildStatistics(n00, n01, n02, shared);
+	}
+	private LDStatistics buildStatistics(double n00, double n01, double n02, int shared) {
 		if(shared == 0) return new LDStatistics(0, 0, 0, shared);
 		double p00 = n00/shared;
 		double p01 = n01/shared;
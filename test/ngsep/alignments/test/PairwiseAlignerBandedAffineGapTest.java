@@ -0,0 +1,156 @@
+package ngsep.alignments.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import ngsep.alignments.PairwiseAlignerAffineGap;
+import ngsep.alignments.PairwiseAlignerBandedAffineGap;
+import ngsep.sequences.LimitedSequence;
+
+public class PairwiseAlignerBandedAffineGapTest extends TestCase {
+	private static final String ALPHABET = "ACGT";
+	
+	public void testRelatedSequences() {
+		Random r = new Random(17);
+		for(int t=0;t<400;t++) {
+			String s1 = randomSequence(r, 50+r.nextInt(550));
+			String s2 = mutate(r, s1);
+			compareAligners(s1, s2, r.nextInt(16));
+		}
+	}
+	
+	public void testUnrelatedSequences() {
+		Random r = new Random(23);
+		for(int t=0;t<200;t++) {
+			String s1 = randomSequence(r, 1+r.nextInt(600));
+			String s2 = randomSequence(r, 1+r.nextInt(600));
+			compareAligners(s1, s2, r.nextInt(16));
+		}
+		//Large difference in length with free start in the second sequence
+		String s1 = randomSequence(r, 584);
+		String s2 = randomSequence(r, 522);
+		for(int flags=0;flags<16;flags++) compareAligners(s1, s2, flags);
+	}
+	
+	public void testLargeIndels() {
+		Random r = new Random(31);
+		for(int t=0;t<200;t++) {
+			String s1 = randomSequence(r, 200+r.nextInt(400));
+			int start = r.nextInt(s1.length()-100);
+			int length = 40+r.nextInt(60);
+			String s2 = s1.substring(0, start)+s1.substring(start+length);
+			if(r.nextBoolean()) compareAligners(s1, s2, r.nextInt(16));
+			else compareAligners(s2, s1, r.nextInt(16));
+		}
+	}
+	
+	public void testBandTooLarge() {
+		Random r = new Random(37);
+		String s1 = randomSequence(r, 50000);
+		String s2 = randomSequence(r, 50000);
+		PairwiseAlignerBandedAffineGap bandedAligner = new PairwiseAlignerBandedAffineGap();
+		//Free ends in both sequences require a band covering the whole matrix
+		bandedAligner.setForceStart1(false);
+		bandedAligner.setForceStart2(false);
+		bandedAligner.setForceEnd1(false);
+		bandedAligner.setForceEnd2(false);
+		try {
+			bandedAligner.calculateAlignment(s1, s2);
+			fail("Matrix with more than "+Integer.MAX_VALUE+" cells should not be allocated");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+	}
+	
+	private void compareAligners(String s1, String s2, int flags) {
+		boolean forceStart1 = (flags & 1)!=0;
+		boolean forceStart2 = (flags & 2)!=0;
+		boolean forceEnd1 = (flags & 4)!=0;
+		boolean forceEnd2 = (flags & 8)!=0;
+		PairwiseAlignerAffineGap fullAligner = new PairwiseAlignerAffineGap(Math.max(s1.length(), s2.length())+1);
+		fullAligner.setForceStart1(forceStart1);
+		fullAligner.setForceStart2(forceStart2);
+		fullAligner.setForceEnd1(forceEnd1);
+		fullAligner.setForceEnd2(forceEnd2);
+		PairwiseAlignerBandedAffineGap bandedAligner = new PairwiseAlignerBandedAffineGap();
+		bandedAligner.setForceStart1(forceStart1);
+		bandedAligner.setForceStart2(forceStart2);
+		bandedAligner.setForceEnd1(forceEnd1);
+		bandedAligner.setForceEnd2(forceEnd2);
+		String [] alnFull = fullAligner.calculateAlignment(s1, s2);
+		String [] alnBanded = bandedAligner.calculateAlignment(s1, s2);
+		assertEquals(alnBanded[0].length(), alnBanded[1].length());
+		assertEquals(s1, removeGaps(alnBanded[0]));
+		assertEquals(s2, removeGaps(alnBanded[1]));
+		int scoreFull = score(alnFull, fullAligner, forceStart1, forceStart2, forceEnd1, forceEnd2);
+		int scoreBanded = score(alnBanded, fullAligner, forceStart1, forceStart2, forceEnd1, forceEnd2);
+		assertEquals("Different scores for lengths "+s1.length()+" "+s2.length()+" flags "+flags, scoreFull, scoreBanded);
+	}
+	
+	/**
+	 * Scores the given alignment with the rules of the dynamic programming of the affine gap aligners.
+	 * Leading and trailing gaps are free if the corresponding start or end is not forced
+	 */
+	private int score(String [] aln, PairwiseAlignerAffineGap params, boolean forceStart1, boolean forceStart2, boolean forceEnd1, boolean forceEnd2) {
+		String a1 = aln[0];
+		String a2 = aln[1];
+		int start = 0;
+		int end = a1.length();
+		if(!forceStart1 && isGap(a2, 0)) while(start<end && isGap(a2,start)) start++;
+		else if(!forceStart2 && isGap(a1, 0)) while(start<end && isGap(a1,start)) start++;
+		if(!forceEnd1 && isGap(a2, end-1)) while(end>start && isGap(a2,end-1)) end--;
+		else if(!forceEnd2 && isGap(a1, end-1)) while(end>start && isGap(a1,end-1)) end--;
+		int score = 0;
+		//0 for match, 1 for insertion, 2 for deletion
+		int lastState = 0;
+		for(int i=start;i<end;i++) {
+			int state = 0;
+			if(isGap(a2, i)) state = 1;
+			else if (isGap(a1, i)) state = 2;
+			if(state == 0) score += (a1.charAt(i)==a2.charAt(i))?params.getMatch():-params.getMismatch();
+			else if(state == lastState) score -= params.getExtGap();
+			else score -= params.getOpenGap();
+			lastState = state;
+		}
+		return score;
+	}
+	
+	private boolean isGap(String aln, int i) {
+		return aln.charAt(i)==LimitedSequence.GAP_CHARACTER;
+	}
+	
+	private String removeGaps(String aln) {
+		StringBuilder answer = new StringBuilder();
+		for(int i=0;i<aln.length();i++) {
+			if(!isGap(aln, i)) answer.append(aln.charAt(i));
+		}
+		return answer.toString();
+	}
+	
+	private String randomSequence(Random r, int length) {
+		StringBuilder answer = new StringBuilder(length);
+		for(int i=0;i<length;i++) answer.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+		return answer.toString();
+	}
+	
+	private String mutate(Random r, String seq) {
+		double rate = 0.02+0.15*r.nextDouble();
+		StringBuilder answer = new StringBuilder();
+		//Random clipping at both ends
+		int first = r.nextBoolean()?r.nextInt(seq.length()/4+1):0;
+		int last = r.nextBoolean()?seq.length()-r.nextInt(seq.length()/4+1):seq.length();
+		for(int i=first;i<last;i++) {
+			double p = r.nextDouble();
+			if(p<rate/2) answer.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+			else if(p<3*rate/4) continue;
+			else if(p<rate) {
+				answer.append(seq.charAt(i));
+				int length = 1+r.nextInt(5);
+				for(int j=0;j<length;j++) answer.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+			}
+			else answer.append(seq.charAt(i));
+		}
+		if(answer.length()==0) answer.append('A');
+		return answer.toString();
+	}
+}
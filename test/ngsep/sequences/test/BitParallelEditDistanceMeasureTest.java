@@ -0,0 +1,102 @@
+package ngsep.sequences.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import ngsep.sequences.BitParallelEditDistanceMeasure;
+
+public class BitParallelEditDistanceMeasureTest extends TestCase {
+	private static final String ALPHABET = "ACGT";
+	
+	private BitParallelEditDistanceMeasure measure = new BitParallelEditDistanceMeasure();
+	
+	public void testEmptySequences() {
+		compareWithDP("", "");
+		compareWithDP("", "ACGT");
+		compareWithDP("ACGTN", "");
+		assertEquals(0.0, measure.calculateNormalizedDistance("", ""));
+	}
+	
+	public void testBlockLimits() {
+		Random r = new Random(7);
+		int [] lengths = {1, 63, 64, 65, 127, 128, 129};
+		for(int l1:lengths) {
+			for(int l2:lengths) {
+				for(int t=0;t<5;t++) {
+					String s1 = randomSequence(r, l1, ALPHABET);
+					compareWithDP(s1, randomSequence(r, l2, ALPHABET));
+					compareWithDP(s1, mutate(r, s1, l2));
+				}
+			}
+			String s = randomSequence(r, l1, ALPHABET);
+			assertEquals(0.0, measure.calculateDistance(s, s));
+		}
+	}
+	
+	public void testSequencesWithN() {
+		Random r = new Random(11);
+		for(int t=0;t<200;t++) {
+			String s1 = randomSequence(r, 1+r.nextInt(200), "ACGTN");
+			String s2 = mutate(r, s1, 1+r.nextInt(200));
+			compareWithDP(s1, s2);
+		}
+		compareWithDP("NNNN", "NNNN");
+		compareWithDP("NNNN", "ACGT");
+		compareWithDP(randomSequence(r, 64, "N"), randomSequence(r, 65, "N"));
+	}
+	
+	public void testRandomSequences() {
+		Random r = new Random(13);
+		for(int t=0;t<300;t++) {
+			String s1 = randomSequence(r, 1+r.nextInt(400), ALPHABET);
+			String s2 = (r.nextBoolean())?mutate(r, s1, 1+r.nextInt(400)):randomSequence(r, 1+r.nextInt(400), ALPHABET);
+			compareWithDP(s1, s2);
+			compareWithDP(s2, s1);
+		}
+	}
+	
+	private void compareWithDP(String s1, String s2) {
+		int expected = calculateDistanceDP(s1, s2);
+		assertEquals("Different distance for lengths "+s1.length()+" "+s2.length(), (double)expected, measure.calculateDistance(s1, s2));
+	}
+	
+	/**
+	 * Edit distance with unit costs calculated with the standard dynamic programming
+	 */
+	private int calculateDistanceDP(String s1, String s2) {
+		int [][] scores = new int[s1.length()+1][s2.length()+1];
+		for(int i=0;i<=s1.length();i++) scores[i][0] = i;
+		for(int j=0;j<=s2.length();j++) scores[0][j] = j;
+		for(int i=1;i<=s1.length();i++) {
+			for(int j=1;j<=s2.length();j++) {
+				int diagonal = scores[i-1][j-1];
+				if(s1.charAt(i-1)!=s2.charAt(j-1)) diagonal++;
+				scores[i][j] = Math.min(diagonal, Math.min(scores[i-1][j], scores[i][j-1])+1);
+			}
+		}
+		return scores[s1.length()][s2.length()];
+	}
+	
+	private String randomSequence(Random r, int length, String alphabet) {
+		StringBuilder answer = new StringBuilder(length);
+		for(int i=0;i<length;i++) answer.append(alphabet.charAt(r.nextInt(alphabet.length())));
+		return answer.toString();
+	}
+	
+	/**
+	 * Introduces random substitutions and indels in the given sequence and adjusts the result to the given length
+	 */
+	private String mutate(Random r, String seq, int length) {
+		StringBuilder answer = new StringBuilder();
+		for(int i=0;i<seq.length() && answer.length()<length;i++) {
+			double p = r.nextDouble();
+			if(p<0.05) answer.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+			else if(p<0.08) continue;
+			else if(p<0.11) answer.append(seq.charAt(i)).append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+			else answer.append(seq.charAt(i));
+		}
+		while(answer.length()<length) answer.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+		answer.setLength(length);
+		return answer.toString();
+	}
+}
@@ -0,0 +1,127 @@
+package ngsep.sequences.test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import ngsep.sequences.KmerHitsIndex;
+import ngsep.sequences.MinimizersTableEntry;
+
+public class KmerHitsIndexTest extends TestCase {
+	private Random random = new Random(17);
+
+	public void testAddAndFreeze() {
+		//Small capacity to resize the keys table
+		KmerHitsIndex index = new KmerHitsIndex(4);
+		Map<Integer,List<Long>> expected = new HashMap<>();
+		Map<Integer,Integer> sequenceCounts = new HashMap<>();
+		for(int round=0;round<3;round++) {
+			//Hits added after the first round are merged with hits already frozen
+			for(int i=0;i<2000;i++) {
+				int key = random.nextInt(500)-250;
+				List<MinimizersTableEntry> entries = createEntries(key, 1+random.nextInt(5));
+				assertTrue(index.addHits(key, entries));
+				List<Long> hits = expected.computeIfAbsent(key, k->new ArrayList<>());
+				for(MinimizersTableEntry entry:entries) hits.add(entry.encode());
+				sequenceCounts.merge(key, 1, Integer::sum);
+			}
+			assertIndex(expected, sequenceCounts, index);
+		}
+		assertFalse(index.containsKey(1000));
+		assertEquals(0, index.lookupHits(1000).length);
+		assertEquals(0, index.lookupHits(1000, new long[10]));
+	}
+
+	public void testMaxHitsPerKey() {
+		KmerHitsIndex index = new KmerHitsIndex(16);
+		assertTrue(index.addHits(3, createEntries(3, KmerHitsIndex.MAX_HITS_PER_KEY-10)));
+		assertFalse(index.addHits(3, createEntries(3, 10)));
+		assertTrue(index.addHits(3, createEntries(3, 9)));
+		assertEquals(KmerHitsIndex.MAX_HITS_PER_KEY-1, index.getNumHits(3));
+		assertEquals(2, index.getCountDifferentSequences(3));
+		assertEquals(KmerHitsIndex.MAX_HITS_PER_KEY-1, index.lookupHits(3).length);
+	}
+
+	public void testPagesAndSaveLoad() throws Exception {
+		//More than one page of hits
+		int numKeys = 600;
+		int hitsPerKey = 30000;
+		KmerHitsIndex index = new KmerHitsIndex(16);
+		for(int key=0;key<numKeys;key++) {
+			//Hits are added in two calls to interleave the hits of different keys in the staging area
+			assertTrue(index.addHits(key, createEntries(key, 0, hitsPerKey/2)));
+		}
+		for(int key=0;key<numKeys;key++) {
+			assertTrue(index.addHits(key, createEntries(key, hitsPerKey/2, hitsPerKey)));
+		}
+		assertEquals((long)numKeys*hitsPerKey, index.getTotalHits());
+		assertTrue(index.getTotalHits()>1<<24);
+		long [] buffer = new long [hitsPerKey];
+		for(int key=0;key<numKeys;key++) {
+			assertEquals(hitsPerKey, index.lookupHits(key, buffer));
+			for(int i=0;i<hitsPerKey;i++) assertEquals(new MinimizersTableEntry(key, key, i).encode(), buffer[i]);
+		}
+		File file = File.createTempFile("kmerHitsIndex", ".bin");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+				index.save(out);
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+				KmerHitsIndex loaded = KmerHitsIndex.load(channel);
+				assertEquals(numKeys, loaded.size());
+				assertEquals(index.getTotalHits(), loaded.getTotalHits());
+				for(int key=0;key<numKeys;key++) {
+					assertEquals(2, loaded.getCountDifferentSequences(key));
+					assertEquals(hitsPerKey, loaded.getNumHits(key));
+					long [] hits = loaded.lookupHits(key);
+					assertEquals(hitsPerKey, hits.length);
+					for(int i=0;i<hitsPerKey;i+=100) assertEquals(new MinimizersTableEntry(key, key, i).encode(), hits[i]);
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private void assertIndex(Map<Integer,List<Long>> expected, Map<Integer,Integer> sequenceCounts, KmerHitsIndex index) {
+		assertEquals(expected.size(), index.size());
+		long totalHits = 0;
+		//Small buffer to check partial copies
+		long [] buffer = new long [3];
+		for(Map.Entry<Integer,List<Long>> entry:expected.entrySet()) {
+			int key = entry.getKey();
+			List<Long> hits = entry.getValue();
+			totalHits+=hits.size();
+			assertTrue(index.containsKey(key));
+			assertEquals(hits.size(), index.getNumHits(key));
+			assertEquals(sequenceCounts.get(key).intValue(), index.getCountDifferentSequences(key));
+			long [] actual = index.lookupHits(key);
+			assertEquals(hits.size(), actual.length);
+			for(int i=0;i<actual.length;i++) assertEquals(hits.get(i).longValue(), actual[i]);
+			assertEquals(hits.size(), index.lookupHits(key, buffer));
+			for(int i=0;i<Math.min(buffer.length, hits.size());i++) assertEquals(hits.get(i).longValue(), buffer[i]);
+		}
+		assertEquals(totalHits, index.getTotalHits());
+	}
+
+	private List<MinimizersTableEntry> createEntries(int key, int n) {
+		List<MinimizersTableEntry> entries = new ArrayList<>(n);
+		for(int i=0;i<n;i++) entries.add(new MinimizersTableEntry(key, random.nextInt(1000), random.nextInt(100000)));
+		return entries;
+	}
+
+	private static List<MinimizersTableEntry> createEntries(int key, int first, int last) {
+		List<MinimizersTableEntry> entries = new ArrayList<>(last-first);
+		for(int i=first;i<last;i++) entries.add(new MinimizersTableEntry(key, key, i));
+		return entries;
+	}
+}
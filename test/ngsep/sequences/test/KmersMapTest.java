@@ -0,0 +1,165 @@
+package ngsep.sequences.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import ngsep.sequences.AbstractLimitedSequence;
+import ngsep.sequences.DNASequence;
+import ngsep.sequences.DefaultKmersMapImpl;
+import ngsep.sequences.KmersExtractor;
+import ngsep.sequences.KmersMap;
+import ngsep.sequences.OpenAddressingDNAKmersMapImpl;
+import ngsep.sequences.ShortArrayDNAKmersMapImpl;
+
+public class KmersMapTest extends TestCase {
+	private static final String ALPHABET = "ACGT";
+	private Random random = new Random(31);
+
+	public void testShortArrayAndOpenAddressing() {
+		byte kmerLength = 11;
+		List<String> sequences = createSequences(50, 500, 20);
+		KmersMap expected = new ShortArrayDNAKmersMapImpl(kmerLength);
+		OpenAddressingDNAKmersMapImpl map = new OpenAddressingDNAKmersMapImpl(kmerLength, 16);
+		for(String seq:sequences) {
+			for(int i=0;i+kmerLength<=seq.length();i++) {
+				String kmer = seq.substring(i, i+kmerLength);
+				expected.addOcurrance(kmer);
+				map.addOcurrance(kmer);
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		assertSameCounts(expected, map, sequences, kmerLength);
+		map.filterKmers(2);
+		expected.filterKmers(2);
+		assertEquals(expected.size(), map.size());
+		assertSameCounts(expected, map, sequences, kmerLength);
+	}
+
+	public void testConcurrentOpenAddressing() throws Exception {
+		byte kmerLength = 21;
+		List<String> sequences = createSequences(400, 1000, 50);
+		KmersMap expected = new DefaultKmersMapImpl();
+		for(String seq:sequences) {
+			for(int i=0;i+kmerLength<=seq.length();i++) expected.addOcurrance(seq.substring(i, i+kmerLength));
+		}
+		//Small initial capacity to increase the capacity while threads add codes
+		OpenAddressingDNAKmersMapImpl map = new OpenAddressingDNAKmersMapImpl(kmerLength, 16);
+		int numThreads = 4;
+		List<Thread> threads = new ArrayList<>();
+		for(int t=0;t<numThreads;t++) {
+			final int thread = t;
+			threads.add(new Thread(()-> {
+				for(int s=thread;s<sequences.size();s+=numThreads) {
+					long [] codes = getCodes(sequences.get(s), kmerLength);
+					//Each thread uses a different method to add codes
+					if(thread==0) map.addCodeOccurances(codes, 0, codes.length);
+					else if (thread==1) for(long code:codes) map.addCodeOccurance(code);
+					else for(long code:codes) map.addCodeOccuranceBuffered(code);
+				}
+			}));
+		}
+		for(Thread thread:threads) thread.start();
+		for(Thread thread:threads) thread.join();
+		map.flushBuffers();
+		assertEquals(expected.size(), map.size());
+		assertSameCounts(expected, map, sequences, kmerLength);
+
+		String seq = sequences.get(0);
+		long [] codes = getCodes(seq, kmerLength);
+		int [] counts = new int [codes.length];
+		map.getCounts(codes, 0, codes.length, counts);
+		for(int i=0;i<codes.length;i++) assertEquals(expected.getCount(seq.substring(i, i+kmerLength)), counts[i]);
+
+		//Counts set in batch replace the previous counts
+		OpenAddressingDNAKmersMapImpl copy = new OpenAddressingDNAKmersMapImpl(kmerLength, 16);
+		copy.setCounts(codes, counts, 0, codes.length);
+		for(int i=0;i<codes.length;i++) assertEquals(counts[i], copy.getCount(codes[i]));
+	}
+
+	public void testPartitions() throws Exception {
+		int kmerLength = 21;
+		List<String> sequences = createSequences(200, 1000, 50);
+		KmersExtractor extractor = new KmersExtractor();
+		extractor.setKmerLength(kmerLength);
+		extractor.setNumThreads(2);
+		for(String seq:sequences) extractor.countSequenceKmers(seq);
+		KmersMap expected = extractor.getKmersMap();
+		assertTrue(expected instanceof OpenAddressingDNAKmersMapImpl);
+
+		File outDir = File.createTempFile("kmersPartitions", "");
+		assertTrue(outDir.delete());
+		assertTrue(outDir.mkdir());
+		String prefix = new File(outDir,"test").getAbsolutePath();
+		KmersExtractor partitionsExtractor = new KmersExtractor();
+		partitionsExtractor.setKmerLength(kmerLength);
+		partitionsExtractor.setNumPartitions(3);
+		partitionsExtractor.setNumThreads(2);
+		partitionsExtractor.setMinKmerCount(1);
+		partitionsExtractor.setOutputPrefix(prefix);
+		for(String seq:sequences) partitionsExtractor.countSequenceKmers(seq);
+		partitionsExtractor.saveResults();
+		try {
+			partitionsExtractor.getKmersMap();
+			fail("The k-mers map should not be available after counting in partitions");
+		} catch (IllegalStateException e) {
+			//Expected
+		}
+		int numKmers = 0;
+		File kmersFile = new File(prefix+"_kmers.txt.gz");
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(kmersFile))))) {
+			String line = in.readLine();
+			while(line!=null) {
+				String [] items = line.split("\t");
+				assertEquals(expected.getCount(items[0]), Integer.parseInt(items[1]));
+				numKmers++;
+				line = in.readLine();
+			}
+		}
+		assertEquals(expected.size(), numKmers);
+		for(File f:outDir.listFiles()) f.delete();
+		outDir.delete();
+	}
+
+	private static void assertSameCounts(KmersMap expected, KmersMap actual, List<String> sequences, int kmerLength) {
+		for(String seq:sequences) {
+			for(int i=0;i+kmerLength<=seq.length();i++) {
+				String kmer = seq.substring(i, i+kmerLength);
+				assertEquals(expected.getCount(kmer), actual.getCount(kmer));
+			}
+		}
+	}
+
+	private static long [] getCodes(String seq, int kmerLength) {
+		long [] codes = new long [seq.length()-kmerLength+1];
+		for(int i=0;i<codes.length;i++) codes[i] = AbstractLimitedSequence.getHash(seq, i, i+kmerLength, DNASequence.EMPTY_DNA_SEQUENCE);
+		return codes;
+	}
+
+	/**
+	 * Creates random sequences copying segments of previous sequences to obtain repeated k-mers
+	 */
+	private List<String> createSequences(int n, int length, int copyLength) {
+		List<String> sequences = new ArrayList<>();
+		for(int i=0;i<n;i++) {
+			StringBuilder seq = new StringBuilder();
+			while(seq.length()<length) {
+				if(i>0 && random.nextBoolean()) {
+					String source = sequences.get(random.nextInt(i));
+					int start = random.nextInt(source.length()-copyLength);
+					seq.append(source, start, start+copyLength);
+				} else {
+					for(int j=0;j<copyLength;j++) seq.append(ALPHABET.charAt(random.nextInt(4)));
+				}
+			}
+			sequences.add(seq.toString());
+		}
+		return sequences;
+	}
+}
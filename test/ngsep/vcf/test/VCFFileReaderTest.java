@@ -0,0 +1,174 @@
+package ngsep.vcf.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import ngsep.variants.CalledGenomicVariant;
+import ngsep.variants.CalledSNV;
+import ngsep.variants.SNV;
+import ngsep.vcf.VCFFileReader;
+import ngsep.vcf.VCFRecord;
+
+public class VCFFileReaderTest extends TestCase {
+	private static final String HEADER = "##fileformat=VCFv4.2\n"
+			+ "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+			+ "##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"Allele depths\">\n"
+			+ "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read depth\">\n"
+			+ "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality\">\n"
+			+ "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\n";
+	private static final String VCF = HEADER
+			+ "chr1\t100\trs1\tA\tG\t50\tPASS\tDP=18\tGT:AD:DP:GQ\t0/1:4,6:10:35\t1/1:0,8:8:40\t./.:.:.:.\n"
+			//Less than eight columns
+			+ "chr1\t150\t.\tA\n"
+			//Position is not a number
+			+ "chr1\tabc\t.\tA\tG\t50\tPASS\t.\tGT\t0/0\t0/0\t0/0\n"
+			//Two samples instead of three
+			+ "chr1\t200\t.\tC\tT\t30\tPASS\t.\tGT\t0/0\t0/1\n"
+			+ "chr1\t300\t.\tA\tC,T\t60\tPASS\t.\tGT:AD:DP:GQ\t1/2:0,5,7:12:20\t0/2:3,0,4:7:15\t2|1:0,2,2:4:10\n"
+			//Trailing format fields missing
+			+ "chr1\t400\t.\tG\tC\t40\tPASS\t.\tGT:AD:DP:GQ\t0/1\t.\t1/1:0,9\n"
+			//Called allele not present in the variant
+			+ "chr1\t500\t.\tT\tG\t20\tPASS\t.\tGT\t0/3\t1/1\t0/0\n"
+			//More sample fields than format fields
+			+ "chr2\t600\t.\tC\tA\t20\tPASS\t.\tGT\t0/1:5\t0/0\t0/0\n";
+	
+	public void testMalformedLines() throws IOException {
+		List<String> messages = new ArrayList<>();
+		List<VCFRecord> records = load(VCFFileReader.LOAD_MODE_CALLINFO, messages);
+		assertEquals(5, records.size());
+		int [] positions = {100, 300, 400, 500, 600};
+		for(int i=0;i<positions.length;i++) assertEquals(positions[i], records.get(i).getFirst());
+		assertEquals(5, messages.size());
+		assertTrue(messages.get(0).contains("at least 8 columns"));
+		assertTrue(messages.get(1).contains("Position must be a positive number"));
+		assertTrue(messages.get(2).contains("Number of genotyped samples"));
+		assertTrue(messages.get(3).contains("Inconsistent called allele 3"));
+		assertTrue(messages.get(4).contains("does not match format"));
+		
+		VCFRecord record = records.get(3);
+		assertTrue(record.getCalls().get(0).isUndecided());
+		assertTrue(record.getCalls().get(1).isHomozygous());
+		assertTrue(record.getCalls().get(2).isHomozygousReference());
+		record = records.get(4);
+		assertEquals("chr2", record.getSequenceName());
+		assertTrue(record.getCalls().get(0).isUndecided());
+		assertTrue(record.getCalls().get(1).isHomozygousReference());
+	}
+	
+	public void testBiallelicRecord() throws IOException {
+		VCFRecord record = load(VCFFileReader.LOAD_MODE_CALLINFO, null).get(0);
+		assertTrue(record.getVariant() instanceof SNV);
+		assertEquals("rs1", record.getVariant().getId());
+		assertEquals(50, record.getVariant().getVariantQS());
+		List<CalledGenomicVariant> calls = record.getCalls();
+		assertEquals(3, calls.size());
+		CalledSNV call = (CalledSNV) calls.get(0);
+		assertEquals("S1", call.getSampleId());
+		assertTrue(call.isHeterozygous());
+		assertEquals(10, call.getTotalReadDepth());
+		assertEquals(35, call.getGenotypeQuality());
+		assertEquals(4, call.getCountReference());
+		assertEquals(6, call.getCountAlternative());
+		call = (CalledSNV) calls.get(1);
+		assertEquals(CalledSNV.GENOTYPE_HOMOALT, call.getGenotype());
+		assertEquals(40, call.getGenotypeQuality());
+		assertTrue(calls.get(2).isUndecided());
+	}
+	
+	public void testMultiallelicRecord() throws IOException {
+		VCFRecord record = load(VCFFileReader.LOAD_MODE_CALLINFO, null).get(1);
+		assertFalse(record.getVariant() instanceof SNV);
+		assertFalse(record.getVariant().isBiallelic());
+		assertEquals(3, record.getVariant().getAlleles().length);
+		List<CalledGenomicVariant> calls = record.getCalls();
+		CalledGenomicVariant call = calls.get(0);
+		assertTrue(call.isHeterozygous());
+		assertEquals(2, call.getIndexesCalledAlleles().length);
+		assertEquals(1, call.getIndexesCalledAlleles()[0]);
+		assertEquals(2, call.getIndexesCalledAlleles()[1]);
+		assertEquals("C", call.getCalledAlleles()[0]);
+		assertEquals("T", call.getCalledAlleles()[1]);
+		assertEquals(12, call.getTotalReadDepth());
+		assertEquals(20, call.getGenotypeQuality());
+		assertFalse(call.isPhased());
+		call = calls.get(1);
+		assertEquals(0, call.getIndexesCalledAlleles()[0]);
+		assertEquals(2, call.getIndexesCalledAlleles()[1]);
+		call = calls.get(2);
+		assertTrue(call.isPhased());
+		assertEquals(2, call.getIndexesPhasedAlleles()[0]);
+		assertEquals(1, call.getIndexesPhasedAlleles()[1]);
+		assertEquals(4, call.getTotalReadDepth());
+	}
+	
+	public void testMissingFormatFields() throws IOException {
+		VCFRecord record = load(VCFFileReader.LOAD_MODE_CALLINFO, null).get(2);
+		List<CalledGenomicVariant> calls = record.getCalls();
+		CalledSNV call = (CalledSNV) calls.get(0);
+		assertTrue(call.isHeterozygous());
+		assertEquals(0, call.getGenotypeQuality());
+		assertTrue(calls.get(1).isUndecided());
+		call = (CalledSNV) calls.get(2);
+		assertEquals(CalledSNV.GENOTYPE_HOMOALT, call.getGenotype());
+		assertEquals(0, call.getCountReference());
+		assertEquals(9, call.getCountAlternative());
+		assertEquals(0, call.getGenotypeQuality());
+	}
+	
+	public void testLoadModes() throws IOException {
+		CalledGenomicVariant call = load(VCFFileReader.LOAD_MODE_MINIMAL, null).get(0).getCalls().get(0);
+		assertTrue(call.isHeterozygous());
+		assertEquals(0, call.getGenotypeQuality());
+		assertEquals(0, call.getTotalReadDepth());
+		
+		call = load(VCFFileReader.LOAD_MODE_QUALITY, null).get(0).getCalls().get(0);
+		assertTrue(call.isHeterozygous());
+		assertEquals(35, call.getGenotypeQuality());
+		assertEquals(0, call.getTotalReadDepth());
+		
+		call = load(VCFFileReader.LOAD_MODE_COPY_NUMBER, null).get(0).getCalls().get(0);
+		assertTrue(call.isHeterozygous());
+		assertEquals(0, call.getGenotypeQuality());
+		
+		//The multiallelic genotypes do not depend on the load mode
+		for(int mode=VCFFileReader.LOAD_MODE_CALLINFO;mode<=VCFFileReader.LOAD_MODE_MINIMAL;mode++) {
+			List<VCFRecord> records = load(mode, null);
+			assertEquals(5, records.size());
+			call = records.get(1).getCalls().get(2);
+			assertTrue(call.isPhased());
+			assertEquals(2, call.getIndexesPhasedAlleles()[0]);
+			assertEquals(1, call.getIndexesPhasedAlleles()[1]);
+		}
+	}
+	
+	private List<VCFRecord> load(int loadMode, List<String> messages) throws IOException {
+		List<VCFRecord> records = new ArrayList<>();
+		try (VCFFileReader in = new VCFFileReader(new ByteArrayInputStream(VCF.getBytes(StandardCharsets.UTF_8)))) {
+			Logger log = Logger.getAnonymousLogger();
+			log.setUseParentHandlers(false);
+			log.addHandler(new Handler() {
+				@Override
+				public void publish(LogRecord record) {
+					if(messages!=null) messages.add(record.getMessage());
+				}
+				@Override
+				public void flush() {}
+				@Override
+				public void close() {}
+			});
+			in.setLog(log);
+			in.setLoadMode(loadMode);
+			Iterator<VCFRecord> it = in.iterator();
+			while(it.hasNext()) records.add(it.next());
+		}
+		return records;
+	}
+}
@@ -0,0 +1,96 @@
+package ngsep.vcf.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ngsep.vcf.GenotypeMatrix;
+import ngsep.vcf.VCFFileReader;
+import ngsep.vcf.VCFLDCalculator;
+import ngsep.vcf.VCFRecord;
+
+public class VCFLDCalculatorTest extends TestCase {
+	private static final String HEADER = "##fileformat=VCFv4.2\n"
+			+ "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+			+ "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\tS4\tS5\tS6\n";
+	private static final String VCF = HEADER
+			+ "chr1\t100\t.\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/0\t0/0\t1/1\t1/1\t0/1\n"
+			+ "chr1\t200\t.\tC\tT\t.\tPASS\t.\tGT\t0/0\t0/0\t1/1\t1/1\t1/1\t0/0\n"
+			+ "chr1\t300\t.\tA\tC,T\t.\tPASS\t.\tGT\t0/0\t1/1\t2/2\t0/0\t1/1\t2/2\n"
+			+ "chr1\t400\t.\tG\tA\t.\tPASS\t.\tGT\t1/1\t./.\t0/0\t0/0\t1/1\t0/0\n"
+			+ "chr2\t50\t.\tT\tA\t.\tPASS\t.\tGT\t0/0\t1/1\t0/0\t1/1\t0/0\t1/1\n"
+			+ "chr2\t80\t.\tG\tC\t.\tPASS\t.\tGT\t0/0\t1/1\t0/0\t1/1\t0/0\t1/1\n";
+	
+	public void testBiallelicFilterAndStatistics() throws IOException {
+		String [] lines = runCalculator().split("\n");
+		//Three pairs in chr1 without the multiallelic variant and one pair in chr2
+		assertEquals(4, lines.length);
+		for(String line:lines) {
+			String [] items = line.split("\t");
+			assertFalse("300".equals(items[1]));
+			assertFalse("300".equals(items[4]));
+		}
+		assertEquals("chr1\t100\t100\tchr1\t200\t200\t100\t5\t0.16\t1.0\t0.4444", lines[0]);
+		assertEquals("chr1\t100\t100\tchr1\t400\t400\t300\t4\t0.0\t0.0\t0.0", lines[1]);
+		assertEquals("chr1\t200\t200\tchr1\t400\t400\t200\t5\t-0.04\t-0.1667\t0.0278", lines[2]);
+		assertEquals("chr2\t50\t50\tchr2\t80\t80\t30\t6\t0.25\t1.0\t1.0", lines[3]);
+	}
+	
+	public void testHandComputedStatistics() throws IOException {
+		String vcf = "##fileformat=VCFv4.2\n"
+				+ "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+				+ "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\tS4\tS5\tS6\tS7\tS8\n"
+				+ "chr1\t10\t.\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/0\t0/0\t0/0\t1/1\t1/1\t1/1\t1/1\n"
+				+ "chr1\t20\t.\tC\tT\t.\tPASS\t.\tGT\t1/1\t1/1\t1/1\t0/0\t0/0\t0/0\t1/1\t0/0\n"
+				+ "chr1\t35\t.\tG\tA\t.\tPASS\t.\tGT\t0/1\t./.\t0/0\t0/0\t1/1\t1/1\t1/1\t0/0\n";
+		List<VCFRecord> records = new ArrayList<>();
+		GenotypeMatrix matrix;
+		try (VCFFileReader in = new VCFFileReader(new ByteArrayInputStream(vcf.getBytes(StandardCharsets.UTF_8)))) {
+			matrix = new GenotypeMatrix(in.getHeader().getSampleIds());
+			Iterator<VCFRecord> it = in.iterator();
+			while(it.hasNext()) {
+				VCFRecord record = it.next();
+				records.add(record);
+				matrix.addRecord(record);
+			}
+		}
+		assertEquals(3, matrix.getNumVariants());
+		assertEquals(GenotypeMatrix.GENOTYPE_HETERO, matrix.getGenotype(0, 2));
+		assertEquals(GenotypeMatrix.GENOTYPE_UNDECIDED, matrix.getGenotype(1, 2));
+		assertEquals(GenotypeMatrix.GENOTYPE_HOMOALT, matrix.getGenotype(4, 0));
+		VCFLDCalculator calculator = new VCFLDCalculator();
+		ByteArrayOutputStream outMatrix = new ByteArrayOutputStream();
+		try (PrintStream out = new PrintStream(outMatrix)) {
+			calculator.calculateLDStatistics(matrix, out);
+		}
+		String [] lines = outMatrix.toString().split("\n");
+		assertEquals(3, lines.length);
+		//Eight shared samples. p(ref,ref)=1/8, p(ref1)=p(ref2)=1/2. D=1/8-1/4
+		assertEquals("chr1\t10\t10\tchr1\t20\t20\t10\t8\t-0.125\t-0.5\t0.25", lines[0]);
+		//S1 and S2 are not shared. p(ref,ref)=1/3, p(ref1)=1/3, p(ref2)=1/2. D=1/3-1/6
+		assertEquals("chr1\t10\t10\tchr1\t35\t35\t25\t6\t0.1667\t1.0\t0.5", lines[1]);
+		//p(ref,ref)=1/3, p(ref1)=2/3, p(ref2)=1/2. The variants are independent
+		assertEquals("chr1\t20\t20\tchr1\t35\t35\t15\t6\t0.0\t0.0\t0.0", lines[2]);
+		//Statistics calculated from the records should be the same
+		ByteArrayOutputStream outRecords = new ByteArrayOutputStream();
+		try (PrintStream out = new PrintStream(outRecords)) {
+			calculator.calculateLDStatistics(records, out);
+		}
+		assertEquals(outMatrix.toString(), outRecords.toString());
+	}
+	
+	private String runCalculator() throws IOException {
+		VCFLDCalculator calculator = new VCFLDCalculator();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (PrintStream out = new PrintStream(output)) {
+			calculator.run(new ByteArrayInputStream(VCF.getBytes(StandardCharsets.UTF_8)), out);
+		}
+		return output.toString();
+	}
+}